@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Indicates version of Salesforce Bulk API used to read or write records.
+ */
+public enum BulkApiVersion {
+
+  /**
+   * Jobs consist of batches created and polled by the plugin.
+   */
+  V1("1.0"),
+
+  /**
+   * Jobs are batched by Salesforce, data is uploaded or downloaded per job.
+   */
+  V2("2.0");
+
+  private final String value;
+
+  BulkApiVersion(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Converts bulk api version string value into {@link BulkApiVersion} enum.
+   *
+   * @param stringValue bulk api version string value
+   * @return bulk api version in optional container
+   */
+  public static Optional<BulkApiVersion> fromValue(String stringValue) {
+    return Stream.of(values())
+      .filter(version -> version.value.equals(stringValue))
+      .findAny();
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.salesforce;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls bulk batch statuses on behalf of all record readers running in the same JVM.
+ * <p/>
+ * Instead of polling each batch separately, status of all batches of a job is obtained
+ * with a single {@link BulkConnection#getBatchInfoList(String)} call. Waiting readers are notified
+ * through futures once their batch is completed, failed or timed out. Poll interval grows exponentially
+ * with jitter while no batch of the job changes its state, so API usage depends on the number of jobs
+ * rather than on the number of splits.
+ * <p/>
+ * Job is polled with the bulk connection of the reader which registered a batch of the job last, so that
+ * polling does not depend on the connection of a reader which may have already finished. Failed polls are
+ * retried with the same backoff, waiting readers are failed only after several consecutive failures.
+ * <p/>
+ * Polls are only timed by the scheduler thread, the blocking API calls are made by a small pool of I/O threads,
+ * so that a slow or throttled job does not delay polls of other jobs.
+ */
+public final class BulkBatchStatusPoller {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BulkBatchStatusPoller.class);
+
+  /**
+   * Salesforce Bulk API has a limitation, which is 10 minutes per processing of a batch
+   */
+  private static final long BATCH_WAIT_TIME_MS = TimeUnit.MINUTES.toMillis(10);
+  private static final long INITIAL_POLL_INTERVAL_MS = 500;
+  private static final long MAX_POLL_INTERVAL_MS = 10_000;
+  /**
+   * Max share of the poll interval added as a random jitter
+   */
+  private static final double JITTER_FACTOR = 0.2;
+  private static final int MAX_POLL_FAILURES = 5;
+  /**
+   * Max number of jobs polled concurrently, each job is polled by at most one thread at a time.
+   */
+  private static final int POLL_THREADS = 4;
+
+  private static final BulkBatchStatusPoller INSTANCE =
+    new BulkBatchStatusPoller(INITIAL_POLL_INTERVAL_MS, MAX_POLL_INTERVAL_MS, BATCH_WAIT_TIME_MS);
+
+  private final long initialPollIntervalMs;
+  private final long maxPollIntervalMs;
+  private final long batchWaitTimeMs;
+  private final ScheduledExecutorService scheduler;
+  private final ExecutorService pollExecutor;
+  // key -> [job id], value -> job batches awaited by readers
+  private final Map<String, JobPoll> jobs = new HashMap<>();
+
+  public static BulkBatchStatusPoller getInstance() {
+    return INSTANCE;
+  }
+
+  @VisibleForTesting
+  BulkBatchStatusPoller(long initialPollIntervalMs, long maxPollIntervalMs, long batchWaitTimeMs) {
+    this.initialPollIntervalMs = initialPollIntervalMs;
+    this.maxPollIntervalMs = maxPollIntervalMs;
+    this.batchWaitTimeMs = batchWaitTimeMs;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("salesforce-batch-status-scheduler").build());
+    this.pollExecutor = Executors.newFixedThreadPool(
+      POLL_THREADS,
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("salesforce-batch-status-poller-%d").build());
+  }
+
+  /**
+   * Registers batch to be awaited. Returned future is completed with batch info once the batch is completed,
+   * or completed exceptionally with {@link BulkAPIBatchException} if the batch failed or timed out.
+   *
+   * @param bulkConnection bulk connection used to poll job batches from now on
+   * @param jobId a job id
+   * @param batchId a batch id
+   * @param metrics metrics poll calls are counted in from now on
+   * @return future of completed batch info
+   */
+  public synchronized CompletableFuture<BatchInfo> awaitBatch(BulkConnection bulkConnection,
+                                                              String jobId, String batchId,
+                                                              SalesforceMetrics metrics) {
+    JobPoll jobPoll = jobs.get(jobId);
+    if (jobPoll == null) {
+      jobPoll = new JobPoll(bulkConnection, jobId, initialPollIntervalMs, metrics);
+      jobs.put(jobId, jobPoll);
+      JobPoll newJobPoll = jobPoll;
+      pollExecutor.execute(() -> poll(newJobPoll));
+    } else {
+      jobPoll.bulkConnection = bulkConnection;
+      jobPoll.metrics = metrics;
+    }
+    long deadline = System.currentTimeMillis() + batchWaitTimeMs;
+    return jobPoll.waiters.computeIfAbsent(batchId, id -> new BatchWaiter(deadline)).future;
+  }
+
+  private void poll(JobPoll jobPoll) {
+    BulkConnection bulkConnection;
+    SalesforceMetrics metrics;
+    synchronized (this) {
+      bulkConnection = jobPoll.bulkConnection;
+      metrics = jobPoll.metrics;
+    }
+
+    BatchInfo[] batches;
+    try {
+      SalesforceApiGovernor governor = SalesforceApiGovernor.of(bulkConnection.getConfig());
+      batches = SalesforceBulkUtil.withSessionRenewal(bulkConnection, () -> governor.call(
+        "bulk.getBatchInfoList", metrics, () -> bulkConnection.getBatchInfoList(jobPoll.jobId)))
+        .getBatchInfo();
+    } catch (Throwable e) {
+      synchronized (this) {
+        if (++jobPoll.failures < MAX_POLL_FAILURES) {
+          LOG.debug("Failed to get batches of the job '{}', attempt {} of {}",
+                    jobPoll.jobId, jobPoll.failures, MAX_POLL_FAILURES, e);
+          scheduleNextPoll(jobPoll, false);
+          return;
+        }
+        LOG.debug("Failed to get batches of the job '{}'", jobPoll.jobId, e);
+        jobs.remove(jobPoll.jobId);
+        jobPoll.waiters.values().forEach(waiter -> waiter.future.completeExceptionally(e));
+      }
+      return;
+    }
+
+    synchronized (this) {
+      jobPoll.failures = 0;
+      boolean progress = false;
+      long now = System.currentTimeMillis();
+      for (BatchInfo batchInfo : batches) {
+        BatchWaiter waiter = jobPoll.waiters.get(batchInfo.getId());
+        if (waiter == null) {
+          continue;
+        }
+        if (batchInfo.getState() == BatchStateEnum.Completed) {
+          waiter.future.complete(batchInfo);
+        } else if (batchInfo.getState() == BatchStateEnum.Failed) {
+          waiter.future.completeExceptionally(new BulkAPIBatchException("Batch failed", batchInfo));
+        } else if (now >= waiter.deadline) {
+          waiter.future.completeExceptionally(
+            new BulkAPIBatchException("Timeout waiting for batch results", batchInfo));
+        } else {
+          continue;
+        }
+        jobPoll.waiters.remove(batchInfo.getId());
+        progress = true;
+      }
+
+      // batches which are not yet visible in the job
+      Iterator<Map.Entry<String, BatchWaiter>> iterator = jobPoll.waiters.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<String, BatchWaiter> entry = iterator.next();
+        if (now >= entry.getValue().deadline) {
+          BatchInfo batchInfo = new BatchInfo();
+          batchInfo.setId(entry.getKey());
+          entry.getValue().future.completeExceptionally(
+            new BulkAPIBatchException("Timeout waiting for batch results", batchInfo));
+          iterator.remove();
+        }
+      }
+
+      if (jobPoll.waiters.isEmpty()) {
+        jobs.remove(jobPoll.jobId);
+        return;
+      }
+
+      scheduleNextPoll(jobPoll, progress);
+    }
+  }
+
+  /**
+   * Schedules the next poll of the job. Poll interval is reset if any batch changed its state,
+   * otherwise it is doubled up to the max interval.
+   */
+  private void scheduleNextPoll(JobPoll jobPoll, boolean progress) {
+    jobPoll.pollIntervalMs = progress
+      ? initialPollIntervalMs
+      : Math.min(jobPoll.pollIntervalMs * 2, maxPollIntervalMs);
+    long jitter = (long) (ThreadLocalRandom.current().nextDouble() * JITTER_FACTOR * jobPoll.pollIntervalMs);
+    scheduler.schedule(() -> pollExecutor.execute(() -> poll(jobPoll)),
+                       jobPoll.pollIntervalMs + jitter, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Holds batches of the single job which are awaited by readers.
+   */
+  private static class JobPoll {
+
+    private final String jobId;
+    // key -> [batch id], value -> batch waiter
+    private final Map<String, BatchWaiter> waiters = new HashMap<>();
+    private BulkConnection bulkConnection;
+    private SalesforceMetrics metrics;
+    private long pollIntervalMs;
+    // number of consecutive failed polls
+    private int failures;
+
+    JobPoll(BulkConnection bulkConnection, String jobId, long pollIntervalMs, SalesforceMetrics metrics) {
+      this.bulkConnection = bulkConnection;
+      this.jobId = jobId;
+      this.pollIntervalMs = pollIntervalMs;
+      this.metrics = metrics;
+    }
+  }
+
+  /**
+   * Holds future of the awaited batch and time after which waiting is considered timed out.
+   */
+  private static class BatchWaiter {
+
+    private final CompletableFuture<BatchInfo> future = new CompletableFuture<>();
+    private final long deadline;
+
+    BatchWaiter(long deadline) {
+      this.deadline = deadline;
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.salesforce;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BulkConnection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Input stream over all results of a single bulk query batch.
+ * <p/>
+ * Result streams are opened lazily, one at a time, instead of opening every result connection up front.
+ * While result N is being read, result N+1 is opened on a background thread and its first bytes
+ * are downloaded into a bounded read-ahead buffer, so that parsing of one result overlaps
+ * the download of the next one. Results of all streams are prefetched by a shared pool of daemon threads.
+ */
+public class BulkResultInputStream extends InputStream {
+
+  /**
+   * Max number of bytes of the next result kept in memory before it is read.
+   */
+  private static final int DEFAULT_READ_AHEAD_BYTES = 8 * 1024 * 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(
+    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("salesforce-result-prefetch-%d").build());
+
+  private final BulkConnection bulkConnection;
+  private final String jobId;
+  private final String batchId;
+  private final String[] resultIds;
+  private final int readAheadBytes;
+  private final SalesforceMetrics metrics;
+
+  private int nextResultIndex;
+  private InputStream current;
+  private Future<InputStream> prefetched;
+  // connection opened by the prefetch task, which is closed if the stream is closed before it is consumed
+  private InputStream prefetchedConnection;
+  private volatile boolean closed;
+
+  public BulkResultInputStream(BulkConnection bulkConnection, String jobId, String batchId, String[] resultIds,
+                               SalesforceMetrics metrics) {
+    this(bulkConnection, jobId, batchId, resultIds, DEFAULT_READ_AHEAD_BYTES, metrics);
+  }
+
+  public BulkResultInputStream(BulkConnection bulkConnection, String jobId, String batchId, String[] resultIds,
+                               int readAheadBytes, SalesforceMetrics metrics) {
+    this.bulkConnection = bulkConnection;
+    this.jobId = jobId;
+    this.batchId = batchId;
+    this.resultIds = resultIds;
+    this.readAheadBytes = readAheadBytes;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public int read() throws IOException {
+    while (current != null || nextResult()) {
+      int value = current.read();
+      if (value != -1) {
+        return value;
+      }
+      closeCurrent();
+    }
+    return -1;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    while (current != null || nextResult()) {
+      int count = current.read(b, off, len);
+      if (count != -1) {
+        return count;
+      }
+      closeCurrent();
+    }
+    return -1;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return current == null ? 0 : current.available();
+  }
+
+  @Override
+  public void close() throws IOException {
+    InputStream connection;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      connection = prefetchedConnection;
+      prefetchedConnection = null;
+    }
+    try {
+      closeCurrent();
+    } finally {
+      if (prefetched != null) {
+        prefetched.cancel(true);
+      }
+      // prefetch task may have opened the connection before it was cancelled
+      if (connection != null) {
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * Switches to the next result and starts prefetching the one after it.
+   *
+   * @return false if there are no more results
+   */
+  private boolean nextResult() throws IOException {
+    if (closed) {
+      throw new IOException("Stream is closed");
+    }
+    if (nextResultIndex >= resultIds.length) {
+      return false;
+    }
+
+    current = prefetched == null ? openResult(resultIds[nextResultIndex]) : await(prefetched);
+    prefetched = null;
+    synchronized (this) {
+      prefetchedConnection = null;
+    }
+    nextResultIndex++;
+
+    if (nextResultIndex < resultIds.length) {
+      String resultId = resultIds[nextResultIndex];
+      prefetched = PREFETCH_EXECUTOR.submit(() -> prefetch(resultId));
+    }
+    return true;
+  }
+
+  /**
+   * Opens given result and reads up to {@link #readAheadBytes} into memory.
+   * If result fits into the buffer, connection is closed right away,
+   * otherwise the remaining bytes are read from the open connection after the buffer is consumed.
+   */
+  private InputStream prefetch(String resultId) throws IOException {
+    InputStream resultStream = openResult(resultId);
+    synchronized (this) {
+      if (closed) {
+        resultStream.close();
+        throw new InterruptedIOException("Stream is closed");
+      }
+      prefetchedConnection = resultStream;
+    }
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.min(readAheadBytes, BUFFER_SIZE));
+    byte[] chunk = new byte[BUFFER_SIZE];
+    try {
+      while (buffer.size() < readAheadBytes && !closed) {
+        int count = resultStream.read(chunk, 0, Math.min(chunk.length, readAheadBytes - buffer.size()));
+        if (count == -1) {
+          resultStream.close();
+          return new ByteArrayInputStream(buffer.toByteArray());
+        }
+        buffer.write(chunk, 0, count);
+      }
+    } catch (IOException e) {
+      resultStream.close();
+      throw e;
+    }
+
+    if (closed) {
+      resultStream.close();
+    }
+    return new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), resultStream);
+  }
+
+  private InputStream openResult(String resultId) throws IOException {
+    try {
+      SalesforceApiGovernor governor = SalesforceApiGovernor.of(bulkConnection.getConfig());
+      return SalesforceBulkUtil.withSessionRenewal(bulkConnection, () -> governor.call(
+        "bulk.getQueryResultStream", metrics, () -> bulkConnection.getQueryResultStream(jobId, batchId, resultId)));
+    } catch (AsyncApiException e) {
+      throw new IOException(String.format("Failed to open result '%s' of batch '%s'", resultId, batchId), e);
+    }
+  }
+
+  private InputStream await(Future<InputStream> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the next batch result");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Failed to download batch result", cause);
+    }
+  }
+
+  private void closeCurrent() throws IOException {
+    if (current != null) {
+      InputStream stream = current;
+      current = null;
+      stream.close();
+    }
+  }
+}
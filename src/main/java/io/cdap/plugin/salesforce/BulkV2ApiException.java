@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import java.io.IOException;
+
+/**
+ * Exception is thrown when Salesforce Bulk API 2.0 responds with an error status.
+ */
+public class BulkV2ApiException extends IOException {
+  private final int status;
+
+  public BulkV2ApiException(String message, int status) {
+    super(message);
+    this.status = status;
+  }
+
+  /**
+   * @return http status of the failed request
+   */
+  public int getStatus() {
+    return status;
+  }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.ConnectorConfig;
+import io.cdap.plugin.salesforce.authenticator.Authenticator;
+import org.awaitility.Awaitility;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.client.util.OutputStreamContentProvider;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Connection to Salesforce Bulk API 2.0 REST resources.
+ * <p/>
+ * Uses session and instance of the given {@link ConnectorConfig}, so it can be created
+ * next to {@link com.sforce.async.BulkConnection} from the same configuration.
+ * Supports ingest jobs, which accept a single csv upload, and query jobs, which results are read in pages
+ * identified by locators. Requests rejected with 401 status are repeated once after the session is renewed,
+ * except for data uploads, which follow the creation of the job. Requests are made through
+ * the {@link SalesforceApiGovernor} of the org.
+ */
+public class BulkV2Connection implements Closeable {
+
+  private static final Gson GSON = new Gson();
+  private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+  private static final String CONTENT_TYPE_CSV = "text/csv";
+  private static final String GZIP_ENCODING = "gzip";
+  /**
+   * Max time of a json request, data transfers are limited by idle timeout only
+   */
+  private static final long REQUEST_TIMEOUT_MINUTES = 2;
+  private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+  private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+  /**
+   * Bulk API 2.0 jobs are split into batches by Salesforce, so processing of a single job can take longer
+   * than processing of a Bulk API 1.0 batch.
+   */
+  private static final long JOB_WAIT_TIME_SECONDS = TimeUnit.HOURS.toSeconds(1);
+  private static final long JOB_POLL_INTERVAL_MS = 2_000;
+  private static final String HEADER_LOCATOR = "Sforce-Locator";
+  /**
+   * Locator value returned with the last page of results
+   */
+  private static final String LAST_LOCATOR = "null";
+
+  private final HttpClient httpClient;
+  private final String jobsUrl;
+  private final boolean compression;
+  @Nullable
+  private final ConnectorConfig connectorConfig;
+  private final SalesforceMetrics metrics;
+  private final SalesforceApiGovernor governor;
+  private volatile String sessionId;
+
+  /**
+   * @param connectorConfig connector config with established session
+   * @param metrics metrics API calls of this connection are counted in
+   */
+  public BulkV2Connection(ConnectorConfig connectorConfig, SalesforceMetrics metrics) throws IOException {
+    this(getInstanceUrl(connectorConfig.getServiceEndpoint()), connectorConfig.getSessionId(),
+         connectorConfig.isCompression(), connectorConfig, metrics);
+  }
+
+  @VisibleForTesting
+  BulkV2Connection(String instanceUrl, String sessionId, boolean compression) throws IOException {
+    this(instanceUrl, sessionId, compression, null, SalesforceMetrics.NONE);
+  }
+
+  private BulkV2Connection(String instanceUrl, String sessionId, boolean compression,
+                           @Nullable ConnectorConfig connectorConfig, SalesforceMetrics metrics) throws IOException {
+    this.jobsUrl = String.format("%s/services/data/v%s/jobs", instanceUrl, SalesforceConstants.API_VERSION);
+    this.sessionId = sessionId;
+    this.connectorConfig = connectorConfig;
+    this.metrics = metrics;
+    this.governor = connectorConfig == null
+      ? SalesforceApiGovernor.forInstance(instanceUrl) : SalesforceApiGovernor.of(connectorConfig);
+    this.compression = compression;
+    this.httpClient = new HttpClient(new SslContextFactory());
+    this.httpClient.setIdleTimeout(IDLE_TIMEOUT_MS);
+    try {
+      httpClient.start();
+    } catch (Exception e) {
+      throw new IOException("Failed to start http client", e);
+    }
+  }
+
+  /**
+   * Creates ingest job which accepts csv with CRLF line endings.
+   *
+   * @param sObject sObject name
+   * @param operation operation name, for example insert or upsert
+   * @param externalIdField external id field name, required for upsert operation only
+   * @return created job
+   * @throws IOException if Salesforce rejected the request
+   */
+  public BulkV2JobInfo createIngestJob(String sObject, String operation,
+                                       @Nullable String externalIdField) throws IOException {
+    Map<String, String> job = new LinkedHashMap<>();
+    job.put("object", sObject);
+    job.put("operation", operation);
+    job.put("contentType", "CSV");
+    job.put("lineEnding", "CRLF");
+    if (externalIdField != null) {
+      job.put("externalIdFieldName", externalIdField);
+    }
+    return governor.call("bulkV2.createIngestJob", metrics, () -> send(HttpMethod.POST, ingestUrl(""), job));
+  }
+
+  /**
+   * Uploads all job data in a single request. Data is gzip compressed if compression is enabled
+   * in the connector config.
+   *
+   * @param jobId ingest job id
+   * @param csvStream csv data, with header
+   * @throws IOException if upload failed
+   */
+  public void uploadIngestJobData(String jobId, InputStream csvStream) throws IOException {
+    governor.callLongRunning("bulkV2.uploadIngestJobData", metrics, () -> {
+      upload(ingestUrl(jobId + "/batches"), csvStream);
+      return null;
+    });
+  }
+
+  private void upload(String url, InputStream csvStream) throws IOException {
+    OutputStreamContentProvider content = new OutputStreamContentProvider();
+    Request request = newRequest(HttpMethod.PUT, url).content(content, CONTENT_TYPE_CSV);
+    if (compression) {
+      request.header(HttpHeader.CONTENT_ENCODING, GZIP_ENCODING);
+    }
+    InputStreamResponseListener listener = new InputStreamResponseListener();
+    request.send(listener);
+
+    try (OutputStream outputStream = compression
+      ? new GZIPOutputStream(content.getOutputStream(), GZIP_BUFFER_SIZE) : content.getOutputStream()) {
+      ByteStreams.copy(csvStream, outputStream);
+    }
+
+    try (InputStream responseStream = listener.getInputStream()) {
+      Response response = await(listener);
+      governor.updateUsage(response.getHeaders().get(SalesforceApiGovernor.HEADER_LIMIT_INFO));
+      checkStatus(HttpMethod.PUT, url, response, responseStream);
+    }
+  }
+
+  /**
+   * Marks data of the ingest job as uploaded, so that Salesforce starts processing the job.
+   *
+   * @param jobId ingest job id
+   * @return updated job
+   * @throws IOException if Salesforce rejected the request
+   */
+  public BulkV2JobInfo closeIngestJob(String jobId) throws IOException {
+    return governor.call("bulkV2.closeIngestJob", metrics, () -> send(
+      HttpMethod.PATCH, ingestUrl(jobId), Collections.singletonMap("state", BulkV2JobInfo.STATE_UPLOAD_COMPLETE)));
+  }
+
+  /**
+   * Aborts the ingest job, data which was not processed yet is discarded.
+   *
+   * @param jobId ingest job id
+   * @return updated job
+   * @throws IOException if Salesforce rejected the request
+   */
+  public BulkV2JobInfo abortIngestJob(String jobId) throws IOException {
+    return governor.call("bulkV2.abortIngestJob", metrics, () -> send(
+      HttpMethod.PATCH, ingestUrl(jobId), Collections.singletonMap("state", BulkV2JobInfo.STATE_ABORTED)));
+  }
+
+  public BulkV2JobInfo getIngestJobInfo(String jobId) throws IOException {
+    return governor.call("bulkV2.getIngestJobInfo", metrics, () -> send(HttpMethod.GET, ingestUrl(jobId), null));
+  }
+
+  /**
+   * Waits until Salesforce finishes processing of the ingest job.
+   *
+   * @param jobId ingest job id
+   * @return completed job
+   * @throws RuntimeException if job failed or was aborted
+   */
+  public BulkV2JobInfo awaitIngestJob(String jobId) {
+    return awaitJob(jobId, () -> getIngestJobInfo(jobId));
+  }
+
+  /**
+   * Returns records which failed to be processed. The result is a csv with 'sf__Id' and 'sf__Error' columns
+   * followed by the columns of the uploaded data.
+   *
+   * @param jobId ingest job id
+   * @return stream of the failed results csv
+   * @throws IOException if Salesforce rejected the request
+   */
+  public InputStream getIngestFailedResults(String jobId) throws IOException {
+    return governor.call("bulkV2.getIngestFailedResults", metrics,
+                         () -> openStream(ingestUrl(jobId + "/failedResults/")).getInputStream());
+  }
+
+  /**
+   * Creates query job, Salesforce starts executing the query right away.
+   *
+   * @param query SOQL query
+   * @return created job
+   * @throws IOException if Salesforce rejected the request
+   */
+  public BulkV2JobInfo createQueryJob(String query) throws IOException {
+    Map<String, String> job = new LinkedHashMap<>();
+    job.put("operation", "query");
+    job.put("query", query);
+    job.put("contentType", "CSV");
+    job.put("columnDelimiter", "COMMA");
+    job.put("lineEnding", "LF");
+    return governor.call("bulkV2.createQueryJob", metrics, () -> send(HttpMethod.POST, queryUrl(""), job));
+  }
+
+  public BulkV2JobInfo getQueryJobInfo(String jobId) throws IOException {
+    return governor.call("bulkV2.getQueryJobInfo", metrics, () -> send(HttpMethod.GET, queryUrl(jobId), null));
+  }
+
+  /**
+   * Waits until Salesforce finishes execution of the query job.
+   *
+   * @param jobId query job id
+   * @return completed job
+   * @throws RuntimeException if job failed or was aborted
+   */
+  public BulkV2JobInfo awaitQueryJob(String jobId) {
+    return awaitJob(jobId, () -> getQueryJobInfo(jobId));
+  }
+
+  /**
+   * Opens a page of query results. Every page is a csv with header.
+   *
+   * @param jobId completed query job id
+   * @param locator locator of the page, null for the first page
+   * @param maxRecords max number of records in the page
+   * @return page of results
+   * @throws IOException if Salesforce rejected the request
+   */
+  public ResultPage getQueryResults(String jobId, @Nullable String locator, int maxRecords) throws IOException {
+    String resultsUrl = queryUrl(String.format("%s/results?maxRecords=%d", jobId, maxRecords));
+    String url = locator == null ? resultsUrl : String.format("%s&locator=%s", resultsUrl, locator);
+    InputStreamResponseListener listener = governor.call("bulkV2.getQueryResults", metrics, () -> openStream(url));
+    // response headers are already received, so the listener returns right away
+    Response response = await(listener);
+    String nextLocator = response.getHeaders().get(HEADER_LOCATOR);
+    return new ResultPage(listener.getInputStream(),
+                          nextLocator == null || LAST_LOCATOR.equals(nextLocator) ? null : nextLocator);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      httpClient.stop();
+    } catch (Exception e) {
+      throw new IOException("Failed to stop http client", e);
+    }
+  }
+
+  @VisibleForTesting
+  static String getInstanceUrl(String serviceEndpoint) {
+    int index = serviceEndpoint.indexOf("/services/");
+    Preconditions.checkArgument(index > 0, "Unexpected Salesforce service endpoint '%s'", serviceEndpoint);
+    return serviceEndpoint.substring(0, index);
+  }
+
+  private String ingestUrl(String path) {
+    return String.format("%s/ingest/%s", jobsUrl, path);
+  }
+
+  private String queryUrl(String path) {
+    return String.format("%s/query/%s", jobsUrl, path);
+  }
+
+  private static BulkV2JobInfo awaitJob(String jobId, Callable<BulkV2JobInfo> jobInfoSupplier) {
+    BulkV2JobInfo job = Awaitility.await()
+      .atMost(JOB_WAIT_TIME_SECONDS, TimeUnit.SECONDS)
+      .pollInterval(JOB_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)
+      .until(jobInfoSupplier, BulkV2JobInfo::isFinished);
+
+    if (!BulkV2JobInfo.STATE_JOB_COMPLETE.equals(job.getState())) {
+      throw new RuntimeException(String.format("Job failed. JobId='%s', State='%s', Reason='%s'",
+                                               jobId, job.getState(), job.getErrorMessage()));
+    }
+    return job;
+  }
+
+  private Request newRequest(HttpMethod method, String url) {
+    return httpClient.newRequest(url)
+      .method(method)
+      .header(HttpHeader.AUTHORIZATION, "Bearer " + sessionId);
+  }
+
+  private BulkV2JobInfo send(HttpMethod method, String url, @Nullable Object body) throws IOException {
+    String requestSessionId = sessionId;
+    ContentResponse response = execute(method, url, body);
+    if (response.getStatus() == HttpStatus.UNAUTHORIZED_401 && renewSession(requestSessionId)) {
+      response = execute(method, url, body);
+    }
+    governor.updateUsage(response.getHeaders().get(SalesforceApiGovernor.HEADER_LIMIT_INFO));
+
+    if (response.getStatus() / 100 != 2) {
+      throw new BulkV2ApiException(String.format("Request '%s %s' failed with status %d: %s",
+                                                 method, url, response.getStatus(), response.getContentAsString()),
+                                   response.getStatus());
+    }
+    return GSON.fromJson(response.getContentAsString(), BulkV2JobInfo.class);
+  }
+
+  private ContentResponse execute(HttpMethod method, String url, @Nullable Object body) throws IOException {
+    Request request = newRequest(method, url)
+      .header(HttpHeader.ACCEPT, CONTENT_TYPE_JSON)
+      .timeout(REQUEST_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    if (body != null) {
+      request.content(new StringContentProvider(GSON.toJson(body), StandardCharsets.UTF_8), CONTENT_TYPE_JSON);
+    }
+
+    try {
+      return request.send();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format("Interrupted while waiting for '%s %s'", method, url));
+    } catch (TimeoutException | ExecutionException e) {
+      throw new IOException(String.format("Request '%s %s' failed", method, url), e);
+    }
+  }
+
+  /**
+   * Renews session after Salesforce rejected it, so that the request can be repeated.
+   *
+   * @param expiredSessionId session id used by the rejected request
+   * @return true if the request can be repeated with a new session
+   */
+  private boolean renewSession(String expiredSessionId) throws IOException {
+    if (connectorConfig == null) {
+      return false;
+    }
+    try {
+      if (!Authenticator.renewSession(connectorConfig, expiredSessionId)) {
+        return false;
+      }
+    } catch (ConnectionException e) {
+      throw new IOException("Failed to renew Salesforce session", e);
+    }
+    sessionId = connectorConfig.getSessionId();
+    return true;
+  }
+
+  /**
+   * Sends GET request and waits for response headers, content is available from the input stream
+   * of the returned listener.
+   */
+  private InputStreamResponseListener openStream(String url) throws IOException {
+    String requestSessionId = sessionId;
+    InputStreamResponseListener listener = sendGet(url);
+    Response response = await(listener);
+    if (response.getStatus() == HttpStatus.UNAUTHORIZED_401 && renewSession(requestSessionId)) {
+      listener.getInputStream().close();
+      listener = sendGet(url);
+      response = await(listener);
+    }
+    governor.updateUsage(response.getHeaders().get(SalesforceApiGovernor.HEADER_LIMIT_INFO));
+
+    InputStream responseStream = listener.getInputStream();
+    try {
+      checkStatus(HttpMethod.GET, url, response, responseStream);
+    } catch (IOException e) {
+      responseStream.close();
+      throw e;
+    }
+    return listener;
+  }
+
+  private InputStreamResponseListener sendGet(String url) {
+    InputStreamResponseListener listener = new InputStreamResponseListener();
+    newRequest(HttpMethod.GET, url)
+      .header(HttpHeader.ACCEPT, CONTENT_TYPE_CSV)
+      .send(listener);
+    return listener;
+  }
+
+  private static Response await(InputStreamResponseListener listener) throws IOException {
+    try {
+      return listener.get(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for Salesforce response");
+    } catch (TimeoutException | ExecutionException e) {
+      throw new IOException("Failed to get Salesforce response", e);
+    }
+  }
+
+  /**
+   * Page of query job results.
+   */
+  public static class ResultPage {
+
+    private final InputStream stream;
+    @Nullable
+    private final String nextLocator;
+
+    ResultPage(InputStream stream, @Nullable String nextLocator) {
+      this.stream = stream;
+      this.nextLocator = nextLocator;
+    }
+
+    /**
+     * @return stream of csv results, which must be closed by the caller
+     */
+    public InputStream getStream() {
+      return stream;
+    }
+
+    /**
+     * @return locator of the next page, null if this is the last page
+     */
+    @Nullable
+    public String getNextLocator() {
+      return nextLocator;
+    }
+  }
+
+  private static void checkStatus(HttpMethod method, String url, Response response,
+                                  InputStream responseStream) throws IOException {
+    if (response.getStatus() / 100 == 2) {
+      return;
+    }
+    String body = new String(ByteStreams.toByteArray(responseStream), StandardCharsets.UTF_8);
+    throw new BulkV2ApiException(String.format("Request '%s %s' failed with status %d: %s",
+                                               method, url, response.getStatus(), body), response.getStatus());
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import javax.annotation.Nullable;
+
+/**
+ * Salesforce Bulk API 2.0 job, as returned by job info requests.
+ * Only properties used by the plugin are mapped.
+ */
+public class BulkV2JobInfo {
+
+  public static final String STATE_UPLOAD_COMPLETE = "UploadComplete";
+  public static final String STATE_JOB_COMPLETE = "JobComplete";
+  public static final String STATE_FAILED = "Failed";
+  public static final String STATE_ABORTED = "Aborted";
+
+  private String id;
+  private String object;
+  private String operation;
+  private String state;
+  private String errorMessage;
+  private long numberRecordsProcessed;
+  private long numberRecordsFailed;
+
+  public String getId() {
+    return id;
+  }
+
+  public String getObject() {
+    return object;
+  }
+
+  public String getOperation() {
+    return operation;
+  }
+
+  public String getState() {
+    return state;
+  }
+
+  @Nullable
+  public String getErrorMessage() {
+    return errorMessage;
+  }
+
+  public long getNumberRecordsProcessed() {
+    return numberRecordsProcessed;
+  }
+
+  public long getNumberRecordsFailed() {
+    return numberRecordsFailed;
+  }
+
+  /**
+   * @return true if Salesforce finished processing the job, successfully or not
+   */
+  public boolean isFinished() {
+    return STATE_JOB_COMPLETE.equals(state) || STATE_FAILED.equals(state) || STATE_ABORTED.equals(state);
+  }
+
+  @Override
+  public String toString() {
+    return "BulkV2JobInfo{" +
+      "id='" + id + '\'' +
+      ", object='" + object + '\'' +
+      ", operation='" + operation + '\'' +
+      ", state='" + state + '\'' +
+      ", errorMessage='" + errorMessage + '\'' +
+      ", numberRecordsProcessed=" + numberRecordsProcessed +
+      ", numberRecordsFailed=" + numberRecordsFailed +
+      '}';
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream which counts bytes downloaded from Salesforce and time the reader was blocked waiting for them.
+ * Wait time is also available through {@link #getReadNanos()}, so that the reader can exclude it from the time
+ * spent on parsing.
+ * <p/>
+ * Stream is expected to be read by a single thread.
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+  private final SalesforceMetrics.Meter bytesMeter;
+  private final SalesforceMetrics.Meter waitMeter;
+  private long readNanos;
+
+  public MeteredInputStream(InputStream in, SalesforceMetrics metrics) {
+    super(in);
+    this.bytesMeter = metrics.counter(SalesforceMetrics.BYTES_DOWNLOADED);
+    this.waitMeter = metrics.timer(SalesforceMetrics.DOWNLOAD_WAIT_MS);
+  }
+
+  @Override
+  public int read() throws IOException {
+    long start = System.nanoTime();
+    int value = super.read();
+    record(start, value == -1 ? 0 : 1);
+    return value;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    long start = System.nanoTime();
+    int count = super.read(b, off, len);
+    record(start, Math.max(count, 0));
+    return count;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long start = System.nanoTime();
+    long count = super.skip(n);
+    record(start, count);
+    return count;
+  }
+
+  /**
+   * @return total time spent in reads of the underlying stream, in nanoseconds
+   */
+  public long getReadNanos() {
+    return readNanos;
+  }
+
+  private void record(long start, long bytes) {
+    long nanos = System.nanoTime() - start;
+    readNanos += nanos;
+    waitMeter.add(nanos);
+    bytesMeter.add(bytes);
+  }
+}
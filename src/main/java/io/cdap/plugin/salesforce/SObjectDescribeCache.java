@@ -0,0 +1,519 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.sforce.soap.partner.DescribeSObjectResult;
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.ws.ConnectionException;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps sObject describe results, so that design-time validation, pipeline preparation and schema
+ * generation describe each sObject of the org once instead of on every call.
+ * <p/>
+ * Describe results are keyed by org instance url, user, API version and sObject name, since fields visible
+ * to the user depend on the user profile. Recently used results are kept in memory, optionally they are also
+ * stored as json files under a local directory, so that they survive between processes. Result older than
+ * the TTL is revalidated with a REST describe request carrying `If-Modified-Since` header: if Salesforce
+ * responds with 304, the result is kept for another TTL, otherwise the sObject is described again.
+ * Expired results are revalidated concurrently. If too many results are expired, they are described again
+ * instead, since a single describe call covers 100 sObjects, while every revalidation is a separate request.
+ * <p/>
+ * Process-wide instance is configured with the following system properties:
+ * <ul>
+ *   <li>{@value #PROPERTY_TTL_SECONDS} - time to use a describe result without revalidation, 0 disables the cache,
+ *   defaults to {@value #DEFAULT_TTL_SECONDS} seconds.</li>
+ *   <li>{@value #PROPERTY_MAX_ENTRIES} - max number of describe results kept in memory,
+ *   defaults to {@value #DEFAULT_MAX_ENTRIES}.</li>
+ *   <li>{@value #PROPERTY_DIRECTORY} - local directory to store describe results, not set by default.</li>
+ * </ul>
+ */
+public class SObjectDescribeCache {
+
+  public static final String PROPERTY_TTL_SECONDS = "salesforce.describe.cache.ttl.seconds";
+  public static final String PROPERTY_MAX_ENTRIES = "salesforce.describe.cache.max.entries";
+  public static final String PROPERTY_DIRECTORY = "salesforce.describe.cache.dir";
+
+  private static final long DEFAULT_TTL_SECONDS = 600;
+  private static final int DEFAULT_MAX_ENTRIES = 500;
+  // Salesforce limitation that we can describe only 100 sObjects at a time
+  private static final int DESCRIBE_SOBJECTS_LIMIT = 100;
+  private static final int DESCRIBE_THREADS = 4;
+  private static final long REVALIDATE_TIMEOUT_SECONDS = 30;
+  private static final int MAX_REVALIDATIONS = 20;
+
+  private static final Logger LOG = LoggerFactory.getLogger(SObjectDescribeCache.class);
+  private static final Gson GSON = new Gson();
+  private static final SObjectDescribeCache INSTANCE = new SObjectDescribeCache(
+    TimeUnit.SECONDS.toMillis(Long.getLong(PROPERTY_TTL_SECONDS, DEFAULT_TTL_SECONDS)),
+    Integer.getInteger(PROPERTY_MAX_ENTRIES, DEFAULT_MAX_ENTRIES),
+    System.getProperty(PROPERTY_DIRECTORY) == null ? null : new File(System.getProperty(PROPERTY_DIRECTORY)),
+    System::currentTimeMillis);
+
+  private final long ttlMillis;
+  @Nullable
+  private final File directory;
+  private final LongSupplier clock;
+  private final Map<Key, Entry> entries;
+
+  public static SObjectDescribeCache getInstance() {
+    return INSTANCE;
+  }
+
+  @VisibleForTesting
+  SObjectDescribeCache(long ttlMillis, int maxEntries, @Nullable File directory, LongSupplier clock) {
+    this.ttlMillis = ttlMillis;
+    this.directory = directory;
+    this.clock = clock;
+    this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns describe results of the given sObjects, describing only sObjects absent in the cache
+   * or modified since they were cached.
+   *
+   * @param connection Salesforce partner connection
+   * @param sObjects sObject names
+   * @return describe results in the order of the given sObjects
+   * @throws ConnectionException when unable to connect to Salesforce
+   */
+  public List<DescribeSObjectResult> describe(PartnerConnection connection, Collection<String> sObjects)
+    throws ConnectionException {
+    String serviceEndpoint = connection.getConfig().getServiceEndpoint();
+    String instanceUrl = BulkV2Connection.getInstanceUrl(serviceEndpoint);
+    String user = Strings.nullToEmpty(connection.getConfig().getUsername());
+    try (Revalidator revalidator = new Revalidator(instanceUrl, connection.getConfig().getSessionId())) {
+      return describe(instanceUrl, user, sObjects, names -> describeSObjects(connection, names), revalidator);
+    }
+  }
+
+  /**
+   * Returns describe result of the given sObject, describing it only if it is absent in the cache
+   * or modified since it was cached.
+   *
+   * @param connection Salesforce partner connection
+   * @param sObject sObject name
+   * @return describe result
+   * @throws ConnectionException when unable to connect to Salesforce
+   */
+  public DescribeSObjectResult describe(PartnerConnection connection, String sObject) throws ConnectionException {
+    return describe(connection, Collections.singletonList(sObject)).get(0);
+  }
+
+  @VisibleForTesting
+  List<DescribeSObjectResult> describe(String org, String user, Collection<String> sObjects,
+                                       DescribeFunction describeFunction,
+                                       RevalidateFunction revalidateFunction) throws ConnectionException {
+    if (ttlMillis <= 0) {
+      return describeFunction.describe(new ArrayList<>(sObjects));
+    }
+
+    Map<String, DescribeSObjectResult> results = new LinkedHashMap<>();
+    List<String> toDescribe = new ArrayList<>();
+    Map<Key, Entry> expired = new LinkedHashMap<>();
+    for (String sObject : sObjects) {
+      Key key = new Key(org, user, SalesforceConstants.API_VERSION, sObject);
+      Entry entry = getEntry(key);
+      if (entry == null) {
+        toDescribe.add(sObject);
+      } else if (isExpired(entry)) {
+        expired.put(key, entry);
+      } else {
+        results.put(key.sObject, entry.result);
+      }
+    }
+
+    Set<Key> notModified = revalidate(expired, revalidateFunction);
+    for (Map.Entry<Key, Entry> expiredEntry : expired.entrySet()) {
+      Key key = expiredEntry.getKey();
+      if (notModified.contains(key)) {
+        results.put(key.sObject, expiredEntry.getValue().result);
+      } else {
+        toDescribe.add(expiredEntry.getValue().result.getName());
+      }
+    }
+
+    if (!toDescribe.isEmpty()) {
+      long fetchTime = clock.getAsLong();
+      for (DescribeSObjectResult result : describeFunction.describe(toDescribe)) {
+        Key key = new Key(org, user, SalesforceConstants.API_VERSION, result.getName());
+        putEntry(key, new Entry(fetchTime, result));
+        results.put(key.sObject, result);
+      }
+    }
+
+    List<DescribeSObjectResult> ordered = new ArrayList<>();
+    for (String sObject : sObjects) {
+      DescribeSObjectResult result = results.get(sObject.toLowerCase());
+      if (result == null) {
+        throw new IllegalArgumentException("Unable to describe SObject: " + sObject);
+      }
+      ordered.add(result);
+    }
+    return ordered;
+  }
+
+  /**
+   * Describes given sObjects in partitions, since Salesforce describes only 100 sObjects at a time.
+   * Several partitions are described concurrently by a bounded number of threads sharing the connection session.
+   */
+  @VisibleForTesting
+  static List<DescribeSObjectResult> describeSObjects(PartnerConnection connection, List<String> sObjects)
+    throws ConnectionException {
+    List<List<String>> partitions = Lists.partition(sObjects, DESCRIBE_SOBJECTS_LIMIT);
+    SalesforceApiGovernor governor = SalesforceApiGovernor.of(connection.getConfig());
+    if (partitions.size() == 1) {
+      return Arrays.asList(describeSObjects(governor, connection, partitions.get(0)));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+      Math.min(partitions.size(), DESCRIBE_THREADS),
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("salesforce-describe-%d").build());
+    try {
+      List<Future<DescribeSObjectResult[]>> futures = new ArrayList<>();
+      for (List<String> partition : partitions) {
+        futures.add(executor.submit(() -> describeSObjects(governor, connection, partition)));
+      }
+
+      List<DescribeSObjectResult> results = new ArrayList<>();
+      for (Future<DescribeSObjectResult[]> future : futures) {
+        results.addAll(Arrays.asList(future.get()));
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ConnectionException("Interrupted while describing sObjects", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ConnectionException) {
+        throw (ConnectionException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new ConnectionException("Failed to describe sObjects", cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static DescribeSObjectResult[] describeSObjects(SalesforceApiGovernor governor, PartnerConnection connection,
+                                                          List<String> sObjects) throws ConnectionException {
+    return governor.callSoap(connection, "soap.describeSObjects", SalesforceMetrics.NONE,
+                             () -> connection.describeSObjects(sObjects.toArray(new String[0])));
+  }
+
+  /**
+   * Removes all cached describe results from memory, files stored on disk are kept.
+   */
+  public void invalidateAll() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  private boolean isExpired(Entry entry) {
+    return clock.getAsLong() - entry.fetchTime >= ttlMillis;
+  }
+
+  /**
+   * Revalidates expired describe results concurrently by a bounded number of threads.
+   * If there are more expired results than {@value #MAX_REVALIDATIONS}, none of them is revalidated.
+   *
+   * @return keys of the results which were not modified
+   */
+  private Set<Key> revalidate(Map<Key, Entry> expired, RevalidateFunction revalidateFunction)
+    throws ConnectionException {
+    Set<Key> notModified = new HashSet<>();
+    if (expired.isEmpty() || expired.size() > MAX_REVALIDATIONS) {
+      return notModified;
+    }
+    if (expired.size() == 1) {
+      Map.Entry<Key, Entry> entry = expired.entrySet().iterator().next();
+      if (isNotModified(entry.getKey(), entry.getValue(), revalidateFunction)) {
+        notModified.add(entry.getKey());
+      }
+      return notModified;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+      Math.min(expired.size(), DESCRIBE_THREADS),
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("salesforce-describe-revalidate-%d").build());
+    try {
+      Map<Key, Future<Boolean>> futures = new LinkedHashMap<>();
+      expired.forEach((key, entry) -> futures.put(
+        key, executor.submit(() -> isNotModified(key, entry, revalidateFunction))));
+      for (Map.Entry<Key, Future<Boolean>> future : futures.entrySet()) {
+        if (future.getValue().get()) {
+          notModified.add(future.getKey());
+        }
+      }
+      return notModified;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ConnectionException("Interrupted while revalidating describe results", e);
+    } catch (ExecutionException e) {
+      throw new ConnectionException("Failed to revalidate describe results", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private boolean isNotModified(Key key, Entry entry, RevalidateFunction revalidateFunction) {
+    try {
+      if (revalidateFunction.isModifiedSince(entry.result.getName(), entry.fetchTime)) {
+        return false;
+      }
+    } catch (Exception e) {
+      LOG.debug("Failed to revalidate describe result of '{}', it will be described again", key.sObject, e);
+      return false;
+    }
+    putEntry(key, new Entry(clock.getAsLong(), entry.result));
+    return true;
+  }
+
+  @Nullable
+  private Entry getEntry(Key key) {
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        return entry;
+      }
+    }
+
+    Entry entry = readEntry(key);
+    if (entry != null) {
+      synchronized (entries) {
+        entries.put(key, entry);
+      }
+    }
+    return entry;
+  }
+
+  private void putEntry(Key key, Entry entry) {
+    synchronized (entries) {
+      entries.put(key, entry);
+    }
+    writeEntry(key, entry);
+  }
+
+  @Nullable
+  private Entry readEntry(Key key) {
+    if (directory == null) {
+      return null;
+    }
+    File file = getFile(key);
+    if (!file.exists()) {
+      return null;
+    }
+    try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      return GSON.fromJson(reader, Entry.class);
+    } catch (Exception e) {
+      LOG.warn("Failed to read cached describe result from '{}', it will be described again", file, e);
+      return null;
+    }
+  }
+
+  private void writeEntry(Key key, Entry entry) {
+    if (directory == null) {
+      return;
+    }
+    File file = getFile(key);
+    try {
+      Files.createDirectories(file.getParentFile().toPath());
+      // write to a temporary file first, so that concurrent processes never read a partially written file
+      File tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      try (Writer writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+        GSON.toJson(entry, writer);
+      }
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warn("Failed to store describe result to '{}'", file, e);
+    }
+  }
+
+  private File getFile(Key key) {
+    // org url and user are hashed to get a valid directory name
+    String org = Hashing.sha256().hashString(key.org + "/" + key.user, StandardCharsets.UTF_8).toString();
+    return new File(new File(new File(directory, org), key.apiVersion), key.sObject + ".json");
+  }
+
+  /**
+   * Describes sObjects in Salesforce.
+   */
+  @VisibleForTesting
+  interface DescribeFunction {
+
+    List<DescribeSObjectResult> describe(List<String> sObjects) throws ConnectionException;
+  }
+
+  /**
+   * Checks if sObject metadata was modified in Salesforce.
+   */
+  @VisibleForTesting
+  interface RevalidateFunction {
+
+    boolean isModifiedSince(String sObject, long timestamp) throws Exception;
+  }
+
+  /**
+   * Revalidates describe results with REST describe requests, Salesforce responds with 304 status
+   * and empty body if sObject metadata was not modified since the time given in `If-Modified-Since` header.
+   * Http client is started on the first request only and is shared by concurrent revalidations.
+   */
+  private static class Revalidator implements RevalidateFunction, AutoCloseable {
+
+    private static final DateTimeFormatter HTTP_DATE_FORMATTER =
+      DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final String describeUrl;
+    private final String sessionId;
+    private HttpClient httpClient;
+
+    Revalidator(String instanceUrl, String sessionId) {
+      this.describeUrl = String.format("%s/services/data/v%s/sobjects/%%s/describe",
+                                       instanceUrl, SalesforceConstants.API_VERSION);
+      this.sessionId = sessionId;
+    }
+
+    @Override
+    public boolean isModifiedSince(String sObject, long timestamp) throws Exception {
+      ContentResponse response = getHttpClient().newRequest(String.format(describeUrl, sObject))
+        .header(HttpHeader.AUTHORIZATION, "Bearer " + sessionId)
+        .header(HttpHeader.IF_MODIFIED_SINCE, HTTP_DATE_FORMATTER.format(Instant.ofEpochMilli(timestamp)))
+        .timeout(REVALIDATE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        .send();
+      return response.getStatus() != HttpStatus.NOT_MODIFIED_304;
+    }
+
+    private synchronized HttpClient getHttpClient() throws Exception {
+      if (httpClient == null) {
+        httpClient = new HttpClient(new SslContextFactory());
+        httpClient.start();
+      }
+      return httpClient;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (httpClient == null) {
+        return;
+      }
+      try {
+        httpClient.stop();
+      } catch (Exception e) {
+        LOG.debug("Failed to stop http client", e);
+      }
+    }
+  }
+
+  /**
+   * Cached describe result with the time it was obtained or last revalidated.
+   */
+  private static class Entry {
+
+    private final long fetchTime;
+    private final DescribeSObjectResult result;
+
+    Entry(long fetchTime, DescribeSObjectResult result) {
+      this.fetchTime = fetchTime;
+      this.result = result;
+    }
+  }
+
+  /**
+   * Identifies describe result of the sObject in the org for the user and the API version.
+   * sObject names are case-insensitive, so they are stored in lower case.
+   */
+  private static class Key {
+
+    private final String org;
+    private final String user;
+    private final String apiVersion;
+    private final String sObject;
+
+    Key(String org, String user, String apiVersion, String sObject) {
+      this.org = org;
+      this.user = user;
+      this.apiVersion = apiVersion;
+      this.sObject = sObject.toLowerCase();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return org.equals(key.org) && user.equals(key.user) && apiVersion.equals(key.apiVersion)
+        && sObject.equals(key.sObject);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(org, user, apiVersion, sObject);
+    }
+  }
+}
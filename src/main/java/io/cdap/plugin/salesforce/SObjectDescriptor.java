@@ -57,7 +57,21 @@ public class SObjectDescriptor {
     PartnerConnection partnerConnection = SalesforceConnectionUtil.getPartnerConnection(credentials);
     SObjectsDescribeResult describeResult = SObjectsDescribeResult.of(
       partnerConnection, Collections.singletonList(name));
-    List<FieldDescriptor> fields = describeResult.getFields().stream()
+    return fromDescribeResult(name, describeResult, typesToSkip);
+  }
+
+  /**
+   * Stores information about fields of the given sObject name into {@link SObjectDescriptor} class.
+   * Fields are taken from the describe result, which allows to describe many sObjects at once.
+   *
+   * @param name sObject name
+   * @param describeResult describe result containing given sObject
+   * @param typesToSkip sobject fields of this type will be skipped.
+   * @return sObject descriptor
+   */
+  public static SObjectDescriptor fromDescribeResult(String name, SObjectsDescribeResult describeResult,
+                                                     Set<FieldType> typesToSkip) {
+    List<FieldDescriptor> fields = describeResult.getFields(name).stream()
       .filter(field -> !typesToSkip.contains(field.getType()))
       .map(FieldDescriptor::new)
       .collect(Collectors.toList());
@@ -30,11 +30,16 @@ import javax.annotation.Nullable;
  * <li>Range - filter calculated from provided start time, duration and offset</li>
  * <li>NoOp - filter initialized with null</li>
  * </ul>
+ * Records are filtered by {@link #FIELD_LAST_MODIFIED_DATE} unless another datetime field is given.
  */
 public final class SObjectFilterDescriptor {
 
-  private static final SObjectFilterDescriptor NO_OP_FILTER_INSTANCE = new SObjectFilterDescriptor(null, null);
+  public static final String FIELD_LAST_MODIFIED_DATE = "LastModifiedDate";
 
+  private static final SObjectFilterDescriptor NO_OP_FILTER_INSTANCE =
+    new SObjectFilterDescriptor(FIELD_LAST_MODIFIED_DATE, null, null);
+
+  private final String field;
   @Nullable
   private final ZonedDateTime startTime;
   @Nullable
@@ -46,9 +51,15 @@ public final class SObjectFilterDescriptor {
 
   public static SObjectFilterDescriptor interval(@Nullable ZonedDateTime startTime,
                                                  @Nullable ZonedDateTime endTime) {
+    return interval(FIELD_LAST_MODIFIED_DATE, startTime, endTime);
+  }
+
+  public static SObjectFilterDescriptor interval(String field,
+                                                 @Nullable ZonedDateTime startTime,
+                                                 @Nullable ZonedDateTime endTime) {
     return startTime == null && endTime == null
       ? NO_OP_FILTER_INSTANCE
-      : new SObjectFilterDescriptor(startTime, endTime);
+      : new SObjectFilterDescriptor(field, startTime, endTime);
   }
 
   public static SObjectFilterDescriptor range(long logicalStartTime,
@@ -57,12 +68,21 @@ public final class SObjectFilterDescriptor {
     return calculateRangeFilter(toZonedDateTime(logicalStartTime), duration, offset);
   }
 
-  private SObjectFilterDescriptor(@Nullable ZonedDateTime startTime,
+  private SObjectFilterDescriptor(String field,
+                                  @Nullable ZonedDateTime startTime,
                                   @Nullable ZonedDateTime endTime) {
+    this.field = field;
     this.startTime = startTime;
     this.endTime = endTime;
   }
 
+  /**
+   * @return name of the datetime field records are filtered by
+   */
+  public String getField() {
+    return field;
+  }
+
   @Nullable
   public ZonedDateTime getStartTime() {
     return startTime;
@@ -79,7 +99,7 @@ public final class SObjectFilterDescriptor {
 
   @Override
   public int hashCode() {
-    return Objects.hash(startTime, endTime);
+    return Objects.hash(field, startTime, endTime);
   }
 
   @Override
@@ -91,14 +111,16 @@ public final class SObjectFilterDescriptor {
       return false;
     }
     SObjectFilterDescriptor that = (SObjectFilterDescriptor) o;
-    return Objects.equals(startTime, that.startTime) &&
+    return Objects.equals(field, that.field) &&
+      Objects.equals(startTime, that.startTime) &&
       Objects.equals(endTime, that.endTime);
   }
 
   @Override
   public String toString() {
     return "SObjectFilterDescriptor{" +
-      "startTime=" + startTime +
+      "field=" + field +
+      ", startTime=" + startTime +
       ", endTime=" + endTime +
       '}';
   }
@@ -132,7 +154,8 @@ public final class SObjectFilterDescriptor {
       // no filter is required
       return NO_OP_FILTER_INSTANCE;
     }
-    return new SObjectFilterDescriptor(startTime.equals(endTime) ? null : startTime, endTime);
+    return new SObjectFilterDescriptor(FIELD_LAST_MODIFIED_DATE, startTime.equals(endTime) ? null : startTime,
+                                       endTime);
   }
 
   /**
@@ -15,7 +15,6 @@
  */
 package io.cdap.plugin.salesforce;
 
-import com.google.common.collect.Lists;
 import com.sforce.soap.partner.ChildRelationship;
 import com.sforce.soap.partner.DescribeSObjectResult;
 import com.sforce.soap.partner.Field;
@@ -25,6 +24,7 @@ import com.sforce.ws.ConnectionException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -41,14 +41,12 @@ import java.util.stream.Stream;
  */
 public class SObjectsDescribeResult {
 
-  // Salesforce limitation that we can describe only 100 sObjects at a time
-  private static final int DESCRIBE_SOBJECTS_LIMIT = 100;
-
   // key -> [sObject name], value -> [key -> field name,  value -> field]
   private final Map<String, Map<String, Field>> objectToFieldMap;
 
   /**
    * Describes list of given SObjects and retrieves information about each SObjects fields types.
+   * Describe results are obtained from {@link SObjectDescribeCache}.
    *
    * @param connection Salesforce partner connection
    * @param sObjects list of SObjects to be described
@@ -58,12 +56,8 @@ public class SObjectsDescribeResult {
   public static SObjectsDescribeResult of(PartnerConnection connection, Collection<String> sObjects)
     throws ConnectionException {
     Map<String, Map<String, Field>> objectToFieldMap = new HashMap<>();
-    // split the given sObjects into smaller partitions to ensure we don't exceed the limitation
-    for (List<String> partition : Lists.partition(new ArrayList<>(sObjects), DESCRIBE_SOBJECTS_LIMIT)) {
-      DescribeSObjectResult[] describeSObjectResults = connection.describeSObjects(partition.toArray(new String[0]));
-      Stream.of(describeSObjectResults)
-        .forEach(result -> addSObjectDescribe(result.getName(), result.getFields(), objectToFieldMap));
-    }
+    SObjectDescribeCache.getInstance().describe(connection, sObjects)
+      .forEach(result -> addSObjectDescribe(result.getName(), result.getFields(), objectToFieldMap));
     return new SObjectsDescribeResult(objectToFieldMap);
   }
 
@@ -159,6 +153,17 @@ public class SObjectsDescribeResult {
       .collect(Collectors.toList());
   }
 
+  /**
+   * Retrieves stored fields of the given sObject.
+   *
+   * @param sObjectName sObject name
+   * @return list of {@link Field}s, empty if sObject was not described
+   */
+  public List<Field> getFields(String sObjectName) {
+    Map<String, Field> fields = objectToFieldMap.get(sObjectName.toLowerCase());
+    return fields == null ? Collections.emptyList() : new ArrayList<>(fields.values());
+  }
+
   /**
    * Attempts to find {@link Field} by sObject name and field name.
    *
@@ -212,10 +217,7 @@ public class SObjectsDescribeResult {
     DescribeSObjectResult describe = cache.get(name.toLowerCase());
     // if SObject describe result is absent in cache, try to obtain it from Salesforce
     if (describe == null) {
-      describe = connection.describeSObject(name);
-      if (describe == null) {
-        throw new IllegalArgumentException("Unable to describe SObject: " + name);
-      }
+      describe = SObjectDescribeCache.getInstance().describe(connection, name);
     }
     // store describe result in cache for future re-use
     cache.put(name.toLowerCase(), describe);
@@ -0,0 +1,437 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sforce.soap.partner.LimitInfo;
+import com.sforce.soap.partner.LimitInfoHeader_element;
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.ws.ConnectorConfig;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Governs Salesforce API requests of a single org made by this process, so that a pipeline does not use up
+ * the daily API requests, which are shared by all integrations of the org.
+ * <p/>
+ * Every Bulk API and SOAP API call is made through the governor of the org, which:
+ * <ul>
+ *   <li>limits the rate of requests with a token bucket, holding up to a second of requests.</li>
+ *   <li>limits the number of concurrent long-running requests: SOAP queries, retrieves, describes
+ *   and data uploads.</li>
+ *   <li>tracks daily API requests used by the org, as reported by the `/limits` REST resource,
+ *   `Sforce-Limit-Info` response headers of REST requests and `LimitInfoHeader` of SOAP responses.
+ *   Requests made in between the reports are added to the last reported value.</li>
+ *   <li>if the reserve is set, throttles requests or fails fast with {@link SalesforceApiLimitException},
+ *   once remaining daily API requests fall below the reserve.</li>
+ * </ul>
+ * `/limits` resource is read only if the reserve is set. It is read in the background by an http client shared
+ * by all governors of the process, so API calls never wait for it.
+ * <p/>
+ * Process-wide governors are configured with the following system properties:
+ * <ul>
+ *   <li>{@value #PROPERTY_REQUESTS_PER_SECOND} - max requests per second, 0 means no limit,
+ *   defaults to no limit.</li>
+ *   <li>{@value #PROPERTY_MAX_LONG_RUNNING_REQUESTS} - max concurrent long-running requests, 0 means no limit,
+ *   defaults to {@value #DEFAULT_MAX_LONG_RUNNING_REQUESTS}.</li>
+ *   <li>{@value #PROPERTY_RESERVE_PERCENT} - percent of daily API requests left to other integrations,
+ *   0 disables the reserve, defaults to 0.</li>
+ *   <li>{@value #PROPERTY_RESERVE_ACTION} - `throttle` or `fail`, what to do when the reserve is reached,
+ *   defaults to `throttle`.</li>
+ *   <li>{@value #PROPERTY_RESERVE_REQUESTS_PER_SECOND} - max requests per second when throttled,
+ *   defaults to {@value #DEFAULT_RESERVE_REQUESTS_PER_SECOND}.</li>
+ *   <li>{@value #PROPERTY_LIMITS_REFRESH_SECONDS} - interval of `/limits` requests, 0 disables them,
+ *   defaults to {@value #DEFAULT_LIMITS_REFRESH_SECONDS} seconds.</li>
+ * </ul>
+ */
+public class SalesforceApiGovernor {
+
+  public static final String PROPERTY_REQUESTS_PER_SECOND = "salesforce.api.requests.per.second";
+  public static final String PROPERTY_MAX_LONG_RUNNING_REQUESTS = "salesforce.api.max.long.running.requests";
+  public static final String PROPERTY_RESERVE_PERCENT = "salesforce.api.reserve.percent";
+  public static final String PROPERTY_RESERVE_ACTION = "salesforce.api.reserve.action";
+  public static final String PROPERTY_RESERVE_REQUESTS_PER_SECOND = "salesforce.api.reserve.requests.per.second";
+  public static final String PROPERTY_LIMITS_REFRESH_SECONDS = "salesforce.api.limits.refresh.seconds";
+  public static final String HEADER_LIMIT_INFO = "Sforce-Limit-Info";
+
+  private static final int DEFAULT_MAX_LONG_RUNNING_REQUESTS = 10;
+  private static final double DEFAULT_RESERVE_REQUESTS_PER_SECOND = 1;
+  private static final long DEFAULT_LIMITS_REFRESH_SECONDS = 300;
+  private static final long LIMITS_TIMEOUT_SECONDS = 30;
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final String API_USAGE = "api-usage=";
+  private static final String SOAP_API_REQUESTS = "API REQUESTS";
+  private static final String DAILY_API_REQUESTS = "DailyApiRequests";
+
+  private static final Logger LOG = LoggerFactory.getLogger(SalesforceApiGovernor.class);
+  private static final Gson GSON = new Gson();
+  // key -> [org instance url], value -> governor of the org
+  private static final ConcurrentMap<String, SalesforceApiGovernor> ORGS = new ConcurrentHashMap<>();
+  private static final ExecutorService LIMITS_EXECUTOR = Executors.newSingleThreadExecutor(
+    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("salesforce-api-limits").build());
+  @Nullable
+  private static HttpClient limitsHttpClient;
+
+  private final String instanceUrl;
+  private final double requestsPerSecond;
+  private final double reservePercent;
+  private final ReserveAction reserveAction;
+  private final double reserveRequestsPerSecond;
+  private final long limitsRefreshNanos;
+  private final LongSupplier nanoClock;
+  @Nullable
+  private final Semaphore longRunningPermits;
+  private final AtomicLong apiRequestsUsed = new AtomicLong();
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  private volatile long apiRequestsMax;
+  private volatile long nextRefreshNanos;
+  private volatile boolean reserveReached;
+  @Nullable
+  @VisibleForTesting
+  volatile ConnectorConfig connectorConfig;
+  // token bucket, negative number of tokens means that requests are waiting for them
+  private double tokens = 1;
+  private long refillNanos;
+
+  /**
+   * Returns process-wide governor of the org the given connector config is connected to. Session of the config
+   * is used to read API limits of the org.
+   *
+   * @param connectorConfig connector config with established session
+   * @return governor of the org
+   */
+  public static SalesforceApiGovernor of(ConnectorConfig connectorConfig) {
+    SalesforceApiGovernor governor = forInstance(BulkV2Connection.getInstanceUrl(
+      connectorConfig.getServiceEndpoint()));
+    governor.connectorConfig = connectorConfig;
+    return governor;
+  }
+
+  /**
+   * Returns process-wide governor of the org with the given instance url.
+   */
+  static SalesforceApiGovernor forInstance(String instanceUrl) {
+    return ORGS.computeIfAbsent(instanceUrl, url -> new SalesforceApiGovernor(
+      url,
+      Double.parseDouble(System.getProperty(PROPERTY_REQUESTS_PER_SECOND, "0")),
+      Integer.getInteger(PROPERTY_MAX_LONG_RUNNING_REQUESTS, DEFAULT_MAX_LONG_RUNNING_REQUESTS),
+      Double.parseDouble(System.getProperty(PROPERTY_RESERVE_PERCENT, "0")),
+      ReserveAction.fromValue(System.getProperty(PROPERTY_RESERVE_ACTION, ReserveAction.THROTTLE.name())),
+      Double.parseDouble(System.getProperty(PROPERTY_RESERVE_REQUESTS_PER_SECOND,
+                                            String.valueOf(DEFAULT_RESERVE_REQUESTS_PER_SECOND))),
+      TimeUnit.SECONDS.toNanos(Long.getLong(PROPERTY_LIMITS_REFRESH_SECONDS, DEFAULT_LIMITS_REFRESH_SECONDS)),
+      System::nanoTime));
+  }
+
+  @VisibleForTesting
+  SalesforceApiGovernor(String instanceUrl, double requestsPerSecond, int maxLongRunningRequests,
+                        double reservePercent, ReserveAction reserveAction, double reserveRequestsPerSecond,
+                        long limitsRefreshNanos, LongSupplier nanoClock) {
+    this.instanceUrl = instanceUrl;
+    this.requestsPerSecond = requestsPerSecond;
+    this.reservePercent = reservePercent;
+    this.reserveAction = reserveAction;
+    this.reserveRequestsPerSecond = reserveRequestsPerSecond;
+    this.limitsRefreshNanos = limitsRefreshNanos;
+    this.nanoClock = nanoClock;
+    this.longRunningPermits = maxLongRunningRequests > 0 ? new Semaphore(maxLongRunningRequests, true) : null;
+    this.refillNanos = nanoClock.getAsLong();
+    this.nextRefreshNanos = refillNanos;
+  }
+
+  /**
+   * Makes a short API call and counts it in the given metrics.
+   *
+   * @param endpoint API endpoint, for example `bulk.createBatch`
+   * @param metrics metrics the call is counted in
+   * @param call API call
+   * @return result of the call
+   * @throws E if the call failed
+   * @throws SalesforceApiLimitException if the reserve of daily API requests is reached and calls should fail
+   */
+  public <T, E extends Exception> T call(String endpoint, SalesforceMetrics metrics,
+                                         ApiCall<T, E> call) throws E {
+    return call(endpoint, metrics, false, call);
+  }
+
+  /**
+   * Makes a long-running API call, which waits for a permit if max number of long-running calls is in progress.
+   *
+   * @param endpoint API endpoint, for example `soap.query`
+   * @param metrics metrics the call is counted in
+   * @param call API call
+   * @return result of the call
+   * @throws E if the call failed
+   * @throws SalesforceApiLimitException if the reserve of daily API requests is reached and calls should fail
+   */
+  public <T, E extends Exception> T callLongRunning(String endpoint, SalesforceMetrics metrics,
+                                                    ApiCall<T, E> call) throws E {
+    return call(endpoint, metrics, true, call);
+  }
+
+  /**
+   * Makes a long-running SOAP API call and updates API usage from the limit info header of the response.
+   *
+   * @param connection partner connection the call is made with
+   * @param endpoint API endpoint, for example `soap.query`
+   * @param metrics metrics the call is counted in
+   * @param call API call
+   * @return result of the call
+   * @throws E if the call failed
+   * @throws SalesforceApiLimitException if the reserve of daily API requests is reached and calls should fail
+   */
+  public <T, E extends Exception> T callSoap(PartnerConnection connection, String endpoint,
+                                             SalesforceMetrics metrics, ApiCall<T, E> call) throws E {
+    T result = callLongRunning(endpoint, metrics, call);
+    updateUsage(connection.getLimitInfoHeader());
+    return result;
+  }
+
+  /**
+   * Updates API usage from the value of `Sforce-Limit-Info` response header, for example `api-usage=25/15000`.
+   *
+   * @param limitInfo header value, null if response has no such header
+   */
+  public void updateUsage(@Nullable String limitInfo) {
+    if (limitInfo == null) {
+      return;
+    }
+    for (String usage : limitInfo.split(",")) {
+      usage = usage.trim();
+      if (!usage.startsWith(API_USAGE)) {
+        continue;
+      }
+      String[] values = usage.substring(API_USAGE.length()).split("/");
+      try {
+        updateUsage(Long.parseLong(values[0].trim()), Long.parseLong(values[1].trim()));
+      } catch (RuntimeException e) {
+        LOG.debug("Unexpected value of '{}' header: '{}'", HEADER_LIMIT_INFO, limitInfo);
+      }
+      return;
+    }
+  }
+
+  /**
+   * Updates API usage from the limit info header of a SOAP response.
+   *
+   * @param header limit info header, null if response has no such header
+   */
+  public void updateUsage(@Nullable LimitInfoHeader_element header) {
+    if (header == null || header.getLimitInfo() == null) {
+      return;
+    }
+    for (LimitInfo limitInfo : header.getLimitInfo()) {
+      if (SOAP_API_REQUESTS.equalsIgnoreCase(limitInfo.getType())) {
+        updateUsage(limitInfo.getCurrent(), limitInfo.getLimit());
+        return;
+      }
+    }
+  }
+
+  @VisibleForTesting
+  void updateUsage(long used, long max) {
+    apiRequestsUsed.set(used);
+    apiRequestsMax = max;
+  }
+
+  /**
+   * Reads daily API requests of the org from the `/limits` REST resource.
+   */
+  @VisibleForTesting
+  void refreshLimits(ConnectorConfig config) throws Exception {
+    String limitsUrl = String.format("%s/services/data/v%s/limits", instanceUrl, SalesforceConstants.API_VERSION);
+    ContentResponse response = getLimitsHttpClient().newRequest(limitsUrl)
+      .header(HttpHeader.AUTHORIZATION, "Bearer " + config.getSessionId())
+      .header(HttpHeader.ACCEPT, "application/json")
+      .timeout(LIMITS_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+      .send();
+    if (response.getStatus() != HttpStatus.OK_200) {
+      throw new IOException(String.format("Request 'GET %s' failed with status %d: %s",
+                                          limitsUrl, response.getStatus(), response.getContentAsString()));
+    }
+    JsonObject limit = GSON.fromJson(response.getContentAsString(), JsonObject.class)
+      .getAsJsonObject(DAILY_API_REQUESTS);
+    long max = limit.get("Max").getAsLong();
+    updateUsage(max - limit.get("Remaining").getAsLong(), max);
+  }
+
+  /**
+   * Returns http client shared by all governors of the process, it is started on the first request.
+   * Threads of the client are daemon threads, so the client is never stopped.
+   */
+  private static synchronized HttpClient getLimitsHttpClient() throws Exception {
+    if (limitsHttpClient == null) {
+      QueuedThreadPool threadPool = new QueuedThreadPool();
+      threadPool.setName("salesforce-api-limits-http");
+      threadPool.setDaemon(true);
+      HttpClient httpClient = new HttpClient(new SslContextFactory());
+      httpClient.setExecutor(threadPool);
+      httpClient.setScheduler(new ScheduledExecutorScheduler("salesforce-api-limits-scheduler", true));
+      httpClient.start();
+      limitsHttpClient = httpClient;
+    }
+    return limitsHttpClient;
+  }
+
+  /**
+   * Reserves a token of the bucket refilled at the given rate.
+   *
+   * @return time to wait for the reserved token in nanoseconds, 0 if it is available right away
+   */
+  @VisibleForTesting
+  synchronized long reserveToken(double rate) {
+    long now = nanoClock.getAsLong();
+    tokens = Math.min(Math.max(1, rate), tokens + (now - refillNanos) * rate / NANOS_PER_SECOND);
+    refillNanos = now;
+    tokens -= 1;
+    return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * NANOS_PER_SECOND / rate);
+  }
+
+  /**
+   * @return true if remaining daily API requests are below the reserve
+   */
+  @VisibleForTesting
+  boolean isReserveReached() {
+    long max = apiRequestsMax;
+    return reservePercent > 0 && max > 0 && (max - apiRequestsUsed.get()) * 100.0 / max < reservePercent;
+  }
+
+  private <T, E extends Exception> T call(String endpoint, SalesforceMetrics metrics, boolean longRunning,
+                                          ApiCall<T, E> call) throws E {
+    try {
+      acquire(longRunning);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(String.format("Interrupted while waiting to call '%s'", endpoint), e);
+    }
+
+    try {
+      metrics.apiCall(endpoint);
+      return call.call();
+    } finally {
+      if (longRunning && longRunningPermits != null) {
+        longRunningPermits.release();
+      }
+    }
+  }
+
+  private void acquire(boolean longRunning) throws InterruptedException {
+    refreshLimitsIfDue();
+    double rate = requestsPerSecond;
+    if (isReserveReached()) {
+      long max = apiRequestsMax;
+      String usage = String.format("Salesforce org '%s' has %d of %d daily API requests remaining, "
+                                     + "which is below the reserve of %s%% set by '%s' system property",
+                                   instanceUrl, max - apiRequestsUsed.get(), max, reservePercent,
+                                   PROPERTY_RESERVE_PERCENT);
+      if (reserveAction == ReserveAction.FAIL) {
+        throw new SalesforceApiLimitException(usage + ".");
+      }
+      if (!reserveReached) {
+        reserveReached = true;
+        LOG.warn("{}. Requests are throttled to {} per second.", usage, reserveRequestsPerSecond);
+      }
+      rate = rate > 0 ? Math.min(rate, reserveRequestsPerSecond) : reserveRequestsPerSecond;
+    }
+
+    if (rate > 0) {
+      long waitNanos = reserveToken(rate);
+      if (waitNanos > 0) {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      }
+    }
+    if (longRunning && longRunningPermits != null) {
+      longRunningPermits.acquire();
+    }
+    if (apiRequestsMax > 0) {
+      apiRequestsUsed.incrementAndGet();
+    }
+  }
+
+  /**
+   * Refreshes API limits in the background if the reserve is set and the refresh interval has elapsed.
+   * Until the limits are read, usage reported by response headers is used.
+   */
+  private void refreshLimitsIfDue() {
+    ConnectorConfig config = connectorConfig;
+    if (reservePercent <= 0 || config == null || config.getSessionId() == null || limitsRefreshNanos <= 0
+      || nanoClock.getAsLong() - nextRefreshNanos < 0 || !refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    nextRefreshNanos = nanoClock.getAsLong() + limitsRefreshNanos;
+    LIMITS_EXECUTOR.execute(() -> {
+      try {
+        refreshLimits(config);
+      } catch (Exception e) {
+        LOG.debug("Failed to read API limits of Salesforce org '{}'", instanceUrl, e);
+      } finally {
+        refreshing.set(false);
+      }
+    });
+  }
+
+  /**
+   * Salesforce API call.
+   *
+   * @param <T> type of the call result
+   * @param <E> type of the exception thrown by the call
+   */
+  @FunctionalInterface
+  public interface ApiCall<T, E extends Exception> {
+
+    T call() throws E;
+  }
+
+  /**
+   * What to do with requests when remaining daily API requests are below the reserve.
+   */
+  public enum ReserveAction {
+    THROTTLE,
+    FAIL;
+
+    static ReserveAction fromValue(String value) {
+      for (ReserveAction action : values()) {
+        if (action.name().equalsIgnoreCase(value)) {
+          return action;
+        }
+      }
+      throw new IllegalArgumentException(String.format("Invalid value '%s' of '%s' system property",
+                                                       value, PROPERTY_RESERVE_ACTION));
+    }
+  }
+}
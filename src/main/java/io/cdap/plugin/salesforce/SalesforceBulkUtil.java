@@ -18,16 +18,18 @@ package io.cdap.plugin.salesforce;
 
 import com.google.common.base.Preconditions;
 import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
 import com.sforce.async.BatchInfo;
 import com.sforce.async.BatchStateEnum;
 import com.sforce.async.BulkConnection;
-import com.sforce.async.CSVReader;
 import com.sforce.async.ConcurrencyMode;
 import com.sforce.async.ContentType;
 import com.sforce.async.JobInfo;
 import com.sforce.async.JobStateEnum;
 import com.sforce.async.OperationEnum;
 import com.sforce.async.QueryResultList;
+import com.sforce.ws.ConnectionException;
+import io.cdap.plugin.salesforce.authenticator.Authenticator;
 import org.awaitility.Awaitility;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,15 +37,10 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Class which provides functions to submit jobs to bulk api and read resulting batches
@@ -59,34 +56,34 @@ public final class SalesforceBulkUtil {
    * Sleep time between polling the batch status
    */
   private static final long GET_BATCH_RESULTS_SLEEP_MS = 500;
-  /**
-   * Number of tries while polling the batch status
-   */
-  private static final long GET_BATCH_RESULTS_TRIES = GET_BATCH_WAIT_TIME_SECONDS * (1000 / GET_BATCH_RESULTS_SLEEP_MS);
 
 
   /**
    * Create a new job using the Bulk API.
    *
+   * @param metrics metrics API calls are counted in
    * @return The JobInfo for the new job.
    * @throws AsyncApiException if there is an issue creating the job
    */
   public static JobInfo createJob(BulkConnection bulkConnection,
                                   String sObject, OperationEnum operationEnum,
-                                  String externalIdField) throws AsyncApiException {
-    JobInfo job = new JobInfo();
-    job.setObject(sObject);
-    job.setOperation(operationEnum);
-    job.setConcurrencyMode(ConcurrencyMode.Parallel);
-    job.setContentType(ContentType.CSV);
+                                  String externalIdField, SalesforceMetrics metrics) throws AsyncApiException {
+    JobInfo newJob = new JobInfo();
+    newJob.setObject(sObject);
+    newJob.setOperation(operationEnum);
+    newJob.setConcurrencyMode(ConcurrencyMode.Parallel);
+    newJob.setContentType(ContentType.CSV);
     if (externalIdField != null) {
-      job.setExternalIdFieldName(externalIdField);
+      newJob.setExternalIdFieldName(externalIdField);
     }
 
-    job = bulkConnection.createJob(job);
+    // creation of a job is the first call made with a session, so an expired session is renewed here
+    SalesforceApiGovernor governor = SalesforceApiGovernor.of(bulkConnection.getConfig());
+    JobInfo job = withSessionRenewal(bulkConnection, () -> governor.call("bulk.createJob", metrics,
+                                                                         () -> bulkConnection.createJob(newJob)));
     Preconditions.checkState(job.getId() != null, "Couldn't get job ID. There was a problem in creating the " +
       "batch job");
-    return bulkConnection.getJobStatus(job.getId());
+    return governor.call("bulk.getJobStatus", metrics, () -> bulkConnection.getJobStatus(job.getId()));
   }
 
   /**
@@ -94,15 +91,64 @@ public final class SalesforceBulkUtil {
    *
    * @param bulkConnection bulk connection instance
    * @param jobId a job id
+   * @param metrics metrics API calls are counted in
    * @throws AsyncApiException  if there is an issue creating the job
    */
-  public static void closeJob(BulkConnection bulkConnection, String jobId) throws AsyncApiException {
+  public static void closeJob(BulkConnection bulkConnection, String jobId,
+                              SalesforceMetrics metrics) throws AsyncApiException {
     JobInfo job = new JobInfo();
     job.setId(jobId);
     job.setState(JobStateEnum.Closed);
-    bulkConnection.updateJob(job);
+    SalesforceApiGovernor governor = SalesforceApiGovernor.of(bulkConnection.getConfig());
+    withSessionRenewal(bulkConnection, () -> governor.call("bulk.updateJob", metrics,
+                                                           () -> bulkConnection.updateJob(job)));
   }
 
+  /**
+   * Executes given Bulk API call. If Salesforce rejects the session of the bulk connection as invalid,
+   * for example because the session obtained by the driver has expired, the session is renewed
+   * and the call is repeated once.
+   *
+   * @param bulkConnection bulk connection instance used by the call
+   * @param call Bulk API call
+   * @param <T> call result type
+   * @return call result
+   * @throws AsyncApiException if call failed or session cannot be renewed
+   */
+  public static <T> T withSessionRenewal(BulkConnection bulkConnection, BulkCall<T> call) throws AsyncApiException {
+    String sessionId = bulkConnection.getConfig().getSessionId();
+    try {
+      return call.call();
+    } catch (AsyncApiException e) {
+      renewSession(bulkConnection, sessionId, e);
+      return call.call();
+    }
+  }
+
+  /**
+   * Renews session of the bulk connection if the given exception was caused by the invalid session.
+   *
+   * @param bulkConnection bulk connection instance
+   * @param sessionId session id used by the failed call
+   * @param e exception thrown by the failed call
+   * @throws AsyncApiException given exception if it is not caused by the invalid session
+   *                           or session cannot be renewed
+   */
+  private static void renewSession(BulkConnection bulkConnection, String sessionId,
+                                   AsyncApiException e) throws AsyncApiException {
+    if (e.getExceptionCode() != AsyncExceptionCode.InvalidSessionId) {
+      throw e;
+    }
+    try {
+      if (!Authenticator.renewSession(bulkConnection.getConfig(), sessionId)) {
+        throw e;
+      }
+    } catch (ConnectionException renewException) {
+      e.addSuppressed(renewException);
+      throw e;
+    }
+    LOG.debug("Salesforce session was renewed, retrying the Bulk API call");
+  }
 
   /**
    * Start batch job of reading a given guery result.
@@ -115,130 +161,221 @@ public final class SalesforceBulkUtil {
    */
   public static BatchInfo[] runBulkQuery(BulkConnection bulkConnection, String query)
     throws AsyncApiException, IOException {
+    return runBulkQuery(bulkConnection, query, false, SalesforceMetrics.NONE);
+  }
+
+  /**
+   * Start batch job of reading a given guery result.
+   * If PK chunking is enabled, bulk connection is expected to contain PK chunking header.
+   * In this case Salesforce splits the query into several chunk batches and marks the original batch as
+   * {@link BatchStateEnum#NotProcessed}, so only chunk batches are returned.
+   *
+   * @param bulkConnection bulk connection instance
+   * @param query a SOQL query
+   * @param enablePKChunk if true, waits until Salesforce creates PK chunk batches
+   * @param metrics metrics API calls and created batches are counted in
+   * @return an array of batches
+   * @throws AsyncApiException  if there is an issue creating the job
+   * @throws IOException failed to close the query
+   */
+  public static BatchInfo[] runBulkQuery(BulkConnection bulkConnection, String query, boolean enablePKChunk,
+                                         SalesforceMetrics metrics)
+    throws AsyncApiException, IOException {
 
     SObjectDescriptor sObjectDescriptor = SObjectDescriptor.fromQuery(query);
-    JobInfo job = createJob(bulkConnection, sObjectDescriptor.getName(), OperationEnum.query, null);
+    JobInfo job = createJob(bulkConnection, sObjectDescriptor.getName(), OperationEnum.query, null, metrics);
+    SalesforceApiGovernor governor = SalesforceApiGovernor.of(bulkConnection.getConfig());
 
-    try (ByteArrayInputStream bout = new ByteArrayInputStream(query.getBytes())) {
-      bulkConnection.createBatchFromStream(job, bout);
+    BatchInfo batchInfo = createBatch(bulkConnection, job, query, metrics);
+
+    BatchInfo[] batches;
+    if (enablePKChunk) {
+      batches = waitForPKChunkBatches(bulkConnection, job.getId(), batchInfo.getId(), metrics);
+    } else {
+      batches = governor.call("bulk.getBatchInfoList", metrics,
+                              () -> bulkConnection.getBatchInfoList(job.getId())).getBatchInfo();
     }
+    // chunk batches are created by Salesforce, but they are counted since each of them is queued and processed
+    metrics.count(SalesforceMetrics.BATCHES_CREATED, batches.length);
+    return batches;
+  }
 
-    return bulkConnection.getBatchInfoList(job.getId()).getBatchInfo();
+  /**
+   * Start batch job of reading results of the given queries, each query is executed as a separate batch of the job.
+   * Queries must select records of the same sObject, for example different ranges of its records.
+   *
+   * @param bulkConnection bulk connection instance, which must not have PK chunking enabled
+   * @param queries SOQL queries
+   * @param metrics metrics API calls and created batches are counted in
+   * @return an array of batches in the order of the queries
+   * @throws AsyncApiException  if there is an issue creating the job
+   * @throws IOException failed to close the query
+   */
+  public static BatchInfo[] runBulkQueries(BulkConnection bulkConnection, List<String> queries,
+                                           SalesforceMetrics metrics)
+    throws AsyncApiException, IOException {
+
+    SObjectDescriptor sObjectDescriptor = SObjectDescriptor.fromQuery(queries.get(0));
+    JobInfo job = createJob(bulkConnection, sObjectDescriptor.getName(), OperationEnum.query, null, metrics);
+
+    BatchInfo[] batches = new BatchInfo[queries.size()];
+    for (int i = 0; i < batches.length; i++) {
+      batches[i] = createBatch(bulkConnection, job, queries.get(i), metrics);
+    }
+    metrics.count(SalesforceMetrics.BATCHES_CREATED, batches.length);
+    return batches;
   }
 
   /**
-   * Wait until a batch with given batchId succeeds, or throw an exception
+   * Creates a batch of the given query in the job. Session of the driver might have expired while splits
+   * were generated, so the batch is created again with the renewed session if Salesforce rejects it.
+   */
+  private static BatchInfo createBatch(BulkConnection bulkConnection, JobInfo job, String query,
+                                       SalesforceMetrics metrics) throws AsyncApiException {
+    SalesforceApiGovernor governor = SalesforceApiGovernor.of(bulkConnection.getConfig());
+    byte[] queryBytes = query.getBytes();
+    // query stream is consumed by the call, so a new one is created for each attempt
+    return withSessionRenewal(bulkConnection, () -> governor.call(
+      "bulk.createBatch", metrics,
+      () -> bulkConnection.createBatchFromStream(job, new ByteArrayInputStream(queryBytes))));
+  }
+
+  /**
+   * Wait until Salesforce splits the original batch into PK chunk batches.
+   * Original batch is skipped since it is never processed when PK chunking is used.
+   *
+   * @param bulkConnection bulk connection instance
+   * @param jobId a job id
+   * @param originalBatchId id of the batch which was created from the query
+   * @param metrics metrics API calls are counted in
+   * @return an array of PK chunk batches
+   */
+  private static BatchInfo[] waitForPKChunkBatches(BulkConnection bulkConnection, String jobId,
+                                                   String originalBatchId, SalesforceMetrics metrics) {
+    SalesforceApiGovernor governor = SalesforceApiGovernor.of(bulkConnection.getConfig());
+    BatchInfo[] batches = Awaitility.await()
+      .atMost(GET_BATCH_WAIT_TIME_SECONDS, TimeUnit.SECONDS)
+      .pollInterval(GET_BATCH_RESULTS_SLEEP_MS, TimeUnit.MILLISECONDS)
+      .until(() -> governor.call("bulk.getBatchInfoList", metrics,
+                                 () -> bulkConnection.getBatchInfoList(jobId)).getBatchInfo(),
+             statusList -> {
+               for (BatchInfo b : statusList) {
+                 if (!b.getId().equals(originalBatchId)) {
+                   continue;
+                 }
+                 if (b.getState() == BatchStateEnum.Failed) {
+                   throw new BulkAPIBatchException("Batch failed", b);
+                 }
+                 // original batch is completed if Salesforce decided not to chunk the query
+                 return b.getState() == BatchStateEnum.NotProcessed || b.getState() == BatchStateEnum.Completed;
+               }
+               return false;
+             });
+
+    return Stream.of(batches)
+      .filter(b -> b.getState() != BatchStateEnum.NotProcessed)
+      .toArray(BatchInfo[]::new);
+  }
+
+  /**
+   * Wait until a batch with given batchId succeeds, or throw an exception.
+   * Batch status is obtained through {@link BulkBatchStatusPoller}, which polls all batches of the job at once.
    *
    * @param bulkConnection bulk connection instance
    * @param jobId a job id
    * @param batchId a batch id
+   * @param metrics metrics API calls and batch times are recorded in
    * @return an input stream which represents a current batch response, which is a bunch of lines in csv format.
+   *         Multiple batch results are concatenated into one stream.
    *
    * @throws AsyncApiException  if there is an issue creating the job
    * @throws InterruptedException sleep interrupted
    */
-  public static InputStream waitForBatchResults(BulkConnection bulkConnection, String jobId, String batchId)
+  public static InputStream waitForBatchResults(BulkConnection bulkConnection, String jobId, String batchId,
+                                                SalesforceMetrics metrics)
     throws AsyncApiException, InterruptedException {
+    waitForBatch(bulkConnection, jobId, batchId, metrics);
+    return getBatchResults(bulkConnection, jobId, batchId, metrics);
+  }
 
-    BatchInfo info = null;
-    for (int i = 0; i < GET_BATCH_RESULTS_TRIES; i++) {
-      info = bulkConnection.getBatchInfo(jobId, batchId);
-
-      if (info.getState() == BatchStateEnum.Completed) {
-        QueryResultList list =
-          bulkConnection.getQueryResultList(jobId, batchId);
-        String[] resultIds = list.getResult();
-
-        List<InputStream> streams = new ArrayList<>(resultIds.length);
-        for (String resultId : resultIds) {
-          streams.add(bulkConnection.getQueryResultStream(jobId, batchId, resultId));
-        }
-
-        return new SequenceInputStream(Collections.enumeration(streams));
-      } else if (info.getState() == BatchStateEnum.Failed) {
+  /**
+   * Wait until a batch with given batchId succeeds, or throw an exception.
+   *
+   * @param bulkConnection bulk connection instance
+   * @param jobId a job id
+   * @param batchId a batch id
+   * @param metrics metrics API calls and batch times are recorded in
+   * @return info of the completed batch, which contains the number of processed records
+   *
+   * @throws AsyncApiException  if there is an issue getting the batch info
+   * @throws InterruptedException sleep interrupted
+   */
+  public static BatchInfo waitForBatch(BulkConnection bulkConnection, String jobId, String batchId,
+                                       SalesforceMetrics metrics)
+    throws AsyncApiException, InterruptedException {
 
-        throw new BulkAPIBatchException("Batch failed", info);
-      } else {
-        Thread.sleep(GET_BATCH_RESULTS_SLEEP_MS);
-      }
+    String sessionId = bulkConnection.getConfig().getSessionId();
+    BatchInfo batchInfo;
+    try {
+      batchInfo = awaitBatch(bulkConnection, jobId, batchId, metrics);
+    } catch (AsyncApiException e) {
+      // session passed by the driver might have expired while the task was waiting to be scheduled
+      renewSession(bulkConnection, sessionId, e);
+      batchInfo = awaitBatch(bulkConnection, jobId, batchId, metrics);
     }
-    throw new BulkAPIBatchException("Timeout waiting for batch results", info);
+    metrics.batchCompleted(batchInfo);
+    return batchInfo;
   }
 
   /**
-   * Gets the results of the insert operation for every batch and checks them for errors.
+   * Opens results of a completed batch.
    *
    * @param bulkConnection bulk connection instance
-   * @param job a Salesforce job
-   * @param batchInfoList a list of batches to check
-   * @param ignoreFailures if true, unsuccessful row insertions do not cause an exception
-   * @throws AsyncApiException if there is an issue checking for batch results
-   * @throws IOException reading csv from Salesforce failed
+   * @param jobId a job id
+   * @param batchId a batch id
+   * @param metrics metrics API calls are recorded in
+   * @return an input stream which represents a current batch response, which is a bunch of lines in csv format.
+   *         Multiple batch results are concatenated into one stream.
+   *
+   * @throws AsyncApiException  if there is an issue getting the list of batch results
    */
-  public static void checkResults(BulkConnection bulkConnection, JobInfo job,
-                                  List<BatchInfo> batchInfoList, boolean ignoreFailures)
-    throws AsyncApiException, IOException {
+  public static InputStream getBatchResults(BulkConnection bulkConnection, String jobId, String batchId,
+                                            SalesforceMetrics metrics)
+    throws AsyncApiException {
+
+    SalesforceApiGovernor governor = SalesforceApiGovernor.of(bulkConnection.getConfig());
+    QueryResultList list = withSessionRenewal(bulkConnection, () -> governor.call(
+      "bulk.getQueryResultList", metrics, () -> bulkConnection.getQueryResultList(jobId, batchId)));
+    String[] resultIds = list.getResult();
+
+    // results are opened lazily, the next result is prefetched while the current one is read
+    return new BulkResultInputStream(bulkConnection, jobId, batchId, resultIds, metrics);
+  }
 
-    for (BatchInfo batchInfo : batchInfoList) {
-      /*
-      The response is a CSV with the following headers:
-      Id,Success,Created,Error
-       */
-      CSVReader rdr = new CSVReader(bulkConnection.getBatchResultStream(job.getId(), batchInfo.getId()));
-      List<String> resultHeader = rdr.nextRecord();
-      int resultCols = resultHeader.size();
-
-      List<String> row;
-      while ((row = rdr.nextRecord()) != null) {
-        Map<String, String> resultInfo = new HashMap<>();
-        for (int i = 0; i < resultCols; i++) {
-          resultInfo.put(resultHeader.get(i), row.get(i));
-        }
-        boolean success = Boolean.parseBoolean(resultInfo.get("Success"));
-        if (!success) {
-          String error = resultInfo.get("Error");
-          String errorMessage = String.format("Failed to create row with error: '%s'. BatchId='%s'",
-                                              error, batchInfo.getId());
-          if (ignoreFailures) {
-            LOG.error(errorMessage);
-          } else {
-            throw new RuntimeException(errorMessage);
-          }
-        }
+  private static BatchInfo awaitBatch(BulkConnection bulkConnection, String jobId, String batchId,
+                                      SalesforceMetrics metrics)
+    throws AsyncApiException, InterruptedException {
+    try {
+      return BulkBatchStatusPoller.getInstance().awaitBatch(bulkConnection, jobId, batchId, metrics).get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof AsyncApiException) {
+        throw (AsyncApiException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
       }
+      throw new RuntimeException("Failed to wait for batch results", cause);
     }
   }
 
   /**
-   * Wait for a job to complete by polling the Bulk API.
+   * Bulk API call which can be repeated.
    *
-   * @param bulkConnection BulkConnection used to check results.
-   * @param job The job awaiting completion.
-   * @param batchInfoList List of batches for this job.
+   * @param <T> call result type
    */
-  public static void awaitCompletion(BulkConnection bulkConnection, JobInfo job,
-                                     List<BatchInfo> batchInfoList) {
-    Set<String> incomplete = batchInfoList
-      .stream()
-      .map(BatchInfo::getId)
-      .collect(Collectors.toSet());
-
-    Awaitility.await()
-      .atMost(GET_BATCH_WAIT_TIME_SECONDS, TimeUnit.SECONDS)
-      .pollInterval(GET_BATCH_RESULTS_SLEEP_MS, TimeUnit.MILLISECONDS)
-      .until(() -> {
-        BatchInfo[] statusList =
-          bulkConnection.getBatchInfoList(job.getId()).getBatchInfo();
-
-        for (BatchInfo b : statusList) {
-          if (b.getState() == BatchStateEnum.Failed) {
-            throw new BulkAPIBatchException("Batch failed", b);
-          } else if (b.getState() == BatchStateEnum.Completed) {
-            incomplete.remove(b.getId());
-          }
-        }
-
-        return incomplete.isEmpty();
-      });
+  public interface BulkCall<T> {
+
+    T call() throws AsyncApiException;
   }
 }
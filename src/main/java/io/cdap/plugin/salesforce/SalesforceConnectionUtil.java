@@ -15,18 +15,26 @@
  */
 package io.cdap.plugin.salesforce;
 
+import com.google.common.collect.ImmutableMap;
 import com.sforce.soap.partner.PartnerConnection;
 import com.sforce.ws.ConnectionException;
 import com.sforce.ws.ConnectorConfig;
+import io.cdap.plugin.salesforce.authenticator.AuthResponse;
 import io.cdap.plugin.salesforce.authenticator.Authenticator;
 import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
 import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
 
 /**
  * Utility class which provides methods to establish connection with Salesforce.
  */
 public class SalesforceConnectionUtil {
 
+  private static final Logger LOG = LoggerFactory.getLogger(SalesforceConnectionUtil.class);
+
   /**
    * Based on given Salesforce credentials, attempt to establish {@link PartnerConnection}.
    * This is mainly used to obtain sObject describe results.
@@ -41,6 +49,18 @@ public class SalesforceConnectionUtil {
     return new PartnerConnection(connectorConfig);
   }
 
+  /**
+   * Establishes {@link PartnerConnection} based on given {@link Configuration},
+   * reusing session passed by the driver if present.
+   *
+   * @param conf hadoop job configuration
+   * @return partner connection instance
+   * @throws ConnectionException in case error when establishing connection
+   */
+  public static PartnerConnection getPartnerConnection(Configuration conf) throws ConnectionException {
+    return new PartnerConnection(getConnectorConfig(conf));
+  }
+
   /**
    * Creates {@link AuthenticatorCredentials} instance based on given parameters.
    *
@@ -70,4 +90,67 @@ public class SalesforceConnectionUtil {
                                        conf.get(SalesforceConstants.CONFIG_CONSUMER_SECRET),
                                        conf.get(SalesforceConstants.CONFIG_LOGIN_URL));
   }
+
+  /**
+   * Creates connector config based on given {@link Configuration}. If configuration contains session
+   * created by the driver for the run, the session is reused instead of logging in to Salesforce from every task.
+   *
+   * @param conf hadoop job configuration
+   * @return connector config
+   */
+  public static ConnectorConfig getConnectorConfig(Configuration conf) {
+    AuthenticatorCredentials credentials = getAuthenticatorCredentials(conf);
+    String sessionId = conf.get(SalesforceConstants.CONFIG_SESSION_SECRET);
+    String instanceUrl = conf.get(SalesforceConstants.CONFIG_INSTANCE_URL);
+    if (sessionId != null && instanceUrl != null) {
+      Authenticator.putSession(credentials, sessionId, instanceUrl);
+    }
+    return Authenticator.createConnectorConfig(credentials);
+  }
+
+  /**
+   * Logs in to Salesforce with a new session dedicated to a single run of the pipeline. Session is passed
+   * to tasks in the job configuration, which is the only channel that reaches tasks with both MapReduce
+   * and Spark, and must be logged out with {@link #logout} when the run finishes.
+   *
+   * @param credentials Salesforce credentials
+   * @return session of the run
+   */
+  public static AuthResponse createRunSession(AuthenticatorCredentials credentials) {
+    try {
+      return Authenticator.oauthLogin(credentials);
+    } catch (Exception e) {
+      throw new RuntimeException("Connection to salesforce with plugin configurations failed", e);
+    }
+  }
+
+  /**
+   * Returns job configuration properties which pass the given session to tasks. Session id is stored
+   * under a key which hadoop treats as sensitive, so that its value is redacted wherever configuration is shown.
+   *
+   * @param session session of the run
+   * @return job configuration properties
+   */
+  public static Map<String, String> getSessionConfig(AuthResponse session) {
+    return ImmutableMap.of(SalesforceConstants.CONFIG_SESSION_SECRET, session.getAccessToken(),
+                           SalesforceConstants.CONFIG_INSTANCE_URL, session.getInstanceUrl());
+  }
+
+  /**
+   * Logs out session of the run, so that session id left in the job configuration can no longer be used.
+   * Failure is only logged, session expires on its own after the session timeout of the org.
+   *
+   * @param session session of the run
+   */
+  public static void logout(AuthResponse session) {
+    ConnectorConfig connectorConfig = new ConnectorConfig();
+    connectorConfig.setSessionId(session.getAccessToken());
+    connectorConfig.setServiceEndpoint(String.format("%s/services/Soap/u/%s", session.getInstanceUrl(),
+                                                     SalesforceConstants.API_VERSION));
+    try {
+      new PartnerConnection(connectorConfig).logout();
+    } catch (ConnectionException e) {
+      LOG.warn("Failed to log out Salesforce session of the run, it expires after the session timeout", e);
+    }
+  }
 }
@@ -34,6 +34,10 @@ public class SalesforceConstants {
   public static final String CONFIG_USERNAME = "mapred.salesforce.user";
   public static final String CONFIG_CONSUMER_SECRET = "mapred.salesforce.consumer.secret";
   public static final String CONFIG_LOGIN_URL = "mapred.salesforce.login.url";
+  // name ends with 'secret', so that hadoop redacts the value wherever configuration is shown
+  public static final String CONFIG_SESSION_SECRET = "mapred.salesforce.session.secret";
+  public static final String CONFIG_INSTANCE_URL = "mapred.salesforce.instance.url";
+  public static final String CONFIG_METRICS_KEY = "mapred.salesforce.metrics.key";
 
   public static final int RANGE_FILTER_MIN_VALUE = 0;
   public static final int SOQL_MAX_LENGTH = 20000;
@@ -0,0 +1,350 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.sforce.async.BatchInfo;
+import io.cdap.cdap.etl.api.StageContext;
+import io.cdap.cdap.etl.api.StageMetrics;
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Runtime metrics of a Salesforce stage.
+ * <p/>
+ * Input and output formats, record readers and record writers have no access to the stage context,
+ * so they record values into a registry of the stage, which is shared by all threads of the process
+ * and is found by the metrics key passed in the Hadoop configuration. The key identifies the stage of a single
+ * pipeline run, so that concurrent runs of the same pipeline, or different pipelines with the same stage name,
+ * do not share values. The stage binds its {@link StageMetrics} to the registry when it is initialized and
+ * releases it when it is destroyed. Accumulated values are emitted periodically while records are transformed,
+ * when readers and writers are closed, and once more when the run is finished. The registry is dropped once
+ * the last stage instance of the process releases it or the run is finished.
+ * <p/>
+ * Metrics scoped to an sObject record every value twice: under the metric name for the whole stage
+ * and under the metric name suffixed with the sObject name, for example `bytes.downloaded.Account`.
+ * Times are recorded in nanoseconds and emitted in milliseconds.
+ */
+public final class SalesforceMetrics {
+
+  public static final String BYTES_DOWNLOADED = "bytes.downloaded";
+  public static final String BYTES_UPLOADED = "bytes.uploaded";
+  public static final String DOWNLOAD_WAIT_MS = "download.wait.ms";
+  public static final String BATCHES_CREATED = "batches.created";
+  public static final String BATCH_QUEUED_MS = "batch.queued.ms";
+  public static final String BATCH_PROCESSING_MS = "batch.processing.ms";
+  public static final String API_CALLS = "api.calls";
+  public static final String RETRIEVE_CALLS = "soap.retrieve.calls";
+  public static final String RETRIEVE_MS = "soap.retrieve.ms";
+  public static final String RECORDS = "records";
+  public static final String RECORDS_SKIPPED = "skipped.records";
+  public static final String RECORDS_PER_SECOND = "records.per.second";
+  public static final String PARSE_MS = "parse.ms";
+  public static final String CONVERT_MS = "convert.ms";
+
+  /**
+   * Metrics which do not belong to any stage, recorded values are never emitted.
+   */
+  public static final SalesforceMetrics NONE = new SalesforceMetrics(new Registry(null), null);
+
+  private static final long EMIT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+  // key -> [metrics key of the stage run], value -> metrics registry of the stage run
+  private static final ConcurrentMap<String, Registry> STAGES = new ConcurrentHashMap<>();
+
+  private final Registry registry;
+  @Nullable
+  private final String sObject;
+
+  private SalesforceMetrics(Registry registry, @Nullable String sObject) {
+    this.registry = registry;
+    this.sObject = sObject;
+  }
+
+  /**
+   * Returns the key, which identifies metrics of the stage in the current pipeline run.
+   * Logical start time distinguishes runs of the same pipeline.
+   *
+   * @param context stage context
+   * @return metrics key of the stage run
+   */
+  public static String getKey(StageContext context) {
+    return String.join(":", context.getNamespace(), context.getPipelineName(),
+                       String.valueOf(context.getLogicalStartTime()), context.getStageName());
+  }
+
+  /**
+   * Returns metrics of the stage in the current pipeline run.
+   *
+   * @param context stage context
+   * @return metrics of the stage, not scoped to any sObject
+   */
+  public static SalesforceMetrics forStage(StageContext context) {
+    return forKey(getKey(context));
+  }
+
+  /**
+   * Returns metrics of the stage run with the given key.
+   *
+   * @param key metrics key of the stage run
+   * @return metrics of the stage, not scoped to any sObject
+   */
+  public static SalesforceMetrics forKey(String key) {
+    return new SalesforceMetrics(STAGES.computeIfAbsent(key, Registry::new), null);
+  }
+
+  /**
+   * Returns metrics of the stage run which given Hadoop configuration belongs to.
+   *
+   * @param conf Hadoop configuration
+   * @return metrics of the stage or {@link #NONE} if configuration has no metrics key
+   */
+  public static SalesforceMetrics of(Configuration conf) {
+    String key = conf.get(SalesforceConstants.CONFIG_METRICS_KEY);
+    return key == null ? NONE : forKey(key);
+  }
+
+  /**
+   * Emits values recorded by this process for the stage run, for example by the input format or the output
+   * committer, and drops the registry of the stage run. Called once the run is finished.
+   *
+   * @param context stage context
+   */
+  public static void finishRun(StageContext context) {
+    Registry registry = STAGES.remove(getKey(context));
+    if (registry != null) {
+      registry.emit(context.getMetrics(), System.nanoTime());
+    }
+  }
+
+  /**
+   * Returns metrics of the same stage, which are additionally recorded for the given sObject.
+   *
+   * @param sObject sObject name
+   * @return metrics scoped to the sObject
+   */
+  public SalesforceMetrics forSObject(String sObject) {
+    return new SalesforceMetrics(registry, sObject);
+  }
+
+  /**
+   * Returns a meter of the counter with the given name. Meters are meant for per record hot paths,
+   * where the counter should not be looked up by name every time.
+   *
+   * @param name metric name
+   * @return counter meter
+   */
+  public Meter counter(String name) {
+    return new Meter(registry.counters, name, sObject);
+  }
+
+  /**
+   * Returns a meter of the timer with the given name, values added to the meter are in nanoseconds.
+   *
+   * @param name metric name
+   * @return timer meter
+   */
+  public Meter timer(String name) {
+    return new Meter(registry.timers, name, sObject);
+  }
+
+  public void count(String name, long delta) {
+    counter(name).add(delta);
+  }
+
+  public void time(String name, long nanos) {
+    timer(name).add(nanos);
+  }
+
+  /**
+   * Counts a single call of the Salesforce API endpoint. API calls are counted for the whole stage only.
+   *
+   * @param endpoint API endpoint, for example `bulk.createBatch`
+   */
+  public void apiCall(String endpoint) {
+    registry.counters.computeIfAbsent(API_CALLS, key -> new LongAdder()).increment();
+    registry.counters.computeIfAbsent(API_CALLS + "." + endpoint, key -> new LongAdder()).increment();
+  }
+
+  /**
+   * Records time the completed batch spent in the Salesforce queue and time it was processed.
+   * Queued time is the time between batch creation and its last modification, excluding processing time.
+   *
+   * @param batchInfo info of the completed batch
+   */
+  public void batchCompleted(BatchInfo batchInfo) {
+    long processingMs = batchInfo.getTotalProcessingTime();
+    time(BATCH_PROCESSING_MS, TimeUnit.MILLISECONDS.toNanos(processingMs));
+
+    Calendar created = batchInfo.getCreatedDate();
+    Calendar modified = batchInfo.getSystemModstamp();
+    if (created != null && modified != null) {
+      long queuedMs = modified.getTimeInMillis() - created.getTimeInMillis() - processingMs;
+      time(BATCH_QUEUED_MS, TimeUnit.MILLISECONDS.toNanos(Math.max(queuedMs, 0)));
+    }
+  }
+
+  /**
+   * Binds stage metrics values of this process are emitted to. Every binding stage instance must
+   * {@link #release} the metrics when it is destroyed.
+   *
+   * @param stageMetrics metrics of the stage
+   */
+  public void bind(StageMetrics stageMetrics) {
+    registry.stageMetrics = stageMetrics;
+    registry.bindings.incrementAndGet();
+  }
+
+  /**
+   * Emits values recorded since the previous emission and releases the binding of the stage instance.
+   * Registry of the stage run is dropped once it is released by all stage instances of this process.
+   * Readers and writers which still hold the metrics keep recording into the dropped registry
+   * and emit their values when they are closed.
+   */
+  public void release() {
+    emit();
+    if (registry.bindings.decrementAndGet() <= 0 && registry.key != null) {
+      STAGES.remove(registry.key, registry);
+    }
+  }
+
+  /**
+   * Emits values recorded since the previous emission of this stage to the given stage metrics.
+   *
+   * @param stageMetrics metrics of the stage
+   */
+  public void emit(StageMetrics stageMetrics) {
+    registry.emit(stageMetrics, System.nanoTime());
+  }
+
+  /**
+   * Emits values recorded since the previous emission of this stage to the bound stage metrics.
+   * Does nothing if stage metrics are not bound in this process.
+   */
+  public void emit() {
+    StageMetrics stageMetrics = registry.stageMetrics;
+    if (stageMetrics != null) {
+      registry.emit(stageMetrics, System.nanoTime());
+    }
+  }
+
+  /**
+   * Emits values recorded since the previous emission to the bound stage metrics if the emit interval
+   * has elapsed. Check is cheap enough to be done for every record.
+   */
+  public void emitIfDue() {
+    long now = System.nanoTime();
+    StageMetrics stageMetrics = registry.stageMetrics;
+    if (now - registry.nextEmitNanos >= 0 && stageMetrics != null) {
+      registry.emit(stageMetrics, now);
+    }
+  }
+
+  @VisibleForTesting
+  static boolean isRegistered(String key) {
+    return STAGES.containsKey(key);
+  }
+
+  @VisibleForTesting
+  static void clear() {
+    STAGES.clear();
+  }
+
+  /**
+   * Accumulates values of a single counter or timer, for the whole stage and for the sObject if set.
+   */
+  public static final class Meter {
+
+    private final LongAdder total;
+    @Nullable
+    private final LongAdder perSObject;
+
+    private Meter(ConcurrentMap<String, LongAdder> values, String name, @Nullable String sObject) {
+      this.total = values.computeIfAbsent(name, key -> new LongAdder());
+      this.perSObject = sObject == null ? null : values.computeIfAbsent(name + "." + sObject, key -> new LongAdder());
+    }
+
+    public void add(long value) {
+      total.add(value);
+      if (perSObject != null) {
+        perSObject.add(value);
+      }
+    }
+  }
+
+  /**
+   * Metric values of a single stage run recorded in this process.
+   */
+  private static final class Registry {
+
+    @Nullable
+    private final String key;
+    // number of stage instances of this process which bound their stage metrics
+    private final AtomicInteger bindings = new AtomicInteger();
+    // key -> [metric name], value -> total value recorded in this process
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    // key -> [metric name], value -> total time in nanoseconds
+    private final ConcurrentMap<String, LongAdder> timers = new ConcurrentHashMap<>();
+    // key -> [metric name], value -> total value already emitted, in milliseconds for timers
+    private final Map<String, Long> emitted = new HashMap<>();
+    private long lastEmitNanos = System.nanoTime();
+    private volatile long nextEmitNanos = lastEmitNanos + EMIT_INTERVAL_NANOS;
+    @Nullable
+    private volatile StageMetrics stageMetrics;
+
+    private Registry(@Nullable String key) {
+      this.key = key;
+    }
+
+    private synchronized void emit(StageMetrics stageMetrics, long now) {
+      double seconds = (double) (now - lastEmitNanos) / TimeUnit.SECONDS.toNanos(1);
+      counters.forEach((name, value) -> {
+        long delta = emitDelta(name, value.sum());
+        count(stageMetrics, name, delta);
+        // rate is not reliable for short intervals, e.g. when the stage is destroyed right after emission
+        if (seconds >= 1 && (name.equals(RECORDS) || name.startsWith(RECORDS + "."))) {
+          stageMetrics.gauge(RECORDS_PER_SECOND + name.substring(RECORDS.length()), Math.round(delta / seconds));
+        }
+      });
+      timers.forEach((name, value) -> count(stageMetrics, name, emitDelta(name, value.sum() / NANOS_PER_MILLI)));
+
+      lastEmitNanos = now;
+      nextEmitNanos = now + EMIT_INTERVAL_NANOS;
+    }
+
+    private long emitDelta(String name, long total) {
+      Long previous = emitted.put(name, total);
+      return previous == null ? total : total - previous;
+    }
+
+    private static void count(StageMetrics stageMetrics, String name, long delta) {
+      while (delta > 0) {
+        int value = (int) Math.min(delta, Integer.MAX_VALUE);
+        stageMetrics.count(name, value);
+        delta -= value;
+      }
+    }
+  }
+}
@@ -15,10 +15,13 @@
  */
 package io.cdap.plugin.salesforce;
 
+import io.cdap.plugin.salesforce.parser.QueryPlan;
 import io.cdap.plugin.salesforce.parser.SalesforceQueryParser;
 
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * Provides Salesforce query utility methods.
@@ -31,9 +34,10 @@ public class SalesforceQueryUtil {
   private static final String FROM = " FROM ";
   private static final String WHERE = " WHERE ";
   private static final String AND = " AND ";
+  private static final String ORDER_BY = " ORDER BY ";
+  private static final String COUNT = "COUNT()";
 
 
-  private static final String FIELD_LAST_MODIFIED_DATE = "LastModifiedDate";
   private static final String FIELD_ID = "Id";
 
   /**
@@ -84,6 +88,125 @@ public class SalesforceQueryUtil {
     return SELECT + FIELD_ID + " " + fromStatement;
   }
 
+  /**
+   * Creates SObject count query based on initial query. Replaces all query fields with COUNT() in SELECT clause
+   * but leaves other clauses as is. Number of matching records is returned as the size of query result.
+   * <p/>
+   * Example:
+   * <ul>
+   *  <li>Initial query: `SELECT Name, LastModifiedDate FROM Opportunity WHERE Name LIKE 'S_%'`</li>
+   *  <li>Result query: `SELECT COUNT() FROM Opportunity WHERE Name LIKE 'S_%'`</li>
+   * </ul>
+   *
+   * @param query initial query, which must not sort records
+   * @return SObject count query
+   */
+  public static String createSObjectCountQuery(String query) {
+    String fromStatement = SalesforceQueryParser.getFromStatement(query);
+    return SELECT + COUNT + " " + fromStatement;
+  }
+
+  /**
+   * Creates SObject IDs query based on initial query, which returns Ids sorted in ascending order.
+   * Initial query must not contain clauses which follow ORDER BY clause.
+   * <p/>
+   * Example:
+   * <ul>
+   *  <li>Initial query: `SELECT Name, LastModifiedDate FROM Opportunity WHERE Name LIKE 'S_%'`</li>
+   *  <li>Result query: `SELECT Id FROM Opportunity WHERE Name LIKE 'S_%' ORDER BY Id`</li>
+   * </ul>
+   *
+   * @param query initial query, which must not sort or limit records
+   * @return SObject IDs query sorted by Id
+   */
+  public static String createSObjectSortedIdQuery(String query) {
+    return createSObjectIdQuery(query) + ORDER_BY + FIELD_ID;
+  }
+
+  /**
+   * Creates query which selects records of initial query within the given range of Ids.
+   * <p/>
+   * Example:
+   * <ul>
+   *  <li>Initial query: `SELECT Name FROM Opportunity WHERE Name LIKE 'S_%'`</li>
+   *  <li>Result query: `SELECT Name FROM Opportunity WHERE (Name LIKE 'S_%') AND Id >= '0060...' AND Id < '0061...'`
+   *  </li>
+   * </ul>
+   *
+   * @param query initial query
+   * @param fromId inclusive lower bound of the range, null if range is not bounded
+   * @param toId exclusive upper bound of the range, null if range is not bounded
+   * @return query of the Id range
+   */
+  public static String createSObjectIdRangeQuery(String query, @Nullable String fromId, @Nullable String toId) {
+    List<String> conditions = new ArrayList<>();
+    if (fromId != null) {
+      conditions.add(String.format("%s %s '%s'", FIELD_ID, GREATER_THAN_OR_EQUAL, fromId));
+    }
+    if (toId != null) {
+      conditions.add(String.format("%s %s '%s'", FIELD_ID, LESS_THAN, toId));
+    }
+    return conditions.isEmpty() ? query : SalesforceQueryParser.addCondition(query, String.join(AND, conditions));
+  }
+
+  /**
+   * Creates query which selects records of initial query modified within the given sub-interval of its window.
+   * <p/>
+   * Example:
+   * <ul>
+   *  <li>Initial query: `SELECT Name FROM Opportunity WHERE LastModifiedDate>=2018-01-01T00:00:00Z`</li>
+   *  <li>Result query: `SELECT Name FROM Opportunity WHERE (LastModifiedDate>=2018-01-01T00:00:00Z)
+   *  AND LastModifiedDate>=2019-01-01T00:00:00Z AND LastModifiedDate<2020-01-01T00:00:00Z`</li>
+   * </ul>
+   *
+   * @param query initial query
+   * @param filterDescriptor sub-interval, bounds of which are added to the query
+   * @return query of the sub-interval
+   */
+  public static String createSObjectTimeWindowQuery(String query, SObjectFilterDescriptor filterDescriptor) {
+    return filterDescriptor.isNoOp()
+      ? query
+      : SalesforceQueryParser.addCondition(query, generateSObjectFilter(filterDescriptor));
+  }
+
+  /**
+   * Splits fields of a wide query into several queries, each of which is under SOQL max length limit.
+   * Every query selects {@link #FIELD_ID} followed by a group of fields and leaves other clauses as is,
+   * so that results of the queries can be joined by Id.
+   * <p/>
+   * Example:
+   * <ul>
+   *  <li>Initial query: `SELECT Name, Field_1__c, ..., Field_N__c FROM Account WHERE Name LIKE 'S_%'`</li>
+   *  <li>Result queries: `SELECT Id,Name,Field_1__c,... FROM Account WHERE Name LIKE 'S_%' ORDER BY Id`,
+   *  `SELECT Id,...,Field_N__c FROM Account WHERE Name LIKE 'S_%' ORDER BY Id`</li>
+   * </ul>
+   *
+   * @param query initial query, which must not sort or limit records
+   * @param orderById true if records should be sorted by Id, false if they are read in Id order anyway,
+   *                  for example when query is split into PK chunks
+   * @return field group queries
+   */
+  public static List<String> createSObjectFieldGroupQueries(String query, boolean orderById) {
+    QueryPlan queryPlan = SalesforceQueryParser.getQueryPlan(query);
+    String fromStatement = " " + queryPlan.getFromStatement() + (orderById ? ORDER_BY + FIELD_ID : "");
+
+    List<String> queries = new ArrayList<>();
+    StringBuilder groupQuery = new StringBuilder(SELECT).append(FIELD_ID);
+    for (String field : queryPlan.getDescriptor().getFieldsNames()) {
+      if (FIELD_ID.equalsIgnoreCase(field)) {
+        continue;
+      }
+      int length = groupQuery.length() + field.length() + 1 + fromStatement.length();
+      if (length >= SalesforceConstants.SOQL_MAX_LENGTH && groupQuery.length() > SELECT.length() + FIELD_ID.length()) {
+        queries.add(groupQuery.append(fromStatement).toString());
+        groupQuery = new StringBuilder(SELECT).append(FIELD_ID);
+      }
+      groupQuery.append(',').append(field);
+    }
+    queries.add(groupQuery.append(fromStatement).toString());
+    return queries;
+  }
+
   /**
    * Generates SObject query filter based on provided values.
    *
@@ -93,7 +216,7 @@ public class SalesforceQueryUtil {
   private static String generateSObjectFilter(SObjectFilterDescriptor filterDescriptor) {
     StringBuilder filter = new StringBuilder();
     if (filterDescriptor.getStartTime() != null) {
-      filter.append(FIELD_LAST_MODIFIED_DATE)
+      filter.append(filterDescriptor.getField())
         .append(GREATER_THAN_OR_EQUAL)
         .append(filterDescriptor.getStartTime().format(DateTimeFormatter.ISO_DATE_TIME));
     }
@@ -101,7 +224,7 @@ public class SalesforceQueryUtil {
       if (filter.length() > 0) {
         filter.append(AND);
       }
-      filter.append(FIELD_LAST_MODIFIED_DATE)
+      filter.append(filterDescriptor.getField())
         .append(LESS_THAN)
         .append(filterDescriptor.getEndTime().format(DateTimeFormatter.ISO_DATE_TIME));
     }
@@ -18,20 +18,30 @@ package io.cdap.plugin.salesforce.authenticator;
 
 import com.google.common.base.Strings;
 import com.google.gson.Gson;
+import com.sforce.soap.partner.SessionHeader_element;
+import com.sforce.ws.ConnectionException;
 import com.sforce.ws.ConnectorConfig;
+import com.sforce.ws.SessionRenewer;
 import io.cdap.plugin.salesforce.SalesforceConstants;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 
+import javax.xml.namespace.QName;
+
 /**
  * Authentication to Salesforce via oauth2
  */
 public class Authenticator {
   private static final Gson GSON = new Gson();
 
+  private static final QName SESSION_HEADER = new QName("urn:partner.soap.sforce.com", "SessionHeader");
+  private static final SessionCache SESSION_CACHE = new SessionCache(Authenticator::oauthLogin);
+
   /**
-   * Authenticates via oauth2 to salesforce and returns a connectorConfig
-   * which can be used by salesforce libraries to make a connection.
+   * Creates a connectorConfig which can be used by salesforce libraries to make a connection.
+   * Session is shared by all connections with the same credentials, oauth2 login is performed
+   * only if there is no session for the credentials yet. Expired session is renewed on
+   * INVALID_SESSION_ID errors of the SOAP API, other APIs renew it with {@link #renewSession}.
    *
    * @param credentials information to log in
    *
@@ -39,14 +49,17 @@ public class Authenticator {
    */
   public static ConnectorConfig createConnectorConfig(AuthenticatorCredentials credentials) {
     try {
-      AuthResponse authResponse = oauthLogin(credentials);
+      AuthResponse authResponse = SESSION_CACHE.getSession(credentials);
       ConnectorConfig connectorConfig = new ConnectorConfig();
       connectorConfig.setSessionId(authResponse.getAccessToken());
+      // identifies the user of the session, for example by describe results cache
+      connectorConfig.setUsername(credentials.getUsername());
       String apiVersion = SalesforceConstants.API_VERSION;
       String restEndpoint = String.format("%s/services/async/%s", authResponse.getInstanceUrl(), apiVersion);
       String serviceEndPoint = String.format("%s/services/Soap/u/%s", authResponse.getInstanceUrl(), apiVersion);
       connectorConfig.setRestEndpoint(restEndpoint);
       connectorConfig.setServiceEndpoint(serviceEndPoint);
+      connectorConfig.setSessionRenewer(config -> renewSessionHeader(credentials, config));
       // This should only be false when doing debugging.
       connectorConfig.setCompression(true);
       // Set this to true to see HTTP requests and responses on stdout
@@ -58,6 +71,70 @@ public class Authenticator {
     }
   }
 
+  /**
+   * Returns session shared by all connections with the given credentials, logs in if there is no session yet.
+   *
+   * @param credentials information to log in
+   * @return session
+   */
+  public static AuthResponse getSession(AuthenticatorCredentials credentials) {
+    return SESSION_CACHE.getSession(credentials);
+  }
+
+  /**
+   * Shares session obtained by another process, so that connections with the given credentials
+   * use it instead of logging in. Session is ignored if this process already has one.
+   *
+   * @param credentials information to log in
+   * @param accessToken session access token
+   * @param instanceUrl url of the Salesforce instance the session belongs to
+   */
+  public static void putSession(AuthenticatorCredentials credentials, String accessToken, String instanceUrl) {
+    SESSION_CACHE.putSessionIfAbsent(credentials,
+                                     new AuthResponse(accessToken, instanceUrl, null, null, null, null, null));
+  }
+
+  /**
+   * Renews session of the given connector config after Salesforce rejected it.
+   * If connector config already holds another session, for example renewed by a concurrent request,
+   * it is kept as is.
+   *
+   * @param connectorConfig connector config created by {@link #createConnectorConfig}
+   * @param expiredSessionId session id which was rejected by Salesforce
+   * @return true if connector config holds a session other than the expired one
+   * @throws ConnectionException if session cannot be renewed
+   */
+  public static boolean renewSession(ConnectorConfig connectorConfig, String expiredSessionId)
+    throws ConnectionException {
+    synchronized (connectorConfig) {
+      SessionRenewer sessionRenewer = connectorConfig.getSessionRenewer();
+      if (expiredSessionId.equals(connectorConfig.getSessionId()) && sessionRenewer != null) {
+        sessionRenewer.renewSession(connectorConfig);
+      }
+      return !expiredSessionId.equals(connectorConfig.getSessionId());
+    }
+  }
+
+  private static SessionRenewer.SessionRenewalHeader renewSessionHeader(AuthenticatorCredentials credentials,
+                                                                        ConnectorConfig connectorConfig)
+    throws ConnectionException {
+    AuthResponse authResponse;
+    try {
+      authResponse = SESSION_CACHE.renewSession(credentials, connectorConfig.getSessionId());
+    } catch (RuntimeException e) {
+      throw new ConnectionException("Failed to renew Salesforce session", e);
+    }
+    connectorConfig.setSessionId(authResponse.getAccessToken());
+
+    // SOAP connections send session in the header, so it is replaced for the retried request
+    SessionHeader_element sessionHeader = new SessionHeader_element();
+    sessionHeader.setSessionId(authResponse.getAccessToken());
+    SessionRenewer.SessionRenewalHeader renewalHeader = new SessionRenewer.SessionRenewalHeader();
+    renewalHeader.name = SESSION_HEADER;
+    renewalHeader.headerElement = sessionHeader;
+    return renewalHeader;
+  }
+
   /**
    * Authenticate via oauth2 to salesforce and return response to auth request.
    *
@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.authenticator;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps Salesforce sessions obtained by oauth2 login, so that all connections of the same process
+ * created with the same credentials share one session instead of logging in every time.
+ * <p/>
+ * Session is replaced only when it is reported as expired or invalid. If several threads report
+ * the same expired session, login is performed once and the rest of threads receive the new session.
+ */
+public class SessionCache {
+
+  private final ConcurrentMap<AuthenticatorCredentials, AuthResponse> sessions = new ConcurrentHashMap<>();
+  private final LoginFunction loginFunction;
+
+  public SessionCache(LoginFunction loginFunction) {
+    this.loginFunction = loginFunction;
+  }
+
+  /**
+   * Returns cached session for the given credentials, logs in if there is no session yet.
+   *
+   * @param credentials information to log in
+   * @return session
+   */
+  public AuthResponse getSession(AuthenticatorCredentials credentials) {
+    return sessions.computeIfAbsent(credentials, this::login);
+  }
+
+  /**
+   * Caches session obtained by another process, for example session passed from the driver to the task.
+   * Session already cached for the given credentials is kept.
+   *
+   * @param credentials information to log in
+   * @param session session obtained for the given credentials
+   */
+  public void putSessionIfAbsent(AuthenticatorCredentials credentials, AuthResponse session) {
+    sessions.putIfAbsent(credentials, session);
+  }
+
+  /**
+   * Replaces the expired session with a new one. If cached session differs from the expired one,
+   * it was already renewed, so it is returned without logging in.
+   *
+   * @param credentials information to log in
+   * @param expiredAccessToken access token rejected by Salesforce
+   * @return renewed session
+   */
+  public AuthResponse renewSession(AuthenticatorCredentials credentials, String expiredAccessToken) {
+    return sessions.compute(credentials, (key, session) ->
+      session == null || session.getAccessToken().equals(expiredAccessToken) ? login(key) : session);
+  }
+
+  private AuthResponse login(AuthenticatorCredentials credentials) {
+    try {
+      return loginFunction.login(credentials);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to log in to Salesforce", e);
+    }
+  }
+
+  /**
+   * Performs oauth2 login.
+   */
+  public interface LoginFunction {
+
+    AuthResponse login(AuthenticatorCredentials credentials) throws Exception;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.parser;
+
+import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+
+import javax.annotation.Nullable;
+
+/**
+ * Information about SOQL query collected from a single parse of the query.
+ * Instances are shared by all callers which parse the same query, so they must not be modified.
+ */
+public class QueryPlan {
+
+  private final String query;
+  @Nullable
+  private final SObjectDescriptor descriptor;
+  @Nullable
+  private final SOQLParsingException descriptorException;
+  private final String fromStatement;
+  private final boolean restricted;
+  private final boolean ordered;
+  private final boolean partitionable;
+  private final boolean underLengthLimit;
+
+  QueryPlan(String query, @Nullable SObjectDescriptor descriptor, @Nullable SOQLParsingException descriptorException,
+            String fromStatement, boolean restricted, boolean ordered, boolean partitionable) {
+    this.query = query;
+    this.descriptor = descriptor;
+    this.descriptorException = descriptorException;
+    this.fromStatement = fromStatement;
+    this.restricted = restricted;
+    this.ordered = ordered;
+    this.partitionable = partitionable;
+    this.underLengthLimit = query.length() < SalesforceConstants.SOQL_MAX_LENGTH;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  /**
+   * Returns top sObject information and its fields information.
+   *
+   * @return sObject descriptor
+   * @throws SOQLParsingException if query is syntactically valid, but its fields are not supported,
+   *                              for example, field aliases are used without GROUP BY clause
+   */
+  public SObjectDescriptor getDescriptor() {
+    if (descriptorException != null) {
+      throw new SOQLParsingException(descriptorException.getMessage(), descriptorException);
+    }
+    return descriptor;
+  }
+
+  /**
+   * @return part of SOQL query after select statement
+   */
+  public String getFromStatement() {
+    return fromStatement;
+  }
+
+  /**
+   * @return true if query has restricted syntax that cannot be processed by Bulk API, false otherwise
+   */
+  public boolean isRestricted() {
+    return restricted;
+  }
+
+  /**
+   * @return true if query sorts or limits returned rows, so that its fields cannot be split into several queries
+   */
+  public boolean isOrdered() {
+    return ordered;
+  }
+
+  /**
+   * @return true if rows selected by the query can be split into ranges of Ids, each read by a separate query
+   */
+  public boolean isPartitionable() {
+    return partitionable;
+  }
+
+  /**
+   * @return true if query length is less than SOQL max length limit, false if query is a wide query
+   */
+  public boolean isUnderLengthLimit() {
+    return underLengthLimit;
+  }
+}
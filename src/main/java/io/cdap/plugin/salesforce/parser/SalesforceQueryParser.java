@@ -15,20 +15,60 @@
  */
 package io.cdap.plugin.salesforce.parser;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.BaseErrorListener;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import soql.SOQLLexer;
 import soql.SOQLParser;
 
 /**
  * Utility class that parses SOQL query.
+ * <p/>
+ * Each query is parsed once into a {@link QueryPlan}, plans of recently used queries are cached,
+ * so that driver and record readers do not parse the same query again.
  */
 public class SalesforceQueryParser {
 
+  private static final int QUERY_PLAN_CACHE_SIZE = 100;
+
+  private static final LoadingCache<String, QueryPlan> QUERY_PLANS = CacheBuilder.newBuilder()
+    .maximumSize(QUERY_PLAN_CACHE_SIZE)
+    .build(new CacheLoader<String, QueryPlan>() {
+      @Override
+      public QueryPlan load(String query) {
+        return parse(query);
+      }
+    });
+
+  /**
+   * Returns plan of the given SOQL query, parses the query if it was not parsed recently.
+   *
+   * @param query SOQL query
+   * @return query plan
+   * @throws SOQLParsingException if query is invalid
+   */
+  public static QueryPlan getQueryPlan(String query) {
+    try {
+      return QUERY_PLANS.getUnchecked(query);
+    } catch (UncheckedExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause());
+      throw e;
+    }
+  }
+
   /**
    * Parses given SOQL query and retrieves top sObject information and its fields information.
    *
@@ -36,9 +76,7 @@ public class SalesforceQueryParser {
    * @return sObject descriptor
    */
   public static SObjectDescriptor getObjectDescriptorFromQuery(String query) {
-    SOQLParser parser = initParser(query);
-    SalesforceQueryVisitor visitor = new SalesforceQueryVisitor();
-    return visitor.visit(parser.statement());
+    return getQueryPlan(query).getDescriptor();
   }
 
   /**
@@ -48,9 +86,7 @@ public class SalesforceQueryParser {
    * @return from statement
    */
   public static String getFromStatement(String query) {
-    SOQLParser parser = initParser(query);
-    SalesforceQueryVisitor.FromStatementVisitor visitor = new SalesforceQueryVisitor.FromStatementVisitor();
-    return visitor.visit(parser.statement());
+    return getQueryPlan(query).getFromStatement();
   }
 
   /**
@@ -60,12 +96,53 @@ public class SalesforceQueryParser {
    * @return true if query has restricted syntax, false otherwise
    */
   public static boolean isRestrictedQuery(String query) {
-    SOQLParser parser = initParser(query);
-    SalesforceQueryVisitor.RestrictedQueryVisitor visitor = new SalesforceQueryVisitor.RestrictedQueryVisitor();
-    return visitor.visit(parser.statement());
+    return getQueryPlan(query).isRestricted();
+  }
+
+  /**
+   * Adds the given condition to the WHERE clause of the query, other clauses are left as is.
+   *
+   * @param query SOQL query
+   * @param condition condition to add, for example `Id >= '001000000000001'`
+   * @return query with the condition
+   * @throws SOQLParsingException if query is invalid
+   */
+  public static String addCondition(String query, String condition) {
+    return new SalesforceQueryVisitor.ConditionVisitor(condition).visit(parseStatement(query));
+  }
+
+  /**
+   * Parses given SOQL query into a new plan, bypassing the cache.
+   *
+   * @param query SOQL query
+   * @return query plan
+   * @throws SOQLParsingException if query is invalid
+   */
+  @VisibleForTesting
+  public static QueryPlan parse(String query) {
+    SOQLParser.StatementContext statement = parseStatement(query);
+
+    SObjectDescriptor descriptor = null;
+    SOQLParsingException descriptorException = null;
+    try {
+      descriptor = new SalesforceQueryVisitor().visit(statement);
+    } catch (SOQLParsingException e) {
+      // from statement and restrictions are still available for syntactically valid query
+      descriptorException = e;
+    }
+    String fromStatement = new SalesforceQueryVisitor.FromStatementVisitor().visit(statement);
+    boolean restricted = new SalesforceQueryVisitor.RestrictedQueryVisitor().visit(statement);
+    boolean ordered = new SalesforceQueryVisitor.OrderedQueryVisitor().visit(statement);
+    boolean partitionable = new SalesforceQueryVisitor.PartitionableQueryVisitor().visit(statement);
+    return new QueryPlan(query, descriptor, descriptorException, fromStatement, restricted, ordered, partitionable);
   }
 
-  private static SOQLParser initParser(String query) {
+  /**
+   * Parses query using faster SLL prediction first. SLL parsing bails out on the first error,
+   * since the error can be caused either by SLL limitations or by invalid query, so the query is parsed again
+   * using full LL prediction, which reports the actual syntax error if there is any.
+   */
+  private static SOQLParser.StatementContext parseStatement(String query) {
     SOQLLexer lexer = new SOQLLexer(CharStreams.fromString(query));
     lexer.removeErrorListeners();
     lexer.addErrorListener(ThrowingErrorListener.INSTANCE);
@@ -73,9 +150,18 @@ public class SalesforceQueryParser {
     CommonTokenStream tokens = new CommonTokenStream(lexer);
     SOQLParser parser = new SOQLParser(tokens);
     parser.removeErrorListeners();
-    parser.addErrorListener(ThrowingErrorListener.INSTANCE);
-
-    return parser;
+    parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+    parser.setErrorHandler(new BailErrorStrategy());
+    try {
+      return parser.statement();
+    } catch (ParseCancellationException e) {
+      tokens.seek(0);
+      parser.reset();
+      parser.addErrorListener(ThrowingErrorListener.INSTANCE);
+      parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+      parser.setErrorHandler(new DefaultErrorStrategy());
+      return parser.statement();
+    }
   }
 
   /**
@@ -17,8 +17,11 @@
  */
 package io.cdap.plugin.salesforce.parser;
 
+import com.google.common.collect.ImmutableSet;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
 import io.cdap.plugin.salesforce.SalesforceFunctionType;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.RuleContext;
 import org.antlr.v4.runtime.misc.Interval;
 import soql.SOQLBaseVisitor;
@@ -27,6 +30,7 @@ import soql.SOQLParser;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -34,6 +38,9 @@ import java.util.stream.Collectors;
  */
 public class SalesforceQueryVisitor extends SOQLBaseVisitor<SObjectDescriptor> {
 
+  private static final Set<String> AGGREGATE_FUNCTIONS = ImmutableSet.of(
+    "AVG", "COUNT", "COUNT_DISTINCT", "MIN", "MAX", "SUM");
+
   @Override
   public SObjectDescriptor visitStatement(SOQLParser.StatementContext ctx) {
     SOQLParser.ObjectTypeContext objectTypeContext = ctx.fromStatement().objectType();
@@ -263,6 +270,19 @@ public class SalesforceQueryVisitor extends SOQLBaseVisitor<SObjectDescriptor> {
     }
   }
 
+  /**
+   * Visits query from statement and checks if it sorts or limits returned rows.
+   * For example: ORDER BY, LIMIT.
+   */
+  public static class OrderedQueryVisitor extends SOQLBaseVisitor<Boolean> {
+
+    @Override
+    public Boolean visitStatement(SOQLParser.StatementContext ctx) {
+      SOQLParser.FromStatementContext fromStatementContext = ctx.fromStatement();
+      return fromStatementContext.ORDER() != null || fromStatementContext.LIMIT() != null;
+    }
+  }
+
   /**
    * Visits query from statement and checks if it contains clauses that are restricted by Bulk API.
    * For example: GROUP BY [ROLLUP / CUBE], OFFSET.
@@ -304,4 +324,87 @@ public class SalesforceQueryVisitor extends SOQLBaseVisitor<SObjectDescriptor> {
       return Boolean.FALSE;
     }
   }
+
+  /**
+   * Visits query statement and checks if rows it selects can be split into ranges of Ids,
+   * so that each range is read by a separate query. Queries which group, sort, limit or skip rows, lock rows
+   * or use aggregate functions cannot be split without changing their results.
+   */
+  public static class PartitionableQueryVisitor extends SOQLBaseVisitor<Boolean> {
+
+    @Override
+    public Boolean visitStatement(SOQLParser.StatementContext ctx) {
+      SOQLParser.FromStatementContext fromStatementContext = ctx.fromStatement();
+      if (fromStatementContext.GROUP() != null || fromStatementContext.ORDER() != null
+        || fromStatementContext.LIMIT() != null || fromStatementContext.OFFSET() != null
+        || fromStatementContext.FOR() != null || fromStatementContext.UPDATE() != null) {
+        return false;
+      }
+
+      return !ctx.fieldList().accept(new AggregateFunctionVisitor());
+    }
+  }
+
+  /**
+   * Visits query fields and returns true if at least one aggregate function is called, false otherwise.
+   * Fields of sub-queries are not visited, since they are aggregated for each parent row.
+   */
+  public static class AggregateFunctionVisitor extends SOQLBaseVisitor<Boolean> {
+
+    @Override
+    public Boolean visitFunctionCall(SOQLParser.FunctionCallContext ctx) {
+      String functionName = ctx.function().functionName().getText().toUpperCase();
+      return AGGREGATE_FUNCTIONS.contains(functionName) || visitChildren(ctx);
+    }
+
+    @Override
+    public Boolean visitSubquery(SOQLParser.SubqueryContext ctx) {
+      return Boolean.FALSE;
+    }
+
+    @Override
+    protected Boolean defaultResult() {
+      return Boolean.FALSE;
+    }
+
+    @Override
+    protected Boolean aggregateResult(Boolean aggregate, Boolean nextResult) {
+      return aggregate || nextResult;
+    }
+  }
+
+  /**
+   * Visits query statement and returns the original query with the given condition added to its WHERE clause.
+   * Existing conditions are enclosed in parentheses, so that the condition applies to all of them.
+   */
+  public static class ConditionVisitor extends SOQLBaseVisitor<String> {
+
+    private final String condition;
+
+    public ConditionVisitor(String condition) {
+      this.condition = condition;
+    }
+
+    @Override
+    public String visitStatement(SOQLParser.StatementContext ctx) {
+      SOQLParser.FromStatementContext fromStatementContext = ctx.fromStatement();
+      CharStream input = fromStatementContext.start.getInputStream();
+      String query = input.getText(new Interval(0, input.size() - 1));
+
+      SOQLParser.ConditionExpressionsContext conditions = fromStatementContext.conditionExpressions();
+      if (conditions != null) {
+        int start = conditions.start.getStartIndex();
+        int stop = conditions.stop.getStopIndex() + 1;
+        return query.substring(0, start) + "(" + query.substring(start, stop) + ") AND " + condition
+          + query.substring(stop);
+      }
+
+      // WHERE clause follows the sObject name and the optional USING SCOPE clause
+      ParserRuleContext last = fromStatementContext.filterScope() == null
+        ? fromStatementContext.objectType()
+        : fromStatementContext.filterScope();
+      int stop = last.stop.getStopIndex() + 1;
+      return query.substring(0, stop) + " WHERE " + condition + query.substring(stop);
+    }
+  }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.sink.batch;
+
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.CSVReader;
+import com.sforce.async.JobInfo;
+import io.cdap.plugin.salesforce.MeteredInputStream;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Verifies results of completed Bulk API batches.
+ * <p/>
+ * Batch result is downloaded only if Salesforce reports failed records for the batch.
+ * Failed records are either logged or, if error record writer is given, written together with the error
+ * message into the error output. Original record values are obtained from the batch request,
+ * since Bulk API returns results in the same order as records were submitted.
+ * <p/>
+ * Methods of this class are not thread safe.
+ */
+public class BatchResultVerifier implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(BatchResultVerifier.class);
+
+  /**
+   * The result is a CSV with the following headers: Id,Success,Created,Error
+   */
+  private static final String RESULT_SUCCESS = "Success";
+  private static final String RESULT_ERROR = "Error";
+
+  private final BulkConnection bulkConnection;
+  private final JobInfo jobInfo;
+  private final boolean ignoreFailures;
+  @Nullable
+  private final ErrorRecordWriter errorRecordWriter;
+  private final SalesforceMetrics metrics;
+
+  public BatchResultVerifier(BulkConnection bulkConnection, JobInfo jobInfo, ErrorHandling errorHandling,
+                             @Nullable ErrorRecordWriter errorRecordWriter, SalesforceMetrics metrics) {
+    this.bulkConnection = bulkConnection;
+    this.jobInfo = jobInfo;
+    this.ignoreFailures = errorHandling == ErrorHandling.SKIP;
+    this.errorRecordWriter = errorRecordWriter;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Checks results of the completed batch.
+   *
+   * @param batchInfo info of the completed batch
+   * @throws RuntimeException if batch contains failed records and failures are not ignored
+   */
+  public void verify(BatchInfo batchInfo) throws AsyncApiException, IOException {
+    if (batchInfo.getNumberRecordsFailed() == 0) {
+      LOG.debug("All {} records of batch '{}' were processed successfully",
+                batchInfo.getNumberRecordsProcessed(), batchInfo.getId());
+      return;
+    }
+
+    SalesforceApiGovernor governor = SalesforceApiGovernor.of(bulkConnection.getConfig());
+    // CSVReader cannot be closed, so the streams are closed to release their connections
+    try (InputStream resultStream = new MeteredInputStream(governor.call(
+           "bulk.getBatchResult", metrics,
+           () -> bulkConnection.getBatchResultStream(jobInfo.getId(), batchInfo.getId())), metrics);
+         InputStream requestStream = ignoreFailures && errorRecordWriter != null
+           ? new MeteredInputStream(governor.call(
+               "bulk.getBatchRequest", metrics,
+               () -> bulkConnection.getBatchRequestInputStream(jobInfo.getId(), batchInfo.getId())), metrics)
+           : null) {
+      verify(batchInfo, resultStream, requestStream);
+    }
+  }
+
+  private void verify(BatchInfo batchInfo, InputStream resultStream,
+                      @Nullable InputStream requestStream) throws IOException {
+    CSVReader resultReader = new CSVReader(resultStream);
+    List<String> resultHeader = resultReader.nextRecord();
+    int successIndex = resultHeader.indexOf(RESULT_SUCCESS);
+    int errorIndex = resultHeader.indexOf(RESULT_ERROR);
+
+    CSVReader requestReader = null;
+    List<String> requestHeader = null;
+    if (requestStream != null) {
+      requestReader = new CSVReader(requestStream);
+      requestHeader = requestReader.nextRecord();
+    }
+
+    List<String> row;
+    while ((row = resultReader.nextRecord()) != null) {
+      List<String> requestRow = requestReader == null ? null : requestReader.nextRecord();
+      if (Boolean.parseBoolean(row.get(successIndex))) {
+        continue;
+      }
+
+      String error = row.get(errorIndex);
+      String errorMessage = String.format("Failed to create row with error: '%s'. BatchId='%s'",
+                                          error, batchInfo.getId());
+      if (!ignoreFailures) {
+        throw new RuntimeException(errorMessage);
+      }
+      if (requestRow == null) {
+        LOG.error(errorMessage);
+      } else {
+        errorRecordWriter.write(requestHeader, requestRow, error);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (errorRecordWriter != null) {
+      errorRecordWriter.close();
+    }
+  }
+}
@@ -15,69 +15,278 @@
  */
 package io.cdap.plugin.salesforce.plugin.sink.batch;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
-import org.apache.commons.csv.QuoteMode;
+import com.google.common.annotations.VisibleForTesting;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A buffer which the {@link CSVRecord} is written to before it gets sent to Salesforce.
+ * <p/>
+ * Records are encoded as UTF-8 csv directly into fixed size chunks, which are taken from a pool shared by
+ * all buffers in the JVM and are kept by the buffer between batches. Values are quoted only when
+ * they contain a delimiter, a quote, a line break or leading / trailing whitespace.
+ * Buffer tracks exact number of encoded bytes, so record size is known without encoding it twice,
+ * and its content is uploaded through {@link #getInputStream()} without copying.
+ * Chunks are not returned to the pool while a stream over them is open, so that a buffer closed early,
+ * for example after a failed upload, cannot hand out chunks which are still being uploaded.
+ * <p/>
+ * Header is written before the first record if the buffer was created with header enabled.
  */
 public class CSVBuffer implements Closeable {
-  private static final CSVFormat csvFormat = CSVFormat.DEFAULT
-    .withHeader()
-    .withQuoteMode(QuoteMode.ALL)
-    .withAllowMissingColumnNames(false);
 
-  private CSVPrinter csvPrinter;
-  private ByteArrayOutputStream csvStream;
+  @VisibleForTesting
+  static final int CHUNK_SIZE = 64 * 1024;
+  /**
+   * Max number of free chunks kept in the pool, which is enough to hold several batches of max size.
+   */
+  private static final int MAX_POOLED_CHUNKS = 1024;
+  private static final BlockingQueue<byte[]> CHUNK_POOL = new ArrayBlockingQueue<>(MAX_POOLED_CHUNKS);
+
+  private static final byte DELIMITER = ',';
+  private static final byte QUOTE = '"';
+  private static final byte[] RECORD_SEPARATOR = {'\r', '\n'};
+
+  private final List<byte[]> chunks = new ArrayList<>();
+  private final AtomicInteger openStreams = new AtomicInteger();
+  private final boolean printHeader;
   private boolean isHeaderPrinted;
-  private boolean printHeader;
-  private int recordsCount = 0;
+  private int size;
+  private int lastRecordStart;
+  private int recordsCount;
 
-  public CSVBuffer(boolean printHeader) throws IOException {
+  public CSVBuffer(boolean printHeader) {
     this.printHeader = printHeader;
-    this.csvStream = new ByteArrayOutputStream();
     reset();
   }
 
-  public void write(CSVRecord csvRecord) throws IOException {
+  public void write(CSVRecord csvRecord) {
     if (!isHeaderPrinted) {
-      csvPrinter.printRecord(csvRecord.getColumnNames());
+      writeRecord(csvRecord.getColumnNames());
       isHeaderPrinted = true;
     }
-    csvPrinter.printRecord(csvRecord);
-    // unless we flush data from OutputStreamWriter to ByteArrayOutputStream we won't be able to calculate size.
-    csvPrinter.flush();
+    lastRecordStart = size;
+    writeRecord(csvRecord.getValues());
     recordsCount++;
   }
 
-  public void reset() throws IOException {
+  /**
+   * Moves the last written record to the given buffer, so that current buffer can be submitted
+   * without exceeding batch limits. Encoded bytes are copied, record is not encoded again.
+   *
+   * @param csvRecord the last written record, used to write header into the target buffer if needed
+   * @param target buffer to move the record to
+   */
+  public void moveLastRecord(CSVRecord csvRecord, CSVBuffer target) {
+    if (!target.isHeaderPrinted) {
+      target.writeRecord(csvRecord.getColumnNames());
+      target.isHeaderPrinted = true;
+    }
+    target.lastRecordStart = target.size;
+    int position = lastRecordStart;
+    while (position < size) {
+      byte[] chunk = chunks.get(position / CHUNK_SIZE);
+      int offset = position % CHUNK_SIZE;
+      int length = Math.min(CHUNK_SIZE - offset, size - position);
+      target.writeBytes(chunk, offset, length);
+      position += length;
+    }
+    target.recordsCount++;
+
+    size = lastRecordStart;
+    recordsCount--;
+  }
+
+  public void reset() {
     isHeaderPrinted = !printHeader;
     recordsCount = 0;
-    csvStream.reset();
-    // we need to re-create this or else OutputStreamWriter will not able to write after reset.
-    csvPrinter = new CSVPrinter(new OutputStreamWriter(csvStream, StandardCharsets.UTF_8), csvFormat);
+    size = 0;
+    lastRecordStart = 0;
   }
 
   public int size() {
-    return csvStream.size();
+    return size;
   }
 
   public int getRecordsCount() {
     return recordsCount;
   }
 
-  public byte[] getByteArray() {
-    return csvStream.toByteArray();
+  /**
+   * Returns stream over the buffer content. Content is not copied, so the buffer must not be modified
+   * until the stream is consumed. Stream must be closed, otherwise chunks of the buffer are not pooled.
+   *
+   * @return input stream over the buffer content
+   */
+  public InputStream getInputStream() {
+    openStreams.incrementAndGet();
+    return new ChunksInputStream(new ArrayList<>(chunks), size);
+  }
+
+  /**
+   * Returns chunks to the pool, buffer can be used again after close. If a stream over the buffer
+   * is still open, chunks are left to the stream instead.
+   */
+  @Override
+  public void close() {
+    reset();
+    if (openStreams.get() == 0) {
+      for (byte[] chunk : chunks) {
+        if (!CHUNK_POOL.offer(chunk)) {
+          break;
+        }
+      }
+    }
+    chunks.clear();
+  }
+
+  private void writeRecord(List<String> values) {
+    for (int i = 0; i < values.size(); i++) {
+      if (i != 0) {
+        writeByte(DELIMITER);
+      }
+      writeValue(values.get(i));
+    }
+    writeBytes(RECORD_SEPARATOR, 0, RECORD_SEPARATOR.length);
   }
 
-  public void close() throws IOException {
-    csvPrinter.close(true);
+  private void writeValue(String value) {
+    if (value == null || value.isEmpty()) {
+      return;
+    }
+    boolean quote = requiresQuotes(value);
+    if (quote) {
+      writeByte(QUOTE);
+    }
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        if (c == QUOTE) {
+          writeByte(QUOTE);
+        }
+        writeByte((byte) c);
+      } else if (c < 0x800) {
+        writeByte((byte) (0xC0 | (c >> 6)));
+        writeByte((byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        writeByte((byte) (0xF0 | (codePoint >> 18)));
+        writeByte((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+        writeByte((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        writeByte((byte) (0x80 | (codePoint & 0x3F)));
+      } else if (Character.isSurrogate(c)) {
+        // unpaired surrogate is replaced the same way as String.getBytes does
+        writeByte((byte) '?');
+      } else {
+        writeByte((byte) (0xE0 | (c >> 12)));
+        writeByte((byte) (0x80 | ((c >> 6) & 0x3F)));
+        writeByte((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+    if (quote) {
+      writeByte(QUOTE);
+    }
+  }
+
+  private static boolean requiresQuotes(String value) {
+    if (Character.isWhitespace(value.charAt(0)) || Character.isWhitespace(value.charAt(value.length() - 1))) {
+      return true;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == DELIMITER || c == QUOTE || c == '\r' || c == '\n') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void writeByte(byte b) {
+    int index = size / CHUNK_SIZE;
+    if (index == chunks.size()) {
+      chunks.add(allocateChunk());
+    }
+    chunks.get(index)[size % CHUNK_SIZE] = b;
+    size++;
+  }
+
+  private void writeBytes(byte[] bytes, int offset, int length) {
+    while (length > 0) {
+      int index = size / CHUNK_SIZE;
+      if (index == chunks.size()) {
+        chunks.add(allocateChunk());
+      }
+      int chunkOffset = size % CHUNK_SIZE;
+      int count = Math.min(CHUNK_SIZE - chunkOffset, length);
+      System.arraycopy(bytes, offset, chunks.get(index), chunkOffset, count);
+      size += count;
+      offset += count;
+      length -= count;
+    }
+  }
+
+  private static byte[] allocateChunk() {
+    byte[] chunk = CHUNK_POOL.poll();
+    return chunk == null ? new byte[CHUNK_SIZE] : chunk;
+  }
+
+  /**
+   * Reads buffer chunks in place.
+   */
+  private class ChunksInputStream extends InputStream {
+
+    private final List<byte[]> streamChunks;
+    private final int limit;
+    private int position;
+    private boolean closed;
+
+    ChunksInputStream(List<byte[]> streamChunks, int limit) {
+      this.streamChunks = streamChunks;
+      this.limit = limit;
+    }
+
+    @Override
+    public int read() {
+      if (position >= limit) {
+        return -1;
+      }
+      byte b = streamChunks.get(position / CHUNK_SIZE)[position % CHUNK_SIZE];
+      position++;
+      return b & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= limit) {
+        return -1;
+      }
+      int offset = position % CHUNK_SIZE;
+      int count = Math.min(Math.min(len, CHUNK_SIZE - offset), limit - position);
+      System.arraycopy(streamChunks.get(position / CHUNK_SIZE), offset, b, off, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return limit - position;
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        openStreams.decrementAndGet();
+      }
+    }
   }
 }
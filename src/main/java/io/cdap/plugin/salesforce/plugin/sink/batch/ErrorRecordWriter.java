@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.sink.batch;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Writes records rejected by Salesforce into a csv file, together with the error message in the last column.
+ * File is created on the first written record, so no file is created if all records were accepted.
+ * <p/>
+ * Task attempts write into temporary files, which are moved to the error output path when the task is committed
+ * and deleted when the task is aborted, so that records of failed or speculative attempts are not duplicated.
+ * <p/>
+ * Methods of this class are not thread safe.
+ */
+public class ErrorRecordWriter implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(ErrorRecordWriter.class);
+
+  private static final String ERROR_COLUMN = "error";
+  private static final String TEMPORARY_DIR = "_temporary";
+
+  private final Configuration conf;
+  private final Path errorOutputFile;
+  private CSVPrinter errorPrinter;
+
+  public ErrorRecordWriter(Configuration conf, Path errorOutputFile) {
+    this.conf = conf;
+    this.errorOutputFile = errorOutputFile;
+  }
+
+  /**
+   * Creates writer of records rejected by Salesforce in the given task attempt if error output path is configured.
+   *
+   * @param taskAttemptContext task attempt context
+   * @return error record writer or null if error output is not configured
+   */
+  @Nullable
+  public static ErrorRecordWriter forTaskAttempt(TaskAttemptContext taskAttemptContext) {
+    Configuration conf = taskAttemptContext.getConfiguration();
+    Path attemptFile = getTaskAttemptFile(taskAttemptContext);
+    return attemptFile == null ? null : new ErrorRecordWriter(conf, attemptFile);
+  }
+
+  /**
+   * Moves the error file of the task attempt, if any, to the error output path.
+   * The file is named after the task, so that the file of the previously committed attempt is replaced.
+   *
+   * @param taskAttemptContext task attempt context
+   * @throws IOException if failed to move the file
+   */
+  public static void commitTask(TaskAttemptContext taskAttemptContext) throws IOException {
+    Path attemptFile = getTaskAttemptFile(taskAttemptContext);
+    if (attemptFile == null) {
+      return;
+    }
+    FileSystem fileSystem = attemptFile.getFileSystem(taskAttemptContext.getConfiguration());
+    if (!fileSystem.exists(attemptFile)) {
+      return;
+    }
+    Path taskFile = new Path(getErrorOutputPath(taskAttemptContext),
+                             String.format("errors-%s.csv", taskAttemptContext.getTaskAttemptID().getTaskID()));
+    fileSystem.delete(taskFile, false);
+    if (!fileSystem.rename(attemptFile, taskFile)) {
+      throw new IOException(String.format("Failed to move error file '%s' to '%s'", attemptFile, taskFile));
+    }
+    LOG.info("Failed records of the task are written to '{}'", taskFile);
+  }
+
+  /**
+   * Deletes the error file of the task attempt, if any.
+   *
+   * @param taskAttemptContext task attempt context
+   * @throws IOException if failed to delete the file
+   */
+  public static void abortTask(TaskAttemptContext taskAttemptContext) throws IOException {
+    Path attemptFile = getTaskAttemptFile(taskAttemptContext);
+    if (attemptFile != null) {
+      attemptFile.getFileSystem(taskAttemptContext.getConfiguration()).delete(attemptFile, false);
+    }
+  }
+
+  /**
+   * Deletes the temporary directory of task attempt files once the job is finished.
+   *
+   * @param jobContext job context
+   * @throws IOException if failed to delete the directory
+   */
+  public static void cleanupJob(JobContext jobContext) throws IOException {
+    Path errorOutputPath = getErrorOutputPath(jobContext);
+    if (errorOutputPath != null) {
+      Path temporaryDir = new Path(errorOutputPath, TEMPORARY_DIR);
+      temporaryDir.getFileSystem(jobContext.getConfiguration()).delete(temporaryDir, true);
+    }
+  }
+
+  @Nullable
+  private static Path getTaskAttemptFile(TaskAttemptContext taskAttemptContext) {
+    Path errorOutputPath = getErrorOutputPath(taskAttemptContext);
+    return errorOutputPath == null ? null : new Path(
+      new Path(errorOutputPath, TEMPORARY_DIR), String.format("errors-%s.csv", taskAttemptContext.getTaskAttemptID()));
+  }
+
+  @Nullable
+  private static Path getErrorOutputPath(JobContext jobContext) {
+    String errorOutputPath = jobContext.getConfiguration().get(SalesforceSinkConstants.CONFIG_ERROR_OUTPUT_PATH);
+    return errorOutputPath == null ? null : new Path(errorOutputPath);
+  }
+
+  /**
+   * Writes rejected record.
+   *
+   * @param header column names of the record, written as file header before the first record
+   * @param values record values
+   * @param error error message returned by Salesforce
+   * @throws IOException if failed to write to the error output file
+   */
+  public void write(List<String> header, List<String> values, String error) throws IOException {
+    if (errorPrinter == null) {
+      FileSystem fileSystem = errorOutputFile.getFileSystem(conf);
+      errorPrinter = new CSVPrinter(new OutputStreamWriter(fileSystem.create(errorOutputFile, true),
+                                                           StandardCharsets.UTF_8), CSVFormat.DEFAULT);
+      errorPrinter.printRecord(withError(header, ERROR_COLUMN));
+      LOG.info("Writing failed records to '{}'", errorOutputFile);
+    }
+    errorPrinter.printRecord(withError(values, error));
+  }
+
+  private static List<String> withError(List<String> values, String error) {
+    List<String> record = new ArrayList<>(values.size() + 1);
+    record.addAll(values);
+    record.add(error);
+    return record;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (errorPrinter != null) {
+      errorPrinter.close(true);
+    }
+  }
+}
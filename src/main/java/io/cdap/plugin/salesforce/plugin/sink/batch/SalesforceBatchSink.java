@@ -31,6 +31,9 @@ import io.cdap.cdap.etl.api.batch.BatchRuntimeContext;
 import io.cdap.cdap.etl.api.batch.BatchSink;
 import io.cdap.cdap.etl.api.batch.BatchSinkContext;
 import io.cdap.plugin.common.LineageRecorder;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import io.cdap.plugin.salesforce.authenticator.AuthResponse;
 import org.apache.hadoop.io.NullWritable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,7 +53,10 @@ public class SalesforceBatchSink extends BatchSink<StructuredRecord, NullWritabl
   public static final String PLUGIN_NAME = "Salesforce";
 
   private final SalesforceSinkConfig config;
+  private AuthResponse runSession;
   private StructuredRecordToCSVRecordTransformer transformer;
+  private SalesforceMetrics metrics;
+  private SalesforceMetrics.Meter convertMeter;
 
   public SalesforceBatchSink(SalesforceSinkConfig config) throws ConnectionException {
     this.config = config;
@@ -70,7 +76,10 @@ public class SalesforceBatchSink extends BatchSink<StructuredRecord, NullWritabl
     config.validate(inputSchema, collector);
     collector.getOrThrowException();
 
-    context.addOutput(Output.of(config.referenceName, new SalesforceOutputFormatProvider(config)));
+    // tasks reuse session created for the run instead of logging in to Salesforce
+    runSession = SalesforceConnectionUtil.createRunSession(config.getAuthenticatorCredentials());
+    context.addOutput(Output.of(config.referenceName, new SalesforceOutputFormatProvider(
+      config, SalesforceMetrics.getKey(context), runSession)));
 
     LineageRecorder lineageRecorder = new LineageRecorder(context, config.referenceName);
     lineageRecorder.createExternalDataset(inputSchema);
@@ -88,11 +97,36 @@ public class SalesforceBatchSink extends BatchSink<StructuredRecord, NullWritabl
   public void initialize(BatchRuntimeContext context) throws Exception {
     super.initialize(context);
     this.transformer = new StructuredRecordToCSVRecordTransformer();
+    this.metrics = SalesforceMetrics.forStage(context);
+    this.convertMeter = metrics.timer(SalesforceMetrics.CONVERT_MS);
+    metrics.bind(context.getMetrics());
   }
 
   @Override
   public void transform(StructuredRecord record, Emitter<KeyValue<NullWritable, CSVRecord>> emitter) {
+    long start = System.nanoTime();
     CSVRecord csvRecord = transformer.transform(record);
+    convertMeter.add(System.nanoTime() - start);
+    metrics.emitIfDue();
     emitter.emit(new KeyValue<>(null, csvRecord));
   }
+
+  @Override
+  public void destroy() {
+    if (metrics != null) {
+      metrics.release();
+    }
+    super.destroy();
+  }
+
+  @Override
+  public void onRunFinish(boolean succeeded, BatchSinkContext context) {
+    super.onRunFinish(succeeded, context);
+    // metrics recorded by the output committer, if it was run by this process
+    SalesforceMetrics.finishRun(context);
+    if (runSession != null) {
+      SalesforceConnectionUtil.logout(runSession);
+      runSession = null;
+    }
+  }
 }
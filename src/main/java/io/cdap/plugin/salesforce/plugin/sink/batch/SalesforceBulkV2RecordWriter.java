@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.sink.batch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.sforce.ws.ConnectorConfig;
+import io.cdap.plugin.salesforce.BulkV2Connection;
+import io.cdap.plugin.salesforce.BulkV2JobInfo;
+import io.cdap.plugin.salesforce.MeteredInputStream;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.annotation.Nullable;
+
+/**
+ * Writes csv records into Salesforce Bulk API 2.0 ingest jobs.
+ * Accepts <code>null</code> as a key, and CSVRecord as a value.
+ * <p/>
+ * Bulk API 2.0 accepts a single upload per job and splits it into batches on the server side.
+ * Records are buffered until the upload limit is reached and then uploaded into a new job.
+ * On close, writer waits for all of its jobs and downloads failed results of the jobs which reported failures.
+ * <p/>
+ * Jobs uploaded by a task attempt are tracked until the attempt is committed. If the attempt fails, its jobs
+ * which are not processed yet are aborted, and jobs already processed by Salesforce are reported,
+ * since their records cannot be rolled back.
+ */
+public class SalesforceBulkV2RecordWriter extends RecordWriter<NullWritable, CSVRecord> {
+  private static final Logger LOG = LoggerFactory.getLogger(SalesforceBulkV2RecordWriter.class);
+
+  /**
+   * According to "Bulk API 2.0 Limits" job data cannot exceed 150 MB after base64 encoding,
+   * which corresponds to 100 MB of raw csv.
+   */
+  private static final int MAX_BYTES_PER_JOB = 100_000_000;
+  private static final String RESULT_ID_COLUMN = "sf__Id";
+  private static final String RESULT_ERROR_COLUMN = "sf__Error";
+  // key -> [task attempt], value -> ingest jobs uploaded by the task attempt
+  private static final ConcurrentMap<TaskAttemptID, List<String>> ATTEMPT_JOBS = new ConcurrentHashMap<>();
+
+  private final BulkV2Connection connection;
+  private final String sObject;
+  private final String operation;
+  @Nullable
+  private final String externalIdField;
+  private final boolean ignoreFailures;
+  @Nullable
+  private final ErrorRecordWriter errorRecordWriter;
+  private final int maxBytesPerJob;
+  private final List<String> jobIds = new CopyOnWriteArrayList<>();
+  private final SalesforceMetrics metrics;
+  private final SalesforceMetrics.Meter recordsMeter;
+  private CSVBuffer csvBuffer = new CSVBuffer(true);
+  private CSVBuffer nextCsvBuffer = new CSVBuffer(true);
+
+  public SalesforceBulkV2RecordWriter(TaskAttemptContext taskAttemptContext) throws IOException {
+    this(taskAttemptContext, createConnection(taskAttemptContext.getConfiguration()), MAX_BYTES_PER_JOB);
+  }
+
+  @VisibleForTesting
+  SalesforceBulkV2RecordWriter(TaskAttemptContext taskAttemptContext, BulkV2Connection connection,
+                               int maxBytesPerJob) {
+    Configuration conf = taskAttemptContext.getConfiguration();
+    sObject = conf.get(SalesforceSinkConstants.CONFIG_SOBJECT);
+    operation = conf.get(SalesforceSinkConstants.CONFIG_OPERATION).toLowerCase();
+    externalIdField = conf.get(SalesforceSinkConstants.CONFIG_EXTERNAL_ID_FIELD);
+    // already validated no need to validate again
+    ignoreFailures = ErrorHandling.fromValue(conf.get(SalesforceSinkConstants.CONFIG_ERROR_HANDLING)).get()
+      == ErrorHandling.SKIP;
+    errorRecordWriter = ErrorRecordWriter.forTaskAttempt(taskAttemptContext);
+    metrics = SalesforceMetrics.of(conf).forSObject(sObject);
+    recordsMeter = metrics.counter(SalesforceMetrics.RECORDS);
+    this.connection = connection;
+    this.maxBytesPerJob = maxBytesPerJob;
+    ATTEMPT_JOBS.put(taskAttemptContext.getTaskAttemptID(), jobIds);
+  }
+
+  private static BulkV2Connection createConnection(Configuration conf) throws IOException {
+    ConnectorConfig connectorConfig = SalesforceConnectionUtil.getConnectorConfig(conf);
+    connectorConfig.setCompression(conf.getBoolean(SalesforceSinkConstants.CONFIG_COMPRESS_BATCHES, true));
+    return new BulkV2Connection(connectorConfig, SalesforceMetrics.of(conf)
+      .forSObject(conf.get(SalesforceSinkConstants.CONFIG_SOBJECT)));
+  }
+
+  /**
+   * Stops tracking ingest jobs of the task attempt, since its records are committed.
+   *
+   * @param taskAttemptContext task attempt context
+   */
+  public static void commitTask(TaskAttemptContext taskAttemptContext) {
+    ATTEMPT_JOBS.remove(taskAttemptContext.getTaskAttemptID());
+  }
+
+  /**
+   * Aborts ingest jobs of the failed task attempt which are not processed yet,
+   * and reports jobs which were already processed by Salesforce.
+   *
+   * @param taskAttemptContext task attempt context
+   * @throws IOException if failed to abort any of the jobs
+   */
+  public static void abortTask(TaskAttemptContext taskAttemptContext) throws IOException {
+    if (!ATTEMPT_JOBS.containsKey(taskAttemptContext.getTaskAttemptID())) {
+      return;
+    }
+    try (BulkV2Connection connection = createConnection(taskAttemptContext.getConfiguration())) {
+      abortTask(taskAttemptContext, connection);
+    }
+  }
+
+  @VisibleForTesting
+  static void abortTask(TaskAttemptContext taskAttemptContext, BulkV2Connection connection) throws IOException {
+    TaskAttemptID attemptId = taskAttemptContext.getTaskAttemptID();
+    List<String> attemptJobIds = ATTEMPT_JOBS.remove(attemptId);
+    if (attemptJobIds == null) {
+      return;
+    }
+    IOException failure = null;
+    for (String jobId : attemptJobIds) {
+      try {
+        BulkV2JobInfo job = connection.getIngestJobInfo(jobId);
+        if (job.isFinished()) {
+          LOG.warn("Salesforce job with jobId='{}' of failed task attempt '{}' is already in state '{}' with {} " +
+                     "records processed and {} records failed. Processed records are not rolled back.",
+                   jobId, attemptId, job.getState(), job.getNumberRecordsProcessed(), job.getNumberRecordsFailed());
+          continue;
+        }
+        connection.abortIngestJob(jobId);
+        LOG.warn("Aborted Salesforce job with jobId='{}' of failed task attempt '{}'", jobId, attemptId);
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = new IOException(String.format("Failed to abort Salesforce jobs of task attempt '%s'",
+                                                  attemptId));
+        }
+        failure.addSuppressed(e);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  @Override
+  public void write(NullWritable key, CSVRecord csvRecord) throws IOException {
+    csvBuffer.write(csvRecord);
+    recordsMeter.add(1);
+
+    if (csvBuffer.getRecordsCount() > 1 && csvBuffer.size() > maxBytesPerJob) {
+      // record does not fit into the current job, so it is moved to the next one
+      csvBuffer.moveLastRecord(csvRecord, nextCsvBuffer);
+      uploadJob(csvBuffer);
+      CSVBuffer uploadedBuffer = csvBuffer;
+      csvBuffer = nextCsvBuffer;
+      nextCsvBuffer = uploadedBuffer;
+    }
+  }
+
+  /**
+   * Creates ingest job, uploads buffer content and marks the job as ready for processing.
+   * Job is aborted if the upload failed.
+   */
+  private void uploadJob(CSVBuffer buffer) throws IOException {
+    BulkV2JobInfo job = connection.createIngestJob(sObject, operation, externalIdField);
+    try {
+      metrics.count(SalesforceMetrics.BYTES_UPLOADED, buffer.size());
+      try (InputStream jobData = buffer.getInputStream()) {
+        connection.uploadIngestJobData(job.getId(), jobData);
+      }
+      connection.closeIngestJob(job.getId());
+      // job is split into batches by Salesforce, so every job is counted as a single batch
+      metrics.count(SalesforceMetrics.BATCHES_CREATED, 1);
+    } catch (IOException e) {
+      try {
+        connection.abortIngestJob(job.getId());
+      } catch (IOException abortException) {
+        e.addSuppressed(abortException);
+      }
+      throw e;
+    }
+    jobIds.add(job.getId());
+    LOG.info("Uploaded {} records into Salesforce job with jobId='{}'", buffer.getRecordsCount(), job.getId());
+    buffer.reset();
+  }
+
+  /**
+   * Checks failed results of the job. Each failed result contains error message and values of the uploaded record.
+   */
+  private void checkFailedResults(BulkV2JobInfo job) throws IOException {
+    if (job.getNumberRecordsFailed() == 0) {
+      LOG.debug("All {} records of job '{}' were processed successfully",
+                job.getNumberRecordsProcessed(), job.getId());
+      return;
+    }
+
+    try (CSVParser parser = CSVFormat.DEFAULT.withFirstRecordAsHeader().parse(
+      new InputStreamReader(new MeteredInputStream(connection.getIngestFailedResults(job.getId()), metrics),
+                            StandardCharsets.UTF_8))) {
+      Map<String, Integer> header = parser.getHeaderMap();
+      int errorIndex = header.get(RESULT_ERROR_COLUMN);
+      List<String> recordHeader = new ArrayList<>();
+      List<Integer> recordIndexes = new ArrayList<>();
+      header.forEach((name, index) -> {
+        if (!RESULT_ID_COLUMN.equals(name) && !RESULT_ERROR_COLUMN.equals(name)) {
+          recordHeader.add(name);
+          recordIndexes.add(index);
+        }
+      });
+
+      for (org.apache.commons.csv.CSVRecord result : parser) {
+        String error = result.get(errorIndex);
+        String errorMessage = String.format("Failed to create row with error: '%s'. JobId='%s'",
+                                            error, job.getId());
+        if (!ignoreFailures) {
+          throw new RuntimeException(errorMessage);
+        }
+        if (errorRecordWriter == null) {
+          LOG.error(errorMessage);
+          continue;
+        }
+        List<String> values = new ArrayList<>(recordIndexes.size());
+        for (int index : recordIndexes) {
+          values.add(result.get(index));
+        }
+        errorRecordWriter.write(recordHeader, values, error);
+      }
+    }
+  }
+
+  @Override
+  public void close(TaskAttemptContext taskAttemptContext) throws IOException {
+    try {
+      if (csvBuffer.getRecordsCount() != 0) {
+        uploadJob(csvBuffer);
+      }
+      for (String jobId : jobIds) {
+        checkFailedResults(connection.awaitIngestJob(jobId));
+      }
+    } finally {
+      try {
+        if (errorRecordWriter != null) {
+          errorRecordWriter.close();
+        }
+      } finally {
+        // jobs are completed after the stage has stopped transforming records
+        metrics.emit();
+        csvBuffer.close();
+        nextCsvBuffer.close();
+        connection.close();
+      }
+    }
+  }
+}
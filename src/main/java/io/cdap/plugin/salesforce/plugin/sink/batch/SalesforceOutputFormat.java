@@ -19,13 +19,14 @@ import com.sforce.async.AsyncApiException;
 import com.sforce.async.BulkConnection;
 import com.sforce.async.JobInfo;
 import com.sforce.async.OperationEnum;
+import io.cdap.plugin.salesforce.BulkApiVersion;
 import io.cdap.plugin.salesforce.SalesforceBulkUtil;
 import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
-import io.cdap.plugin.salesforce.authenticator.Authenticator;
-import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobStatus;
 import org.apache.hadoop.mapreduce.OutputCommitter;
 import org.apache.hadoop.mapreduce.OutputFormat;
 import org.apache.hadoop.mapreduce.RecordWriter;
@@ -48,12 +49,22 @@ public class SalesforceOutputFormat extends OutputFormat<NullWritable, CSVRecord
     throws IOException {
 
     try {
+      if (isBulkV2(taskAttemptContext.getConfiguration())) {
+        return new SalesforceBulkV2RecordWriter(taskAttemptContext);
+      }
       return new SalesforceRecordWriter(taskAttemptContext);
     } catch (AsyncApiException e) {
       throw new RuntimeException("There was issue communicating with Salesforce", e);
     }
   }
 
+  /**
+   * Bulk API 2.0 jobs are created by record writers, since each job accepts a single upload.
+   */
+  private static boolean isBulkV2(Configuration conf) {
+    return BulkApiVersion.V2.name().equals(conf.get(SalesforceSinkConstants.CONFIG_BULK_API_VERSION));
+  }
+
   @Override
   public void checkOutputSpecs(JobContext jobContext) {
     //no-op
@@ -62,6 +73,8 @@ public class SalesforceOutputFormat extends OutputFormat<NullWritable, CSVRecord
   /**
    * Used to start Salesforce job when Mapreduce job is started,
    * and to close Salesforce job when Mapreduce job is finished.
+   * Also commits error files of task attempts, see {@link ErrorRecordWriter}, and aborts Bulk API 2.0 jobs
+   * of failed task attempts, see {@link SalesforceBulkV2RecordWriter}.
    */
   @Override
   public OutputCommitter getOutputCommitter(TaskAttemptContext taskAttemptContext) {
@@ -69,16 +82,18 @@ public class SalesforceOutputFormat extends OutputFormat<NullWritable, CSVRecord
       @Override
       public void setupJob(JobContext jobContext) {
         Configuration conf = jobContext.getConfiguration();
+        if (isBulkV2(conf)) {
+          return;
+        }
         String sObjectName = conf.get(SalesforceSinkConstants.CONFIG_SOBJECT);
         OperationEnum operationType = OperationEnum.valueOf(
           conf.get(SalesforceSinkConstants.CONFIG_OPERATION).toLowerCase());
         String externalIdField = conf.get(SalesforceSinkConstants.CONFIG_EXTERNAL_ID_FIELD);
 
-        AuthenticatorCredentials credentials = SalesforceConnectionUtil.getAuthenticatorCredentials(conf);
-
         try {
-          BulkConnection bulkConnection = new BulkConnection(Authenticator.createConnectorConfig(credentials));
-          JobInfo job = SalesforceBulkUtil.createJob(bulkConnection, sObjectName, operationType, externalIdField);
+          BulkConnection bulkConnection = new BulkConnection(SalesforceConnectionUtil.getConnectorConfig(conf));
+          JobInfo job = SalesforceBulkUtil.createJob(bulkConnection, sObjectName, operationType, externalIdField,
+                                                     SalesforceMetrics.of(conf));
           conf.set(SalesforceSinkConstants.CONFIG_JOB_ID, job.getId());
           LOG.info("Started Salesforce job with jobId='{}'", job.getId());
         } catch (AsyncApiException e) {
@@ -87,20 +102,27 @@ public class SalesforceOutputFormat extends OutputFormat<NullWritable, CSVRecord
       }
 
       @Override
-      public void commitJob(JobContext jobContext) {
+      public void commitJob(JobContext jobContext) throws IOException {
+        ErrorRecordWriter.cleanupJob(jobContext);
         Configuration conf = jobContext.getConfiguration();
-
-        AuthenticatorCredentials credentials = SalesforceConnectionUtil.getAuthenticatorCredentials(conf);
+        if (isBulkV2(conf)) {
+          return;
+        }
 
         try {
-          BulkConnection bulkConnection = new BulkConnection(Authenticator.createConnectorConfig(credentials));
+          BulkConnection bulkConnection = new BulkConnection(SalesforceConnectionUtil.getConnectorConfig(conf));
           String jobId = conf.get(SalesforceSinkConstants.CONFIG_JOB_ID);
-          SalesforceBulkUtil.closeJob(bulkConnection, jobId);
+          SalesforceBulkUtil.closeJob(bulkConnection, jobId, SalesforceMetrics.of(conf));
         } catch (AsyncApiException e) {
           throw new RuntimeException("There was issue communicating with Salesforce", e);
         }
       }
 
+      @Override
+      public void abortJob(JobContext jobContext, JobStatus.State state) throws IOException {
+        ErrorRecordWriter.cleanupJob(jobContext);
+      }
+
       @Override
       public void setupTask(TaskAttemptContext taskAttemptContext) {
 
@@ -112,13 +134,22 @@ public class SalesforceOutputFormat extends OutputFormat<NullWritable, CSVRecord
       }
 
       @Override
-      public void commitTask(TaskAttemptContext taskAttemptContext) {
-
+      public void commitTask(TaskAttemptContext taskAttemptContext) throws IOException {
+        ErrorRecordWriter.commitTask(taskAttemptContext);
+        if (isBulkV2(taskAttemptContext.getConfiguration())) {
+          SalesforceBulkV2RecordWriter.commitTask(taskAttemptContext);
+        }
       }
 
       @Override
-      public void abortTask(TaskAttemptContext taskAttemptContext) {
-
+      public void abortTask(TaskAttemptContext taskAttemptContext) throws IOException {
+        try {
+          ErrorRecordWriter.abortTask(taskAttemptContext);
+        } finally {
+          if (isBulkV2(taskAttemptContext.getConfiguration())) {
+            SalesforceBulkV2RecordWriter.abortTask(taskAttemptContext);
+          }
+        }
       }
     };
   }
@@ -17,7 +17,9 @@ package io.cdap.plugin.salesforce.plugin.sink.batch;
 
 import com.google.common.collect.ImmutableMap;
 import io.cdap.cdap.api.data.batch.OutputFormatProvider;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
 import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.authenticator.AuthResponse;
 
 import java.util.Map;
 
@@ -31,24 +33,35 @@ public class SalesforceOutputFormatProvider implements OutputFormatProvider {
    * Gets properties from config and stores them as properties in map for Mapreduce.
    *
    * @param config Salesforce batch sink configuration
+   * @param metricsKey key of the sink stage run, metrics of the output format are recorded for this stage run
+   * @param session session of the run, reused by tasks instead of logging in to Salesforce
    */
-  public SalesforceOutputFormatProvider(SalesforceSinkConfig config) {
+  public SalesforceOutputFormatProvider(SalesforceSinkConfig config, String metricsKey, AuthResponse session) {
     ImmutableMap.Builder<String, String> configBuilder = new ImmutableMap.Builder<String, String>()
       .put(SalesforceConstants.CONFIG_USERNAME, config.getUsername())
       .put(SalesforceConstants.CONFIG_PASSWORD, config.getPassword())
       .put(SalesforceConstants.CONFIG_CONSUMER_KEY, config.getConsumerKey())
       .put(SalesforceConstants.CONFIG_CONSUMER_SECRET, config.getConsumerSecret())
       .put(SalesforceConstants.CONFIG_LOGIN_URL, config.getLoginUrl())
+      .put(SalesforceConstants.CONFIG_METRICS_KEY, metricsKey)
+      .putAll(SalesforceConnectionUtil.getSessionConfig(session))
       .put(SalesforceSinkConstants.CONFIG_SOBJECT, config.getSObject())
       .put(SalesforceSinkConstants.CONFIG_OPERATION, config.getOperation())
       .put(SalesforceSinkConstants.CONFIG_ERROR_HANDLING, config.getErrorHandling().getValue())
       .put(SalesforceSinkConstants.CONFIG_MAX_BYTES_PER_BATCH, config.getMaxBytesPerBatch().toString())
-      .put(SalesforceSinkConstants.CONFIG_MAX_RECORDS_PER_BATCH, config.getMaxRecordsPerBatch().toString());
+      .put(SalesforceSinkConstants.CONFIG_MAX_RECORDS_PER_BATCH, config.getMaxRecordsPerBatch().toString())
+      .put(SalesforceSinkConstants.CONFIG_MAX_IN_FLIGHT_BATCHES, config.getMaxInFlightBatches().toString())
+      .put(SalesforceSinkConstants.CONFIG_COMPRESS_BATCHES, String.valueOf(config.getCompressBatches()))
+      .put(SalesforceSinkConstants.CONFIG_BULK_API_VERSION, config.getBulkApiVersion().name());
 
     if (config.getExternalIdField() != null) {
       configBuilder.put(SalesforceSinkConstants.CONFIG_EXTERNAL_ID_FIELD, config.getExternalIdField());
     }
 
+    if (config.getErrorOutputPath() != null) {
+      configBuilder.put(SalesforceSinkConstants.CONFIG_ERROR_OUTPUT_PATH, config.getErrorOutputPath());
+    }
+
     this.configMap = configBuilder.build();
   }
 
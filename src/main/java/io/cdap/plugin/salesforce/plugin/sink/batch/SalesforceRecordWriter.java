@@ -15,14 +15,17 @@
  */
 package io.cdap.plugin.salesforce.plugin.sink.batch;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sforce.async.AsyncApiException;
 import com.sforce.async.BatchInfo;
 import com.sforce.async.BulkConnection;
 import com.sforce.async.JobInfo;
+import com.sforce.ws.ConnectorConfig;
+import io.cdap.plugin.salesforce.BulkBatchStatusPoller;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
 import io.cdap.plugin.salesforce.SalesforceBulkUtil;
 import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
-import io.cdap.plugin.salesforce.authenticator.Authenticator;
-import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.RecordWriter;
@@ -30,27 +33,60 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Writes csv records into batches and submits them to Salesforce Bulk job.
  * Accepts <code>null</code> as a key, and CSVRecord as a value.
+ * <p/>
+ * Batches are uploaded asynchronously, so that the next batch is encoded while previous batches are being sent.
+ * At most {@code maxInFlightBatches} batches are uploaded at the same time, each one from its own buffer.
+ * Once all buffers are in flight, writer blocks until one of the uploads finishes.
+ * <p/>
+ * Every uploaded batch is verified as soon as Salesforce completes it, rather than after all batches are submitted.
+ * The first upload or verification failure is reported on the next write or on close.
  */
 public class SalesforceRecordWriter extends RecordWriter<NullWritable, CSVRecord> {
   private static final Logger LOG = LoggerFactory.getLogger(SalesforceRecordWriter.class);
+  /**
+   * Time to wait for uploads and verifications to stop on close. Interrupt does not stop an upload blocked
+   * in socket I/O, so it may take up to the read timeout of the connection.
+   */
+  private static final long TERMINATION_TIMEOUT_SECONDS = 60;
 
   private BulkConnection bulkConnection;
+  private SalesforceApiGovernor governor;
   private JobInfo jobInfo;
   private ErrorHandling errorHandling;
   private Long maxBytesPerBatch;
   private Long maxRecordsPerBatch;
-  private List<BatchInfo> batchInfoList = new ArrayList<>();
+  private List<Future<BatchInfo>> batchUploads = new ArrayList<>();
+  private List<CompletableFuture<Void>> batchVerifications = Collections.synchronizedList(new ArrayList<>());
+  private List<CSVBuffer> csvBuffers = new ArrayList<>();
+  private BlockingQueue<CSVBuffer> freeCsvBuffers;
+  private ExecutorService uploadExecutor;
+  // results are verified one batch at a time, so that failed records are written to the error output sequentially
+  private ExecutorService verificationExecutor;
+  private BatchResultVerifier batchResultVerifier;
+  private volatile Throwable batchFailure;
   private CSVBuffer csvBuffer;
-  private CSVBuffer csvBufferSizeCheck;
+  private SalesforceMetrics metrics;
+  private SalesforceMetrics.Meter recordsMeter;
 
   public SalesforceRecordWriter(TaskAttemptContext taskAttemptContext) throws IOException, AsyncApiException {
     Configuration conf = taskAttemptContext.getConfiguration();
@@ -60,59 +96,232 @@ public class SalesforceRecordWriter extends RecordWriter<NullWritable, CSVRecord
     errorHandling = ErrorHandling.fromValue(conf.get(SalesforceSinkConstants.CONFIG_ERROR_HANDLING)).get();
     maxBytesPerBatch = Long.parseLong(conf.get(SalesforceSinkConstants.CONFIG_MAX_BYTES_PER_BATCH));
     maxRecordsPerBatch = Long.parseLong(conf.get(SalesforceSinkConstants.CONFIG_MAX_RECORDS_PER_BATCH));
+    int maxInFlightBatches = conf.getInt(SalesforceSinkConstants.CONFIG_MAX_IN_FLIGHT_BATCHES, 1);
+    metrics = SalesforceMetrics.of(conf).forSObject(conf.get(SalesforceSinkConstants.CONFIG_SOBJECT));
+    recordsMeter = metrics.counter(SalesforceMetrics.RECORDS);
 
+    // one buffer per in-flight batch plus the one records are currently written to
+    freeCsvBuffers = new ArrayBlockingQueue<>(maxInFlightBatches + 1);
+    for (int i = 0; i < maxInFlightBatches; i++) {
+      CSVBuffer buffer = new CSVBuffer(true);
+      csvBuffers.add(buffer);
+      freeCsvBuffers.add(buffer);
+    }
     csvBuffer = new CSVBuffer(true);
-    csvBufferSizeCheck = new CSVBuffer(false);
+    csvBuffers.add(csvBuffer);
+
+    uploadExecutor = Executors.newFixedThreadPool(maxInFlightBatches, new ThreadFactoryBuilder()
+      .setDaemon(true).setNameFormat("salesforce-batch-upload-%d").build());
+    verificationExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+      .setDaemon(true).setNameFormat("salesforce-batch-verification").build());
+
+    ConnectorConfig connectorConfig = SalesforceConnectionUtil.getConnectorConfig(conf);
+    // when enabled, batch payload is gzip streamed with 'Content-Encoding: gzip' header
+    connectorConfig.setCompression(conf.getBoolean(SalesforceSinkConstants.CONFIG_COMPRESS_BATCHES, true));
+    bulkConnection = new BulkConnection(connectorConfig);
+    governor = SalesforceApiGovernor.of(connectorConfig);
+    jobInfo = SalesforceBulkUtil.withSessionRenewal(bulkConnection, () -> governor.call(
+      "bulk.getJobStatus", metrics, () -> bulkConnection.getJobStatus(jobId)));
 
-    AuthenticatorCredentials credentials = SalesforceConnectionUtil.getAuthenticatorCredentials(conf);
-    bulkConnection = new BulkConnection(Authenticator.createConnectorConfig(credentials));
-    jobInfo = bulkConnection.getJobStatus(jobId);
+    batchResultVerifier = new BatchResultVerifier(bulkConnection, jobInfo, errorHandling,
+                                                  ErrorRecordWriter.forTaskAttempt(taskAttemptContext), metrics);
   }
 
   @Override
   public void write(NullWritable key, CSVRecord csvRecord) throws IOException {
-    csvBufferSizeCheck.reset();
-    csvBufferSizeCheck.write(csvRecord);
+    checkBatchFailure();
 
-    if (csvBuffer.size() + csvBufferSizeCheck.size() > maxBytesPerBatch ||
-      csvBuffer.getRecordsCount() >= maxRecordsPerBatch) {
-      submitCurrentBatch();
+    csvBuffer.write(csvRecord);
+    recordsMeter.add(1);
+
+    // a record which exceeds the limits on its own is still submitted, so that Salesforce reports the error
+    if (csvBuffer.getRecordsCount() > 1 &&
+      (csvBuffer.size() > maxBytesPerBatch || csvBuffer.getRecordsCount() > maxRecordsPerBatch)) {
+      // record does not fit into the current batch, so it is moved to the next one
+      CSVBuffer nextBuffer = takeFreeBuffer();
+      csvBuffer.moveLastRecord(csvRecord, nextBuffer);
+      submitBatch(csvBuffer);
+      csvBuffer = nextBuffer;
     }
+  }
 
-    csvBuffer.write(csvRecord);
+  /**
+   * Takes a buffer which is not being uploaded. Blocks if all buffers are being uploaded.
+   */
+  private CSVBuffer takeFreeBuffer() throws IOException {
+    try {
+      return freeCsvBuffers.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a batch upload to complete");
+    }
+  }
+
+  /**
+   * Hands given buffer over to the upload executor.
+   */
+  private void submitBatch(CSVBuffer batchBuffer) {
+    batchUploads.add(uploadExecutor.submit(() -> uploadBatch(batchBuffer)));
+  }
+
+  /**
+   * Uploads content of the buffer as a new batch of the job. A stream is consumed by the upload,
+   * so a new stream is opened if the upload is repeated after the session is renewed.
+   */
+  private BatchInfo createBatch(CSVBuffer buffer) throws AsyncApiException {
+    try (InputStream batchStream = buffer.getInputStream()) {
+      return governor.callLongRunning(
+        "bulk.createBatch", metrics, () -> bulkConnection.createBatchFromStream(jobInfo, batchStream));
+    } catch (IOException e) {
+      // streams over the buffer are in memory and are not expected to fail on close
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private BatchInfo uploadBatch(CSVBuffer buffer) throws Exception {
+    try {
+      // records of the remaining batches cannot be rolled back, so they are not written once a batch has failed
+      checkBatchFailure();
+      metrics.count(SalesforceMetrics.BYTES_UPLOADED, buffer.size());
+      BatchInfo batchInfo = SalesforceBulkUtil.withSessionRenewal(bulkConnection, () -> createBatch(buffer));
+      metrics.count(SalesforceMetrics.BATCHES_CREATED, 1);
+      LOG.info("Submitted a batch with batchId='{}'", batchInfo.getId());
+      batchVerifications.add(verifyOnCompletion(batchInfo));
+      return batchInfo;
+    } catch (Throwable e) {
+      setBatchFailure(e);
+      throw e;
+    } finally {
+      buffer.reset();
+      freeCsvBuffers.add(buffer);
+    }
+  }
+
+  /**
+   * Verifies batch results once the batch is completed by Salesforce.
+   * Batch statuses are polled once per job for all batches of this writer.
+   */
+  private CompletableFuture<Void> verifyOnCompletion(BatchInfo batchInfo) {
+    return BulkBatchStatusPoller.getInstance()
+      .awaitBatch(bulkConnection, jobInfo.getId(), batchInfo.getId(), metrics)
+      .thenAcceptAsync(completedBatch -> {
+        metrics.batchCompleted(completedBatch);
+        try {
+          batchResultVerifier.verify(completedBatch);
+        } catch (AsyncApiException | IOException e) {
+          throw new CompletionException(e);
+        }
+      }, verificationExecutor)
+      .whenComplete((result, e) -> {
+        if (e != null) {
+          setBatchFailure(e instanceof CompletionException ? e.getCause() : e);
+        }
+      });
   }
 
-  private void submitCurrentBatch() throws IOException {
-    if (csvBuffer.getRecordsCount() != 0) {
-      InputStream csvInputStream = new ByteArrayInputStream(csvBuffer.getByteArray());
+  /**
+   * Records the failure unless another batch has failed already, so that failures caused by stopping
+   * the remaining uploads do not replace the original one.
+   */
+  private synchronized void setBatchFailure(Throwable failure) {
+    if (batchFailure == null) {
+      batchFailure = failure;
+    }
+  }
+
+  private void checkBatchFailure() {
+    Throwable failure = batchFailure;
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    }
+    if (failure != null) {
+      throw new RuntimeException("There was issue communicating with Salesforce", failure);
+    }
+  }
+
+  /**
+   * Waits for all submitted batches to be uploaded, including the ones still running after another upload
+   * has failed, then reports the first failure.
+   */
+  private void awaitUploads() throws IOException {
+    for (Future<BatchInfo> batchUpload : batchUploads) {
       try {
-        BatchInfo batchInfo = bulkConnection.createBatchFromStream(jobInfo, csvInputStream);
-        batchInfoList.add(batchInfo);
-        LOG.info("Submitted a batch with batchId='{}'", batchInfo.getId());
-      } catch (AsyncApiException e) {
-        throw new RuntimeException("There was issue communicating with Salesforce", e);
+        batchUpload.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a batch upload to complete");
+      } catch (ExecutionException e) {
+        setBatchFailure(e.getCause());
       }
-      csvBuffer.reset();
+    }
+    checkBatchFailure();
+  }
+
+  /**
+   * Waits for all uploaded batches to be completed by Salesforce and verified.
+   */
+  private void awaitVerifications() throws IOException {
+    List<CompletableFuture<Void>> verifications;
+    synchronized (batchVerifications) {
+      verifications = new ArrayList<>(batchVerifications);
+    }
+    for (CompletableFuture<Void> verification : verifications) {
+      await(verification);
+    }
+  }
+
+  private void await(Future<?> future) throws IOException {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a batch to complete");
+    } catch (ExecutionException e) {
+      setBatchFailure(e.getCause());
+      checkBatchFailure();
     }
   }
 
   @Override
   public void close(TaskAttemptContext taskAttemptContext) throws IOException {
-    submitCurrentBatch();
-
     try {
-      SalesforceBulkUtil.awaitCompletion(bulkConnection, jobInfo, batchInfoList);
-      SalesforceBulkUtil.checkResults(bulkConnection, jobInfo, batchInfoList, errorHandling.equals(ErrorHandling.SKIP));
-    } catch (AsyncApiException e) {
-      throw new RuntimeException("There was issue communicating with Salesforce", e);
+      // last batch is not submitted if the task is already known to fail, running uploads are still awaited
+      if (batchFailure == null && csvBuffer.getRecordsCount() != 0) {
+        submitBatch(csvBuffer);
+      }
+      awaitUploads();
+      awaitVerifications();
+      checkBatchFailure();
     } finally {
+      uploadExecutor.shutdownNow();
+      verificationExecutor.shutdownNow();
+      // buffers and error output are still used by uploads and verifications which did not stop yet
+      boolean terminated = awaitTermination(uploadExecutor) & awaitTermination(verificationExecutor);
       try {
-        csvBufferSizeCheck.close();
-      } catch (IOException ex) {
-        throw ex;
+        if (terminated) {
+          batchResultVerifier.close();
+        }
       } finally {
-        csvBuffer.close();
+        // batches are completed after the stage has stopped transforming records
+        metrics.emit();
+        if (terminated) {
+          for (CSVBuffer buffer : csvBuffers) {
+            buffer.close();
+          }
+        } else {
+          LOG.warn("Batch uploads did not stop within '{}' seconds, their buffers are not released",
+                   TERMINATION_TIMEOUT_SECONDS);
+        }
       }
     }
   }
+
+  private static boolean awaitTermination(ExecutorService executor) {
+    try {
+      return executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
 }
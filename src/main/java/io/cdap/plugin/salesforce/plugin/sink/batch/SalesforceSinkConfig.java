@@ -26,6 +26,7 @@ import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.FailureCollector;
 import io.cdap.cdap.etl.api.validation.InvalidStageException;
+import io.cdap.plugin.salesforce.BulkApiVersion;
 import io.cdap.plugin.salesforce.InvalidConfigException;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
 import io.cdap.plugin.salesforce.SObjectsDescribeResult;
@@ -45,11 +46,15 @@ import javax.annotation.Nullable;
  */
 public class SalesforceSinkConfig extends BaseSalesforceConfig {
   public static final String PROPERTY_ERROR_HANDLING = "errorHandling";
+  public static final String PROPERTY_ERROR_OUTPUT_PATH = "errorOutputPath";
   public static final String PROPERTY_MAX_BYTES_PER_BATCH = "maxBytesPerBatch";
   public static final String PROPERTY_MAX_RECORDS_PER_BATCH = "maxRecordsPerBatch";
+  public static final String PROPERTY_MAX_IN_FLIGHT_BATCHES = "maxInFlightBatches";
+  public static final String PROPERTY_COMPRESS_BATCHES = "compressBatches";
   public static final String PROPERTY_SOBJECT = "sObject";
   public static final String PROPERTY_OPERATION = "operation";
   public static final String PROPERTY_EXTERNAL_ID_FIELD = "externalIdField";
+  public static final String PROPERTY_BULK_API_VERSION = "bulkApiVersion";
 
   private static final String SALESFORCE_ID_FIELD = "Id";
 
@@ -61,6 +66,14 @@ public class SalesforceSinkConfig extends BaseSalesforceConfig {
    * According to "Bulk API Limitations" batch cannot contain more than 10,000 records.
    */
   private static final long MAX_RECORDS_PER_BATCH_LIMIT = 10_000;
+  /**
+   * Default number of batches uploaded concurrently by a single task, while the next batch is being encoded.
+   */
+  private static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 2;
+  /**
+   * Upper bound of concurrent batch uploads of a single task, every in-flight batch holds its own buffer in memory.
+   */
+  private static final int MAX_IN_FLIGHT_BATCHES_LIMIT = 10;
 
   @Name(PROPERTY_SOBJECT)
   @Description("Salesforce object name to insert records into.")
@@ -83,6 +96,15 @@ public class SalesforceSinkConfig extends BaseSalesforceConfig {
   @Macro
   private String externalIdField;
 
+  @Name(PROPERTY_BULK_API_VERSION)
+  @Description("Version of Salesforce Bulk API used to write records.\n" +
+    "1.0 - records are split into batches by the plugin, according to max records and bytes per batch.\n" +
+    "2.0 - every task uploads its records into ingest jobs of up to 100 MB, " +
+    "which are split into batches by Salesforce. Defaults to 1.0.")
+  @Nullable
+  @Macro
+  private String bulkApiVersion;
+
   @Name(PROPERTY_MAX_BYTES_PER_BATCH)
   @Description("Maximum size in bytes of a batch of records when writing to Salesforce. " +
     "This value cannot be greater than 10,000,000.")
@@ -95,6 +117,21 @@ public class SalesforceSinkConfig extends BaseSalesforceConfig {
   @Macro
   private String maxRecordsPerBatch;
 
+  @Name(PROPERTY_MAX_IN_FLIGHT_BATCHES)
+  @Description("Maximum number of batches uploaded to Salesforce concurrently by a single task. " +
+    "Next batch is encoded while previous batches are being uploaded. " +
+    "This value cannot be greater than 10. Defaults to 2.")
+  @Nullable
+  @Macro
+  private String maxInFlightBatches;
+
+  @Name(PROPERTY_COMPRESS_BATCHES)
+  @Description("Whether batches are gzip compressed when uploaded to Salesforce. " +
+    "Max Bytes Per Batch limit applies to uncompressed batch size. Defaults to true.")
+  @Nullable
+  @Macro
+  private Boolean compressBatches;
+
   @Name(PROPERTY_ERROR_HANDLING)
   @Description("Strategy used to handle erroneous records.\n" +
     "Skip on error - Ignores erroneous records.\n" +
@@ -102,6 +139,14 @@ public class SalesforceSinkConfig extends BaseSalesforceConfig {
   @Macro
   private String errorHandling;
 
+  @Name(PROPERTY_ERROR_OUTPUT_PATH)
+  @Description("Directory to which records rejected by Salesforce are written as csv files, " +
+    "together with the error message. Used only if error handling is 'Skip on error'. " +
+    "If not set, rejected records are logged.")
+  @Nullable
+  @Macro
+  private String errorOutputPath;
+
   public SalesforceSinkConfig(String referenceName, String clientId,
                               String clientSecret, String username,
                               String password, String loginUrl, String sObject,
@@ -156,12 +201,42 @@ public class SalesforceSinkConfig extends BaseSalesforceConfig {
     }
   }
 
+  public BulkApiVersion getBulkApiVersion() {
+    if (Strings.isNullOrEmpty(bulkApiVersion)) {
+      return BulkApiVersion.V1;
+    }
+    return BulkApiVersion.fromValue(bulkApiVersion)
+      .orElseThrow(() -> new InvalidConfigException("Unsupported bulk api version: " + bulkApiVersion,
+                                                    SalesforceSinkConfig.PROPERTY_BULK_API_VERSION));
+  }
+
+  public Integer getMaxInFlightBatches() {
+    if (Strings.isNullOrEmpty(maxInFlightBatches)) {
+      return DEFAULT_MAX_IN_FLIGHT_BATCHES;
+    }
+    try {
+      return Integer.parseInt(maxInFlightBatches);
+    } catch (NumberFormatException ex) {
+      throw new InvalidConfigException("Unsupported value for maxInFlightBatches: " + maxInFlightBatches,
+                                       SalesforceSinkConfig.PROPERTY_MAX_IN_FLIGHT_BATCHES);
+    }
+  }
+
+  public boolean getCompressBatches() {
+    return compressBatches == null || compressBatches;
+  }
+
   public ErrorHandling getErrorHandling() {
     return ErrorHandling.fromValue(errorHandling)
       .orElseThrow(() -> new InvalidConfigException("Unsupported error handling value: " + errorHandling,
                                                     SalesforceSinkConfig.PROPERTY_ERROR_HANDLING));
   }
 
+  @Nullable
+  public String getErrorOutputPath() {
+    return Strings.isNullOrEmpty(errorOutputPath) ? null : errorOutputPath;
+  }
+
   public void validate(Schema schema, FailureCollector collector) {
     super.validate(collector);
 
@@ -183,6 +258,15 @@ public class SalesforceSinkConfig extends BaseSalesforceConfig {
       }
     }
 
+    if (!containsMacro(PROPERTY_BULK_API_VERSION)) {
+      // triggering getter will also trigger value validity check
+      try {
+        getBulkApiVersion();
+      } catch (InvalidConfigException e) {
+        collector.addFailure(e.getMessage(), null).withConfigProperty(PROPERTY_BULK_API_VERSION);
+      }
+    }
+
     if (!containsMacro(PROPERTY_MAX_BYTES_PER_BATCH)) {
       long maxBytesPerBatch = getMaxBytesPerBatch();
 
@@ -205,6 +289,21 @@ public class SalesforceSinkConfig extends BaseSalesforceConfig {
         collector.addFailure(errorMessage, null).withConfigProperty(PROPERTY_MAX_RECORDS_PER_BATCH);
       }
     }
+
+    if (!containsMacro(PROPERTY_MAX_IN_FLIGHT_BATCHES)) {
+      try {
+        int maxInFlightBatches = getMaxInFlightBatches();
+        if (maxInFlightBatches <= 0 || maxInFlightBatches > MAX_IN_FLIGHT_BATCHES_LIMIT) {
+          String errorMessage = String.format(
+            "Unsupported value for maxInFlightBatches: %d. Value should be between 1 and %d",
+            maxInFlightBatches, MAX_IN_FLIGHT_BATCHES_LIMIT);
+          collector.addFailure(errorMessage, null).withConfigProperty(PROPERTY_MAX_IN_FLIGHT_BATCHES);
+        }
+      } catch (InvalidConfigException e) {
+        collector.addFailure(e.getMessage(), null).withConfigProperty(PROPERTY_MAX_IN_FLIGHT_BATCHES);
+      }
+    }
+
     collector.getOrThrowException();
     validateSchema(schema, collector);
   }
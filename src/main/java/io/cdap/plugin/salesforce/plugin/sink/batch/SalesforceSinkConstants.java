@@ -26,4 +26,8 @@ public class SalesforceSinkConstants {
   public static final String CONFIG_JOB_ID = "mapred.salesforce.job.id";
   public static final String CONFIG_MAX_BYTES_PER_BATCH = "mapred.salesforce.max.bytes.per.batch";
   public static final String CONFIG_MAX_RECORDS_PER_BATCH = "mapred.salesforce.max.records.per.batch";
+  public static final String CONFIG_MAX_IN_FLIGHT_BATCHES = "mapred.salesforce.max.in.flight.batches";
+  public static final String CONFIG_COMPRESS_BATCHES = "mapred.salesforce.compress.batches";
+  public static final String CONFIG_BULK_API_VERSION = "mapred.salesforce.bulk.api.version";
+  public static final String CONFIG_ERROR_OUTPUT_PATH = "mapred.salesforce.error.output.path";
 }
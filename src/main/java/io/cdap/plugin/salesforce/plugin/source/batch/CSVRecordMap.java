@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Read-only map view over a single csv row received from Bulk API.
+ * Header is shared by all rows of the same batch, so no map is allocated per row.
+ * Allows {@link MapToRecordTransformer} to resolve schema fields against the header once
+ * and then read values directly by column index.
+ * <p/>
+ * Can hold one additional entry which is not present in csv, for example SObject name field.
+ * <p/>
+ * Can also be a view over rows of several csv streams, which are joined into a single record,
+ * see {@link #join(Map, int[], CSVRecordMap...)}.
+ */
+public class CSVRecordMap extends AbstractMap<String, String> {
+
+  private final Map<String, Integer> header;
+  private final CSVRecord record;
+  // rows of a joined record and index of the first column of each row in the header, null if not joined
+  @Nullable
+  private final CSVRecord[] joinedRecords;
+  @Nullable
+  private final int[] joinedOffsets;
+  @Nullable
+  private final String extraKey;
+  @Nullable
+  private final String extraValue;
+
+  public CSVRecordMap(Map<String, Integer> header, CSVRecord record) {
+    this(header, record, null, null, null, null);
+  }
+
+  private CSVRecordMap(Map<String, Integer> header, CSVRecord record,
+                       @Nullable CSVRecord[] joinedRecords, @Nullable int[] joinedOffsets,
+                       @Nullable String extraKey, @Nullable String extraValue) {
+    this.header = header;
+    this.record = record;
+    this.joinedRecords = joinedRecords;
+    this.joinedOffsets = joinedOffsets;
+    this.extraKey = extraKey;
+    this.extraValue = extraValue;
+  }
+
+  /**
+   * Creates a view over rows of several csv streams, which hold different columns of the same record.
+   * Columns of each row follow the columns of the previous row in the given header.
+   *
+   * @param header joined header, the same instance should be used for all records of the same streams
+   * @param offsets index of the first column of each row in the joined header
+   * @param rows rows to be joined, each of them is a view over a single csv row
+   * @return csv record map over all the rows
+   */
+  public static CSVRecordMap join(Map<String, Integer> header, int[] offsets, CSVRecordMap... rows) {
+    CSVRecord[] records = new CSVRecord[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      if (rows[i].joinedRecords != null) {
+        throw new IllegalArgumentException("Joined csv records cannot be joined again");
+      }
+      records[i] = rows[i].record;
+    }
+    return new CSVRecordMap(header, records[0], records, offsets, null, null);
+  }
+
+  /**
+   * Returns csv header, where key is column name and value is column index.
+   * The same instance is returned for all rows of the batch.
+   *
+   * @return csv header
+   */
+  public Map<String, Integer> getHeader() {
+    return header;
+  }
+
+  /**
+   * Returns value by column index.
+   *
+   * @param index column index
+   * @return column value, null if index is outside of the row
+   */
+  @Nullable
+  public String getValue(int index) {
+    if (joinedRecords == null) {
+      return getValue(record, index);
+    }
+    int row = joinedRecords.length - 1;
+    while (row > 0 && index < joinedOffsets[row]) {
+      row--;
+    }
+    return getValue(joinedRecords[row], index - joinedOffsets[row]);
+  }
+
+  /**
+   * Creates new view over the same csv row with one additional entry.
+   *
+   * @param key entry key
+   * @param value entry value
+   * @return csv record map with additional entry
+   */
+  public CSVRecordMap withEntry(String key, String value) {
+    return new CSVRecordMap(header, record, joinedRecords, joinedOffsets, key, value);
+  }
+
+  @Override
+  public String get(Object key) {
+    if (extraKey != null && extraKey.equals(key)) {
+      return extraValue;
+    }
+    Integer index = header.get(key);
+    return index == null ? null : getValue(index);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return header.containsKey(key) || (extraKey != null && extraKey.equals(key));
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    Set<Entry<String, String>> entries = new LinkedHashSet<>();
+    header.forEach((name, index) -> {
+      if (!name.equals(extraKey)) {
+        entries.add(new SimpleImmutableEntry<>(name, getValue(index)));
+      }
+    });
+    if (extraKey != null) {
+      entries.add(new SimpleImmutableEntry<>(extraKey, extraValue));
+    }
+    return entries;
+  }
+
+  @Nullable
+  private static String getValue(CSVRecord record, int index) {
+    return index < 0 || index >= record.size() ? null : record.get(index);
+  }
+}
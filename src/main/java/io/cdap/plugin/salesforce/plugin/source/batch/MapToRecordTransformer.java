@@ -24,7 +24,9 @@ import io.cdap.plugin.salesforce.SalesforceTransformUtil;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 /**
  * Transforms Map of records where key is schema and value is field value
@@ -32,12 +34,28 @@ import java.util.stream.Collectors;
  */
 public class MapToRecordTransformer {
 
+  private ColumnBinding columnBinding;
+
   public StructuredRecord transform(Schema schema, Map<String, ?> record) {
+    if (record instanceof CSVRecordMap) {
+      return transformCSVRecord(schema, (CSVRecordMap) record);
+    }
     StructuredRecord.Builder builder = StructuredRecord.builder(schema);
     transformRecord(schema, record, builder);
     return builder.build();
   }
 
+  /**
+   * Transforms csv record using column binding. Binding is created once for the given schema and csv header
+   * and is re-used for all the records of the same batch, since they share the same header instance.
+   */
+  private StructuredRecord transformCSVRecord(Schema schema, CSVRecordMap record) {
+    if (columnBinding == null || !columnBinding.isBoundTo(schema, record.getHeader())) {
+      columnBinding = new ColumnBinding(schema, record.getHeader());
+    }
+    return columnBinding.transform(record);
+  }
+
   private void transformRecord(Schema schema, Map<String, ?> record, StructuredRecord.Builder builder) {
     Objects.requireNonNull(schema.getFields())
       .forEach(field -> builder.set(field.getName(),
@@ -107,4 +125,91 @@ public class MapToRecordTransformer {
   private <T> T castGeneric(Object value) {
     return (T) value;
   }
+
+  /**
+   * Resolves schema fields against csv header and selects value converter for each field,
+   * so that nullability and field types are checked only once instead of for each value.
+   */
+  private class ColumnBinding {
+
+    private final Schema schema;
+    private final Map<String, Integer> header;
+    private final List<FieldBinding> fieldBindings;
+
+    ColumnBinding(Schema schema, Map<String, Integer> header) {
+      this.schema = schema;
+      this.header = header;
+      this.fieldBindings = Objects.requireNonNull(schema.getFields()).stream()
+        .map(field -> new FieldBinding(field.getName(), header.get(field.getName()),
+                                       createConverter(field.getName(), field.getSchema())))
+        .collect(Collectors.toList());
+    }
+
+    boolean isBoundTo(Schema schema, Map<String, Integer> header) {
+      return this.schema == schema && this.header == header;
+    }
+
+    StructuredRecord transform(CSVRecordMap record) {
+      StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+      for (FieldBinding fieldBinding : fieldBindings) {
+        // fields absent in csv header, for example SObject name field, are looked up by name
+        String value = fieldBinding.index == null
+          ? record.get(fieldBinding.name)
+          : record.getValue(fieldBinding.index);
+        builder.set(fieldBinding.name, fieldBinding.converter.apply(value));
+      }
+      return builder.build();
+    }
+
+    private Function<String, Object> createConverter(String fieldName, Schema fieldSchema) {
+      Function<String, Object> converter = createValueConverter(fieldName,
+        fieldSchema.isNullable() ? fieldSchema.getNonNullable() : fieldSchema);
+      // empty string is considered null in csv
+      return value -> Strings.isNullOrEmpty(value) ? null : converter.apply(value);
+    }
+
+    private Function<String, Object> createValueConverter(String fieldName, Schema fieldSchema) {
+      Schema.LogicalType logicalType = fieldSchema.getLogicalType();
+      if (logicalType != null) {
+        return value -> SalesforceTransformUtil.transformLogicalType(fieldName, logicalType, value);
+      }
+
+      switch (fieldSchema.getType()) {
+        case NULL:
+          return value -> null;
+        case BOOLEAN:
+          return Boolean::parseBoolean;
+        case INT:
+          return Integer::parseInt;
+        case LONG:
+          return Long::parseLong;
+        case FLOAT:
+          return Float::parseFloat;
+        case DOUBLE:
+          return Double::parseDouble;
+        case STRING:
+          return value -> value;
+        default:
+          // csv values cannot represent complex types, fall back to generic conversion to report the error
+          return value -> convertValue(fieldName, value, fieldSchema);
+      }
+    }
+  }
+
+  /**
+   * Holds field name, index of the corresponding csv column and value converter.
+   */
+  private static class FieldBinding {
+
+    private final String name;
+    @Nullable
+    private final Integer index;
+    private final Function<String, Object> converter;
+
+    FieldBinding(String name, @Nullable Integer index, Function<String, Object> converter) {
+      this.name = name;
+      this.index = index;
+      this.converter = converter;
+    }
+  }
 }
@@ -15,16 +15,21 @@
  */
 package io.cdap.plugin.salesforce.plugin.source.batch;
 
+import com.sforce.soap.partner.PartnerConnection;
 import com.sforce.ws.ConnectionException;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Macro;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.FailureCollector;
+import io.cdap.plugin.salesforce.BulkApiVersion;
 import io.cdap.plugin.salesforce.InvalidConfigException;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
 import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
 import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
 import io.cdap.plugin.salesforce.SalesforceQueryUtil;
 import io.cdap.plugin.salesforce.SalesforceSchemaUtil;
 import io.cdap.plugin.salesforce.plugin.BaseSalesforceConfig;
@@ -33,10 +38,12 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -75,6 +82,116 @@ public abstract class SalesforceBaseSourceConfig extends BaseSalesforceConfig {
   @Macro
   private String offset;
 
+  @Name(SalesforceSourceConstants.PROPERTY_ENABLE_PK_CHUNK)
+  @Description("Enable PK Chunking to split the bulk query into several batches, "
+    + "which will be read in parallel. Defaults to false.")
+  @Nullable
+  @Macro
+  private Boolean enablePKChunk;
+
+  @Name(SalesforceSourceConstants.PROPERTY_CHUNK_SIZE)
+  @Description("Number of records in each PK chunk. Maximum allowed value is 250,000. Defaults to 100,000.")
+  @Nullable
+  @Macro
+  private Integer chunkSize;
+
+  @Name(SalesforceSourceConstants.PROPERTY_PARENT_NAME)
+  @Description("Parent object name to be used for PK chunking of sharing objects. "
+    + "For example, for AccountShare the parent is Account.")
+  @Nullable
+  @Macro
+  private String parent;
+
+  @Name(SalesforceSourceConstants.PROPERTY_BULK_API_VERSION)
+  @Description("Version of Salesforce Bulk API used to read records. "
+    + "With 2.0, every query is read from a single job, which is split into batches by Salesforce, "
+    + "and PK chunking properties are not used. Defaults to 1.0.")
+  @Nullable
+  @Macro
+  private String bulkApiVersion;
+
+  @Name(SalesforceSourceConstants.PROPERTY_WIDE_RETRIEVE_THREADS)
+  @Description("Number of concurrent SOAP retrieve calls made by a single task to read records of wide queries, "
+    + "which exceed SOQL length limit. Maximum allowed value is 10. Defaults to 4.")
+  @Nullable
+  @Macro
+  private Integer wideRetrieveThreads;
+
+  @Name(SalesforceSourceConstants.PROPERTY_WIDE_QUERY_STRATEGY)
+  @Description("Strategy used to read records of wide queries, which exceed SOQL length limit.\n"
+    + "SOAP Retrieve - Ids are read using Bulk API, records are retrieved by Id using SOAP API.\n"
+    + "Bulk Field Groups - fields are split into several Bulk API queries, which are joined by Id. "
+    + "Cannot be used with PK chunking. Defaults to SOAP Retrieve.")
+  @Nullable
+  @Macro
+  private String wideQueryStrategy;
+
+  @Name(SalesforceSourceConstants.PROPERTY_FIELD_GROUP_SKIP_UNMATCHED)
+  @Description("Whether rows of field group queries, which have no matching rows in other field groups, are "
+    + "skipped. Such rows belong to records created or deleted while the queries were running. If false, "
+    + "the pipeline fails when such row is found. Used only by Bulk Field Groups wide query strategy. "
+    + "Defaults to false.")
+  @Nullable
+  @Macro
+  private Boolean fieldGroupSkipUnmatched;
+
+  @Name(SalesforceSourceConstants.PROPERTY_SOAP_QUERY_BATCH_SIZE)
+  @Description("Number of records requested in a single SOAP API call to read queries which cannot be read "
+    + "using Bulk API, for example queries with aggregate functions or offset. Value must be between 200 "
+    + "and 2,000. Defaults to 2,000.")
+  @Nullable
+  @Macro
+  private Integer soapQueryBatchSize;
+
+  @Name(SalesforceSourceConstants.PROPERTY_ID_RANGE_PARTITIONS)
+  @Description("Number of Id ranges each query is split into when PK chunking is not used, so that records "
+    + "are read in parallel. Boundaries of the ranges are sampled before the queries are executed. Queries which "
+    + "group, sort, limit or skip records are not split. Maximum allowed value is 100. Defaults to 1.")
+  @Nullable
+  @Macro
+  private Integer idRangePartitions;
+
+  @Name(SalesforceSourceConstants.PROPERTY_TIME_WINDOW_SHARDS)
+  @Description("Number of sub-intervals the LastModifiedDate window of sObject queries is split into, "
+    + "so that records of long windows are read in parallel. Sub-interval queries are executed as batches "
+    + "of a single Bulk API job. Window is not split when its start is not known or PK chunking is enabled. "
+    + "Maximum allowed value is 100. Defaults to 1.")
+  @Nullable
+  @Macro
+  private Integer timeWindowShards;
+
+  @Name(SalesforceSourceConstants.PROPERTY_TIME_WINDOW_SHARD_STRATEGY)
+  @Description("Strategy used to split the LastModifiedDate window into sub-intervals.\n"
+    + "Even - sub-intervals have the same duration.\n"
+    + "Adaptive - sub-intervals have approximately the same number of records, which is probed with COUNT() "
+    + "queries. Defaults to Even.")
+  @Nullable
+  @Macro
+  private String timeWindowShardStrategy;
+
+  @Name(SalesforceSourceConstants.PROPERTY_WATERMARK_PATH)
+  @Description("Path of the file which stores the high-water mark of each sObject read incrementally. "
+    + "When set, every run reads records modified since the previous successful run up to the time the run "
+    + "is planned. The first run reads records modified after 'Last Modified After' or all records if it is not set.")
+  @Nullable
+  @Macro
+  private String watermarkPath;
+
+  @Name(SalesforceSourceConstants.PROPERTY_WATERMARK_FIELD)
+  @Description("Indexed datetime field used as the high-water mark of incremental reads. "
+    + "Defaults to SystemModstamp.")
+  @Nullable
+  @Macro
+  private String watermarkField;
+
+  @Name(SalesforceSourceConstants.PROPERTY_WATERMARK_LAG_SECONDS)
+  @Description("Number of seconds subtracted from the Salesforce time to get the upper bound of incremental reads, "
+    + "so that records committed by transactions still running when the run is planned are read by the next run. "
+    + "Defaults to 300.")
+  @Nullable
+  @Macro
+  private Integer watermarkLagSeconds;
+
   protected SalesforceBaseSourceConfig(String referenceName,
                                        String consumerKey,
                                        String consumerSecret,
@@ -110,6 +227,113 @@ public abstract class SalesforceBaseSourceConfig extends BaseSalesforceConfig {
     return datetimeBefore;
   }
 
+  public boolean getEnablePKChunk() {
+    return enablePKChunk != null && enablePKChunk;
+  }
+
+  public int getChunkSize() {
+    return chunkSize == null ? SalesforceSourceConstants.DEFAULT_PK_CHUNK_SIZE : chunkSize;
+  }
+
+  @Nullable
+  public String getParent() {
+    return parent;
+  }
+
+  public BulkApiVersion getBulkApiVersion() {
+    if (bulkApiVersion == null || bulkApiVersion.isEmpty()) {
+      return BulkApiVersion.V1;
+    }
+    return BulkApiVersion.fromValue(bulkApiVersion)
+      .orElseThrow(() -> new InvalidConfigException("Unsupported bulk api version: " + bulkApiVersion,
+                                                    SalesforceSourceConstants.PROPERTY_BULK_API_VERSION));
+  }
+
+  public int getWideRetrieveThreads() {
+    return wideRetrieveThreads == null ? SalesforceSourceConstants.DEFAULT_WIDE_RETRIEVE_THREADS : wideRetrieveThreads;
+  }
+
+  public WideQueryStrategy getWideQueryStrategy() {
+    if (wideQueryStrategy == null || wideQueryStrategy.isEmpty()) {
+      return WideQueryStrategy.RETRIEVE;
+    }
+    return WideQueryStrategy.fromValue(wideQueryStrategy)
+      .orElseThrow(() -> new InvalidConfigException("Unsupported wide query strategy: " + wideQueryStrategy,
+                                                    SalesforceSourceConstants.PROPERTY_WIDE_QUERY_STRATEGY));
+  }
+
+  public boolean getFieldGroupSkipUnmatched() {
+    return fieldGroupSkipUnmatched != null && fieldGroupSkipUnmatched;
+  }
+
+  public int getSoapQueryBatchSize() {
+    return soapQueryBatchSize == null ? SalesforceSourceConstants.MAX_SOAP_QUERY_BATCH_SIZE : soapQueryBatchSize;
+  }
+
+  public int getIdRangePartitions() {
+    return idRangePartitions == null ? SalesforceSourceConstants.DEFAULT_ID_RANGE_PARTITIONS : idRangePartitions;
+  }
+
+  public int getTimeWindowShards() {
+    return timeWindowShards == null ? SalesforceSourceConstants.DEFAULT_TIME_WINDOW_SHARDS : timeWindowShards;
+  }
+
+  public TimeWindowShardStrategy getTimeWindowShardStrategy() {
+    if (timeWindowShardStrategy == null || timeWindowShardStrategy.isEmpty()) {
+      return TimeWindowShardStrategy.EVEN;
+    }
+    return TimeWindowShardStrategy.fromValue(timeWindowShardStrategy)
+      .orElseThrow(() -> new InvalidConfigException(
+        "Unsupported time window shard strategy: " + timeWindowShardStrategy,
+        SalesforceSourceConstants.PROPERTY_TIME_WINDOW_SHARD_STRATEGY));
+  }
+
+  @Nullable
+  public String getWatermarkPath() {
+    return watermarkPath;
+  }
+
+  /**
+   * @return true if records are read incrementally, starting with the watermark of the previous run
+   */
+  public boolean isIncremental() {
+    return !StringUtils.isBlank(watermarkPath);
+  }
+
+  public String getWatermarkField() {
+    return StringUtils.isBlank(watermarkField) ? SalesforceSourceConstants.DEFAULT_WATERMARK_FIELD : watermarkField;
+  }
+
+  public int getWatermarkLagSeconds() {
+    return watermarkLagSeconds == null ? SalesforceSourceConstants.DEFAULT_WATERMARK_LAG_SECONDS : watermarkLagSeconds;
+  }
+
+  @Override
+  public void validate(FailureCollector collector) {
+    super.validate(collector);
+    validatePKChunk(collector);
+    validateWideRetrieveThreads(collector);
+    validateSoapQueryBatchSize(collector);
+    validateIdRangePartitions(collector);
+    validateTimeWindowShards(collector);
+    validateIncremental(collector);
+    if (!containsMacro(SalesforceSourceConstants.PROPERTY_BULK_API_VERSION)) {
+      try {
+        getBulkApiVersion();
+      } catch (InvalidConfigException e) {
+        collector.addFailure(e.getMessage(), null).withConfigProperty(e.getProperty());
+      }
+    }
+    validateWideQueryStrategy(collector);
+    if (!containsMacro(SalesforceSourceConstants.PROPERTY_TIME_WINDOW_SHARD_STRATEGY)) {
+      try {
+        getTimeWindowShardStrategy();
+      } catch (InvalidConfigException e) {
+        collector.addFailure(e.getMessage(), null).withConfigProperty(e.getProperty());
+      }
+    }
+  }
+
   protected void validateFilters(FailureCollector collector) {
     try {
       validateIntervalFilterProperty(SalesforceSourceConstants.PROPERTY_DATETIME_AFTER, getDatetimeAfter());
@@ -146,38 +370,82 @@ public abstract class SalesforceBaseSourceConfig extends BaseSalesforceConfig {
    * @return SOQL generated based on sObject metadata and given filters
    */
   protected String getSObjectQuery(String sObjectName, Schema schema, long logicalStartTime) {
+    return getSObjectQuery(sObjectName, schema, getSObjectFilterDescriptor(logicalStartTime));
+  }
+
+  /**
+   * Generates SOQL based on given sObject name metadata and filter.
+   *
+   * @param sObjectName Salesforce object name
+   * @param schema      CDAP schema
+   * @param filterDescriptor sObject query filter
+   * @return SOQL generated based on sObject metadata and given filter
+   */
+  protected String getSObjectQuery(String sObjectName, Schema schema, SObjectFilterDescriptor filterDescriptor) {
     try {
       SObjectDescriptor sObjectDescriptor = SObjectDescriptor.fromName(sObjectName, getAuthenticatorCredentials(),
                                                                        SalesforceSchemaUtil.COMPOUND_FIELDS);
+      return getSObjectQuery(sObjectDescriptor, schema, filterDescriptor);
+    } catch (ConnectionException e) {
+      throw new IllegalStateException(
+        String.format("Cannot establish connection to Salesforce to describe SObject: '%s'", sObjectName), e);
+    }
+  }
 
-      List<String> sObjectFields = sObjectDescriptor.getFieldsNames();
+  /**
+   * Generates SOQL based on given sObject descriptor and filter properties.
+   * Includes only those sObject fields which are present in the schema.
+   *
+   * @param sObjectDescriptor sObject descriptor without compound fields
+   * @param schema      CDAP schema
+   * @param logicalStartTime   application start time
+   * @return SOQL generated based on sObject metadata and given filters
+   */
+  protected String getSObjectQuery(SObjectDescriptor sObjectDescriptor, Schema schema, long logicalStartTime) {
+    return getSObjectQuery(sObjectDescriptor, schema, getSObjectFilterDescriptor(logicalStartTime));
+  }
 
-      List<String> fieldNames;
-      if (schema == null) {
-        fieldNames = sObjectFields;
-      } else {
-        fieldNames = sObjectFields.stream()
-          .filter(name -> schema.getField(name) != null)
-          .collect(Collectors.toList());
+  /**
+   * Generates SOQL based on given sObject descriptor and filter.
+   * Includes only those sObject fields which are present in the schema.
+   *
+   * @param sObjectDescriptor sObject descriptor without compound fields
+   * @param schema      CDAP schema
+   * @param filterDescriptor sObject query filter
+   * @return SOQL generated based on sObject metadata and given filter
+   */
+  protected String getSObjectQuery(SObjectDescriptor sObjectDescriptor, Schema schema,
+                                   SObjectFilterDescriptor filterDescriptor) {
+    List<String> sObjectFields = sObjectDescriptor.getFieldsNames();
 
-        if (fieldNames.isEmpty()) {
-          throw new IllegalArgumentException(
-            String.format("None of the fields indicated in schema are present in sObject metadata."
-              + " Schema: '%s'. SObject fields: '%s'", schema, sObjectFields));
-        }
-      }
+    List<String> fieldNames;
+    if (schema == null) {
+      fieldNames = sObjectFields;
+    } else {
+      fieldNames = sObjectFields.stream()
+        .filter(name -> schema.getField(name) != null)
+        .collect(Collectors.toList());
 
-      SObjectFilterDescriptor filterDescriptor = getSObjectFilterDescriptor(logicalStartTime);
-      String sObjectQuery = SalesforceQueryUtil.createSObjectQuery(fieldNames, sObjectName, filterDescriptor);
-      LOG.debug("Generated SObject query: '{}'", sObjectQuery);
-      return sObjectQuery;
-    } catch (ConnectionException e) {
-      throw new IllegalStateException(
-        String.format("Cannot establish connection to Salesforce to describe SObject: '%s'", sObjectName), e);
+      if (fieldNames.isEmpty()) {
+        throw new IllegalArgumentException(
+          String.format("None of the fields indicated in schema are present in sObject metadata."
+            + " Schema: '%s'. SObject fields: '%s'", schema, sObjectFields));
+      }
     }
+
+    String sObjectQuery = SalesforceQueryUtil.createSObjectQuery(fieldNames, sObjectDescriptor.getName(),
+                                                                 filterDescriptor);
+    LOG.debug("Generated SObject query: '{}'", sObjectQuery);
+    return sObjectQuery;
   }
 
-  private SObjectFilterDescriptor getSObjectFilterDescriptor(long logicalStartTime) {
+  /**
+   * Returns LastModifiedDate filter of sObject queries based on given filter properties.
+   *
+   * @param logicalStartTime application start time
+   * @return sObject query filter
+   */
+  public SObjectFilterDescriptor getSObjectFilterDescriptor(long logicalStartTime) {
     SObjectFilterDescriptor filterDescriptor;
     ZonedDateTime start = parseDatetime(datetimeAfter);
     ZonedDateTime end = parseDatetime(datetimeBefore);
@@ -188,6 +456,159 @@ public abstract class SalesforceBaseSourceConfig extends BaseSalesforceConfig {
     return filterDescriptor;
   }
 
+  /**
+   * Returns filter of an sObject read incrementally, which selects records modified since the watermark
+   * of the previous successful run, or since 'Last Modified After' if the sObject was not read yet.
+   *
+   * @param watermark watermark of the sObject, null if it was not read yet
+   * @param upperBound exclusive upper bound pinned when the run is planned
+   * @return sObject query filter, end of which is the next watermark of the sObject
+   */
+  public SObjectFilterDescriptor getIncrementalFilterDescriptor(@Nullable ZonedDateTime watermark,
+                                                                ZonedDateTime upperBound) {
+    ZonedDateTime start = watermark == null ? parseDatetime(datetimeAfter) : watermark;
+    // watermark is not moved backwards when the lag is increased between runs
+    ZonedDateTime end = start != null && start.isAfter(upperBound) ? start : upperBound;
+    return SObjectFilterDescriptor.interval(getWatermarkField(), start, end);
+  }
+
+  /**
+   * Returns upper bound of incremental reads, which lags behind the Salesforce time, so that records
+   * committed by transactions running when the run is planned are not skipped.
+   *
+   * @return Salesforce time minus the watermark lag
+   * @throws ConnectionException if unable to connect to Salesforce
+   */
+  public ZonedDateTime getIncrementalUpperBound() throws ConnectionException {
+    return getServerTime().minusSeconds(getWatermarkLagSeconds());
+  }
+
+  /**
+   * Returns current time of Salesforce, so that the upper bound of incremental reads does not depend
+   * on the clock of the pipeline host.
+   *
+   * @return Salesforce time truncated to seconds, which is the precision of SOQL datetime literals
+   * @throws ConnectionException if unable to connect to Salesforce
+   */
+  public ZonedDateTime getServerTime() throws ConnectionException {
+    PartnerConnection partnerConnection = SalesforceConnectionUtil.getPartnerConnection(getAuthenticatorCredentials());
+    Calendar timestamp = SalesforceApiGovernor.of(partnerConnection.getConfig())
+      .callSoap(partnerConnection, "soap.getServerTimestamp", SalesforceMetrics.NONE,
+                partnerConnection::getServerTimestamp)
+      .getTimestamp();
+    return ZonedDateTime.ofInstant(timestamp.toInstant(), ZoneOffset.UTC).truncatedTo(ChronoUnit.SECONDS);
+  }
+
+  private void validatePKChunk(FailureCollector collector) {
+    if (containsMacro(SalesforceSourceConstants.PROPERTY_CHUNK_SIZE) || chunkSize == null) {
+      return;
+    }
+    if (chunkSize < 1 || chunkSize > SalesforceSourceConstants.MAX_PK_CHUNK_SIZE) {
+      collector.addFailure(
+        String.format("Invalid SObject '%s' value: '%d'. Value must be between 1 and %d",
+                      SalesforceSourceConstants.PROPERTY_CHUNK_SIZE, chunkSize,
+                      SalesforceSourceConstants.MAX_PK_CHUNK_SIZE), null)
+        .withConfigProperty(SalesforceSourceConstants.PROPERTY_CHUNK_SIZE);
+    }
+  }
+
+  private void validateWideQueryStrategy(FailureCollector collector) {
+    if (containsMacro(SalesforceSourceConstants.PROPERTY_WIDE_QUERY_STRATEGY)) {
+      return;
+    }
+    WideQueryStrategy strategy;
+    try {
+      strategy = getWideQueryStrategy();
+    } catch (InvalidConfigException e) {
+      collector.addFailure(e.getMessage(), null).withConfigProperty(e.getProperty());
+      return;
+    }
+    // PK chunks of field group queries are not guaranteed to be sorted by Id, so their rows cannot be merge joined
+    if (strategy == WideQueryStrategy.FIELD_GROUPS && !containsMacro(SalesforceSourceConstants.PROPERTY_ENABLE_PK_CHUNK)
+      && getEnablePKChunk()) {
+      collector.addFailure("Bulk Field Groups wide query strategy cannot be used with PK chunking.",
+                           "Disable PK chunking or use SOAP Retrieve wide query strategy.")
+        .withConfigProperty(SalesforceSourceConstants.PROPERTY_WIDE_QUERY_STRATEGY)
+        .withConfigProperty(SalesforceSourceConstants.PROPERTY_ENABLE_PK_CHUNK);
+    }
+  }
+
+  private void validateWideRetrieveThreads(FailureCollector collector) {
+    if (containsMacro(SalesforceSourceConstants.PROPERTY_WIDE_RETRIEVE_THREADS) || wideRetrieveThreads == null) {
+      return;
+    }
+    if (wideRetrieveThreads < 1 || wideRetrieveThreads > SalesforceSourceConstants.MAX_WIDE_RETRIEVE_THREADS) {
+      collector.addFailure(
+        String.format("Invalid SObject '%s' value: '%d'. Value must be between 1 and %d",
+                      SalesforceSourceConstants.PROPERTY_WIDE_RETRIEVE_THREADS, wideRetrieveThreads,
+                      SalesforceSourceConstants.MAX_WIDE_RETRIEVE_THREADS), null)
+        .withConfigProperty(SalesforceSourceConstants.PROPERTY_WIDE_RETRIEVE_THREADS);
+    }
+  }
+
+  private void validateSoapQueryBatchSize(FailureCollector collector) {
+    if (containsMacro(SalesforceSourceConstants.PROPERTY_SOAP_QUERY_BATCH_SIZE) || soapQueryBatchSize == null) {
+      return;
+    }
+    if (soapQueryBatchSize < SalesforceSourceConstants.MIN_SOAP_QUERY_BATCH_SIZE
+      || soapQueryBatchSize > SalesforceSourceConstants.MAX_SOAP_QUERY_BATCH_SIZE) {
+      collector.addFailure(
+        String.format("Invalid SObject '%s' value: '%d'. Value must be between %d and %d",
+                      SalesforceSourceConstants.PROPERTY_SOAP_QUERY_BATCH_SIZE, soapQueryBatchSize,
+                      SalesforceSourceConstants.MIN_SOAP_QUERY_BATCH_SIZE,
+                      SalesforceSourceConstants.MAX_SOAP_QUERY_BATCH_SIZE), null)
+        .withConfigProperty(SalesforceSourceConstants.PROPERTY_SOAP_QUERY_BATCH_SIZE);
+    }
+  }
+
+  private void validateIdRangePartitions(FailureCollector collector) {
+    if (containsMacro(SalesforceSourceConstants.PROPERTY_ID_RANGE_PARTITIONS) || idRangePartitions == null) {
+      return;
+    }
+    if (idRangePartitions < 1 || idRangePartitions > SalesforceSourceConstants.MAX_ID_RANGE_PARTITIONS) {
+      collector.addFailure(
+        String.format("Invalid SObject '%s' value: '%d'. Value must be between 1 and %d",
+                      SalesforceSourceConstants.PROPERTY_ID_RANGE_PARTITIONS, idRangePartitions,
+                      SalesforceSourceConstants.MAX_ID_RANGE_PARTITIONS), null)
+        .withConfigProperty(SalesforceSourceConstants.PROPERTY_ID_RANGE_PARTITIONS);
+    }
+  }
+
+  private void validateTimeWindowShards(FailureCollector collector) {
+    if (containsMacro(SalesforceSourceConstants.PROPERTY_TIME_WINDOW_SHARDS) || timeWindowShards == null) {
+      return;
+    }
+    if (timeWindowShards < 1 || timeWindowShards > SalesforceSourceConstants.MAX_TIME_WINDOW_SHARDS) {
+      collector.addFailure(
+        String.format("Invalid SObject '%s' value: '%d'. Value must be between 1 and %d",
+                      SalesforceSourceConstants.PROPERTY_TIME_WINDOW_SHARDS, timeWindowShards,
+                      SalesforceSourceConstants.MAX_TIME_WINDOW_SHARDS), null)
+        .withConfigProperty(SalesforceSourceConstants.PROPERTY_TIME_WINDOW_SHARDS);
+    }
+  }
+
+  private void validateIncremental(FailureCollector collector) {
+    if (containsMacro(SalesforceSourceConstants.PROPERTY_WATERMARK_PATH) || !isIncremental()) {
+      return;
+    }
+    if (!containsMacro(SalesforceSourceConstants.PROPERTY_WATERMARK_LAG_SECONDS) && watermarkLagSeconds != null
+      && watermarkLagSeconds < 0) {
+      collector.addFailure(
+        String.format("Invalid SObject '%s' value: '%d'. Value must be 0 or greater",
+                      SalesforceSourceConstants.PROPERTY_WATERMARK_LAG_SECONDS, watermarkLagSeconds), null)
+        .withConfigProperty(SalesforceSourceConstants.PROPERTY_WATERMARK_LAG_SECONDS);
+    }
+    // upper bound of incremental reads is the time the run is planned
+    if (!StringUtils.isBlank(datetimeBefore) || !StringUtils.isBlank(duration) || !StringUtils.isBlank(offset)) {
+      collector.addFailure(
+        String.format("Properties '%s', '%s' and '%s' cannot be used when records are read incrementally",
+                      SalesforceSourceConstants.PROPERTY_DATETIME_BEFORE, SalesforceSourceConstants.PROPERTY_DURATION,
+                      SalesforceSourceConstants.PROPERTY_OFFSET), null)
+        .withConfigProperty(SalesforceSourceConstants.PROPERTY_WATERMARK_PATH);
+    }
+  }
+
+
   @Nullable
   private void validateIntervalFilterProperty(String propertyName, String datetime) {
     if (containsMacro(propertyName)) {
@@ -31,8 +31,19 @@ import io.cdap.cdap.etl.api.action.SettableArguments;
 import io.cdap.cdap.etl.api.batch.BatchRuntimeContext;
 import io.cdap.cdap.etl.api.batch.BatchSource;
 import io.cdap.cdap.etl.api.batch.BatchSourceContext;
-
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import io.cdap.plugin.salesforce.authenticator.AuthResponse;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -50,10 +61,15 @@ public class SalesforceBatchMultiSource extends BatchSource<Schema, Map<String,
 
   public static final String NAME = "SalesforceMultiObjects";
 
+  private static final Logger LOG = LoggerFactory.getLogger(SalesforceBatchMultiSource.class);
   private static final String MULTI_SINK_PREFIX = "multisink.";
 
   private final SalesforceMultiSourceConfig config;
+  private SalesforceWatermarkState watermarkState;
+  private AuthResponse runSession;
   private MapToRecordTransformer transformer;
+  private SalesforceMetrics metrics;
+  private SalesforceMetrics.Meter convertMeter;
 
   public SalesforceBatchMultiSource(SalesforceMultiSourceConfig config) {
     this.config = config;
@@ -67,13 +83,29 @@ public class SalesforceBatchMultiSource extends BatchSource<Schema, Map<String,
   }
 
   @Override
-  public void prepareRun(BatchSourceContext context) throws ConnectionException {
+  public void prepareRun(BatchSourceContext context) throws ConnectionException, IOException {
     FailureCollector collector = context.getFailureCollector();
     config.validate(collector);
     collector.getOrThrowException();
 
-    List<String> queries = config.getQueries(context.getLogicalStartTime());
-    Map<String, Schema> schemas = config.getSObjectsSchemas(queries);
+    SalesforceMultiSourceConfig.SObjectsPlan plan;
+    Map<String, SObjectFilterDescriptor> timeWindows = new HashMap<>();
+    if (config.isIncremental()) {
+      // upper bound is pinned before any records are read, so records modified during the run are read next time
+      ZonedDateTime upperBound = config.getIncrementalUpperBound();
+      SalesforceWatermarkState state = SalesforceWatermarkState.load(new Configuration(),
+                                                                     new Path(config.getWatermarkPath()));
+      plan = config.getSObjectsPlan(sObject -> timeWindows.computeIfAbsent(
+        sObject, name -> config.getIncrementalFilterDescriptor(state.get(name), upperBound)));
+      timeWindows.forEach((sObject, window) -> state.put(sObject, window.getEndTime()));
+      watermarkState = state;
+    } else {
+      plan = config.getSObjectsPlan(context.getLogicalStartTime());
+      SObjectFilterDescriptor filterDescriptor = config.getSObjectFilterDescriptor(context.getLogicalStartTime());
+      plan.getSchemas().keySet().forEach(sObject -> timeWindows.put(sObject, filterDescriptor));
+    }
+    List<String> queries = plan.getQueries();
+    Map<String, Schema> schemas = plan.getSchemas();
 
     // propagate schema for each SObject for multi sink plugin
     SettableArguments arguments = context.getArguments();
@@ -81,23 +113,59 @@ public class SalesforceBatchMultiSource extends BatchSource<Schema, Map<String,
       (sObjectName, sObjectSchema) -> arguments.set(MULTI_SINK_PREFIX + sObjectName, sObjectSchema.toString()));
 
     String sObjectNameField = config.getSObjectNameField();
+    // tasks reuse session created for the run instead of logging in to Salesforce
+    runSession = SalesforceConnectionUtil.createRunSession(config.getAuthenticatorCredentials());
     context.setInput(Input.of(config.referenceName, new SalesforceInputFormatProvider(
-      config, queries, getSchemaWithNameField(sObjectNameField, schemas), sObjectNameField)));
+      config, queries, getSchemaWithNameField(sObjectNameField, schemas), sObjectNameField,
+      timeWindows, SalesforceMetrics.getKey(context), runSession)));
   }
 
   @Override
   public void initialize(BatchRuntimeContext context) throws Exception {
     super.initialize(context);
     this.transformer = new MapToRecordTransformer();
+    this.metrics = SalesforceMetrics.forStage(context);
+    this.convertMeter = metrics.timer(SalesforceMetrics.CONVERT_MS);
+    metrics.bind(context.getMetrics());
   }
 
   @Override
   public void transform(KeyValue<Schema, Map<String, String>> input,
                         Emitter<StructuredRecord> emitter) throws Exception {
+    long start = System.nanoTime();
     StructuredRecord record = transformer.transform(input.getKey(), input.getValue());
+    convertMeter.add(System.nanoTime() - start);
+    metrics.emitIfDue();
     emitter.emit(record);
   }
 
+  @Override
+  public void destroy() {
+    if (metrics != null) {
+      metrics.release();
+    }
+    super.destroy();
+  }
+
+  @Override
+  public void onRunFinish(boolean succeeded, BatchSourceContext context) {
+    super.onRunFinish(succeeded, context);
+    // metrics recorded by the input format while splits were created
+    SalesforceMetrics.finishRun(context);
+    if (succeeded && watermarkState != null) {
+      try {
+        watermarkState.save();
+      } catch (IOException e) {
+        // records are not lost, next run reads them again starting with the previous watermark
+        LOG.error("Failed to save watermark state, records of this run will be read again by the next run", e);
+      }
+    }
+    if (runSession != null) {
+      SalesforceConnectionUtil.logout(runSession);
+      runSession = null;
+    }
+  }
+
   /**
    * For each given schema adds name field of type String and converts it to string representation.
    *
@@ -33,9 +33,19 @@ import io.cdap.cdap.etl.api.batch.BatchSource;
 import io.cdap.cdap.etl.api.batch.BatchSourceContext;
 import io.cdap.plugin.common.LineageRecorder;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
 import io.cdap.plugin.salesforce.SalesforceSchemaUtil;
+import io.cdap.plugin.salesforce.authenticator.AuthResponse;
 import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.time.ZonedDateTime;
 import java.util.Collections;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -52,9 +62,15 @@ public class SalesforceBatchSource extends BatchSource<Schema, Map<String, Strin
 
   public static final String NAME = "Salesforce";
 
+  private static final Logger LOG = LoggerFactory.getLogger(SalesforceBatchSource.class);
+
   private final SalesforceSourceConfig config;
   private Schema schema;
+  private SalesforceWatermarkState watermarkState;
+  private AuthResponse runSession;
   private MapToRecordTransformer transformer;
+  private SalesforceMetrics metrics;
+  private SalesforceMetrics.Meter convertMeter;
 
   public SalesforceBatchSource(SalesforceSourceConfig config) {
     this.config = config;
@@ -85,7 +101,7 @@ public class SalesforceBatchSource extends BatchSource<Schema, Map<String, Strin
   }
 
   @Override
-  public void prepareRun(BatchSourceContext context) {
+  public void prepareRun(BatchSourceContext context) throws ConnectionException, IOException {
     FailureCollector collector = context.getFailureCollector();
     config.validate(collector); // validate when macros are already substituted
     collector.getOrThrowException();
@@ -101,25 +117,77 @@ public class SalesforceBatchSource extends BatchSource<Schema, Map<String, Strin
         .map(Schema.Field::getName)
         .collect(Collectors.toList()));
 
-    String query = config.getQuery(context.getLogicalStartTime());
+    String query;
+    SObjectFilterDescriptor filterDescriptor;
+    if (config.isIncremental()) {
+      // upper bound is pinned before any records are read, so records modified during the run are read next time
+      ZonedDateTime upperBound = config.getIncrementalUpperBound();
+      watermarkState = SalesforceWatermarkState.load(new Configuration(), new Path(config.getWatermarkPath()));
+      filterDescriptor = config.getIncrementalFilterDescriptor(watermarkState.get(config.getSObjectName()),
+                                                               upperBound);
+      query = config.getQuery(filterDescriptor);
+      watermarkState.put(config.getSObjectName(), filterDescriptor.getEndTime());
+    } else {
+      query = config.getQuery(context.getLogicalStartTime());
+      // filter properties are not applied to SOQL query provided by user
+      filterDescriptor = config.isSoqlQuery()
+        ? SObjectFilterDescriptor.noOp()
+        : config.getSObjectFilterDescriptor(context.getLogicalStartTime());
+    }
     String sObjectName = SObjectDescriptor.fromQuery(query).getName();
+    // tasks reuse session created for the run instead of logging in to Salesforce
+    runSession = SalesforceConnectionUtil.createRunSession(config.getAuthenticatorCredentials());
     context.setInput(Input.of(config.referenceName, new SalesforceInputFormatProvider(config,
-        Collections.singletonList(query), ImmutableMap.of(sObjectName, schema.toString()), null)));
+        Collections.singletonList(query), ImmutableMap.of(sObjectName, schema.toString()), null,
+        ImmutableMap.of(sObjectName, filterDescriptor), SalesforceMetrics.getKey(context), runSession)));
   }
 
   @Override
   public void initialize(BatchRuntimeContext context) throws Exception {
     super.initialize(context);
     this.transformer = new MapToRecordTransformer();
+    this.metrics = SalesforceMetrics.forStage(context);
+    this.convertMeter = metrics.timer(SalesforceMetrics.CONVERT_MS);
+    metrics.bind(context.getMetrics());
   }
 
   @Override
   public void transform(KeyValue<Schema, Map<String, String>> input,
                         Emitter<StructuredRecord> emitter) throws Exception {
+    long start = System.nanoTime();
     StructuredRecord record = transformer.transform(input.getKey(), input.getValue());
+    convertMeter.add(System.nanoTime() - start);
+    metrics.emitIfDue();
     emitter.emit(record);
   }
 
+  @Override
+  public void destroy() {
+    if (metrics != null) {
+      metrics.release();
+    }
+    super.destroy();
+  }
+
+  @Override
+  public void onRunFinish(boolean succeeded, BatchSourceContext context) {
+    super.onRunFinish(succeeded, context);
+    // metrics recorded by the input format while splits were created
+    SalesforceMetrics.finishRun(context);
+    if (succeeded && watermarkState != null) {
+      try {
+        watermarkState.save();
+      } catch (IOException e) {
+        // records are not lost, next run reads them again starting with the previous watermark
+        LOG.error("Failed to save watermark state, records of this run will be read again by the next run", e);
+      }
+    }
+    if (runSession != null) {
+      SalesforceConnectionUtil.logout(runSession);
+      runSession = null;
+    }
+  }
+
   /**
    * Get Salesforce schema by query.
    *
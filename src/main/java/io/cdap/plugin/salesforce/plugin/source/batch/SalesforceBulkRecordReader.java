@@ -17,12 +17,14 @@ package io.cdap.plugin.salesforce.plugin.source.batch;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.sforce.async.AsyncApiException;
+import com.sforce.async.BatchInfo;
 import com.sforce.async.BulkConnection;
 import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.MeteredInputStream;
+import io.cdap.plugin.salesforce.SObjectDescriptor;
 import io.cdap.plugin.salesforce.SalesforceBulkUtil;
 import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
-import io.cdap.plugin.salesforce.authenticator.Authenticator;
-import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
@@ -49,14 +51,33 @@ public class SalesforceBulkRecordReader extends RecordReader<Schema, Map<String,
   private static final Logger LOG = LoggerFactory.getLogger(SalesforceBulkRecordReader.class);
 
   private final Schema schema;
+  private final boolean countRecords;
 
   private CSVParser csvParser;
+  private MeteredInputStream inputStream;
   private Iterator<CSVRecord> parserIterator;
+  private Map<String, Integer> header;
+  private long rowsRead;
+  private long expectedRows;
+
+  private SalesforceMetrics metrics = SalesforceMetrics.NONE;
+  private SalesforceMetrics.Meter recordsMeter = metrics.counter(SalesforceMetrics.RECORDS);
+  private SalesforceMetrics.Meter parseMeter = metrics.timer(SalesforceMetrics.PARSE_MS);
 
   private Map<String, ?> value;
 
   public SalesforceBulkRecordReader(Schema schema) {
+    this(schema, true);
+  }
+
+  /**
+   * @param schema schema of the records
+   * @param countRecords false if read rows are not counted as records, for example when rows of several readers
+   *                     are joined into a single record
+   */
+  SalesforceBulkRecordReader(Schema schema, boolean countRecords) {
     this.schema = schema;
+    this.countRecords = countRecords;
   }
 
   /**
@@ -77,11 +98,14 @@ public class SalesforceBulkRecordReader extends RecordReader<Schema, Map<String,
     LOG.debug("Executing Salesforce Batch Id: '{}' for Job Id: '{}'", batchId, jobId);
 
     Configuration conf = taskAttemptContext.getConfiguration();
+    initMetrics(conf, salesforceSplit.getQuery());
     try {
-      AuthenticatorCredentials credentials = SalesforceConnectionUtil.getAuthenticatorCredentials(conf);
-      BulkConnection bulkConnection = new BulkConnection(Authenticator.createConnectorConfig(credentials));
-      InputStream queryResponseStream = SalesforceBulkUtil.waitForBatchResults(bulkConnection, jobId, batchId);
-      setupParser(queryResponseStream);
+      BulkConnection bulkConnection = new BulkConnection(SalesforceConnectionUtil.getConnectorConfig(conf));
+      BatchInfo batchInfo = SalesforceBulkUtil.waitForBatch(bulkConnection, jobId, batchId, metrics);
+      // split length is only an estimate made before the batch was processed
+      setExpectedRows(batchInfo.getNumberRecordsProcessed() > 0
+                        ? batchInfo.getNumberRecordsProcessed() : salesforceSplit.getLength());
+      setupParser(SalesforceBulkUtil.getBatchResults(bulkConnection, jobId, batchId, metrics));
     } catch (AsyncApiException e) {
       throw new RuntimeException("There was issue communicating with Salesforce", e);
     }
@@ -93,12 +117,18 @@ public class SalesforceBulkRecordReader extends RecordReader<Schema, Map<String,
    * @return returns false if no more data to read
    */
   @Override
-  public boolean nextKeyValue() {
+  public boolean nextKeyValue() throws IOException {
+    long start = System.nanoTime();
+    long readNanos = inputStream.getReadNanos();
     if (!parserIterator.hasNext()) {
       return false;
     }
 
-    value = parserIterator.next().toMap();
+    value = new CSVRecordMap(header, parserIterator.next());
+    rowsRead++;
+    // time the parser was blocked on the download is recorded separately
+    parseMeter.add(System.nanoTime() - start - (inputStream.getReadNanos() - readNanos));
+    recordsMeter.add(1);
     return true;
   }
 
@@ -112,9 +142,12 @@ public class SalesforceBulkRecordReader extends RecordReader<Schema, Map<String,
     return value;
   }
 
+  /**
+   * Reports progress as the number of rows read against the number of rows in the batch.
+   */
   @Override
   public float getProgress() {
-    return 0.0f;
+    return expectedRows <= 0 ? 0.0f : Math.min(1.0f, (float) rowsRead / expectedRows);
   }
 
   @Override
@@ -123,20 +156,71 @@ public class SalesforceBulkRecordReader extends RecordReader<Schema, Map<String,
       // this also closes the inputStream
       csvParser.close();
     }
+    metrics.emit();
+  }
+
+  /**
+   * Returns the number of rows the reader is expected to read.
+   *
+   * @return number of rows, 0 if unknown
+   */
+  protected long getExpectedRows() {
+    return expectedRows;
   }
 
+  /**
+   * Sets the number of rows the reader is expected to read, used to report progress.
+   *
+   * @param expectedRows number of rows, 0 if unknown
+   */
+  protected void setExpectedRows(long expectedRows) {
+    this.expectedRows = expectedRows;
+  }
+
+  /**
+   * Initializes metrics of the stage, which are recorded for the queried sObject.
+   *
+   * @param conf Hadoop configuration
+   * @param query SOQL query of the split
+   */
+  protected void initMetrics(Configuration conf, String query) {
+    metrics = SalesforceMetrics.of(conf).forSObject(SObjectDescriptor.fromQuery(query).getName());
+    recordsMeter = (countRecords ? metrics : SalesforceMetrics.NONE).counter(SalesforceMetrics.RECORDS);
+    parseMeter = metrics.timer(SalesforceMetrics.PARSE_MS);
+  }
+
+  protected SalesforceMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Starts parsing of the given csv stream. If parser was already set up, previous stream is closed.
+   *
+   * @param queryResponseStream csv stream with header
+   * @throws IOException if failed to read csv header
+   */
   @VisibleForTesting
-  void setupParser(InputStream queryResponseStream) throws IOException {
+  public void setupParser(InputStream queryResponseStream) throws IOException {
     CSVFormat csvFormat = CSVFormat.DEFAULT.
       withHeader().
       withQuoteMode(QuoteMode.ALL).
       withAllowMissingColumnNames(false);
 
-    csvParser = CSVParser.parse(queryResponseStream, StandardCharsets.UTF_8, csvFormat);
+    if (csvParser != null) {
+      csvParser.close();
+    }
+    inputStream = new MeteredInputStream(queryResponseStream, metrics);
+    csvParser = CSVParser.parse(inputStream, StandardCharsets.UTF_8, csvFormat);
 
-    if (csvParser.getHeaderMap().isEmpty()) {
+    // header is resolved once per batch and shared by all its records,
+    // the same instance is kept for the following streams with the same header
+    Map<String, Integer> streamHeader = csvParser.getHeaderMap();
+    if (streamHeader.isEmpty()) {
       throw new IllegalStateException("Empty response was received from Salesforce, but csv header was expected.");
     }
+    if (!streamHeader.equals(header)) {
+      header = streamHeader;
+    }
 
     parserIterator = csvParser.iterator();
   }
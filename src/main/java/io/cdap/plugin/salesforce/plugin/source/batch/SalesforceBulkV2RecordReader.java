@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.BulkV2Connection;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * RecordReader implementation, which reads all results of a Salesforce Bulk API 2.0 query job
+ * provided in InputSplit.
+ * <p/>
+ * Results are read page by page, the next page is requested using the locator returned with the previous one.
+ * Each page is parsed the same way as a Bulk API 1.0 batch result.
+ */
+public class SalesforceBulkV2RecordReader extends SalesforceBulkRecordReader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SalesforceBulkV2RecordReader.class);
+
+  private final int maxRecordsPerPage;
+  private BulkV2Connection connection;
+  private String jobId;
+  private String nextLocator;
+
+  public SalesforceBulkV2RecordReader(Schema schema) {
+    this(schema, SalesforceSourceConstants.BULK_V2_MAX_RECORDS_PER_PAGE);
+  }
+
+  @VisibleForTesting
+  SalesforceBulkV2RecordReader(Schema schema, int maxRecordsPerPage) {
+    super(schema);
+    this.maxRecordsPerPage = maxRecordsPerPage;
+  }
+
+  /**
+   * Waits for the query job to complete and opens the first page of results.
+   *
+   * @param inputSplit specifies job details
+   * @param taskAttemptContext task context
+   * @throws IOException can be due error during reading query
+   */
+  @Override
+  public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException {
+    SalesforceSplit salesforceSplit = (SalesforceSplit) inputSplit;
+    jobId = salesforceSplit.getJobId();
+    LOG.debug("Reading results of Salesforce Bulk API 2.0 Job Id: '{}'", jobId);
+
+    Configuration conf = taskAttemptContext.getConfiguration();
+    initMetrics(conf, salesforceSplit.getQuery());
+    connection = new BulkV2Connection(SalesforceConnectionUtil.getConnectorConfig(conf), getMetrics());
+    long processed = connection.awaitQueryJob(jobId).getNumberRecordsProcessed();
+    // progress is reported against all pages of the job
+    setExpectedRows(processed > 0 ? processed : salesforceSplit.getLength());
+    openPage(null);
+  }
+
+  /**
+   * Reads single record from the current page, switches to the next page if the current one is exhausted.
+   *
+   * @return returns false if no more data to read
+   */
+  @Override
+  public boolean nextKeyValue() throws IOException {
+    while (!super.nextKeyValue()) {
+      if (nextLocator == null) {
+        return false;
+      }
+      openPage(nextLocator);
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      if (connection != null) {
+        connection.close();
+      }
+    }
+  }
+
+  private void openPage(String locator) throws IOException {
+    BulkV2Connection.ResultPage page = connection.getQueryResults(jobId, locator, maxRecordsPerPage);
+    nextLocator = page.getNextLocator();
+    setupParser(page.getStream());
+  }
+}
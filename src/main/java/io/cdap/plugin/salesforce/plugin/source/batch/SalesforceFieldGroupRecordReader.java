@@ -0,0 +1,265 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RecordReader implementation for wide SOQL queries, which are read as several field group queries.
+ * Reads a batch of each field group query provided in {@link SalesforceFieldGroupSplit} and joins their rows by Id.
+ * <p/>
+ * Rows of every batch are sorted by Id, so batches are read side by side and merge joined without keeping more
+ * than one row of each batch in memory. Rows which have no matching row in other batches belong to records created
+ * or deleted while the field group jobs were running. Reading fails on such rows, unless skipping them is enabled,
+ * in which case skipped rows are counted in {@link SalesforceMetrics#RECORDS_SKIPPED} metric.
+ */
+public class SalesforceFieldGroupRecordReader extends RecordReader<Schema, Map<String, ?>> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SalesforceFieldGroupRecordReader.class);
+  private static final String FIELD_ID = "Id";
+
+  private final Schema schema;
+  private final List<SalesforceBulkRecordReader> groupReaders = new ArrayList<>();
+
+  private SalesforceMetrics.Meter recordsMeter = SalesforceMetrics.NONE.counter(SalesforceMetrics.RECORDS);
+  private SalesforceMetrics.Meter skippedMeter = SalesforceMetrics.NONE.counter(SalesforceMetrics.RECORDS_SKIPPED);
+  private boolean skipUnmatched;
+  private CSVRecordMap[] rows;
+  private String[] rowIds;
+  private boolean[] unjoined;
+  private Map<String, Integer>[] groupHeaders;
+  private Map<String, Integer> header;
+  private int[] offsets;
+  private long skippedRows;
+  private Map<String, ?> value;
+
+  public SalesforceFieldGroupRecordReader(Schema schema) {
+    this.schema = schema;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext)
+    throws IOException, InterruptedException {
+    SalesforceFieldGroupSplit split = (SalesforceFieldGroupSplit) inputSplit;
+    for (SalesforceSplit groupSplit : split.getGroupSplits()) {
+      // records are counted once they are joined
+      SalesforceBulkRecordReader groupReader = new SalesforceBulkRecordReader(schema, false);
+      groupReaders.add(groupReader);
+      groupReader.initialize(groupSplit, taskAttemptContext);
+    }
+    LOG.debug("Joining '{}' field group batches of Job Id: '{}'", groupReaders.size(), split.getJobId());
+
+    Configuration conf = taskAttemptContext.getConfiguration();
+    String sObjectName = SObjectDescriptor.fromQuery(split.getQuery()).getName();
+    SalesforceMetrics metrics = SalesforceMetrics.of(conf).forSObject(sObjectName);
+    recordsMeter = metrics.counter(SalesforceMetrics.RECORDS);
+    skippedMeter = metrics.counter(SalesforceMetrics.RECORDS_SKIPPED);
+    skipUnmatched = conf.getBoolean(SalesforceSourceConstants.CONFIG_FIELD_GROUP_SKIP_UNMATCHED, false);
+    rows = new CSVRecordMap[groupReaders.size()];
+    rowIds = new String[groupReaders.size()];
+    unjoined = new boolean[groupReaders.size()];
+    groupHeaders = new Map[groupReaders.size()];
+  }
+
+  /**
+   * Reads the next row of every batch with the same Id and joins them into a single record.
+   *
+   * @return returns false if no more data to read
+   */
+  @Override
+  public boolean nextKeyValue() throws IOException {
+    for (int group = 0; group < rows.length; group++) {
+      if (!nextRow(group)) {
+        return skipRemainingRows();
+      }
+    }
+
+    String id = rowIds[0];
+    boolean matched = false;
+    while (!matched) {
+      matched = true;
+      for (int group = 0; group < rows.length; group++) {
+        int comparison;
+        while ((comparison = rowIds[group].compareTo(id)) < 0) {
+          skipRow(group);
+          if (!nextRow(group)) {
+            return skipRemainingRows();
+          }
+        }
+        if (comparison > 0) {
+          // rows of the other batches with lower Id are skipped on the next pass
+          id = rowIds[group];
+          matched = false;
+        }
+      }
+    }
+
+    Map<String, Integer> joinedHeader = getHeader();
+    value = CSVRecordMap.join(joinedHeader, offsets, rows);
+    Arrays.fill(unjoined, false);
+    recordsMeter.add(1);
+    return true;
+  }
+
+  @Override
+  public Schema getCurrentKey() {
+    return schema;
+  }
+
+  @Override
+  public Map<String, ?> getCurrentValue() {
+    return value;
+  }
+
+  /**
+   * Batches are read side by side, so progress of the slowest batch is reported.
+   */
+  @Override
+  public float getProgress() {
+    float progress = 1.0f;
+    for (SalesforceBulkRecordReader groupReader : groupReaders) {
+      progress = Math.min(progress, groupReader.getProgress());
+    }
+    return groupReaders.isEmpty() ? 0.0f : progress;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (skippedRows > 0) {
+      LOG.warn("Skipped '{}' rows of field group queries, which had no matching rows in other field groups. "
+                 + "Records were probably created or deleted while the queries were running.", skippedRows);
+    }
+    IOException exception = null;
+    for (SalesforceBulkRecordReader groupReader : groupReaders) {
+      try {
+        groupReader.close();
+      } catch (IOException e) {
+        if (exception == null) {
+          exception = e;
+        } else {
+          exception.addSuppressed(e);
+        }
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  /**
+   * Skips the current row of the given field group batch, which has no matching row in other batches,
+   * or fails if skipping such rows is not enabled.
+   */
+  private void skipRow(int group) {
+    if (!skipUnmatched) {
+      throw new IllegalStateException(
+        String.format("Row with Id '%s' of field group query has no matching rows in other field groups. "
+                        + "The record was probably created or deleted while the queries were running. "
+                        + "Enable skipping of unmatched rows or re-run the pipeline.", rowIds[group]));
+    }
+    unjoined[group] = false;
+    skippedRows++;
+    skippedMeter.add(1);
+  }
+
+  /**
+   * Once any batch is exhausted, the current and remaining rows of other batches have no matching rows.
+   *
+   * @return always false, since there is no more data to read
+   */
+  private boolean skipRemainingRows() throws IOException {
+    for (int group = 0; group < rows.length; group++) {
+      if (unjoined[group]) {
+        skipRow(group);
+      }
+      while (nextRow(group)) {
+        skipRow(group);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads the next row of the given field group batch and checks that rows are sorted by Id.
+   */
+  private boolean nextRow(int group) throws IOException {
+    SalesforceBulkRecordReader groupReader = groupReaders.get(group);
+    if (!groupReader.nextKeyValue()) {
+      return false;
+    }
+    CSVRecordMap row = (CSVRecordMap) groupReader.getCurrentValue();
+    String id = row.get(FIELD_ID);
+    if (id == null) {
+      throw new IllegalStateException("Rows of field group query do not contain Id field");
+    }
+    if (rowIds[group] != null && id.compareTo(rowIds[group]) <= 0) {
+      throw new IllegalStateException(
+        String.format("Rows of field group query are not sorted by Id, '%s' follows '%s'", id, rowIds[group]));
+    }
+    rows[group] = row;
+    rowIds[group] = id;
+    unjoined[group] = true;
+    return true;
+  }
+
+  /**
+   * Returns joined header of the current rows. Header is created once and is re-used as long as headers
+   * of the batches are the same, so that records can be transformed using the same column binding.
+   */
+  private Map<String, Integer> getHeader() {
+    boolean changed = header == null;
+    for (int group = 0; group < rows.length; group++) {
+      if (groupHeaders[group] != rows[group].getHeader()) {
+        groupHeaders[group] = rows[group].getHeader();
+        changed = true;
+      }
+    }
+    if (changed) {
+      // records which were already read keep the previous header and offsets
+      Map<String, Integer> joinedHeader = new LinkedHashMap<>();
+      int[] joinedOffsets = new int[rows.length];
+      int offset = 0;
+      for (int group = 0; group < rows.length; group++) {
+        joinedOffsets[group] = offset;
+        for (Map.Entry<String, Integer> column : groupHeaders[group].entrySet()) {
+          // Id is selected by every group, it is read from the first one
+          joinedHeader.putIfAbsent(column.getKey(), offset + column.getValue());
+        }
+        offset += groupHeaders[group].size();
+      }
+      header = joinedHeader;
+      offsets = joinedOffsets;
+    }
+    return header;
+  }
+}
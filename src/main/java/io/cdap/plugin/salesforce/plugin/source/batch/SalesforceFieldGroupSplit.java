@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A split of a wide query, which is read as several field group queries. Holds a batch of each field group query,
+ * batches select the same records and are joined by Id.
+ */
+public class SalesforceFieldGroupSplit extends SalesforceSplit {
+  private List<SalesforceSplit> groupSplits;
+
+  @SuppressWarnings("unused")
+  public SalesforceFieldGroupSplit() {
+    // For serialization
+  }
+
+  /**
+   * @param query initial wide query
+   * @param groupSplits batch of each field group query
+   * @param length estimated number of joined records, 0 if unknown
+   */
+  public SalesforceFieldGroupSplit(String query, List<SalesforceSplit> groupSplits, long length) {
+    super(groupSplits.get(0).getJobId(), groupSplits.get(0).getBatchId(), query, length);
+    this.groupSplits = groupSplits;
+  }
+
+  @Override
+  public void readFields(DataInput dataInput) throws IOException {
+    super.readFields(dataInput);
+    int size = dataInput.readInt();
+    groupSplits = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      SalesforceSplit groupSplit = new SalesforceSplit();
+      groupSplit.readFields(dataInput);
+      groupSplits.add(groupSplit);
+    }
+  }
+
+  @Override
+  public void write(DataOutput dataOutput) throws IOException {
+    super.write(dataOutput);
+    dataOutput.writeInt(groupSplits.size());
+    for (SalesforceSplit groupSplit : groupSplits) {
+      groupSplit.write(dataOutput);
+    }
+  }
+
+  public List<SalesforceSplit> getGroupSplits() {
+    return groupSplits;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectionException;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import io.cdap.plugin.salesforce.SalesforceQueryUtil;
+import io.cdap.plugin.salesforce.parser.SalesforceQueryParser;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits a query into several queries, each of which selects records within a range of Ids, for queries which
+ * cannot be split into PK chunks by Salesforce.
+ * <p/>
+ * Boundaries of the ranges are sampled using a single SOAP query of sorted Ids. Query locator of the result points
+ * to the offset of the next page, so instead of reading all Ids, the partitioner requests a single page
+ * at the offset of each boundary.
+ */
+public class SalesforceIdRangePartitioner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SalesforceIdRangePartitioner.class);
+  private static final String FIELD_ID = "Id";
+
+  private final PartnerConnection partnerConnection;
+  private final SalesforceMetrics metrics;
+
+  /**
+   * @param partnerConnection partner connection, page size of its query results should be as small as possible,
+   *                          since only the first Id of each sampled page is used
+   * @param metrics metrics of the queried sObject
+   */
+  public SalesforceIdRangePartitioner(PartnerConnection partnerConnection, SalesforceMetrics metrics) {
+    this.partnerConnection = partnerConnection;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Splits the query into Id ranges of approximately the same number of records. Query is not split if it
+   * cannot be split without changing its results, selects too few records or sampling fails.
+   *
+   * @param query SOQL query
+   * @param partitions max number of ranges
+   * @return Id range partitions of the query
+   */
+  public List<SalesforceQueryPartition> partition(String query, int partitions) {
+    if (partitions <= 1 || !SalesforceQueryParser.getQueryPlan(query).isPartitionable()) {
+      return Collections.singletonList(new SalesforceQueryPartition(query, 0));
+    }
+
+    String idQuery = SalesforceQueryUtil.createSObjectSortedIdQuery(query);
+    SalesforceApiGovernor governor = SalesforceApiGovernor.of(partnerConnection.getConfig());
+    try {
+      QueryResult queryResult = governor.callSoap(partnerConnection, "soap.query", metrics,
+                                                  () -> partnerConnection.query(idQuery));
+      long records = queryResult.getSize();
+      int count = (int) Math.min(partitions, records / SalesforceSourceConstants.MIN_ID_RANGE_PARTITION_SIZE);
+      if (count <= 1 || queryResult.isDone()) {
+        return Collections.singletonList(new SalesforceQueryPartition(query, records));
+      }
+
+      // locator has the format of '<cursor id>-<offset of the next page>'
+      String locator = queryResult.getQueryLocator();
+      String cursorId = locator.substring(0, locator.lastIndexOf('-'));
+      SObject[] firstPage = queryResult.getRecords();
+
+      List<SalesforceQueryPartition> result = new ArrayList<>();
+      String fromId = null;
+      long fromOffset = 0;
+      for (int i = 1; i < count; i++) {
+        long offset = records * i / count;
+        String toId;
+        if (offset < firstPage.length) {
+          toId = getId(firstPage[(int) offset]);
+        } else {
+          String pageLocator = cursorId + "-" + offset;
+          SObject[] page = governor.callSoap(partnerConnection, "soap.queryMore", metrics,
+                                             () -> partnerConnection.queryMore(pageLocator)).getRecords();
+          if (page.length == 0) {
+            // records were deleted after the query, the rest of them belong to the last range
+            break;
+          }
+          toId = getId(page[0]);
+        }
+        result.add(new SalesforceQueryPartition(SalesforceQueryUtil.createSObjectIdRangeQuery(query, fromId, toId),
+                                                offset - fromOffset));
+        fromId = toId;
+        fromOffset = offset;
+      }
+      result.add(new SalesforceQueryPartition(SalesforceQueryUtil.createSObjectIdRangeQuery(query, fromId, null),
+                                              records - fromOffset));
+      LOG.debug("Query of '{}' records is split into '{}' Id ranges", records, result.size());
+      return result;
+    } catch (ConnectionException | RuntimeException e) {
+      // query can still be read, although by a single split
+      LOG.warn("Failed to sample Id ranges of query '{}', the query will not be split", idQuery, e);
+      return Collections.singletonList(new SalesforceQueryPartition(query, 0));
+    }
+  }
+
+  private static String getId(SObject record) {
+    return (String) record.getField(FIELD_ID);
+  }
+}
@@ -15,18 +15,29 @@
  */
 package io.cdap.plugin.salesforce.plugin.source.batch;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.sforce.async.AsyncApiException;
 import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
 import com.sforce.async.BulkConnection;
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.ConnectorConfig;
 import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.BulkApiVersion;
+import io.cdap.plugin.salesforce.BulkV2Connection;
+import io.cdap.plugin.salesforce.BulkV2JobInfo;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
 import io.cdap.plugin.salesforce.SalesforceBulkUtil;
 import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
 import io.cdap.plugin.salesforce.SalesforceQueryUtil;
-import io.cdap.plugin.salesforce.authenticator.Authenticator;
-import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.parser.QueryPlan;
 import io.cdap.plugin.salesforce.parser.SalesforceQueryParser;
 import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
 import org.apache.hadoop.conf.Configuration;
@@ -40,7 +51,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -57,17 +72,45 @@ public class SalesforceInputFormat extends InputFormat {
   private static final Gson GSON = new Gson();
   private static final Type QUERIES_TYPE = new TypeToken<List<String>>() { }.getType();
   private static final Type SCHEMAS_TYPE = new TypeToken<Map<String, String>>() { }.getType();
+  private static final Type TIME_WINDOWS_TYPE = new TypeToken<Map<String, Map<String, String>>>() { }.getType();
 
   @Override
-  public List<InputSplit> getSplits(JobContext context) {
+  public List<InputSplit> getSplits(JobContext context) throws IOException {
     Configuration configuration = context.getConfiguration();
     List<String> queries = GSON.fromJson(configuration.get(SalesforceSourceConstants.CONFIG_QUERIES), QUERIES_TYPE);
-    BulkConnection bulkConnection = getBulkConnection(configuration);
+    boolean enablePKChunk = configuration.getBoolean(SalesforceSourceConstants.CONFIG_PK_CHUNK_ENABLE, false);
+    boolean fieldGroups = WideQueryStrategy.FIELD_GROUPS.name().equals(
+      configuration.get(SalesforceSourceConstants.CONFIG_WIDE_QUERY_STRATEGY));
+    SalesforceMetrics metrics = SalesforceMetrics.of(configuration);
 
-    return queries.parallelStream()
-      .map(query -> getQuerySplits(query, bulkConnection))
-      .flatMap(Collection::stream)
-      .collect(Collectors.toList());
+    ConnectorConfig connectorConfig = SalesforceConnectionUtil.getConnectorConfig(configuration);
+    PartnerConnection partnerConnection = getPartnerConnection(connectorConfig);
+    BulkConnection bulkConnection = getBulkConnection(connectorConfig);
+    BulkConnection pkChunkBulkConnection = enablePKChunk
+      ? getPKChunkBulkConnection(connectorConfig, configuration)
+      : bulkConnection;
+
+    List<SalesforceSplit> splits;
+    if (!isBulkV2(configuration)) {
+      splits = queries.parallelStream()
+        .map(query -> getQuerySplits(query, bulkConnection, pkChunkBulkConnection, partnerConnection, enablePKChunk,
+                                     fieldGroups, configuration, metrics))
+        .flatMap(Collection::stream)
+        .collect(Collectors.toList());
+    } else {
+      try (BulkV2Connection bulkV2Connection = new BulkV2Connection(connectorConfig, metrics)) {
+        splits = queries.parallelStream()
+          .map(query -> isBulkV2Query(query)
+            ? getBulkV2QuerySplits(query, bulkV2Connection, partnerConnection, configuration, metrics)
+            : getQuerySplits(query, bulkConnection, pkChunkBulkConnection, partnerConnection, enablePKChunk,
+                             fieldGroups, configuration, metrics))
+          .flatMap(Collection::stream)
+          .collect(Collectors.toList());
+      }
+    }
+    // larger splits are scheduled first, so that the largest split does not run alone at the end of the job
+    splits.sort(Comparator.comparingLong(SalesforceSplit::getLength).reversed());
+    return new ArrayList<>(splits);
   }
 
   @Override
@@ -84,30 +127,309 @@ public class SalesforceInputFormat extends InputFormat {
       configuration.get(SalesforceSourceConstants.CONFIG_SCHEMAS), SCHEMAS_TYPE);
     Schema schema = Schema.parseJson(schemas.get(sObjectName));
 
-    return new SalesforceRecordReaderWrapper(sObjectName, sObjectNameField, getDelegateRecordReader(query, schema));
+    RecordReader<Schema, Map<String, ?>> delegate;
+    if (split instanceof SalesforceFieldGroupSplit) {
+      delegate = new SalesforceFieldGroupRecordReader(schema);
+    } else if (isBulkV2(configuration) && isBulkV2Query(query)) {
+      delegate = new SalesforceBulkV2RecordReader(schema);
+    } else {
+      delegate = getDelegateRecordReader(query, schema);
+    }
+    return new SalesforceRecordReaderWrapper(sObjectName, sObjectNameField, delegate);
+  }
+
+  private static boolean isBulkV2(Configuration conf) {
+    return BulkApiVersion.V2.name().equals(conf.get(SalesforceSourceConstants.CONFIG_BULK_API_VERSION));
+  }
+
+  /**
+   * Restricted queries are read using SOAP API and wide queries require additional SOAP requests
+   * for Ids obtained from a Bulk API 1.0 batch, so only the rest of queries are read using Bulk API 2.0.
+   */
+  private static boolean isBulkV2Query(String query) {
+    QueryPlan queryPlan = SalesforceQueryParser.getQueryPlan(query);
+    return !queryPlan.isRestricted() && queryPlan.isUnderLengthLimit();
+  }
+
+  /**
+   * Creates Bulk API 2.0 query job for the given query. Salesforce splits the job into batches itself,
+   * and all results are read page by page using a single split. If the query is split into time window
+   * sub-intervals or Id ranges, a job is created for each partition.
+   */
+  private List<SalesforceSplit> getBulkV2QuerySplits(String query, BulkV2Connection bulkV2Connection,
+                                                     PartnerConnection partnerConnection, Configuration configuration,
+                                                     SalesforceMetrics metrics) {
+    List<SalesforceQueryPartition> partitions = getPartitions(
+      query, partnerConnection, configuration, metrics.forSObject(SObjectDescriptor.fromQuery(query).getName()));
+    try {
+      List<SalesforceSplit> splits = new ArrayList<>();
+      for (SalesforceQueryPartition partition : partitions) {
+        BulkV2JobInfo job = bulkV2Connection.createQueryJob(partition.getQuery());
+        LOG.debug("Created Bulk API 2.0 query job with jobId='{}'", job.getId());
+        // query job results are not split into batches, so batch id is not used
+        splits.add(new SalesforceSplit(job.getId(), "", partition.getQuery(), partition.getRecords()));
+      }
+      return splits;
+    } catch (IOException e) {
+      throw new RuntimeException("There was issue communicating with Salesforce", e);
+    }
   }
 
-  private List<SalesforceSplit> getQuerySplits(String query, BulkConnection bulkConnection) {
-    return Stream.of(getBatches(query, bulkConnection))
-      .map(batch -> new SalesforceSplit(batch.getJobId(), batch.getId(), query))
+  /**
+   * Generates splits for the given query. Restricted queries are read using SOAP API,
+   * thus PK chunking is not applied to them. Queries which are not split into PK chunks can be split
+   * into time window sub-intervals or Id ranges instead, otherwise only one split is generated for them.
+   */
+  private List<SalesforceSplit> getQuerySplits(String query, BulkConnection bulkConnection,
+                                               BulkConnection pkChunkBulkConnection,
+                                               PartnerConnection partnerConnection, boolean enablePKChunk,
+                                               boolean fieldGroups, Configuration configuration,
+                                               SalesforceMetrics metrics) {
+    QueryPlan queryPlan = SalesforceQueryParser.getQueryPlan(query);
+    boolean isPKChunk = enablePKChunk && !queryPlan.isRestricted();
+    SalesforceMetrics sObjectMetrics = metrics.forSObject(SObjectDescriptor.fromQuery(query).getName());
+    if (fieldGroups && !queryPlan.isUnderLengthLimit() && !queryPlan.isRestricted()) {
+      if (!queryPlan.isOrdered()) {
+        if (isPKChunk) {
+          LOG.warn("PK chunking is not used for field group queries, since rows of PK chunks are not guaranteed "
+                     + "to be sorted by Id.");
+        }
+        return getFieldGroupSplits(query, bulkConnection, countRecords(query, partnerConnection, sObjectMetrics),
+                                   sObjectMetrics);
+      }
+      LOG.info("The wide SOQL query sorts or limits records, so its fields cannot be split into several queries. "
+                 + "Records will be retrieved using SOAP API.");
+    }
+
+    long records;
+    if (isPKChunk) {
+      records = countRecords(query, partnerConnection, sObjectMetrics);
+    } else {
+      List<SalesforceQueryPartition> partitions = getPartitions(query, partnerConnection, configuration,
+                                                                sObjectMetrics);
+      if (partitions.size() > 1) {
+        return getPartitionSplits(queryPlan, partitions, bulkConnection, sObjectMetrics);
+      }
+      records = partitions.get(0).getRecords();
+    }
+    BatchInfo[] batches = isPKChunk
+      ? getBatches(query, pkChunkBulkConnection, true, sObjectMetrics)
+      : getBatches(query, bulkConnection, false, sObjectMetrics);
+    return Stream.of(batches)
+      .map(batch -> new SalesforceSplit(batch.getJobId(), batch.getId(), query,
+                                        getBatchLength(batch, records, batches.length)))
       .collect(Collectors.toList());
   }
 
   /**
-   * Initializes bulk connection based on given Hadoop configuration.
+   * Splits the query into sub-intervals of its LastModifiedDate window if configured, otherwise into Id ranges.
+   * The number of records is estimated if the query is not split.
+   */
+  private List<SalesforceQueryPartition> getPartitions(String query, PartnerConnection partnerConnection,
+                                                       Configuration configuration, SalesforceMetrics metrics) {
+    int timeWindowShards = configuration.getInt(SalesforceSourceConstants.CONFIG_TIME_WINDOW_SHARDS,
+                                                SalesforceSourceConstants.DEFAULT_TIME_WINDOW_SHARDS);
+    List<SalesforceQueryPartition> partitions = Collections.emptyList();
+    if (timeWindowShards > 1) {
+      TimeWindowShardStrategy strategy = TimeWindowShardStrategy.valueOf(
+        configuration.get(SalesforceSourceConstants.CONFIG_TIME_WINDOW_SHARD_STRATEGY,
+                          TimeWindowShardStrategy.EVEN.name()));
+      partitions = new SalesforceTimeWindowPartitioner(partnerConnection, metrics)
+        .partition(query, getTimeWindow(configuration, SObjectDescriptor.fromQuery(query).getName()),
+                   timeWindowShards, strategy);
+    }
+    if (partitions.size() <= 1) {
+      int idRangePartitions = configuration.getInt(SalesforceSourceConstants.CONFIG_ID_RANGE_PARTITIONS,
+                                                   SalesforceSourceConstants.DEFAULT_ID_RANGE_PARTITIONS);
+      partitions = new SalesforceIdRangePartitioner(partnerConnection, metrics).partition(query, idRangePartitions);
+    }
+    if (partitions.size() == 1 && partitions.get(0).getRecords() == 0) {
+      return Collections.singletonList(
+        new SalesforceQueryPartition(query, countRecords(query, partnerConnection, metrics)));
+    }
+    return partitions;
+  }
+
+  /**
+   * Returns datetime window of the sObject query, which is not known for SOQL queries provided by user.
+   */
+  private static SObjectFilterDescriptor getTimeWindow(Configuration configuration, String sObjectName) {
+    String timeWindows = configuration.get(SalesforceSourceConstants.CONFIG_TIME_WINDOWS);
+    Map<String, Map<String, String>> windows = timeWindows == null
+      ? Collections.emptyMap()
+      : GSON.fromJson(timeWindows, TIME_WINDOWS_TYPE);
+    Map<String, String> window = windows.getOrDefault(sObjectName, Collections.emptyMap());
+    String start = window.get(SalesforceSourceConstants.TIME_WINDOW_START);
+    String end = window.get(SalesforceSourceConstants.TIME_WINDOW_END);
+    String field = window.getOrDefault(SalesforceSourceConstants.TIME_WINDOW_FIELD,
+                                       SObjectFilterDescriptor.FIELD_LAST_MODIFIED_DATE);
+    return SObjectFilterDescriptor.interval(field, start == null ? null : ZonedDateTime.parse(start),
+                                            end == null ? null : ZonedDateTime.parse(end));
+  }
+
+  /**
+   * Generates a split for each partition of the query. Restricted queries are read using SOAP API,
+   * so no jobs are created for their partitions. Partitions of other queries are executed as batches
+   * of a single job, partitions of wide queries as queries of their Ids.
+   */
+  private List<SalesforceSplit> getPartitionSplits(QueryPlan queryPlan,
+                                                   List<SalesforceQueryPartition> partitions,
+                                                   BulkConnection bulkConnection, SalesforceMetrics metrics) {
+    if (queryPlan.isRestricted()) {
+      // job and batch ids are not used by SOAP record reader
+      return partitions.stream()
+        .map(partition -> new SalesforceSplit("", "", partition.getQuery(), partition.getRecords()))
+        .collect(Collectors.toList());
+    }
+
+    List<String> batchQueries = partitions.stream()
+      .map(SalesforceQueryPartition::getQuery)
+      .map(query -> SalesforceQueryUtil.isQueryUnderLengthLimit(query)
+        ? query
+        : SalesforceQueryUtil.createSObjectIdQuery(query))
+      .collect(Collectors.toList());
+    BatchInfo[] batches;
+    try {
+      batches = SalesforceBulkUtil.runBulkQueries(bulkConnection, batchQueries, metrics);
+    } catch (AsyncApiException | IOException e) {
+      throw new RuntimeException("There was issue communicating with Salesforce", e);
+    }
+    LOG.debug("Number of partition batches created: '{}'", batches.length);
+
+    List<SalesforceSplit> splits = new ArrayList<>();
+    for (int i = 0; i < batches.length; i++) {
+      SalesforceQueryPartition partition = partitions.get(i);
+      splits.add(new SalesforceSplit(batches[i].getJobId(), batches[i].getId(), partition.getQuery(),
+                                     partition.getRecords()));
+    }
+    return splits;
+  }
+
+  /**
+   * Generates splits for a wide query, which is split into several field group queries. Each field group query
+   * is executed as a separate job with a single batch, where records are sorted by Id, so that the batches
+   * can be merge joined by a single split. PK chunking is never applied to field group queries, since Salesforce
+   * does not guarantee that rows within a PK chunk are sorted by Id.
+   */
+  private List<SalesforceSplit> getFieldGroupSplits(String query, BulkConnection bulkConnection, long records,
+                                                    SalesforceMetrics metrics) {
+    List<String> groupQueries = SalesforceQueryUtil.createSObjectFieldGroupQueries(query, true);
+    LOG.debug("Wide object query is split into '{}' field group queries", groupQueries.size());
+
+    List<SalesforceSplit> groupSplits = new ArrayList<>();
+    for (String groupQuery : groupQueries) {
+      for (BatchInfo batch : getBatches(groupQuery, bulkConnection, false, metrics)) {
+        groupSplits.add(new SalesforceSplit(batch.getJobId(), batch.getId(), groupQuery, records));
+      }
+    }
+    return Collections.singletonList(new SalesforceFieldGroupSplit(query, groupSplits, records));
+  }
+
+  /**
+   * Estimates the number of records selected by the query using a SOAP count query, so that lengths of the splits
+   * are known before their batches are processed. Restricted queries and queries which sort or limit records
+   * cannot be counted this way, the number of their records is unknown.
    *
-   * @param conf Hadoop configuration
+   * @param query SOQL query
+   * @param partnerConnection partner connection
+   * @param metrics metrics of the queried sObject
+   * @return estimated number of records, 0 if unknown
+   */
+  private long countRecords(String query, PartnerConnection partnerConnection, SalesforceMetrics metrics) {
+    QueryPlan queryPlan = SalesforceQueryParser.getQueryPlan(query);
+    if (queryPlan.isRestricted() || queryPlan.isOrdered()) {
+      return 0;
+    }
+    String countQuery = SalesforceQueryUtil.createSObjectCountQuery(query);
+    try {
+      return SalesforceApiGovernor.of(partnerConnection.getConfig())
+        .callSoap(partnerConnection, "soap.query", metrics, () -> partnerConnection.query(countQuery))
+        .getSize();
+    } catch (ConnectionException e) {
+      // splits can still be read, only their order is affected
+      LOG.warn("Failed to count records of query '{}', lengths of its splits are unknown", countQuery, e);
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the number of records of a batch if it is already processed, otherwise records of the query
+   * are assumed to be evenly distributed between its batches.
+   */
+  private static long getBatchLength(BatchInfo batch, long records, int batchCount) {
+    if (batch.getState() == BatchStateEnum.Completed) {
+      return batch.getNumberRecordsProcessed();
+    }
+    return (records + batchCount - 1) / batchCount;
+  }
+
+  /**
+   * Initializes partner connection based on given connector config.
+   *
+   * @param connectorConfig connector config
+   * @return partner connection instance
+   */
+  private PartnerConnection getPartnerConnection(ConnectorConfig connectorConfig) {
+    try {
+      PartnerConnection partnerConnection = new PartnerConnection(connectorConfig);
+      // Id range boundaries are sampled page by page, only the first Id of each page is used
+      partnerConnection.setQueryOptions(SalesforceSourceConstants.MIN_SOAP_QUERY_BATCH_SIZE);
+      return partnerConnection;
+    } catch (ConnectionException e) {
+      throw new RuntimeException("There was issue communicating with Salesforce", e);
+    }
+  }
+
+  /**
+   * Initializes bulk connection based on given connector config.
+   *
+   * @param connectorConfig connector config
    * @return bulk connection instance
    */
-  private BulkConnection getBulkConnection(Configuration conf) {
+  private BulkConnection getBulkConnection(ConnectorConfig connectorConfig) {
     try {
-      AuthenticatorCredentials credentials = SalesforceConnectionUtil.getAuthenticatorCredentials(conf);
-      return new BulkConnection(Authenticator.createConnectorConfig(credentials));
+      return new BulkConnection(connectorConfig);
     } catch (AsyncApiException e) {
       throw new RuntimeException("There was issue communicating with Salesforce", e);
     }
   }
 
+  /**
+   * Initializes bulk connection which sends PK chunking header with every job request.
+   *
+   * @param connectorConfig connector config
+   * @param conf Hadoop configuration
+   * @return bulk connection instance with PK chunking enabled
+   */
+  private BulkConnection getPKChunkBulkConnection(ConnectorConfig connectorConfig, Configuration conf) {
+    String headerValue = getPKChunkHeaderValue(conf);
+    LOG.debug("PK chunking is enabled with header value: '{}'", headerValue);
+
+    BulkConnection bulkConnection = getBulkConnection(connectorConfig);
+    bulkConnection.addHeader(SalesforceSourceConstants.HEADER_ENABLE_PK_CHUNK, headerValue);
+    return bulkConnection;
+  }
+
+  /**
+   * Returns value of PK chunking header, which includes chunk size and parent SObject name if present.
+   *
+   * @param conf Hadoop configuration
+   * @return PK chunking header value
+   */
+  @VisibleForTesting
+  static String getPKChunkHeaderValue(Configuration conf) {
+    int chunkSize = conf.getInt(SalesforceSourceConstants.CONFIG_PK_CHUNK_SIZE,
+                                SalesforceSourceConstants.DEFAULT_PK_CHUNK_SIZE);
+    String parent = conf.get(SalesforceSourceConstants.CONFIG_PK_CHUNK_PARENT);
+
+    String headerValue = String.format(SalesforceSourceConstants.HEADER_VALUE_PK_CHUNK, chunkSize);
+    if (!Strings.isNullOrEmpty(parent)) {
+      headerValue = String.format("%s; %s", headerValue,
+                                  String.format(SalesforceSourceConstants.HEADER_PK_CHUNK_PARENT, parent));
+    }
+    return headerValue;
+  }
+
   /**
    * Based on query length sends query to Salesforce to receive array of batch info.
    * If query is within limit, executes original query. If not, switches to wide object logic,
@@ -116,15 +438,18 @@ public class SalesforceInputFormat extends InputFormat {
    *
    * @param query SOQL query
    * @param bulkConnection bulk connection
+   * @param enablePKChunk indicates if given bulk connection has PK chunking enabled
+   * @param metrics metrics of the queried sObject
    * @return array of batch info
    */
-  private BatchInfo[] getBatches(String query, BulkConnection bulkConnection) {
+  private BatchInfo[] getBatches(String query, BulkConnection bulkConnection, boolean enablePKChunk,
+                                 SalesforceMetrics metrics) {
     try {
       if (!SalesforceQueryUtil.isQueryUnderLengthLimit(query)) {
         LOG.debug("Wide object query detected. Query length '{}'", query.length());
         query = SalesforceQueryUtil.createSObjectIdQuery(query);
       }
-      BatchInfo[] batches = SalesforceBulkUtil.runBulkQuery(bulkConnection, query);
+      BatchInfo[] batches = SalesforceBulkUtil.runBulkQuery(bulkConnection, query, enablePKChunk, metrics);
       LOG.debug("Number of batches received from Salesforce: '{}'", batches.length);
       return batches;
     } catch (AsyncApiException | IOException e) {
@@ -133,12 +458,13 @@ public class SalesforceInputFormat extends InputFormat {
   }
 
   private RecordReader<Schema, Map<String, ?>> getDelegateRecordReader(String query, Schema schema) {
-    if (SalesforceQueryParser.isRestrictedQuery(query)) {
+    QueryPlan queryPlan = SalesforceQueryParser.getQueryPlan(query);
+    if (queryPlan.isRestricted()) {
       LOG.info("The SOQL query uses an aggregate function call or offset. "
         + "Reads will be performed serially and not in parallel.");
       return new SalesforceSoapRecordReader(schema, query, new SoapRecordToMapTransformer());
     }
-    if (SalesforceQueryUtil.isQueryUnderLengthLimit(query)) {
+    if (queryPlan.isUnderLengthLimit()) {
       return new SalesforceBulkRecordReader(schema);
     }
     LOG.info("The SOQL query is a wide query. "
@@ -19,9 +19,14 @@ package io.cdap.plugin.salesforce.plugin.source.batch;
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
 import io.cdap.cdap.api.data.batch.InputFormatProvider;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
 import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.authenticator.AuthResponse;
 import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
 
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -38,15 +43,40 @@ public class SalesforceInputFormatProvider implements InputFormatProvider {
   public SalesforceInputFormatProvider(SalesforceBaseSourceConfig config,
                                        List<String> queries,
                                        Map<String, String> schemas,
-                                       @Nullable String sObjectNameField) {
+                                       @Nullable String sObjectNameField,
+                                       Map<String, SObjectFilterDescriptor> timeWindows,
+                                       String metricsKey,
+                                       AuthResponse session) {
     ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<String, String>()
       .put(SalesforceConstants.CONFIG_USERNAME, config.getUsername())
       .put(SalesforceConstants.CONFIG_PASSWORD, config.getPassword())
       .put(SalesforceConstants.CONFIG_CONSUMER_KEY, config.getConsumerKey())
       .put(SalesforceConstants.CONFIG_CONSUMER_SECRET, config.getConsumerSecret())
       .put(SalesforceConstants.CONFIG_LOGIN_URL, config.getLoginUrl())
+      .put(SalesforceConstants.CONFIG_METRICS_KEY, metricsKey)
+      .putAll(SalesforceConnectionUtil.getSessionConfig(session))
       .put(SalesforceSourceConstants.CONFIG_QUERIES, GSON.toJson(queries))
-      .put(SalesforceSourceConstants.CONFIG_SCHEMAS, GSON.toJson(schemas));
+      .put(SalesforceSourceConstants.CONFIG_SCHEMAS, GSON.toJson(schemas))
+      .put(SalesforceSourceConstants.CONFIG_PK_CHUNK_ENABLE, String.valueOf(config.getEnablePKChunk()))
+      .put(SalesforceSourceConstants.CONFIG_PK_CHUNK_SIZE, String.valueOf(config.getChunkSize()))
+      .put(SalesforceSourceConstants.CONFIG_BULK_API_VERSION, config.getBulkApiVersion().name())
+      .put(SalesforceSourceConstants.CONFIG_WIDE_RETRIEVE_THREADS, String.valueOf(config.getWideRetrieveThreads()))
+      .put(SalesforceSourceConstants.CONFIG_WIDE_QUERY_STRATEGY, config.getWideQueryStrategy().name())
+      .put(SalesforceSourceConstants.CONFIG_FIELD_GROUP_SKIP_UNMATCHED,
+           String.valueOf(config.getFieldGroupSkipUnmatched()))
+      .put(SalesforceSourceConstants.CONFIG_SOAP_QUERY_BATCH_SIZE, String.valueOf(config.getSoapQueryBatchSize()))
+      .put(SalesforceSourceConstants.CONFIG_ID_RANGE_PARTITIONS, String.valueOf(config.getIdRangePartitions()))
+      .put(SalesforceSourceConstants.CONFIG_TIME_WINDOW_SHARDS, String.valueOf(config.getTimeWindowShards()))
+      .put(SalesforceSourceConstants.CONFIG_TIME_WINDOW_SHARD_STRATEGY, config.getTimeWindowShardStrategy().name());
+
+    if (config.getParent() != null) {
+      builder.put(SalesforceSourceConstants.CONFIG_PK_CHUNK_PARENT, config.getParent());
+    }
+
+    // window of datetime filter of each sObject is split into sub-intervals by the input format
+    Map<String, Map<String, String>> windows = new HashMap<>();
+    timeWindows.forEach((sObjectName, window) -> windows.put(sObjectName, toTimeWindow(window)));
+    builder.put(SalesforceSourceConstants.CONFIG_TIME_WINDOWS, GSON.toJson(windows));
 
     if (sObjectNameField != null) {
       builder.put(SalesforceSourceConstants.CONFIG_SOBJECT_NAME_FIELD, sObjectNameField);
@@ -55,6 +85,20 @@ public class SalesforceInputFormatProvider implements InputFormatProvider {
     this.conf = builder.build();
   }
 
+  private static Map<String, String> toTimeWindow(SObjectFilterDescriptor filterDescriptor) {
+    Map<String, String> window = new HashMap<>();
+    window.put(SalesforceSourceConstants.TIME_WINDOW_FIELD, filterDescriptor.getField());
+    if (filterDescriptor.getStartTime() != null) {
+      window.put(SalesforceSourceConstants.TIME_WINDOW_START,
+                 filterDescriptor.getStartTime().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+    }
+    if (filterDescriptor.getEndTime() != null) {
+      window.put(SalesforceSourceConstants.TIME_WINDOW_END,
+                 filterDescriptor.getEndTime().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+    }
+    return window;
+  }
+
   @Override
   public Map<String, String> getInputFormatConfiguration() {
     return conf;
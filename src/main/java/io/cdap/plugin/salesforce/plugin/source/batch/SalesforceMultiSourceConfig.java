@@ -26,17 +26,23 @@ import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.FailureCollector;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
 import io.cdap.plugin.salesforce.SObjectsDescribeResult;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
 import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
 import io.cdap.plugin.salesforce.SalesforceSchemaUtil;
 import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
@@ -107,63 +113,63 @@ public class SalesforceMultiSourceConfig extends SalesforceBaseSourceConfig {
   }
 
   /**
-   * Generates CDAP schema for each SObject. Collects generated schemas into map
-   * where key is SObject name, value is corresponding CDAP schema.
+   * Describes SObjects to be replicated and generates query and CDAP schema for each of them.
+   * All Salesforce calls share one session, SObjects are described concurrently in chunks
+   * and both queries and schemas are built from the same describe result.
    *
-   * @return map of SObjects schemas
+   * @param logicalStartTime application start time
+   * @return queries and schemas of SObjects
+   * @throws ConnectionException if unable to connect to Salesforce
    */
-  public Map<String, Schema> getSObjectsSchemas(List<String> queries) throws ConnectionException {
-    List<SObjectDescriptor> sObjectDescriptors = queries.parallelStream()
-      .map(SObjectDescriptor::fromQuery)
-      .collect(Collectors.toList());
-
-    PartnerConnection partnerConnection = SalesforceConnectionUtil.getPartnerConnection(getAuthenticatorCredentials());
-
-    Set<String> sObjectsToDescribe = sObjectDescriptors.stream()
-      .map(SObjectDescriptor::getName)
-      .collect(Collectors.toSet());
-
-    // generate one describe result for all SObjects in one request to Salesforce
-    SObjectsDescribeResult describeResult = SObjectsDescribeResult.of(partnerConnection, sObjectsToDescribe);
-
-    return sObjectDescriptors.stream()
-      .collect(Collectors.toMap(
-        SObjectDescriptor::getName,
-        sObjectDescriptor -> SalesforceSchemaUtil.getSchemaWithFields(sObjectDescriptor, describeResult),
-        (o, n) -> n
-      ));
+  public SObjectsPlan getSObjectsPlan(long logicalStartTime) throws ConnectionException {
+    SObjectFilterDescriptor filterDescriptor = getSObjectFilterDescriptor(logicalStartTime);
+    return getSObjectsPlan(sObject -> filterDescriptor);
   }
 
   /**
-   * Generates list of SObject queries based on given list of SObjects and incremental filters if any.
+   * Describes SObjects to be replicated and generates query and CDAP schema for each of them,
+   * filtering records of each SObject by its own filter.
    *
-   * @param logicalStartTime application start time
-   * @return list of SObject queries
+   * @param filterDescriptors provides query filter of the given SObject name
+   * @return queries and schemas of SObjects
+   * @throws ConnectionException if unable to connect to Salesforce
+   * @throws IllegalArgumentException if no SObjects are left after white and black list filters
+   *                                  or no queries are generated
    */
-  public List<String> getQueries(long logicalStartTime) {
-    List<String> queries = getSObjects().parallelStream()
-      .map(sObject -> getSObjectQuery(sObject, null, logicalStartTime))
-      .collect(Collectors.toList());
+  public SObjectsPlan getSObjectsPlan(Function<String, SObjectFilterDescriptor> filterDescriptors)
+    throws ConnectionException {
+    PartnerConnection partnerConnection = SalesforceConnectionUtil.getPartnerConnection(getAuthenticatorCredentials());
+    List<String> sObjects = getSObjects(partnerConnection);
+    SObjectsDescribeResult describeResult = SObjectsDescribeResult.of(partnerConnection, sObjects);
+
+    List<String> queries = new ArrayList<>();
+    Map<String, Schema> schemas = new HashMap<>();
+    for (String sObject : sObjects) {
+      SObjectDescriptor sObjectDescriptor = SObjectDescriptor.fromDescribeResult(
+        sObject, describeResult, SalesforceSchemaUtil.COMPOUND_FIELDS);
+      queries.add(getSObjectQuery(sObjectDescriptor, null, filterDescriptors.apply(sObject)));
+      schemas.put(sObject, SalesforceSchemaUtil.getSchemaWithFields(sObjectDescriptor, describeResult));
+    }
 
     if (queries.isEmpty()) {
       throw new IllegalArgumentException("No SObject queries are generated");
     }
 
     LOG.debug("Generated '{}' SObject queries", queries.size());
-    return queries;
+    return new SObjectsPlan(queries, schemas);
   }
 
   /**
    * Retrieves all queryable SObjects in Salesforce and applies white and black list filters.
    *
+   * @param partnerConnection Salesforce partner connection
    * @return list of SObjects
    */
-  private List<String> getSObjects() {
+  private List<String> getSObjects(PartnerConnection partnerConnection) {
     DescribeGlobalResult describeGlobalResult;
     try {
-      PartnerConnection partnerConnection =
-        SalesforceConnectionUtil.getPartnerConnection(getAuthenticatorCredentials());
-      describeGlobalResult = partnerConnection.describeGlobal();
+      describeGlobalResult = SalesforceApiGovernor.of(partnerConnection.getConfig())
+        .callSoap(partnerConnection, "soap.describeGlobal", SalesforceMetrics.NONE, partnerConnection::describeGlobal);
     } catch (ConnectionException e) {
       throw new IllegalArgumentException("Unable to connect to Salesforce", e);
     }
@@ -195,4 +201,29 @@ public class SalesforceMultiSourceConfig extends SalesforceBaseSourceConfig {
       .collect(Collectors.toSet());
   }
 
+
+  /**
+   * Queries and CDAP schemas of SObjects to be replicated.
+   */
+  public static class SObjectsPlan {
+
+    private final List<String> queries;
+    private final Map<String, Schema> schemas;
+
+    public SObjectsPlan(List<String> queries, Map<String, Schema> schemas) {
+      this.queries = queries;
+      this.schemas = schemas;
+    }
+
+    public List<String> getQueries() {
+      return queries;
+    }
+
+    /**
+     * @return map where key is SObject name, value is corresponding CDAP schema
+     */
+    public Map<String, Schema> getSchemas() {
+      return schemas;
+    }
+  }
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+/**
+ * Query which selects a part of records of the initial query, and estimated number of its records.
+ */
+public class SalesforceQueryPartition {
+
+  private final String query;
+  private final long records;
+
+  public SalesforceQueryPartition(String query, long records) {
+    this.query = query;
+    this.records = records;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  /**
+   * @return estimated number of records in the partition, 0 if unknown
+   */
+  public long getRecords() {
+    return records;
+  }
+}
@@ -66,6 +66,10 @@ public class SalesforceRecordReaderWrapper extends RecordReader<Schema, Map<Stri
     if (sObjectNameField == null) {
       return currentValue;
     }
+    if (currentValue instanceof CSVRecordMap) {
+      // keep csv record view to preserve column binding
+      return ((CSVRecordMap) currentValue).withEntry(sObjectNameField, sObjectName);
+    }
     Map<String, Object> updatedCurrentValue = new HashMap<>(currentValue);
     updatedCurrentValue.put(sObjectNameField, sObjectName);
     return updatedCurrentValue;
@@ -15,14 +15,17 @@
  */
 package io.cdap.plugin.salesforce.plugin.source.batch;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sforce.soap.partner.PartnerConnection;
 import com.sforce.soap.partner.QueryResult;
 import com.sforce.soap.partner.sobject.SObject;
 import com.sforce.ws.ConnectionException;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
 import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
-import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
@@ -31,11 +34,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * RecordReader implementation for SOQL queries with restricted field types (function calls, sub-query fields) or
  * GROUP BY [ROLLUP / CUBE], OFFSET clauses. Reads Salesforce query and makes SOAP calls to retrieve all values.
+ * <p/>
+ * The next page of query results is requested in background as soon as the current page is received,
+ * so records of the current page are read while the next one is in flight.
  */
 public class SalesforceSoapRecordReader extends RecordReader<Schema, Map<String, ?>> {
 
@@ -46,9 +57,16 @@ public class SalesforceSoapRecordReader extends RecordReader<Schema, Map<String,
   private final SoapRecordToMapTransformer transformer;
   private SObjectDescriptor sObjectDescriptor;
   private PartnerConnection partnerConnection;
+  private SalesforceApiGovernor governor;
   private QueryResult queryResult;
   private SObject[] sObjects;
   private int index;
+  private long recordsRead;
+  private ExecutorService executor;
+  private Future<QueryResult> nextPage;
+  private SalesforceMetrics metrics;
+  private SalesforceMetrics.Meter recordsMeter;
+  private SalesforceMetrics.Meter parseMeter;
 
   private Map<String, ?> value;
 
@@ -70,18 +88,26 @@ public class SalesforceSoapRecordReader extends RecordReader<Schema, Map<String,
 
     Configuration conf = taskAttemptContext.getConfiguration();
     try {
-      AuthenticatorCredentials credentials = SalesforceConnectionUtil.getAuthenticatorCredentials(conf);
-      partnerConnection = SalesforceConnectionUtil.getPartnerConnection(credentials);
+      partnerConnection = SalesforceConnectionUtil.getPartnerConnection(conf);
+      partnerConnection.setQueryOptions(conf.getInt(SalesforceSourceConstants.CONFIG_SOAP_QUERY_BATCH_SIZE,
+                                                    SalesforceSourceConstants.MAX_SOAP_QUERY_BATCH_SIZE));
+      governor = SalesforceApiGovernor.of(partnerConnection.getConfig());
       sObjectDescriptor = SObjectDescriptor.fromQuery(query);
-      queryResult = partnerConnection.query(query);
+      metrics = SalesforceMetrics.of(conf).forSObject(sObjectDescriptor.getName());
+      recordsMeter = metrics.counter(SalesforceMetrics.RECORDS);
+      parseMeter = metrics.timer(SalesforceMetrics.PARSE_MS);
+      queryResult = governor.callSoap(partnerConnection, "soap.query", metrics, () -> partnerConnection.query(query));
     } catch (ConnectionException e) {
       throw new RuntimeException("Cannot create Salesforce SOAP connection", e);
     }
+    executor = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("salesforce-query-prefetch-%d").build());
+    prefetchNextPage();
   }
 
   /**
    * Reads single record from query results.
-   * Fetches more records if available.
+   * Takes the prefetched page of records once the current page is read.
    *
    * @return returns false if no more data to read
    */
@@ -110,14 +136,28 @@ public class SalesforceSoapRecordReader extends RecordReader<Schema, Map<String,
     return value;
   }
 
+  /**
+   * Reports progress as the number of records read against the total number of records reported by Salesforce.
+   */
   @Override
   public float getProgress() {
-    return 0.0f;
+    if (queryResult == null || queryResult.getSize() <= 0) {
+      return 0.0f;
+    }
+    return Math.min(1.0f, (float) recordsRead / queryResult.getSize());
   }
 
   @Override
   public void close() {
-    // no-op
+    if (nextPage != null) {
+      nextPage.cancel(true);
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    if (metrics != null) {
+      metrics.emit();
+    }
   }
 
   private boolean readValue() {
@@ -126,19 +166,48 @@ public class SalesforceSoapRecordReader extends RecordReader<Schema, Map<String,
       sObjects = queryResult.getRecords();
     }
     if (sObjects.length > index) {
+      long start = System.nanoTime();
       value = transformer.transformToMap(sObjects[index++], sObjectDescriptor);
+      parseMeter.add(System.nanoTime() - start);
+      recordsMeter.add(1);
+      recordsRead++;
       return true;
     }
     return false;
   }
 
+  /**
+   * Submits query more call for the page which follows the current one, unless all records were already received.
+   */
+  private void prefetchNextPage() {
+    if (queryResult.isDone()) {
+      nextPage = null;
+      return;
+    }
+    String queryLocator = queryResult.getQueryLocator();
+    nextPage = executor.submit(() -> governor.callSoap(partnerConnection, "soap.queryMore", metrics,
+                                                       () -> partnerConnection.queryMore(queryLocator)));
+  }
+
   private void queryMore() throws IOException {
+    String queryLocator = queryResult.getQueryLocator();
     try {
-      sObjects = null;
-      queryResult = partnerConnection.queryMore(queryResult.getQueryLocator());
-    } catch (ConnectionException e) {
-      throw new IOException(String.format("Cannot create Salesforce SOAP connection for query locator: '%s'",
-                                               queryResult.getQueryLocator()), e);
+      queryResult = nextPage.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(
+        String.format("Interrupted while fetching Salesforce query results for query locator: '%s'", queryLocator));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ConnectionException) {
+        throw new IOException(String.format("Cannot create Salesforce SOAP connection for query locator: '%s'",
+                                            queryLocator), e.getCause());
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
     }
+    sObjects = null;
+    prefetchNextPage();
   }
 }
@@ -25,6 +25,7 @@ import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.cdap.etl.api.FailureCollector;
 import io.cdap.plugin.salesforce.InvalidConfigException;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
 import io.cdap.plugin.salesforce.SalesforceConstants;
 import io.cdap.plugin.salesforce.SalesforceQueryUtil;
 import io.cdap.plugin.salesforce.SalesforceSchemaUtil;
@@ -95,6 +96,17 @@ public class SalesforceSourceConfig extends SalesforceBaseSourceConfig {
     return Objects.requireNonNull(soql).trim();
   }
 
+  /**
+   * Returns SOQL which retrieves records of the sObject selected by the given filter.
+   * Used when records are read incrementally, so SOQL query is not supported.
+   *
+   * @param filterDescriptor sObject query filter
+   * @return SOQL query
+   */
+  public String getQuery(SObjectFilterDescriptor filterDescriptor) {
+    return Objects.requireNonNull(getSObjectQuery(sObjectName, getSchema(), filterDescriptor)).trim();
+  }
+
   @Nullable
   public String getSObjectName() {
     return sObjectName;
@@ -152,6 +164,10 @@ public class SalesforceSourceConfig extends SalesforceBaseSourceConfig {
         boolean isSoql = isSoqlQuery();
         if (!isSoql) {
           validateFilters(collector);
+        } else if (!containsMacro(SalesforceSourceConstants.PROPERTY_WATERMARK_PATH) && isIncremental()) {
+          collector.addFailure("SOQL query cannot be read incrementally",
+                               "Specify SObject name instead of SOQL query or remove watermark path.")
+            .withConfigProperty(SalesforceSourceConstants.PROPERTY_WATERMARK_PATH);
         }
       } catch (InvalidConfigException e) {
         collector.addFailure(e.getMessage(), null).withConfigProperty(e.getProperty());
@@ -24,12 +24,14 @@ import java.io.DataOutput;
 import java.io.IOException;
 
 /**
- * A split used for mapreduce
+ * A split used for mapreduce. Length of the split is the estimated number of records it contains,
+ * so that larger splits can be scheduled first.
  */
 public class SalesforceSplit extends InputSplit implements Writable {
   private String jobId;
   private String batchId;
   private String query;
+  private long length;
 
   @SuppressWarnings("unused")
   public SalesforceSplit() {
@@ -37,9 +39,20 @@ public class SalesforceSplit extends InputSplit implements Writable {
   }
 
   public SalesforceSplit(String jobId, String batchId, String query) {
+    this(jobId, batchId, query, 0);
+  }
+
+  /**
+   * @param jobId job id
+   * @param batchId batch id
+   * @param query SOQL query
+   * @param length estimated number of records, 0 if unknown
+   */
+  public SalesforceSplit(String jobId, String batchId, String query, long length) {
     this.jobId = jobId;
     this.batchId = batchId;
     this.query = query;
+    this.length = length;
   }
 
   @Override
@@ -47,6 +60,7 @@ public class SalesforceSplit extends InputSplit implements Writable {
     jobId = dataInput.readUTF();
     batchId = dataInput.readUTF();
     query = dataInput.readUTF();
+    length = dataInput.readLong();
   }
 
   @Override
@@ -54,11 +68,12 @@ public class SalesforceSplit extends InputSplit implements Writable {
     dataOutput.writeUTF(jobId);
     dataOutput.writeUTF(batchId);
     dataOutput.writeUTF(query);
+    dataOutput.writeLong(length);
   }
 
   @Override
   public long getLength() {
-    return 0;
+    return length;
   }
 
   @Override
@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.ws.ConnectionException;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import io.cdap.plugin.salesforce.SalesforceQueryUtil;
+import io.cdap.plugin.salesforce.parser.SalesforceQueryParser;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits a query into several queries, each of which selects records modified within a sub-interval of
+ * the LastModifiedDate window of the query, so that records of long windows, for example of backfills,
+ * are read in parallel.
+ * <p/>
+ * With {@link TimeWindowShardStrategy#EVEN} strategy sub-intervals have the same duration.
+ * With {@link TimeWindowShardStrategy#ADAPTIVE} strategy the window is bisected using COUNT() queries,
+ * the interval of the most records first, and adjacent intervals are merged into sub-intervals
+ * of approximately the same number of records.
+ */
+public class SalesforceTimeWindowPartitioner {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SalesforceTimeWindowPartitioner.class);
+  /**
+   * Adaptive strategy bisects intervals until each of them holds at most this fraction of a sub-interval records.
+   */
+  private static final int INTERVALS_PER_SHARD = 4;
+  /**
+   * Max number of COUNT() queries per sub-interval made by adaptive strategy.
+   */
+  private static final int MAX_PROBES_PER_SHARD = 4;
+
+  private final PartnerConnection partnerConnection;
+  private final SalesforceMetrics metrics;
+  private final SalesforceApiGovernor governor;
+
+  /**
+   * @param partnerConnection partner connection
+   * @param metrics metrics of the queried sObject
+   */
+  public SalesforceTimeWindowPartitioner(PartnerConnection partnerConnection, SalesforceMetrics metrics) {
+    this.partnerConnection = partnerConnection;
+    this.metrics = metrics;
+    this.governor = SalesforceApiGovernor.of(partnerConnection.getConfig());
+  }
+
+  /**
+   * Splits the query into sub-intervals of its datetime window. Query is not split if the start
+   * of the window is not known, the query cannot be split without changing its results, selects too few records
+   * or counting fails.
+   *
+   * @param query SOQL query, records of which are filtered by the window
+   * @param window datetime window of the query, LastModifiedDate unless records are read incrementally
+   * @param shards max number of sub-intervals
+   * @param strategy strategy used to split the window
+   * @return sub-interval partitions of the query
+   */
+  public List<SalesforceQueryPartition> partition(String query, SObjectFilterDescriptor window, int shards,
+                                                  TimeWindowShardStrategy strategy) {
+    if (shards <= 1 || window.getStartTime() == null
+      || !SalesforceQueryParser.getQueryPlan(query).isPartitionable()) {
+      return Collections.singletonList(new SalesforceQueryPartition(query, 0));
+    }
+
+    // SOQL datetime literals have the precision of seconds
+    long start = window.getStartTime().toEpochSecond();
+    // records modified after the window is split belong to the last sub-interval, which is not bounded
+    long end = window.getEndTime() == null
+      ? Instant.now().getEpochSecond() + 1
+      : window.getEndTime().toEpochSecond();
+    try {
+      long records = count(query);
+      int count = (int) Math.min(Math.min(shards, records / SalesforceSourceConstants.MIN_TIME_WINDOW_SHARD_SIZE),
+                                 end - start);
+      if (count <= 1) {
+        return Collections.singletonList(new SalesforceQueryPartition(query, records));
+      }
+
+      List<Interval> intervals = strategy == TimeWindowShardStrategy.ADAPTIVE
+        ? getAdaptiveIntervals(query, window.getField(), start, end, records, count)
+        : getEvenIntervals(start, end, records, count);
+      List<SalesforceQueryPartition> result = new ArrayList<>();
+      for (int i = 0; i < intervals.size(); i++) {
+        Interval interval = intervals.get(i);
+        // bounds of the window are already applied by the query
+        ZonedDateTime from = i == 0 ? null : toDateTime(interval.from);
+        ZonedDateTime to = i == intervals.size() - 1 ? null : toDateTime(interval.to);
+        String intervalQuery = SalesforceQueryUtil.createSObjectTimeWindowQuery(
+          query, SObjectFilterDescriptor.interval(window.getField(), from, to));
+        result.add(new SalesforceQueryPartition(intervalQuery, interval.records));
+      }
+      LOG.debug("Window of query of '{}' records is split into '{}' sub-intervals", records, result.size());
+      return result;
+    } catch (ConnectionException | RuntimeException e) {
+      // query can still be read, although by a single split
+      LOG.warn("Failed to split window of query '{}' into sub-intervals, the query will not be split", query, e);
+      return Collections.singletonList(new SalesforceQueryPartition(query, 0));
+    }
+  }
+
+  /**
+   * Splits the window into intervals of the same duration, records are assumed to be evenly distributed.
+   */
+  private static List<Interval> getEvenIntervals(long start, long end, long records, int count) {
+    List<Interval> intervals = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      intervals.add(new Interval(start + (end - start) * i / count, start + (end - start) * (i + 1) / count,
+                                 records / count));
+    }
+    return intervals;
+  }
+
+  /**
+   * Bisects the interval of the most records until each interval holds a small enough share of records
+   * or the number of COUNT() queries is exhausted, then merges adjacent intervals.
+   */
+  private List<Interval> getAdaptiveIntervals(String query, String field, long start, long end, long records,
+                                              int count)
+    throws ConnectionException {
+    List<Interval> intervals = new ArrayList<>();
+    intervals.add(new Interval(start, end, records));
+    long maxRecords = records / count / INTERVALS_PER_SHARD;
+    for (int probes = 0; probes < count * MAX_PROBES_PER_SHARD; probes++) {
+      Interval largest = intervals.stream()
+        .filter(interval -> interval.records > maxRecords && interval.to - interval.from > 1)
+        .max(Comparator.comparingLong(interval -> interval.records))
+        .orElse(null);
+      if (largest == null) {
+        break;
+      }
+      long middle = largest.from + (largest.to - largest.from) / 2;
+      long left = count(SalesforceQueryUtil.createSObjectTimeWindowQuery(
+        query, SObjectFilterDescriptor.interval(field, toDateTime(largest.from), toDateTime(middle))));
+      int index = intervals.indexOf(largest);
+      intervals.set(index, new Interval(largest.from, middle, left));
+      // records may be modified between the queries, so the count is only an estimate
+      intervals.add(index + 1, new Interval(middle, largest.to, Math.max(0, largest.records - left)));
+    }
+    return merge(intervals, records, count);
+  }
+
+  /**
+   * Merges adjacent intervals into at most the given number of sub-intervals, boundaries of which are
+   * the closest to even shares of records.
+   */
+  private static List<Interval> merge(List<Interval> intervals, long records, int count) {
+    long[] cumulative = new long[intervals.size() + 1];
+    for (int i = 0; i < intervals.size(); i++) {
+      cumulative[i + 1] = cumulative[i] + intervals.get(i).records;
+    }
+
+    List<Interval> result = new ArrayList<>();
+    int from = 0;
+    for (int i = 1; i < count && from < intervals.size() - 1; i++) {
+      long target = records * i / count;
+      int to = from + 1;
+      while (to < intervals.size() - 1
+        && Math.abs(cumulative[to + 1] - target) <= Math.abs(cumulative[to] - target)) {
+        to++;
+      }
+      result.add(new Interval(intervals.get(from).from, intervals.get(to - 1).to, cumulative[to] - cumulative[from]));
+      from = to;
+    }
+    result.add(new Interval(intervals.get(from).from, intervals.get(intervals.size() - 1).to,
+                            cumulative[intervals.size()] - cumulative[from]));
+    return result;
+  }
+
+  private long count(String query) throws ConnectionException {
+    String countQuery = SalesforceQueryUtil.createSObjectCountQuery(query);
+    return governor.callSoap(partnerConnection, "soap.query", metrics, () -> partnerConnection.query(countQuery))
+      .getSize();
+  }
+
+  private static ZonedDateTime toDateTime(long epochSecond) {
+    return ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneOffset.UTC);
+  }
+
+  /**
+   * Interval of epoch seconds and the number of records modified within it.
+   */
+  private static class Interval {
+
+    private final long from;
+    private final long to;
+    private final long records;
+
+    Interval(long from, long to, long records) {
+      this.from = from;
+      this.to = to;
+      this.records = records;
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * High-water marks of incremental reads, stored as a JSON object of sObject names and datetime values in a file.
+ * Watermark of an sObject is the upper bound of the filter of the last successful run, which is pinned
+ * when the run is planned, so the next run reads records starting exactly where the previous one ended.
+ * <p/>
+ * File is replaced by writing a temporary file first, which is used if the run failed before it was renamed.
+ * Methods of this class are not thread safe.
+ */
+public class SalesforceWatermarkState {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SalesforceWatermarkState.class);
+  private static final Gson GSON = new Gson();
+  private static final Type WATERMARKS_TYPE = new TypeToken<Map<String, String>>() { }.getType();
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private final Configuration conf;
+  private final Path path;
+  private final Map<String, String> watermarks;
+
+  private SalesforceWatermarkState(Configuration conf, Path path, Map<String, String> watermarks) {
+    this.conf = conf;
+    this.path = path;
+    this.watermarks = watermarks;
+  }
+
+  /**
+   * Reads watermarks from the given file. State is empty if the file does not exist yet.
+   *
+   * @param conf Hadoop configuration used to access the file system
+   * @param path path of the state file
+   * @return watermark state
+   * @throws IOException if failed to read the file
+   */
+  public static SalesforceWatermarkState load(Configuration conf, Path path) throws IOException {
+    FileSystem fileSystem = path.getFileSystem(conf);
+    Path temporaryPath = getTemporaryPath(path);
+    Path existingPath = fileSystem.exists(path) ? path : temporaryPath;
+    if (!fileSystem.exists(existingPath)) {
+      LOG.info("Watermark state '{}' does not exist, records will be read from the beginning", path);
+      return new SalesforceWatermarkState(conf, path, new HashMap<>());
+    }
+    try (Reader reader = new InputStreamReader(fileSystem.open(existingPath), StandardCharsets.UTF_8)) {
+      Map<String, String> watermarks = GSON.fromJson(reader, WATERMARKS_TYPE);
+      return new SalesforceWatermarkState(conf, path, watermarks == null ? new HashMap<>() : watermarks);
+    }
+  }
+
+  /**
+   * @param sObjectName sObject name
+   * @return watermark of the sObject or null if it was not read yet
+   */
+  @Nullable
+  public ZonedDateTime get(String sObjectName) {
+    String watermark = watermarks.get(sObjectName);
+    return watermark == null ? null : ZonedDateTime.parse(watermark);
+  }
+
+  /**
+   * Sets watermark of the sObject, which is not written until the state is saved.
+   *
+   * @param sObjectName sObject name
+   * @param watermark upper bound of records read from the sObject
+   */
+  public void put(String sObjectName, ZonedDateTime watermark) {
+    watermarks.put(sObjectName, watermark.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+  }
+
+  /**
+   * Replaces the state file with the current watermarks. Watermarks of sObjects which were not read
+   * by this run are kept.
+   *
+   * @throws IOException if failed to write the file
+   */
+  public void save() throws IOException {
+    FileSystem fileSystem = path.getFileSystem(conf);
+    Path temporaryPath = getTemporaryPath(path);
+    try (Writer writer = new OutputStreamWriter(fileSystem.create(temporaryPath, true), StandardCharsets.UTF_8)) {
+      GSON.toJson(new TreeMap<>(watermarks), writer);
+    }
+    // rename does not replace existing files on all file systems
+    if (fileSystem.exists(path) && !fileSystem.delete(path, false)) {
+      throw new IOException(String.format("Failed to delete previous watermark state '%s'", path));
+    }
+    if (!fileSystem.rename(temporaryPath, path)) {
+      throw new IOException(String.format("Failed to rename watermark state '%s' to '%s'", temporaryPath, path));
+    }
+    LOG.debug("Saved watermarks of '{}' sObjects to '{}'", watermarks.size(), path);
+  }
+
+  private static Path getTemporaryPath(Path path) {
+    return path.suffix(TEMPORARY_SUFFIX);
+  }
+}
@@ -15,14 +15,15 @@
  */
 package io.cdap.plugin.salesforce.plugin.source.batch;
 
-import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sforce.soap.partner.PartnerConnection;
 import com.sforce.soap.partner.sobject.SObject;
 import com.sforce.ws.ConnectionException;
 import io.cdap.cdap.api.data.schema.Schema;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
 import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
-import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
 import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.InputSplit;
@@ -31,27 +32,49 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * RecordReader implementation for wide SOQL queries. Reads a single Salesforce batch of SObject Id's from bulk job
  * provided in InputSplit, creates subpartitions and makes parallel SOAP calls to retrieve all values.
+ * <p/>
+ * Records are streamed rather than fetched up front. Ids are read from the batch results as partitions are needed,
+ * partitions are retrieved on a dedicated pool of threads and records of a partition are emitted as soon as its
+ * retrieve completes. Number of partitions which are retrieved or wait to be read is bounded, so that memory used
+ * by the reader does not depend on the size of the batch.
  */
 public class SalesforceWideRecordReader extends SalesforceBulkRecordReader {
 
   private static final Logger LOG = LoggerFactory.getLogger(SalesforceWideRecordReader.class);
+  private static final long TERMINATION_TIMEOUT_SECONDS = 60;
 
   private final String query;
   private final SoapRecordToMapTransformer transformer;
 
-  private List<Map<String, ?>> results;
+  private PartnerConnection partnerConnection;
+  private SObjectDescriptor sObjectDescriptor;
+  private String fields;
+  private SalesforceMetrics.Meter parseMeter;
+  private ExecutorService executor;
+  private CompletionService<List<Map<String, ?>>> completionService;
+  private int maxInFlightPartitions;
+  private int inFlightPartitions;
+  private int partitionCount;
+  private long recordsEmitted;
+  private Iterator<Map<String, ?>> partitionRecords = Collections.emptyIterator();
   private Map<String, ?> value;
-  private int index;
 
   public SalesforceWideRecordReader(Schema schema, String query, SoapRecordToMapTransformer transformer) {
     super(schema);
@@ -62,40 +85,39 @@ public class SalesforceWideRecordReader extends SalesforceBulkRecordReader {
   @Override
   public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException,
     InterruptedException {
-    List<Map<String, ?>> fetchedIdList = fetchBulkQueryIds(inputSplit, taskAttemptContext);
-    LOG.debug("Number of records received from batch job for wide object: '{}'", fetchedIdList.size());
+    super.initialize(inputSplit, taskAttemptContext);
 
     Configuration conf = taskAttemptContext.getConfiguration();
     try {
-      AuthenticatorCredentials credentials = SalesforceConnectionUtil.getAuthenticatorCredentials(conf);
-      PartnerConnection partnerConnection = SalesforceConnectionUtil.getPartnerConnection(credentials);
-
-      SObjectDescriptor sObjectDescriptor = SObjectDescriptor.fromQuery(query);
-      List<String> fieldsNames = sObjectDescriptor.getFieldsNames();
-      String fields = String.join(",", fieldsNames);
-      String sObjectName = sObjectDescriptor.getName();
-
-      List<List<Map<String, ?>>> partitions =
-        Lists.partition(fetchedIdList, SalesforceSourceConstants.WIDE_QUERY_MAX_BATCH_COUNT);
-      LOG.debug("Number of partitions to be fetched for wide object: '{}'", partitions.size());
-
-      results = partitions.parallelStream()
-        .map(this::getSObjectIds)
-        .map(sObjectIds -> fetchPartition(partnerConnection, fields, sObjectName, sObjectIds))
-        .flatMap(Arrays::stream)
-        .map(sObject -> transformer.transformToMap(sObject, sObjectDescriptor))
-        .collect(Collectors.toList());
+      partnerConnection = SalesforceConnectionUtil.getPartnerConnection(conf);
     } catch (ConnectionException e) {
       throw new RuntimeException("Cannot create Salesforce SOAP connection", e);
     }
+    sObjectDescriptor = SObjectDescriptor.fromQuery(query);
+    fields = String.join(",", sObjectDescriptor.getFieldsNames());
+    parseMeter = getMetrics().timer(SalesforceMetrics.PARSE_MS);
+
+    int threads = conf.getInt(SalesforceSourceConstants.CONFIG_WIDE_RETRIEVE_THREADS,
+                              SalesforceSourceConstants.DEFAULT_WIDE_RETRIEVE_THREADS);
+    // while one partition is read, the next ones are retrieved by every thread
+    maxInFlightPartitions = threads * 2;
+    executor = Executors.newFixedThreadPool(
+      threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("salesforce-wide-retrieve-%d").build());
+    completionService = new ExecutorCompletionService<>(executor);
   }
 
   @Override
-  public boolean nextKeyValue() {
-    if (results.size() == index) {
-      return false;
+  public boolean nextKeyValue() throws IOException {
+    while (!partitionRecords.hasNext()) {
+      submitPartitions();
+      if (inFlightPartitions == 0) {
+        LOG.debug("Number of partitions fetched for wide object: '{}'", partitionCount);
+        return false;
+      }
+      partitionRecords = takePartition().iterator();
     }
-    value = results.get(index++);
+    value = partitionRecords.next();
+    recordsEmitted++;
     return true;
   }
 
@@ -104,28 +126,101 @@ public class SalesforceWideRecordReader extends SalesforceBulkRecordReader {
     return value;
   }
 
+  /**
+   * Reports progress as the number of emitted records against the number of rows in the batch.
+   * Ids are read from the batch ahead of the emitted records, so progress of the base reader would run ahead.
+   */
   @Override
   public float getProgress() {
-    return results == null || results.isEmpty() ? 0.0f : (float) index / results.size();
+    long expectedRows = getExpectedRows();
+    return expectedRows <= 0 ? 0.0f : Math.min(1.0f, (float) recordsEmitted / expectedRows);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (executor != null) {
+      executor.shutdownNow();
+      // retrieves which did not stop yet still record metrics, which are emitted when the base reader is closed
+      try {
+        if (!executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          LOG.warn("Wide object retrieves did not stop within '{}' seconds", TERMINATION_TIMEOUT_SECONDS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    super.close();
   }
 
   /**
-   * Fetches single entry map (Id -> SObjectId_value) values received from Bulk API.
+   * Reads Ids of the next partitions from the batch results and submits them to be retrieved,
+   * until the in-flight window is full or all Ids are read.
    *
-   * @param inputSplit         specifies batch details
-   * @param taskAttemptContext task context
-   * @return list of single entry Map
-   * @throws IOException          can be due error during reading query
-   * @throws InterruptedException interrupted sleep while waiting for batch results
+   * @throws IOException if failed to read batch results
    */
-  private List<Map<String, ?>> fetchBulkQueryIds(InputSplit inputSplit, TaskAttemptContext taskAttemptContext)
-    throws IOException, InterruptedException {
-    super.initialize(inputSplit, taskAttemptContext);
-    List<Map<String, ?>> fetchedIdList = new ArrayList<>();
-    while (super.nextKeyValue()) {
-      fetchedIdList.add(super.getCurrentValue());
+  private void submitPartitions() throws IOException {
+    while (inFlightPartitions < maxInFlightPartitions) {
+      String[] sObjectIds = readPartitionIds();
+      if (sObjectIds.length == 0) {
+        return;
+      }
+      completionService.submit(() -> retrievePartition(sObjectIds));
+      inFlightPartitions++;
+      partitionCount++;
+    }
+  }
+
+  /**
+   * Waits for any of the in-flight partitions to be retrieved.
+   *
+   * @return records of the retrieved partition
+   * @throws IOException if the reader was interrupted
+   */
+  private List<Map<String, ?>> takePartition() throws IOException {
+    try {
+      List<Map<String, ?>> records = completionService.take().get();
+      inFlightPartitions--;
+      return records;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while retrieving wide object records");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Reads up to {@link SalesforceSourceConstants#WIDE_QUERY_MAX_BATCH_COUNT} Ids from the batch results.
+   *
+   * @return array of SObject ids, empty if all Ids were read
+   * @throws IOException if failed to read batch results
+   */
+  private String[] readPartitionIds() throws IOException {
+    List<Map<String, ?>> subIds = new ArrayList<>();
+    while (subIds.size() < SalesforceSourceConstants.WIDE_QUERY_MAX_BATCH_COUNT && super.nextKeyValue()) {
+      subIds.add(super.getCurrentValue());
+    }
+    return getSObjectIds(subIds);
+  }
+
+  /**
+   * Retrieves records of a single partition and transforms them to maps.
+   *
+   * @param sObjectIds SObject ids to be fetched
+   * @return list of records
+   */
+  private List<Map<String, ?>> retrievePartition(String[] sObjectIds) {
+    SObject[] sObjects = fetchPartition(partnerConnection, fields, sObjectDescriptor.getName(), sObjectIds);
+    List<Map<String, ?>> records = new ArrayList<>(sObjects.length);
+    for (SObject sObject : sObjects) {
+      long start = System.nanoTime();
+      records.add(transformer.transformToMap(sObject, sObjectDescriptor));
+      parseMeter.add(System.nanoTime() - start);
     }
-    return fetchedIdList;
+    return records;
   }
 
   /**
@@ -157,8 +252,18 @@ public class SalesforceWideRecordReader extends SalesforceBulkRecordReader {
    */
   private SObject[] fetchPartition(PartnerConnection partnerConnection, String fields, String sObjectName,
                                    String[] sObjectIds) {
+    SalesforceMetrics metrics = getMetrics();
     try {
-      return partnerConnection.retrieve(fields, sObjectName, sObjectIds);
+      return SalesforceApiGovernor.of(partnerConnection.getConfig())
+        .callSoap(partnerConnection, "soap.retrieve", metrics, () -> {
+          long start = System.nanoTime();
+          try {
+            return partnerConnection.retrieve(fields, sObjectName, sObjectIds);
+          } finally {
+            metrics.count(SalesforceMetrics.RETRIEVE_CALLS, 1);
+            metrics.time(SalesforceMetrics.RETRIEVE_MS, System.nanoTime() - start);
+          }
+        });
     } catch (ConnectionException e) {
       LOG.trace("Fetched SObject name: '{}', fields: '{}', Ids: '{}'", sObjectName, fields,
                 String.join(",", sObjectIds));
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Indicates how the LastModifiedDate window of sObject queries is split into sub-intervals.
+ */
+public enum TimeWindowShardStrategy {
+
+  /**
+   * Window is split into sub-intervals of the same duration.
+   */
+  EVEN("Even"),
+
+  /**
+   * Window is split into sub-intervals of approximately the same number of records, using COUNT() queries.
+   */
+  ADAPTIVE("Adaptive");
+
+  private final String value;
+
+  TimeWindowShardStrategy(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Converts time window shard strategy string value into {@link TimeWindowShardStrategy} enum.
+   *
+   * @param stringValue time window shard strategy string value
+   * @return time window shard strategy in optional container
+   */
+  public static Optional<TimeWindowShardStrategy> fromValue(String stringValue) {
+    return Stream.of(values())
+      .filter(strategy -> strategy.value.equalsIgnoreCase(stringValue))
+      .findAny();
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Indicates how records of wide queries, which exceed SOQL length limit, are read.
+ */
+public enum WideQueryStrategy {
+
+  /**
+   * Ids are read using Bulk API, records are retrieved by Id using SOAP API.
+   */
+  RETRIEVE("SOAP Retrieve"),
+
+  /**
+   * Fields are split into several Bulk API queries, which are joined by Id.
+   */
+  FIELD_GROUPS("Bulk Field Groups");
+
+  private final String value;
+
+  WideQueryStrategy(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * Converts wide query strategy string value into {@link WideQueryStrategy} enum.
+   *
+   * @param stringValue wide query strategy string value
+   * @return wide query strategy in optional container
+   */
+  public static Optional<WideQueryStrategy> fromValue(String stringValue) {
+    return Stream.of(values())
+      .filter(strategy -> strategy.value.equalsIgnoreCase(stringValue))
+      .findAny();
+  }
+}
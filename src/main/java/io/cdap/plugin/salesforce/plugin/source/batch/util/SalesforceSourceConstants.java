@@ -33,10 +33,103 @@ public class SalesforceSourceConstants {
   public static final String PROPERTY_BLACK_LIST = "blackList";
   public static final String PROPERTY_SOBJECT_NAME_FIELD = "sObjectNameField";
 
+  public static final String PROPERTY_ENABLE_PK_CHUNK = "enablePKChunk";
+  public static final String PROPERTY_CHUNK_SIZE = "chunkSize";
+  public static final String PROPERTY_PARENT_NAME = "parent";
+  public static final String PROPERTY_BULK_API_VERSION = "bulkApiVersion";
+  public static final String PROPERTY_WIDE_RETRIEVE_THREADS = "wideRetrieveThreads";
+  public static final String PROPERTY_WIDE_QUERY_STRATEGY = "wideQueryStrategy";
+  public static final String PROPERTY_FIELD_GROUP_SKIP_UNMATCHED = "fieldGroupSkipUnmatched";
+  public static final String PROPERTY_SOAP_QUERY_BATCH_SIZE = "soapQueryBatchSize";
+  public static final String PROPERTY_ID_RANGE_PARTITIONS = "idRangePartitions";
+  public static final String PROPERTY_TIME_WINDOW_SHARDS = "timeWindowShards";
+  public static final String PROPERTY_TIME_WINDOW_SHARD_STRATEGY = "timeWindowShardStrategy";
+  public static final String PROPERTY_WATERMARK_PATH = "watermarkPath";
+  public static final String PROPERTY_WATERMARK_FIELD = "watermarkField";
+  public static final String PROPERTY_WATERMARK_LAG_SECONDS = "watermarkLagSeconds";
+
   public static final String CONFIG_QUERIES = "mapred.salesforce.input.queries";
   public static final String CONFIG_SCHEMAS = "mapred.salesforce.input.schemas";
   public static final String CONFIG_SOBJECT_NAME_FIELD = "mapred.salesforce.input.sObjectNameField";
+  public static final String CONFIG_PK_CHUNK_ENABLE = "mapred.salesforce.input.pk.chunk.enable";
+  public static final String CONFIG_PK_CHUNK_SIZE = "mapred.salesforce.input.pk.chunk.size";
+  public static final String CONFIG_PK_CHUNK_PARENT = "mapred.salesforce.input.pk.chunk.parent";
+  public static final String CONFIG_BULK_API_VERSION = "mapred.salesforce.input.bulk.api.version";
+  public static final String CONFIG_WIDE_RETRIEVE_THREADS = "mapred.salesforce.input.wide.retrieve.threads";
+  public static final String CONFIG_WIDE_QUERY_STRATEGY = "mapred.salesforce.input.wide.query.strategy";
+  public static final String CONFIG_FIELD_GROUP_SKIP_UNMATCHED =
+    "mapred.salesforce.input.field.group.skip.unmatched";
+  public static final String CONFIG_SOAP_QUERY_BATCH_SIZE = "mapred.salesforce.input.soap.query.batch.size";
+  public static final String CONFIG_ID_RANGE_PARTITIONS = "mapred.salesforce.input.id.range.partitions";
+  public static final String CONFIG_TIME_WINDOW_SHARDS = "mapred.salesforce.input.time.window.shards";
+  public static final String CONFIG_TIME_WINDOW_SHARD_STRATEGY = "mapred.salesforce.input.time.window.shard.strategy";
+  public static final String CONFIG_TIME_WINDOWS = "mapred.salesforce.input.time.windows";
+  public static final String TIME_WINDOW_FIELD = "field";
+  public static final String TIME_WINDOW_START = "start";
+  public static final String TIME_WINDOW_END = "end";
+
+  public static final String HEADER_ENABLE_PK_CHUNK = "Sforce-Enable-PKChunking";
+  public static final String HEADER_VALUE_PK_CHUNK = "chunkSize=%d";
+  public static final String HEADER_PK_CHUNK_PARENT = "parent=%s";
 
   public static final int WIDE_QUERY_MAX_BATCH_COUNT = 2000;
+  /**
+   * Default number of concurrent SOAP retrieve calls made by a single wide query reader.
+   */
+  public static final int DEFAULT_WIDE_RETRIEVE_THREADS = 4;
+  /**
+   * Max number of concurrent SOAP retrieve calls of a single reader, which is below the limit of concurrent
+   * long-running API requests of an org.
+   */
+  public static final int MAX_WIDE_RETRIEVE_THREADS = 10;
+
+  /**
+   * Queries are not split into Id ranges by default.
+   */
+  public static final int DEFAULT_ID_RANGE_PARTITIONS = 1;
+  public static final int MAX_ID_RANGE_PARTITIONS = 100;
+  /**
+   * Min number of records in a single Id range, queries of fewer records are split into fewer ranges.
+   */
+  public static final int MIN_ID_RANGE_PARTITION_SIZE = 2000;
+
+  /**
+   * LastModifiedDate window is not split into sub-intervals by default.
+   */
+  public static final int DEFAULT_TIME_WINDOW_SHARDS = 1;
+  public static final int MAX_TIME_WINDOW_SHARDS = 100;
+  /**
+   * Min number of records in a single sub-interval, windows of fewer records are split into fewer sub-intervals.
+   */
+  public static final int MIN_TIME_WINDOW_SHARD_SIZE = 2000;
+
+  /**
+   * Unlike LastModifiedDate, SystemModstamp is also changed by automated system updates of records.
+   */
+  public static final String DEFAULT_WATERMARK_FIELD = "SystemModstamp";
+  /**
+   * Records are committed with the time their transaction started, so records of long transactions
+   * may become visible with a watermark value which is already a few minutes old.
+   */
+  public static final int DEFAULT_WATERMARK_LAG_SECONDS = 300;
+
+  /**
+   * Default number of records per PK chunk, as used by Salesforce when chunk size is not specified.
+   */
+  public static final int DEFAULT_PK_CHUNK_SIZE = 100000;
+  /**
+   * According to "Bulk API Limitations" PK chunk cannot contain more than 250,000 records.
+   */
+  public static final int MAX_PK_CHUNK_SIZE = 250000;
+  /**
+   * According to "QueryOptions Header" SOAP query batch size is between 200 and 2,000 records.
+   * Salesforce may return fewer records than requested, for example for queries of wide objects.
+   */
+  public static final int MIN_SOAP_QUERY_BATCH_SIZE = 200;
+  public static final int MAX_SOAP_QUERY_BATCH_SIZE = 2000;
+  /**
+   * Max number of records in a single page of Bulk API 2.0 query results.
+   */
+  public static final int BULK_V2_MAX_RECORDS_PER_PAGE = 100000;
 
 }
@@ -29,7 +29,9 @@ import io.cdap.cdap.etl.api.validation.InvalidStageException;
 import io.cdap.plugin.salesforce.InvalidConfigException;
 import io.cdap.plugin.salesforce.SObjectDescriptor;
 import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
 import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
 import io.cdap.plugin.salesforce.SalesforceQueryUtil;
 import io.cdap.plugin.salesforce.authenticator.Authenticator;
 import io.cdap.plugin.salesforce.plugin.BaseSalesforceConfig;
@@ -273,7 +275,8 @@ public class SalesforceStreamingSourceConfig extends BaseSalesforceConfig implem
       if (usesDifferentClassLoaders) {
         Thread.currentThread().setContextClassLoader(classClassLoader);
       }
-      return partnerConnection.query(query);
+      return SalesforceApiGovernor.of(partnerConnection.getConfig())
+        .callSoap(partnerConnection, "soap.query", SalesforceMetrics.NONE, () -> partnerConnection.query(query));
     } finally {
       if (usesDifferentClassLoaders) {
         Thread.currentThread().setContextClassLoader(threadClassLoader);
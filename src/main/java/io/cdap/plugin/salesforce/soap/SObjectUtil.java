@@ -21,6 +21,8 @@ import com.sforce.soap.partner.PartnerConnection;
 import com.sforce.soap.partner.SaveResult;
 import com.sforce.soap.partner.sobject.SObject;
 import com.sforce.ws.ConnectionException;
+import io.cdap.plugin.salesforce.SalesforceApiGovernor;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
 
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -40,7 +42,8 @@ public class SObjectUtil {
   public static SaveResult[] createSObjects(PartnerConnection partnerConnection, SObject[] sObjects)
     throws ConnectionException {
 
-    SaveResult[] results = partnerConnection.create(sObjects);
+    SaveResult[] results = SalesforceApiGovernor.of(partnerConnection.getConfig())
+      .callSoap(partnerConnection, "soap.create", SalesforceMetrics.NONE, () -> partnerConnection.create(sObjects));
 
     for (SaveResult saveResult : results) {
       if (!saveResult.getSuccess()) {
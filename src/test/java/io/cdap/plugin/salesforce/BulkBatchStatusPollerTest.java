@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.salesforce;
+
+import com.sforce.async.AsyncApiException;
+import com.sforce.async.AsyncExceptionCode;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchInfoList;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import com.sforce.ws.ConnectorConfig;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link BulkBatchStatusPoller}.
+ */
+public class BulkBatchStatusPollerTest {
+
+  private static final String JOB_ID = "job";
+
+  @Test
+  public void testJobIsPolledOnceForAllBatches() throws Exception {
+    BulkConnection bulkConnection = mockConnection();
+    Mockito.when(bulkConnection.getBatchInfoList(JOB_ID))
+      .thenReturn(batchInfoList(batch("b1", BatchStateEnum.InProgress), batch("b2", BatchStateEnum.Queued)))
+      .thenReturn(batchInfoList(batch("b1", BatchStateEnum.Completed), batch("b2", BatchStateEnum.Completed)));
+
+    BulkBatchStatusPoller poller = new BulkBatchStatusPoller(10, 100, 10_000);
+    CompletableFuture<BatchInfo> first = poller.awaitBatch(bulkConnection, JOB_ID, "b1", SalesforceMetrics.NONE);
+    CompletableFuture<BatchInfo> second = poller.awaitBatch(bulkConnection, JOB_ID, "b2", SalesforceMetrics.NONE);
+
+    Assert.assertEquals("b1", first.get(10, TimeUnit.SECONDS).getId());
+    Assert.assertEquals("b2", second.get(10, TimeUnit.SECONDS).getId());
+    Mockito.verify(bulkConnection, Mockito.atMost(2)).getBatchInfoList(JOB_ID);
+    Mockito.verify(bulkConnection, Mockito.never()).getBatchInfo(Mockito.anyString(), Mockito.anyString());
+  }
+
+  @Test
+  public void testFailedBatch() throws Exception {
+    BulkConnection bulkConnection = mockConnection();
+    Mockito.when(bulkConnection.getBatchInfoList(JOB_ID))
+      .thenReturn(batchInfoList(batch("b1", BatchStateEnum.Failed)));
+
+    BulkBatchStatusPoller poller = new BulkBatchStatusPoller(10, 100, 10_000);
+    try {
+      poller.awaitBatch(bulkConnection, JOB_ID, "b1", SalesforceMetrics.NONE).get(10, TimeUnit.SECONDS);
+      Assert.fail("Expected batch to fail");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof BulkAPIBatchException);
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    BulkConnection bulkConnection = mockConnection();
+    Mockito.when(bulkConnection.getBatchInfoList(JOB_ID))
+      .thenReturn(batchInfoList(batch("b1", BatchStateEnum.Queued)));
+
+    BulkBatchStatusPoller poller = new BulkBatchStatusPoller(10, 20, 100);
+    try {
+      poller.awaitBatch(bulkConnection, JOB_ID, "b1", SalesforceMetrics.NONE).get(10, TimeUnit.SECONDS);
+      Assert.fail("Expected batch to time out");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause().getMessage().contains("Timeout waiting for batch results"));
+    }
+  }
+
+  @Test
+  public void testPollFailuresAreRetried() throws Exception {
+    BulkConnection bulkConnection = mockConnection();
+    Mockito.when(bulkConnection.getBatchInfoList(JOB_ID))
+      .thenThrow(new AsyncApiException("Unavailable", AsyncExceptionCode.ClientInputError))
+      .thenThrow(new AsyncApiException("Unavailable", AsyncExceptionCode.ClientInputError))
+      .thenReturn(batchInfoList(batch("b1", BatchStateEnum.Completed)));
+
+    BulkBatchStatusPoller poller = new BulkBatchStatusPoller(10, 100, 10_000);
+    BatchInfo batchInfo = poller.awaitBatch(bulkConnection, JOB_ID, "b1", SalesforceMetrics.NONE)
+      .get(10, TimeUnit.SECONDS);
+
+    Assert.assertEquals("b1", batchInfo.getId());
+    Mockito.verify(bulkConnection, Mockito.times(3)).getBatchInfoList(JOB_ID);
+  }
+
+  @Test
+  public void testRepeatedPollFailuresFailWaiters() throws Exception {
+    BulkConnection bulkConnection = mockConnection();
+    AsyncApiException failure = new AsyncApiException("Unavailable", AsyncExceptionCode.ClientInputError);
+    Mockito.when(bulkConnection.getBatchInfoList(JOB_ID)).thenThrow(failure);
+
+    BulkBatchStatusPoller poller = new BulkBatchStatusPoller(10, 20, 10_000);
+    try {
+      poller.awaitBatch(bulkConnection, JOB_ID, "b1", SalesforceMetrics.NONE).get(10, TimeUnit.SECONDS);
+      Assert.fail("Expected batch to fail");
+    } catch (ExecutionException e) {
+      Assert.assertSame(failure, e.getCause());
+    }
+    Mockito.verify(bulkConnection, Mockito.times(5)).getBatchInfoList(JOB_ID);
+  }
+
+  @Test
+  public void testLatestConnectionIsUsed() throws Exception {
+    BulkConnection first = mockConnection();
+    Mockito.when(first.getBatchInfoList(JOB_ID))
+      .thenReturn(batchInfoList(batch("b1", BatchStateEnum.Queued)));
+    BulkConnection second = mockConnection();
+    Mockito.when(second.getBatchInfoList(JOB_ID))
+      .thenReturn(batchInfoList(batch("b1", BatchStateEnum.Completed), batch("b2", BatchStateEnum.Completed)));
+
+    BulkBatchStatusPoller poller = new BulkBatchStatusPoller(10, 20, 10_000);
+    CompletableFuture<BatchInfo> firstBatch = poller.awaitBatch(first, JOB_ID, "b1", SalesforceMetrics.NONE);
+    CompletableFuture<BatchInfo> secondBatch = poller.awaitBatch(second, JOB_ID, "b2", SalesforceMetrics.NONE);
+
+    Assert.assertEquals("b1", firstBatch.get(10, TimeUnit.SECONDS).getId());
+    Assert.assertEquals("b2", secondBatch.get(10, TimeUnit.SECONDS).getId());
+    Mockito.verify(second, Mockito.atLeastOnce()).getBatchInfoList(JOB_ID);
+  }
+
+  @Test
+  public void testStalledJobDoesNotDelayOtherJobs() throws Exception {
+    CountDownLatch stalled = new CountDownLatch(1);
+    BulkConnection stalledConnection = mockConnection();
+    Mockito.when(stalledConnection.getBatchInfoList("stalled")).thenAnswer(invocation -> {
+      stalled.await();
+      return batchInfoList(batch("b1", BatchStateEnum.Completed));
+    });
+    BulkConnection bulkConnection = mockConnection();
+    Mockito.when(bulkConnection.getBatchInfoList(JOB_ID))
+      .thenReturn(batchInfoList(batch("b2", BatchStateEnum.Queued)))
+      .thenReturn(batchInfoList(batch("b2", BatchStateEnum.Completed)));
+
+    BulkBatchStatusPoller poller = new BulkBatchStatusPoller(10, 20, 10_000);
+    try {
+      CompletableFuture<BatchInfo> stalledBatch = poller.awaitBatch(stalledConnection, "stalled", "b1",
+                                                                    SalesforceMetrics.NONE);
+      CompletableFuture<BatchInfo> batch = poller.awaitBatch(bulkConnection, JOB_ID, "b2", SalesforceMetrics.NONE);
+
+      // healthy job is polled while the poll of the stalled job is still blocked
+      Assert.assertEquals("b2", batch.get(10, TimeUnit.SECONDS).getId());
+      Assert.assertFalse(stalledBatch.isDone());
+    } finally {
+      stalled.countDown();
+    }
+  }
+
+  private static BatchInfoList batchInfoList(BatchInfo... batches) {
+    BatchInfoList batchInfoList = new BatchInfoList();
+    batchInfoList.setBatchInfo(batches);
+    return batchInfoList;
+  }
+
+  private static BatchInfo batch(String id, BatchStateEnum state) {
+    BatchInfo batchInfo = new BatchInfo();
+    batchInfo.setId(id);
+    batchInfo.setJobId(JOB_ID);
+    batchInfo.setState(state);
+    return batchInfo;
+  }
+
+  private static BulkConnection mockConnection() {
+    ConnectorConfig connectorConfig = new ConnectorConfig();
+    connectorConfig.setServiceEndpoint("https://localhost/services/Soap/u/45.0");
+    BulkConnection bulkConnection = Mockito.mock(BulkConnection.class);
+    Mockito.when(bulkConnection.getConfig()).thenReturn(connectorConfig);
+    return bulkConnection;
+  }
+}
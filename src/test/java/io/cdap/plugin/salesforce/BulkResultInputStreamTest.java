@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.salesforce;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sforce.async.BulkConnection;
+import com.sforce.ws.ConnectorConfig;
+import org.awaitility.Awaitility;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tests for {@link BulkResultInputStream}.
+ */
+public class BulkResultInputStreamTest {
+
+  private static final String JOB_ID = "job";
+  private static final String BATCH_ID = "batch";
+
+  @Test
+  public void testResultsAreConcatenated() throws Exception {
+    BulkConnection bulkConnection = mockConnection("first,", "second,", "third");
+    String[] resultIds = {"r0", "r1", "r2"};
+
+    // read-ahead buffer is smaller than the result to check reading of the remaining bytes
+    try (InputStream stream = new BulkResultInputStream(bulkConnection, JOB_ID, BATCH_ID, resultIds, 2,
+                                                        SalesforceMetrics.NONE)) {
+      Assert.assertEquals("first,second,third", new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testResultsAreOpenedLazily() throws Exception {
+    BulkConnection bulkConnection = mockConnection("a", "b", "c");
+    String[] resultIds = {"r0", "r1", "r2"};
+
+    try (InputStream stream = new BulkResultInputStream(bulkConnection, JOB_ID, BATCH_ID, resultIds,
+                                                        SalesforceMetrics.NONE)) {
+      Mockito.verify(bulkConnection, Mockito.never())
+        .getQueryResultStream(Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+
+      Assert.assertEquals('a', stream.read());
+      Mockito.verify(bulkConnection, Mockito.never()).getQueryResultStream(JOB_ID, BATCH_ID, "r2");
+    }
+  }
+
+  @Test
+  public void testEmptyResults() throws Exception {
+    BulkConnection bulkConnection = mockConnection();
+    try (InputStream stream = new BulkResultInputStream(bulkConnection, JOB_ID, BATCH_ID, new String[0],
+                                                        SalesforceMetrics.NONE)) {
+      Assert.assertEquals(-1, stream.read());
+    }
+  }
+
+  @Test
+  public void testConnectionOpenedAfterCloseIsClosed() throws Exception {
+    BulkConnection bulkConnection = mockConnection("a");
+    AtomicBoolean connectionClosed = new AtomicBoolean();
+    CountDownLatch opening = new CountDownLatch(1);
+    CountDownLatch opened = new CountDownLatch(1);
+    Mockito.when(bulkConnection.getQueryResultStream(JOB_ID, BATCH_ID, "r1")).thenAnswer(invocation -> {
+      opening.countDown();
+      // connection is opened even though the prefetch task is cancelled meanwhile
+      Uninterruptibles.awaitUninterruptibly(opened);
+      return new ByteArrayInputStream("b".getBytes(StandardCharsets.UTF_8)) {
+        @Override
+        public void close() {
+          connectionClosed.set(true);
+        }
+      };
+    });
+
+    InputStream stream = new BulkResultInputStream(bulkConnection, JOB_ID, BATCH_ID, new String[] {"r0", "r1"},
+                                                   SalesforceMetrics.NONE);
+    Assert.assertEquals('a', stream.read());
+    Assert.assertTrue(opening.await(10, TimeUnit.SECONDS));
+    stream.close();
+    opened.countDown();
+
+    Awaitility.await()
+      .atMost(10, TimeUnit.SECONDS)
+      .untilTrue(connectionClosed);
+  }
+
+  private BulkConnection mockConnection(String... results) throws Exception {
+    ConnectorConfig connectorConfig = new ConnectorConfig();
+    connectorConfig.setServiceEndpoint("https://localhost/services/Soap/u/45.0");
+    BulkConnection bulkConnection = Mockito.mock(BulkConnection.class);
+    Mockito.when(bulkConnection.getConfig()).thenReturn(connectorConfig);
+    for (int i = 0; i < results.length; i++) {
+      Mockito.when(bulkConnection.getQueryResultStream(JOB_ID, BATCH_ID, "r" + i))
+        .thenReturn(new ByteArrayInputStream(results[i].getBytes(StandardCharsets.UTF_8)));
+    }
+    return bulkConnection;
+  }
+}
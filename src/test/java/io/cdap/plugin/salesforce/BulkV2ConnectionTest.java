@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.salesforce;
+
+import com.google.common.io.CharStreams;
+import com.sforce.soap.partner.FieldType;
+import io.cdap.plugin.salesforce.local.LocalSObject;
+import io.cdap.plugin.salesforce.local.LocalSalesforceServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link BulkV2Connection}.
+ */
+public class BulkV2ConnectionTest {
+
+  private static final String SOBJECT_NAME = "Paged_Account__c";
+
+  @Test
+  public void testGetInstanceUrl() {
+    Assert.assertEquals("https://na1.salesforce.com",
+                        BulkV2Connection.getInstanceUrl("https://na1.salesforce.com/services/Soap/u/45.0"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGetInstanceUrlInvalidEndpoint() {
+    BulkV2Connection.getInstanceUrl("https://na1.salesforce.com");
+  }
+
+  @Test
+  public void testQueryResultsArePaged() throws Exception {
+    try (LocalSalesforceServer server = new LocalSalesforceServer().start();
+         BulkV2Connection connection = createConnection(server, 10)) {
+      String jobId = connection.createQueryJob(String.format("SELECT Id, Name FROM %s", SOBJECT_NAME)).getId();
+      Assert.assertEquals(10, connection.awaitQueryJob(jobId).getNumberRecordsProcessed());
+
+      BulkV2Connection.ResultPage page = connection.getQueryResults(jobId, null, 4);
+      Assert.assertEquals(4, readRecords(page));
+      Assert.assertNotNull(page.getNextLocator());
+      page = connection.getQueryResults(jobId, page.getNextLocator(), 4);
+      Assert.assertEquals(4, readRecords(page));
+      Assert.assertNotNull(page.getNextLocator());
+      page = connection.getQueryResults(jobId, page.getNextLocator(), 4);
+      Assert.assertEquals(2, readRecords(page));
+      Assert.assertNull(page.getNextLocator());
+      Assert.assertEquals(10, server.getRecordsQueried());
+    }
+  }
+
+  @Test
+  public void testLastPageMayBeEmpty() throws Exception {
+    try (LocalSalesforceServer server = new LocalSalesforceServer().start();
+         BulkV2Connection connection = createConnection(server, 8)) {
+      String jobId = connection.createQueryJob(String.format("SELECT Id FROM %s", SOBJECT_NAME)).getId();
+      connection.awaitQueryJob(jobId);
+
+      BulkV2Connection.ResultPage page = connection.getQueryResults(jobId, null, 4);
+      Assert.assertEquals(4, readRecords(page));
+      page = connection.getQueryResults(jobId, page.getNextLocator(), 4);
+      Assert.assertEquals(4, readRecords(page));
+      // locator of a full page is returned even if there are no more records
+      Assert.assertNotNull(page.getNextLocator());
+      page = connection.getQueryResults(jobId, page.getNextLocator(), 4);
+      Assert.assertEquals(0, readRecords(page));
+      Assert.assertNull(page.getNextLocator());
+    }
+  }
+
+  private static BulkV2Connection createConnection(LocalSalesforceServer server, int records) throws Exception {
+    server.addSObject(SOBJECT_NAME, Collections.singletonList(LocalSObject.createField("Name", FieldType.string)),
+                      records);
+    return new BulkV2Connection(SalesforceConnectionUtil.getPartnerConnection(server.getCredentials()).getConfig(),
+                                SalesforceMetrics.NONE);
+  }
+
+  /**
+   * @return number of records in the page, excluding the header
+   */
+  private static int readRecords(BulkV2Connection.ResultPage page) throws IOException {
+    try (InputStream stream = page.getStream()) {
+      List<String> lines = CharStreams.readLines(new InputStreamReader(stream, StandardCharsets.UTF_8));
+      Assert.assertEquals("\"Id\"", lines.get(0).split(",")[0]);
+      return lines.size() - 1;
+    }
+  }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import com.sforce.soap.partner.DescribeSObjectResult;
+import com.sforce.soap.partner.Field;
+import com.sforce.soap.partner.FieldType;
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.ConnectorConfig;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Tests for {@link SObjectDescribeCache}.
+ */
+public class SObjectDescribeCacheTest {
+
+  private static final String ORG = "https://instance.salesforce.com";
+  private static final String USER = "user@example.com";
+  private static final long TTL = 1000;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AtomicLong time = new AtomicLong();
+  private final List<String> described = new ArrayList<>();
+
+  @Test
+  public void testDescribeResultIsCached() throws ConnectionException {
+    SObjectDescribeCache cache = new SObjectDescribeCache(TTL, 10, null, time::get);
+
+    Assert.assertEquals(Arrays.asList("Account", "Contact"), names(
+      cache.describe(ORG, USER, Arrays.asList("Account", "Contact"), this::describe, notModified())));
+    // sObject names are case-insensitive, only absent sObject is described
+    Assert.assertEquals(Arrays.asList("Lead", "Account"), names(
+      cache.describe(ORG, USER, Arrays.asList("Lead", "account"), this::describe, notModified())));
+    Assert.assertEquals(Arrays.asList("Account", "Contact", "Lead"), described);
+
+    // other orgs do not share describe results
+    cache.describe("https://other.salesforce.com", USER, Collections.singletonList("Account"), this::describe,
+                   notModified());
+    Assert.assertEquals(Arrays.asList("Account", "Contact", "Lead", "Account"), described);
+
+    // other users do not share describe results, since visible fields depend on the user profile
+    cache.describe(ORG, "other@example.com", Collections.singletonList("Account"), this::describe, notModified());
+    Assert.assertEquals(Arrays.asList("Account", "Contact", "Lead", "Account", "Account"), described);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() throws ConnectionException {
+    SObjectDescribeCache cache = new SObjectDescribeCache(TTL, 2, null, time::get);
+
+    cache.describe(ORG, USER, Arrays.asList("Account", "Contact"), this::describe, notModified());
+    cache.describe(ORG, USER, Collections.singletonList("Account"), this::describe, notModified());
+    cache.describe(ORG, USER, Collections.singletonList("Lead"), this::describe, notModified());
+    cache.describe(ORG, USER, Arrays.asList("Account", "Contact"), this::describe, notModified());
+
+    Assert.assertEquals(Arrays.asList("Account", "Contact", "Lead", "Contact"), described);
+  }
+
+  @Test
+  public void testExpiredResultIsRevalidated() throws ConnectionException {
+    SObjectDescribeCache cache = new SObjectDescribeCache(TTL, 10, null, time::get);
+    cache.describe(ORG, USER, Arrays.asList("Account", "Contact"), this::describe, notModified());
+
+    time.set(TTL);
+    Set<String> revalidated = ConcurrentHashMap.newKeySet();
+    cache.describe(ORG, USER, Arrays.asList("Account", "Contact"), this::describe, (sObject, timestamp) -> {
+      Assert.assertEquals(0, timestamp);
+      revalidated.add(sObject);
+      return sObject.equals("Contact");
+    });
+
+    Assert.assertEquals(new HashSet<>(Arrays.asList("Account", "Contact")), revalidated);
+    Assert.assertEquals(Arrays.asList("Account", "Contact", "Contact"), described);
+
+    // revalidated result is used for another TTL
+    time.set(TTL * 2 - 1);
+    cache.describe(ORG, USER, Collections.singletonList("Account"), this::describe, (sObject, timestamp) -> {
+      throw new AssertionError("Describe result must not be revalidated");
+    });
+  }
+
+  @Test
+  public void testExpiredResultsAreRevalidatedConcurrently() throws Exception {
+    SObjectDescribeCache cache = new SObjectDescribeCache(TTL, 100, null, time::get);
+    List<String> sObjects = IntStream.range(0, 8).mapToObj(i -> "Object" + i).collect(Collectors.toList());
+    cache.describe(ORG, USER, sObjects, this::describe, notModified());
+
+    time.set(TTL);
+    CountDownLatch concurrent = new CountDownLatch(2);
+    List<DescribeSObjectResult> results = cache.describe(ORG, USER, sObjects, this::describe, (sObject, timestamp) -> {
+      concurrent.countDown();
+      // fails if revalidations are sequential
+      Assert.assertTrue(concurrent.await(10, TimeUnit.SECONDS));
+      return false;
+    });
+
+    Assert.assertEquals(sObjects, names(results));
+    Assert.assertEquals(sObjects, described);
+  }
+
+  @Test
+  public void testManyExpiredResultsAreDescribedAgain() throws ConnectionException {
+    SObjectDescribeCache cache = new SObjectDescribeCache(TTL, 100, null, time::get);
+    List<String> sObjects = IntStream.range(0, 50).mapToObj(i -> "Object" + i).collect(Collectors.toList());
+    cache.describe(ORG, USER, sObjects, this::describe, notModified());
+
+    time.set(TTL);
+    List<DescribeSObjectResult> results = cache.describe(ORG, USER, sObjects, this::describe, (sObject, timestamp) -> {
+      throw new AssertionError("Describe result must not be revalidated");
+    });
+
+    Assert.assertEquals(sObjects, names(results));
+    Assert.assertEquals(sObjects.size() * 2, described.size());
+  }
+
+  @Test
+  public void testFailedRevalidationDescribesAgain() throws ConnectionException {
+    SObjectDescribeCache cache = new SObjectDescribeCache(TTL, 10, null, time::get);
+    cache.describe(ORG, USER, Collections.singletonList("Account"), this::describe, notModified());
+
+    time.set(TTL);
+    cache.describe(ORG, USER, Collections.singletonList("Account"), this::describe, (sObject, timestamp) -> {
+      throw new IllegalStateException("Unavailable");
+    });
+
+    Assert.assertEquals(Arrays.asList("Account", "Account"), described);
+  }
+
+  @Test
+  public void testDescribeResultIsStoredOnDisk() throws Exception {
+    File directory = temporaryFolder.newFolder();
+    new SObjectDescribeCache(TTL, 10, directory, time::get)
+      .describe(ORG, USER, Collections.singletonList("Account"), this::describe, notModified());
+
+    List<DescribeSObjectResult> results = new SObjectDescribeCache(TTL, 10, directory, time::get)
+      .describe(ORG, USER, Collections.singletonList("Account"), this::describe, notModified());
+
+    Assert.assertEquals(Collections.singletonList("Account"), described);
+    Field field = results.get(0).getFields()[0];
+    Assert.assertEquals("Name", field.getName());
+    Assert.assertEquals(FieldType.string, field.getType());
+  }
+
+  @Test
+  public void testDisabledCache() throws ConnectionException {
+    SObjectDescribeCache cache = new SObjectDescribeCache(0, 10, null, time::get);
+    cache.describe(ORG, USER, Collections.singletonList("Account"), this::describe, notModified());
+    cache.describe(ORG, USER, Collections.singletonList("Account"), this::describe, notModified());
+
+    Assert.assertEquals(Arrays.asList("Account", "Account"), described);
+  }
+
+  @Test
+  public void testSObjectsAreDescribedInConcurrentPartitions() throws ConnectionException {
+    ConnectorConfig connectorConfig = new ConnectorConfig();
+    connectorConfig.setServiceEndpoint("https://localhost/services/Soap/u/45.0");
+    PartnerConnection connection = Mockito.mock(PartnerConnection.class);
+    Mockito.when(connection.getConfig()).thenReturn(connectorConfig);
+    Mockito.when(connection.describeSObjects(Mockito.any(String[].class))).thenAnswer(invocation -> {
+      String[] sObjects = (String[]) invocation.getArguments()[0];
+      return describe(Arrays.asList(sObjects)).toArray(new DescribeSObjectResult[0]);
+    });
+
+    List<String> sObjects = IntStream.range(0, 250)
+      .mapToObj(i -> "Object" + i)
+      .collect(Collectors.toList());
+    List<DescribeSObjectResult> results = SObjectDescribeCache.describeSObjects(connection, sObjects);
+
+    Assert.assertEquals(sObjects, names(results));
+    Mockito.verify(connection, Mockito.times(3)).describeSObjects(Mockito.any(String[].class));
+  }
+
+  private List<DescribeSObjectResult> describe(List<String> sObjects) {
+    List<DescribeSObjectResult> results = new ArrayList<>();
+    for (String sObject : sObjects) {
+      // Salesforce returns sObject names in their original case
+      String name = sObject.substring(0, 1).toUpperCase() + sObject.substring(1).toLowerCase();
+      synchronized (described) {
+        described.add(name);
+      }
+
+      Field field = new Field();
+      field.setName("Name");
+      field.setType(FieldType.string);
+      DescribeSObjectResult result = new DescribeSObjectResult();
+      result.setName(name);
+      result.setFields(new Field[]{field});
+      results.add(result);
+    }
+    return results;
+  }
+
+  private static SObjectDescribeCache.RevalidateFunction notModified() {
+    return (sObject, timestamp) -> false;
+  }
+
+  private static List<String> names(List<DescribeSObjectResult> results) {
+    return results.stream().map(DescribeSObjectResult::getName).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import com.sforce.soap.partner.FieldType;
+import com.sforce.soap.partner.PartnerConnection;
+import io.cdap.plugin.salesforce.local.LocalSObject;
+import io.cdap.plugin.salesforce.local.LocalSalesforceServer;
+import org.awaitility.Awaitility;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for {@link SalesforceApiGovernor}.
+ */
+public class SalesforceApiGovernorTest {
+
+  private static final String INSTANCE_URL = "https://localhost";
+
+  @Test
+  public void testTokenBucket() {
+    AtomicLong clock = new AtomicLong();
+    SalesforceApiGovernor governor = governor(SalesforceApiGovernor.ReserveAction.THROTTLE, 0, clock);
+
+    Assert.assertEquals(0, governor.reserveToken(2));
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(500), governor.reserveToken(2));
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), governor.reserveToken(2));
+
+    // waiting requests get their tokens first, then the bucket holds up to a second of requests
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(3));
+    Assert.assertEquals(0, governor.reserveToken(2));
+    Assert.assertEquals(0, governor.reserveToken(2));
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(500), governor.reserveToken(2));
+  }
+
+  @Test
+  public void testLimitInfoHeader() {
+    SalesforceApiGovernor governor = governor(SalesforceApiGovernor.ReserveAction.THROTTLE, 0, new AtomicLong());
+    Assert.assertFalse(governor.isReserveReached());
+
+    governor.updateUsage("api-usage=950/1000, per-app-api-usage=17/250(appName=sample-app)");
+    Assert.assertTrue(governor.isReserveReached());
+
+    governor.updateUsage("api-usage=10/1000");
+    Assert.assertFalse(governor.isReserveReached());
+
+    // unexpected values are ignored
+    governor.updateUsage("api-usage=unknown");
+    Assert.assertFalse(governor.isReserveReached());
+  }
+
+  @Test
+  public void testFailFastWhenReserveIsReached() throws Exception {
+    SalesforceApiGovernor governor = governor(SalesforceApiGovernor.ReserveAction.FAIL, 0, new AtomicLong());
+    governor.updateUsage(900, 1000);
+    AtomicInteger calls = new AtomicInteger();
+    governor.call("test", SalesforceMetrics.NONE, calls::incrementAndGet);
+
+    // the call above is counted until the next usage report
+    Assert.assertTrue(governor.isReserveReached());
+    try {
+      governor.call("test", SalesforceMetrics.NONE, calls::incrementAndGet);
+      Assert.fail("Call was made below the reserve");
+    } catch (SalesforceApiLimitException e) {
+      Assert.assertEquals(1, calls.get());
+    }
+  }
+
+  @Test
+  public void testThrottleWhenReserveIsReached() throws Exception {
+    SalesforceApiGovernor governor = governor(SalesforceApiGovernor.ReserveAction.THROTTLE, 0, new AtomicLong());
+    governor.updateUsage(950, 1000);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 3; i++) {
+      governor.call("test", SalesforceMetrics.NONE, () -> null);
+    }
+    // the first call takes the token in the bucket, the others wait 100 and 200 milliseconds
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+  }
+
+  @Test
+  public void testLongRunningRequestsAreLimited() throws Exception {
+    SalesforceApiGovernor governor = governor(SalesforceApiGovernor.ReserveAction.THROTTLE, 2, new AtomicLong());
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    ExecutorService executor = Executors.newFixedThreadPool(6);
+    try {
+      List<Future<Object>> futures = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        futures.add(executor.submit(() -> governor.callLongRunning("test", SalesforceMetrics.NONE, () -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          TimeUnit.MILLISECONDS.sleep(50);
+          running.decrementAndGet();
+          return null;
+        })));
+      }
+      for (Future<Object> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals(2, maxRunning.get());
+  }
+
+  @Test
+  public void testLimitsAreReadFromRestResource() throws Exception {
+    try (LocalSalesforceServer server = new LocalSalesforceServer().start()) {
+      server.addSObject("Local_Account__c", Collections.singletonList(
+        LocalSObject.createField("Name", FieldType.string)), 10);
+      server.setApiRequestLimit(10);
+      PartnerConnection connection = SalesforceConnectionUtil.getPartnerConnection(server.getCredentials());
+      SalesforceApiGovernor governor = new SalesforceApiGovernor(
+        server.getInstanceUrl(), 0, 0, 10, SalesforceApiGovernor.ReserveAction.FAIL, 1, 0, System::nanoTime);
+
+      governor.refreshLimits(connection.getConfig());
+      Assert.assertEquals(1, server.getRequestCount("rest.limits"));
+      Assert.assertFalse(governor.isReserveReached());
+
+      for (int i = 0; i < 8; i++) {
+        governor.callSoap(connection, "soap.query", SalesforceMetrics.NONE,
+                          () -> connection.query("SELECT Id FROM Local_Account__c LIMIT 1"));
+      }
+      governor.refreshLimits(connection.getConfig());
+      Assert.assertTrue(governor.isReserveReached());
+    }
+  }
+
+  @Test
+  public void testLimitsAreRefreshedInBackgroundOnlyIfReserveIsSet() throws Exception {
+    try (LocalSalesforceServer server = new LocalSalesforceServer().start()) {
+      server.addSObject("Local_Account__c", Collections.singletonList(
+        LocalSObject.createField("Name", FieldType.string)), 10);
+      PartnerConnection connection = SalesforceConnectionUtil.getPartnerConnection(server.getCredentials());
+      SalesforceApiGovernor noReserve = new SalesforceApiGovernor(
+        server.getInstanceUrl(), 0, 0, 0, SalesforceApiGovernor.ReserveAction.FAIL, 1, 1, System::nanoTime);
+      noReserve.connectorConfig = connection.getConfig();
+      noReserve.callSoap(connection, "soap.query", SalesforceMetrics.NONE,
+                         () -> connection.query("SELECT Id FROM Local_Account__c LIMIT 1"));
+      Assert.assertEquals(0, server.getRequestCount("rest.limits"));
+
+      SalesforceApiGovernor withReserve = new SalesforceApiGovernor(
+        server.getInstanceUrl(), 0, 0, 10, SalesforceApiGovernor.ReserveAction.FAIL, 1, 1, System::nanoTime);
+      withReserve.connectorConfig = connection.getConfig();
+      withReserve.callSoap(connection, "soap.query", SalesforceMetrics.NONE,
+                           () -> connection.query("SELECT Id FROM Local_Account__c LIMIT 1"));
+      Awaitility.await()
+        .atMost(10, TimeUnit.SECONDS)
+        .untilAsserted(() -> Assert.assertTrue(server.getRequestCount("rest.limits") > 0));
+    }
+  }
+
+  private static SalesforceApiGovernor governor(SalesforceApiGovernor.ReserveAction reserveAction,
+                                                int maxLongRunningRequests, AtomicLong clock) {
+    return new SalesforceApiGovernor(INSTANCE_URL, 0, maxLongRunningRequests, 10, reserveAction, 10, 0,
+                                     clock::get);
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce;
+
+import com.google.common.io.ByteStreams;
+import com.sforce.async.BatchInfo;
+import io.cdap.cdap.etl.api.StageContext;
+import io.cdap.cdap.etl.api.StageMetrics;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link SalesforceMetrics}.
+ */
+public class SalesforceMetricsTest {
+
+  private static final String STAGE = "default:pipeline:1000:stage";
+
+  @After
+  public void tearDown() {
+    SalesforceMetrics.clear();
+  }
+
+  @Test
+  public void testCountersAreEmittedForStageAndSObject() {
+    SalesforceMetrics metrics = SalesforceMetrics.forKey(STAGE);
+    metrics.forSObject("Account").count(SalesforceMetrics.BYTES_DOWNLOADED, 100);
+    metrics.forSObject("Contact").count(SalesforceMetrics.BYTES_DOWNLOADED, 50);
+
+    Map<String, Long> counts = emit(metrics);
+    Assert.assertEquals(150L, (long) counts.get(SalesforceMetrics.BYTES_DOWNLOADED));
+    Assert.assertEquals(100L, (long) counts.get(SalesforceMetrics.BYTES_DOWNLOADED + ".Account"));
+    Assert.assertEquals(50L, (long) counts.get(SalesforceMetrics.BYTES_DOWNLOADED + ".Contact"));
+  }
+
+  @Test
+  public void testOnlyDeltasAreEmitted() {
+    SalesforceMetrics metrics = SalesforceMetrics.forKey(STAGE);
+    metrics.count(SalesforceMetrics.BATCHES_CREATED, 3);
+    Assert.assertEquals(3L, (long) emit(metrics).get(SalesforceMetrics.BATCHES_CREATED));
+
+    Assert.assertNull(emit(metrics).get(SalesforceMetrics.BATCHES_CREATED));
+
+    // registry is shared by all instances of the stage
+    SalesforceMetrics.forKey(STAGE).count(SalesforceMetrics.BATCHES_CREATED, 2);
+    Assert.assertEquals(2L, (long) emit(metrics).get(SalesforceMetrics.BATCHES_CREATED));
+  }
+
+  @Test
+  public void testTimersAreEmittedInMillis() {
+    SalesforceMetrics metrics = SalesforceMetrics.forKey(STAGE);
+    SalesforceMetrics.Meter timer = metrics.timer(SalesforceMetrics.PARSE_MS);
+    timer.add(TimeUnit.MICROSECONDS.toNanos(1500));
+    Assert.assertEquals(1L, (long) emit(metrics).get(SalesforceMetrics.PARSE_MS));
+
+    // remainder of the previous emission is not lost
+    timer.add(TimeUnit.MICROSECONDS.toNanos(1500));
+    Assert.assertEquals(2L, (long) emit(metrics).get(SalesforceMetrics.PARSE_MS));
+  }
+
+  @Test
+  public void testApiCallsAreCountedByEndpoint() {
+    SalesforceMetrics metrics = SalesforceMetrics.forKey(STAGE).forSObject("Account");
+    metrics.apiCall("bulk.createJob");
+    metrics.apiCall("bulk.createBatch");
+    metrics.apiCall("bulk.createBatch");
+
+    Map<String, Long> counts = emit(metrics);
+    Assert.assertEquals(3L, (long) counts.get(SalesforceMetrics.API_CALLS));
+    Assert.assertEquals(1L, (long) counts.get(SalesforceMetrics.API_CALLS + ".bulk.createJob"));
+    Assert.assertEquals(2L, (long) counts.get(SalesforceMetrics.API_CALLS + ".bulk.createBatch"));
+    Assert.assertNull(counts.get(SalesforceMetrics.API_CALLS + ".Account"));
+  }
+
+  @Test
+  public void testBatchQueuedAndProcessingTime() {
+    Calendar created = Calendar.getInstance();
+    created.setTimeInMillis(10_000);
+    Calendar modified = Calendar.getInstance();
+    modified.setTimeInMillis(17_000);
+    BatchInfo batchInfo = new BatchInfo();
+    batchInfo.setCreatedDate(created);
+    batchInfo.setSystemModstamp(modified);
+    batchInfo.setTotalProcessingTime(2_000);
+
+    SalesforceMetrics metrics = SalesforceMetrics.forKey(STAGE);
+    metrics.batchCompleted(batchInfo);
+
+    Map<String, Long> counts = emit(metrics);
+    Assert.assertEquals(5_000L, (long) counts.get(SalesforceMetrics.BATCH_QUEUED_MS));
+    Assert.assertEquals(2_000L, (long) counts.get(SalesforceMetrics.BATCH_PROCESSING_MS));
+  }
+
+  @Test
+  public void testMeteredInputStream() throws Exception {
+    SalesforceMetrics metrics = SalesforceMetrics.forKey(STAGE);
+    try (InputStream stream = new MeteredInputStream(new ByteArrayInputStream(new byte[1000]), metrics)) {
+      Assert.assertEquals(1000, ByteStreams.toByteArray(stream).length);
+    }
+    Assert.assertEquals(1000L, (long) emit(metrics).get(SalesforceMetrics.BYTES_DOWNLOADED));
+  }
+
+  @Test
+  public void testMetricsWithoutStage() {
+    Assert.assertSame(SalesforceMetrics.NONE, SalesforceMetrics.of(new Configuration()));
+
+    Configuration conf = new Configuration();
+    conf.set(SalesforceConstants.CONFIG_METRICS_KEY, STAGE);
+    SalesforceMetrics.of(conf).count(SalesforceMetrics.RECORDS, 1);
+    Assert.assertEquals(1L, (long) emit(SalesforceMetrics.forKey(STAGE)).get(SalesforceMetrics.RECORDS));
+  }
+
+  @Test
+  public void testEmitWithoutBoundStageMetrics() {
+    SalesforceMetrics metrics = SalesforceMetrics.forKey(STAGE);
+    metrics.count(SalesforceMetrics.RECORDS, 1);
+    // values are kept until stage metrics are available
+    metrics.emit();
+
+    StageMetrics stageMetrics = Mockito.mock(StageMetrics.class);
+    metrics.bind(stageMetrics);
+    metrics.emit();
+    Mockito.verify(stageMetrics).count(SalesforceMetrics.RECORDS, 1);
+  }
+
+  @Test
+  public void testRunsOfStageDoNotShareRegistry() {
+    StageContext firstRun = mockContext(1000);
+    StageContext secondRun = mockContext(2000);
+    Assert.assertNotEquals(SalesforceMetrics.getKey(firstRun), SalesforceMetrics.getKey(secondRun));
+
+    SalesforceMetrics.forStage(firstRun).count(SalesforceMetrics.RECORDS, 1);
+    SalesforceMetrics.forStage(secondRun).count(SalesforceMetrics.RECORDS, 2);
+    Assert.assertEquals(1L, (long) emit(SalesforceMetrics.forStage(firstRun)).get(SalesforceMetrics.RECORDS));
+    Assert.assertEquals(2L, (long) emit(SalesforceMetrics.forStage(secondRun)).get(SalesforceMetrics.RECORDS));
+  }
+
+  @Test
+  public void testRegistryIsDroppedWhenReleasedByAllInstances() {
+    StageContext context = mockContext(1000);
+    String key = SalesforceMetrics.getKey(context);
+    SalesforceMetrics first = SalesforceMetrics.forStage(context);
+    SalesforceMetrics second = SalesforceMetrics.forStage(context);
+    first.bind(context.getMetrics());
+    second.bind(context.getMetrics());
+    first.count(SalesforceMetrics.RECORDS, 3);
+
+    first.release();
+    Mockito.verify(context.getMetrics()).count(SalesforceMetrics.RECORDS, 3);
+    Assert.assertTrue(SalesforceMetrics.isRegistered(key));
+    second.release();
+    Assert.assertFalse(SalesforceMetrics.isRegistered(key));
+  }
+
+  @Test
+  public void testRegistryIsDroppedWhenRunIsFinished() {
+    StageContext context = mockContext(1000);
+    String key = SalesforceMetrics.getKey(context);
+    SalesforceMetrics.forStage(context).count(SalesforceMetrics.BATCHES_CREATED, 2);
+
+    SalesforceMetrics.finishRun(context);
+    Mockito.verify(context.getMetrics()).count(SalesforceMetrics.BATCHES_CREATED, 2);
+    Assert.assertFalse(SalesforceMetrics.isRegistered(key));
+  }
+
+  private static StageContext mockContext(long logicalStartTime) {
+    StageContext context = Mockito.mock(StageContext.class);
+    StageMetrics stageMetrics = Mockito.mock(StageMetrics.class);
+    Mockito.when(context.getNamespace()).thenReturn("default");
+    Mockito.when(context.getPipelineName()).thenReturn("pipeline");
+    Mockito.when(context.getLogicalStartTime()).thenReturn(logicalStartTime);
+    Mockito.when(context.getStageName()).thenReturn("stage");
+    Mockito.when(context.getMetrics()).thenReturn(stageMetrics);
+    return context;
+  }
+
+  /**
+   * Emits metrics into a mock and returns emitted counts by metric name.
+   */
+  private static Map<String, Long> emit(SalesforceMetrics metrics) {
+    Map<String, Long> counts = new HashMap<>();
+    StageMetrics stageMetrics = Mockito.mock(StageMetrics.class);
+    Mockito.doAnswer(invocation -> {
+      Object[] arguments = invocation.getArguments();
+      counts.merge((String) arguments[0], ((Integer) arguments[1]).longValue(), Long::sum);
+      return null;
+    }).when(stageMetrics).count(Mockito.anyString(), Mockito.anyInt());
+    metrics.emit(stageMetrics);
+    return counts;
+  }
+}
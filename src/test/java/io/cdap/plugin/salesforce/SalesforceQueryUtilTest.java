@@ -23,6 +23,7 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -119,6 +120,23 @@ public class SalesforceQueryUtilTest {
                         sObjectQuery);
   }
 
+  @Test
+  public void testCreateSObjectQueryWithWatermarkFieldFilter() {
+    List<String> fields = Arrays.asList("Id", "Name", "SomeField");
+    String sObjectName = "sObjectName";
+    SObjectFilterDescriptor filterDescriptor = SObjectFilterDescriptor.interval(
+      "SystemModstamp",
+      ZonedDateTime.parse("2019-04-12T23:23:23Z", DateTimeFormatter.ISO_DATE_TIME),
+      ZonedDateTime.parse("2019-04-22T01:01:01Z", DateTimeFormatter.ISO_DATE_TIME));
+
+    String sObjectQuery = SalesforceQueryUtil.createSObjectQuery(fields, sObjectName, filterDescriptor);
+
+    Assert.assertNotNull(sObjectQuery);
+    Assert.assertEquals("SELECT Id,Name,SomeField FROM sObjectName WHERE " +
+                          "SystemModstamp>=2019-04-12T23:23:23Z AND SystemModstamp<2019-04-22T01:01:01Z",
+                        sObjectQuery);
+  }
+
 
   @Test
   public void testCreateSObjectQueryWithDurationOnly() {
@@ -227,4 +245,89 @@ public class SalesforceQueryUtilTest {
 
     Assert.assertEquals("SELECT Id " + fromClause, sObjectIdQuery);
   }
+
+  @Test
+  public void testCreateSObjectCountQuery() {
+    String selectClause = "SELECT Id,Name,SomeField ";
+    String fromClause = "FROM sObjectName WHERE LastModifiedDate>=2019-04-12T23:23:23Z";
+    String query = selectClause + fromClause;
+
+    String sObjectCountQuery = SalesforceQueryUtil.createSObjectCountQuery(query);
+
+    Assert.assertEquals("SELECT COUNT() " + fromClause, sObjectCountQuery);
+  }
+
+  @Test
+  public void testCreateSObjectSortedIdQuery() {
+    String query = "SELECT Id,Name FROM sObjectName WHERE Name LIKE 'A%'";
+
+    Assert.assertEquals("SELECT Id FROM sObjectName WHERE Name LIKE 'A%' ORDER BY Id",
+                        SalesforceQueryUtil.createSObjectSortedIdQuery(query));
+  }
+
+  @Test
+  public void testCreateSObjectIdRangeQuery() {
+    String query = "SELECT Id,Name FROM sObjectName";
+
+    Assert.assertEquals("SELECT Id,Name FROM sObjectName WHERE Id < '0062'",
+                        SalesforceQueryUtil.createSObjectIdRangeQuery(query, null, "0062"));
+    Assert.assertEquals("SELECT Id,Name FROM sObjectName WHERE Id >= '0061' AND Id < '0062'",
+                        SalesforceQueryUtil.createSObjectIdRangeQuery(query, "0061", "0062"));
+    Assert.assertEquals("SELECT Id,Name FROM sObjectName WHERE Id >= '0062'",
+                        SalesforceQueryUtil.createSObjectIdRangeQuery(query, "0062", null));
+  }
+
+  @Test
+  public void testCreateSObjectIdRangeQueryWithFilter() {
+    String query = "SELECT Id,Name FROM sObjectName WHERE Name = 'A' OR Name = 'B'";
+
+    Assert.assertEquals("SELECT Id,Name FROM sObjectName WHERE (Name = 'A' OR Name = 'B') AND Id >= '0061'",
+                        SalesforceQueryUtil.createSObjectIdRangeQuery(query, "0061", null));
+  }
+
+  @Test
+  public void testCreateSObjectTimeWindowQuery() {
+    String query = "SELECT Id,Name FROM sObjectName WHERE LastModifiedDate>=2019-04-12T23:23:23Z";
+    ZonedDateTime from = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+    ZonedDateTime to = ZonedDateTime.of(2021, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    Assert.assertEquals("SELECT Id,Name FROM sObjectName WHERE (LastModifiedDate>=2019-04-12T23:23:23Z) "
+                          + "AND LastModifiedDate>=2020-01-01T00:00:00Z AND LastModifiedDate<2021-01-01T00:00:00Z",
+                        SalesforceQueryUtil.createSObjectTimeWindowQuery(
+                          query, SObjectFilterDescriptor.interval(from, to)));
+    Assert.assertEquals("SELECT Id,Name FROM sObjectName WHERE (LastModifiedDate>=2019-04-12T23:23:23Z) "
+                          + "AND LastModifiedDate<2021-01-01T00:00:00Z",
+                        SalesforceQueryUtil.createSObjectTimeWindowQuery(
+                          query, SObjectFilterDescriptor.interval(null, to)));
+    Assert.assertEquals(query, SalesforceQueryUtil.createSObjectTimeWindowQuery(query, SObjectFilterDescriptor.noOp()));
+  }
+
+  @Test
+  public void testCreateSObjectFieldGroupQueries() {
+    List<String> fields = IntStream.range(0, 2000)
+      .mapToObj(i -> "Field_" + i + "__c")
+      .collect(Collectors.toList());
+    String fromClause = "FROM sObjectName WHERE LastModifiedDate>=2019-04-12T23:23:23Z";
+    String query = "SELECT Name," + String.join(",", fields) + ",Id " + fromClause;
+
+    List<String> groupQueries = SalesforceQueryUtil.createSObjectFieldGroupQueries(query, true);
+
+    Assert.assertTrue(groupQueries.size() > 1);
+    List<String> groupFields = new ArrayList<>();
+    for (String groupQuery : groupQueries) {
+      Assert.assertTrue(SalesforceQueryUtil.isQueryUnderLengthLimit(groupQuery));
+      Assert.assertTrue(groupQuery.startsWith("SELECT Id,"));
+      Assert.assertTrue(groupQuery.endsWith(" " + fromClause + " ORDER BY Id"));
+      String selectClause = groupQuery.substring("SELECT Id,".length(), groupQuery.indexOf(" FROM "));
+      groupFields.addAll(Arrays.asList(selectClause.split(",")));
+    }
+    // every field is selected once, Id is selected by every query
+    List<String> expected = new ArrayList<>();
+    expected.add("Name");
+    expected.addAll(fields);
+    Assert.assertEquals(expected, groupFields);
+
+    Assert.assertEquals(groupQueries.get(0).replace(" ORDER BY Id", ""),
+                        SalesforceQueryUtil.createSObjectFieldGroupQueries(query, false).get(0));
+  }
 }
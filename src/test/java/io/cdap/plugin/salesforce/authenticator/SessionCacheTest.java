@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.salesforce.authenticator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link SessionCache}.
+ */
+public class SessionCacheTest {
+
+  private static final AuthenticatorCredentials CREDENTIALS =
+    new AuthenticatorCredentials("user", "password", "key", "secret", "https://login.salesforce.com");
+
+  @Test
+  public void testSessionIsShared() {
+    AtomicInteger logins = new AtomicInteger();
+    SessionCache sessionCache = new SessionCache(credentials -> session("token" + logins.incrementAndGet()));
+
+    Assert.assertEquals("token1", sessionCache.getSession(CREDENTIALS).getAccessToken());
+    Assert.assertEquals("token1", sessionCache.getSession(copy(CREDENTIALS)).getAccessToken());
+    Assert.assertEquals(1, logins.get());
+
+    AuthenticatorCredentials otherCredentials =
+      new AuthenticatorCredentials("other", "password", "key", "secret", "https://login.salesforce.com");
+    Assert.assertEquals("token2", sessionCache.getSession(otherCredentials).getAccessToken());
+  }
+
+  @Test
+  public void testExpiredSessionIsRenewedOnce() {
+    AtomicInteger logins = new AtomicInteger();
+    SessionCache sessionCache = new SessionCache(credentials -> session("token" + logins.incrementAndGet()));
+    sessionCache.getSession(CREDENTIALS);
+
+    Assert.assertEquals("token2", sessionCache.renewSession(CREDENTIALS, "token1").getAccessToken());
+    // session was already renewed by another connection
+    Assert.assertEquals("token2", sessionCache.renewSession(CREDENTIALS, "token1").getAccessToken());
+    Assert.assertEquals("token2", sessionCache.getSession(CREDENTIALS).getAccessToken());
+    Assert.assertEquals(2, logins.get());
+  }
+
+  @Test
+  public void testPassedSessionIsReused() {
+    AtomicInteger logins = new AtomicInteger();
+    SessionCache sessionCache = new SessionCache(credentials -> session("token" + logins.incrementAndGet()));
+
+    sessionCache.putSessionIfAbsent(CREDENTIALS, session("driver"));
+    Assert.assertEquals("driver", sessionCache.getSession(CREDENTIALS).getAccessToken());
+    Assert.assertEquals(0, logins.get());
+
+    // renewed session is not replaced by the expired session passed again
+    sessionCache.renewSession(CREDENTIALS, "driver");
+    sessionCache.putSessionIfAbsent(CREDENTIALS, session("driver"));
+    Assert.assertEquals("token1", sessionCache.getSession(CREDENTIALS).getAccessToken());
+  }
+
+  @Test
+  public void testFailedLoginIsNotCached() {
+    AtomicInteger logins = new AtomicInteger();
+    SessionCache sessionCache = new SessionCache(credentials -> {
+      if (logins.incrementAndGet() == 1) {
+        throw new IllegalArgumentException("Cannot authenticate");
+      }
+      return session("token");
+    });
+
+    try {
+      sessionCache.getSession(CREDENTIALS);
+      Assert.fail("Expected login to fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    Assert.assertEquals("token", sessionCache.getSession(CREDENTIALS).getAccessToken());
+  }
+
+  private static AuthResponse session(String accessToken) {
+    return new AuthResponse(accessToken, "https://instance.salesforce.com", null, null, null, null, null);
+  }
+
+  private static AuthenticatorCredentials copy(AuthenticatorCredentials credentials) {
+    return new AuthenticatorCredentials(credentials.getUsername(), credentials.getPassword(),
+                                        credentials.getConsumerKey(), credentials.getConsumerSecret(),
+                                        credentials.getLoginUrl());
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.benchmark;
+
+import com.google.common.base.Strings;
+import com.sforce.soap.partner.Field;
+import com.sforce.soap.partner.FieldType;
+import com.sforce.soap.partner.sobject.SObject;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SObjectsDescribeResult;
+import io.cdap.plugin.salesforce.SalesforceQueryUtil;
+import io.cdap.plugin.salesforce.SalesforceSchemaUtil;
+import io.cdap.plugin.salesforce.plugin.sink.batch.CSVRecord;
+import io.cdap.plugin.salesforce.plugin.source.batch.MapToRecordTransformer;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates synthetic Salesforce data for benchmarks. Data is generated from describe-like field metadata,
+ * so that all record paths work with the same fields, schema and values of the chosen {@link Profile}.
+ */
+public class BenchmarkData {
+
+  public static final String SOBJECT_NAME = "Benchmark__c";
+
+  private static final int LONG_TEXT_LENGTH = 32 * 1024;
+  private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+  /**
+   * Shapes of benchmarked sObjects.
+   */
+  public enum Profile {
+    /**
+     * Few fields of the most common types.
+     */
+    NARROW,
+    /**
+     * Hundreds of fields, query selecting all of them exceeds SOQL length limit.
+     */
+    WIDE,
+    /**
+     * Mostly date, datetime and time fields, which are the most expensive to convert.
+     */
+    DATE_HEAVY,
+    /**
+     * Few long text area fields with values close to their max length.
+     */
+    LONG_TEXT
+  }
+
+  private final List<Field> fields;
+  private final SObjectDescriptor sObjectDescriptor;
+  private final Schema schema;
+
+  public BenchmarkData(Profile profile) {
+    this.fields = createFields(profile);
+    Map<String, Field> fieldsMap = new LinkedHashMap<>();
+    fields.forEach(field -> fieldsMap.put(field.getName(), field));
+    SObjectsDescribeResult describeResult =
+      SObjectsDescribeResult.of(Collections.singletonMap(SOBJECT_NAME, fieldsMap));
+    this.sObjectDescriptor = SObjectDescriptor.fromDescribeResult(SOBJECT_NAME, describeResult,
+                                                                  Collections.emptySet());
+    this.schema = SalesforceSchemaUtil.getSchemaWithFields(sObjectDescriptor, describeResult);
+  }
+
+  public List<Field> getFields() {
+    return Collections.unmodifiableList(fields);
+  }
+
+  public SObjectDescriptor getSObjectDescriptor() {
+    return sObjectDescriptor;
+  }
+
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * @return query selecting all fields of the sObject
+   */
+  public String getQuery() {
+    return SalesforceQueryUtil.createSObjectQuery(sObjectDescriptor.getFieldsNames(), SOBJECT_NAME,
+                                                  SObjectFilterDescriptor.noOp());
+  }
+
+  /**
+   * Returns field values of the row as they are received from Salesforce.
+   *
+   * @param row row number
+   * @return map of field names and values
+   */
+  public Map<String, String> getValues(int row) {
+    Map<String, String> values = new LinkedHashMap<>();
+    for (Field field : fields) {
+      values.put(field.getName(), getValue(field, row));
+    }
+    return values;
+  }
+
+  /**
+   * @return bulk query result csv with header, all values are quoted the same way as by Salesforce
+   */
+  public byte[] getBulkCsv(int rows) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (CSVPrinter printer = new CSVPrinter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8),
+                                             CSVFormat.DEFAULT.withQuoteMode(QuoteMode.ALL))) {
+      printer.printRecord(sObjectDescriptor.getFieldsNames());
+      for (int i = 0; i < rows; i++) {
+        printer.printRecord(getValues(i).values());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return outputStream.toByteArray();
+  }
+
+  public List<CSVRecord> getCSVRecords(int rows) {
+    List<String> columns = sObjectDescriptor.getFieldsNames();
+    List<CSVRecord> records = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++) {
+      records.add(new CSVRecord(columns, new ArrayList<>(getValues(i).values())));
+    }
+    return records;
+  }
+
+  public List<Map<String, String>> getMaps(int rows) {
+    List<Map<String, String>> maps = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++) {
+      maps.add(getValues(i));
+    }
+    return maps;
+  }
+
+  /**
+   * @return SOAP API sObjects, values are kept as strings the same way as they are received from Salesforce
+   */
+  public List<SObject> getSObjects(int rows) {
+    List<SObject> sObjects = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++) {
+      SObject sObject = new SObject();
+      sObject.setType(SOBJECT_NAME);
+      getValues(i).forEach(sObject::setField);
+      sObjects.add(sObject);
+    }
+    return sObjects;
+  }
+
+  public List<StructuredRecord> getStructuredRecords(int rows) {
+    MapToRecordTransformer transformer = new MapToRecordTransformer();
+    List<StructuredRecord> records = new ArrayList<>(rows);
+    for (Map<String, String> values : getMaps(rows)) {
+      records.add(transformer.transform(schema, values));
+    }
+    return records;
+  }
+
+  private static String getValue(Field field, int row) {
+    switch (field.getType()) {
+      case id:
+        return String.format("a0B%015d", row);
+      case _boolean:
+        return String.valueOf(row % 2 == 0);
+      case _int:
+        return String.valueOf(row);
+      case _double:
+      case currency:
+      case percent:
+        return String.valueOf(row * 1.25);
+      case date:
+        return LocalDate.ofEpochDay(17_000 + row % 1_000).toString();
+      case datetime:
+        return Instant.ofEpochMilli(1_550_000_000_000L + row * 1_000L).toString();
+      case time:
+        return LocalTime.ofSecondOfDay(row % 86_400).format(TIME_FORMATTER);
+      case textarea:
+        return Strings.padEnd("Long text, with \"quotes\" and ünïcödé " + row, field.getLength(), 'x');
+      default:
+        return field.getName() + " value " + row;
+    }
+  }
+
+  private static List<Field> createFields(Profile profile) {
+    List<Field> fields = new ArrayList<>();
+    fields.add(createField("Id", FieldType.id, 18, false));
+    switch (profile) {
+      case NARROW:
+        fields.add(createField("Name", FieldType.string, 80, false));
+        fields.add(createField("IsActive__c", FieldType._boolean, 0, false));
+        fields.add(createField("Amount__c", FieldType.currency, 0, true));
+        fields.add(createField("Quantity__c", FieldType._int, 0, true));
+        fields.add(createField("Probability__c", FieldType.percent, 0, true));
+        fields.add(createField("CloseDate__c", FieldType.date, 0, true));
+        fields.add(createField("LastModifiedDate", FieldType.datetime, 0, false));
+        fields.add(createField("Stage__c", FieldType.picklist, 40, true));
+        fields.add(createField("Email__c", FieldType.email, 80, true));
+        break;
+      case WIDE:
+        FieldType[] types = {FieldType.string, FieldType._double, FieldType._boolean, FieldType.date,
+          FieldType.datetime, FieldType._int, FieldType.picklist};
+        for (int i = 0; i < 1200; i++) {
+          FieldType type = types[i % types.length];
+          fields.add(createField("Wide_Field_" + i + "__c", type, 255, true));
+        }
+        break;
+      case DATE_HEAVY:
+        FieldType[] dateTypes = {FieldType.date, FieldType.datetime, FieldType.time};
+        for (int i = 0; i < 30; i++) {
+          fields.add(createField("Date_Field_" + i + "__c", dateTypes[i % dateTypes.length], 0, true));
+        }
+        break;
+      case LONG_TEXT:
+        fields.add(createField("Name", FieldType.string, 80, false));
+        for (int i = 0; i < 4; i++) {
+          fields.add(createField("Long_Text_" + i + "__c", FieldType.textarea, LONG_TEXT_LENGTH, true));
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported profile: " + profile);
+    }
+    return fields;
+  }
+
+  private static Field createField(String name, FieldType type, int length, boolean nillable) {
+    Field field = new Field();
+    field.setName(name);
+    field.setType(type);
+    field.setLength(length);
+    field.setNillable(nillable);
+    return field;
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.salesforce.benchmark;
+
+import com.google.common.io.ByteStreams;
+import io.cdap.plugin.salesforce.plugin.sink.batch.CSVBuffer;
+import io.cdap.plugin.salesforce.plugin.sink.batch.CSVRecord;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding of a full sink batch by {@link CSVBuffer} with the previous approach,
+ * where every record was printed by {@link CSVPrinter} twice (to measure its size and to buffer it),
+ * flushed after every record and copied before upload.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CSVBufferBenchmark {
+
+  private static final int RECORDS_PER_BATCH = 10_000;
+  private static final CSVFormat LEGACY_FORMAT = CSVFormat.DEFAULT
+    .withHeader()
+    .withQuoteMode(QuoteMode.ALL)
+    .withAllowMissingColumnNames(false);
+
+  private List<CSVRecord> records;
+  private CSVBuffer buffer;
+
+  @Setup
+  public void setup() {
+    List<String> columns = Arrays.asList("Name", "Description", "AnnualRevenue", "Phone", "BillingCity");
+    records = new ArrayList<>(RECORDS_PER_BATCH);
+    for (int i = 0; i < RECORDS_PER_BATCH; i++) {
+      records.add(new CSVRecord(columns, Arrays.asList(
+        "Account " + i, "Description, with \"quotes\" and ünïcödé " + i, String.valueOf(i * 1000.5),
+        "+1 555 0100", "San Francisco")));
+    }
+    buffer = new CSVBuffer(true);
+  }
+
+  @Benchmark
+  public long pooledBuffer() throws IOException {
+    buffer.reset();
+    for (CSVRecord record : records) {
+      buffer.write(record);
+    }
+    try (InputStream inputStream = buffer.getInputStream()) {
+      return ByteStreams.exhaust(inputStream);
+    }
+  }
+
+  @Benchmark
+  public long legacyPrinter() throws IOException {
+    ByteArrayOutputStream batchStream = new ByteArrayOutputStream();
+    ByteArrayOutputStream sizeCheckStream = new ByteArrayOutputStream();
+    CSVPrinter batchPrinter = new CSVPrinter(new OutputStreamWriter(batchStream, StandardCharsets.UTF_8),
+                                             LEGACY_FORMAT);
+    batchPrinter.printRecord(records.get(0).getColumnNames());
+    for (CSVRecord record : records) {
+      sizeCheckStream.reset();
+      CSVPrinter sizeCheckPrinter = new CSVPrinter(new OutputStreamWriter(sizeCheckStream, StandardCharsets.UTF_8),
+                                                   LEGACY_FORMAT);
+      sizeCheckPrinter.printRecord(record);
+      sizeCheckPrinter.flush();
+
+      batchPrinter.printRecord(record);
+      batchPrinter.flush();
+    }
+    return ByteStreams.exhaust(new ByteArrayInputStream(batchStream.toByteArray()));
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.benchmark;
+
+import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.parser.QueryPlan;
+import io.cdap.plugin.salesforce.parser.SalesforceQueryParser;
+import io.cdap.plugin.salesforce.parser.SalesforceQueryVisitor;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import soql.SOQLLexer;
+import soql.SOQLParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares planning of a query by a single SLL-first parse, with and without the plan cache,
+ * with the previous approach, where the query was parsed with full LL prediction for the descriptor,
+ * from statement and restriction check separately.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryParserBenchmark {
+
+  /**
+   * Number of query fields, 1500 fields make a query wider than the SOQL length limit.
+   */
+  @Param({"20", "1500"})
+  private int fieldsCount;
+
+  private String query;
+
+  @Setup
+  public void setup() {
+    List<String> fields = new ArrayList<>();
+    for (int i = 0; i < fieldsCount; i++) {
+      fields.add(i % 5 == 0 ? "Account.Custom_Field_" + i + "__c" : "Custom_Field_" + i + "__c");
+    }
+    query = String.format("SELECT %s FROM Contact WHERE LastModifiedDate >= 2019-01-01T00:00:00Z "
+                            + "AND Name LIKE 'A%%' ORDER BY Name", String.join(", ", fields));
+  }
+
+  @Benchmark
+  public void legacyParses(Blackhole blackhole) {
+    blackhole.consume(new SalesforceQueryVisitor().visit(parseLL(query).statement()));
+    blackhole.consume(new SalesforceQueryVisitor.FromStatementVisitor().visit(parseLL(query).statement()));
+    blackhole.consume(new SalesforceQueryVisitor.RestrictedQueryVisitor().visit(parseLL(query).statement()));
+  }
+
+  @Benchmark
+  public void singleParse(Blackhole blackhole) {
+    consume(SalesforceQueryParser.parse(query), blackhole);
+  }
+
+  @Benchmark
+  public void cachedPlan(Blackhole blackhole) {
+    consume(SalesforceQueryParser.getQueryPlan(query), blackhole);
+  }
+
+  private static void consume(QueryPlan queryPlan, Blackhole blackhole) {
+    SObjectDescriptor descriptor = queryPlan.getDescriptor();
+    blackhole.consume(descriptor);
+    blackhole.consume(queryPlan.getFromStatement());
+    blackhole.consume(queryPlan.isRestricted());
+  }
+
+  private static SOQLParser parseLL(String query) {
+    SOQLLexer lexer = new SOQLLexer(CharStreams.fromString(query));
+    lexer.removeErrorListeners();
+    SOQLParser parser = new SOQLParser(new CommonTokenStream(lexer));
+    parser.removeErrorListeners();
+    return parser;
+  }
+}
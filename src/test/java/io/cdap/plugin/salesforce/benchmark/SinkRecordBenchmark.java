@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.benchmark;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.plugin.salesforce.plugin.sink.batch.CSVBuffer;
+import io.cdap.plugin.salesforce.plugin.sink.batch.CSVRecord;
+import io.cdap.plugin.salesforce.plugin.sink.batch.StructuredRecordToCSVRecordTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sink record paths, from {@link StructuredRecord} to the csv batch buffer.
+ * Every operation is a single record, so throughput is reported in records per second
+ * and allocation reported by the gc profiler is per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SinkRecordBenchmark {
+
+  private static final int RECORDS = 100;
+
+  @Param({"NARROW", "WIDE", "DATE_HEAVY", "LONG_TEXT"})
+  private BenchmarkData.Profile profile;
+
+  private List<StructuredRecord> structuredRecords;
+  private List<CSVRecord> csvRecords;
+  private StructuredRecordToCSVRecordTransformer transformer;
+  private CSVBuffer buffer;
+
+  @Setup
+  public void setup() {
+    BenchmarkData data = new BenchmarkData(profile);
+    structuredRecords = data.getStructuredRecords(RECORDS);
+    csvRecords = data.getCSVRecords(RECORDS);
+    transformer = new StructuredRecordToCSVRecordTransformer();
+    buffer = new CSVBuffer(true);
+  }
+
+  @TearDown
+  public void tearDown() {
+    buffer.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void structuredRecordToCSVRecord(Blackhole blackhole) {
+    for (StructuredRecord record : structuredRecords) {
+      blackhole.consume(transformer.transform(record));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public int csvBufferWrite() {
+    buffer.reset();
+    for (CSVRecord record : csvRecords) {
+      buffer.write(record);
+    }
+    return buffer.size();
+  }
+}
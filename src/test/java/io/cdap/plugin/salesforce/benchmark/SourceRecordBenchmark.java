@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.benchmark;
+
+import com.sforce.soap.partner.sobject.SObject;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.plugin.source.batch.MapToRecordTransformer;
+import io.cdap.plugin.salesforce.plugin.source.batch.SalesforceBulkRecordReader;
+import io.cdap.plugin.salesforce.plugin.source.batch.SoapRecordToMapTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures source record paths, from bulk csv or SOAP sObjects to records.
+ * Every operation is a single record, so throughput is reported in records per second
+ * and allocation reported by the gc profiler is per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceRecordBenchmark {
+
+  private static final int RECORDS = 100;
+
+  @Param({"NARROW", "WIDE", "DATE_HEAVY", "LONG_TEXT"})
+  private BenchmarkData.Profile profile;
+
+  private Schema schema;
+  private SObjectDescriptor sObjectDescriptor;
+  private byte[] bulkCsv;
+  private List<Map<String, String>> maps;
+  private List<SObject> sObjects;
+  private SalesforceBulkRecordReader bulkRecordReader;
+  private MapToRecordTransformer mapToRecordTransformer;
+  private SoapRecordToMapTransformer soapRecordToMapTransformer;
+
+  @Setup
+  public void setup() {
+    BenchmarkData data = new BenchmarkData(profile);
+    schema = data.getSchema();
+    sObjectDescriptor = data.getSObjectDescriptor();
+    bulkCsv = data.getBulkCsv(RECORDS);
+    maps = data.getMaps(RECORDS);
+    sObjects = data.getSObjects(RECORDS);
+    bulkRecordReader = new SalesforceBulkRecordReader(schema);
+    mapToRecordTransformer = new MapToRecordTransformer();
+    soapRecordToMapTransformer = new SoapRecordToMapTransformer();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    bulkRecordReader.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void bulkRecordReader(Blackhole blackhole) throws IOException {
+    bulkRecordReader.setupParser(new ByteArrayInputStream(bulkCsv));
+    while (bulkRecordReader.nextKeyValue()) {
+      blackhole.consume(bulkRecordReader.getCurrentValue());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void bulkRecordReaderToRecord(Blackhole blackhole) throws IOException {
+    bulkRecordReader.setupParser(new ByteArrayInputStream(bulkCsv));
+    while (bulkRecordReader.nextKeyValue()) {
+      blackhole.consume(mapToRecordTransformer.transform(schema, bulkRecordReader.getCurrentValue()));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void mapToRecord(Blackhole blackhole) {
+    for (Map<String, String> map : maps) {
+      blackhole.consume(mapToRecordTransformer.transform(schema, map));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECORDS)
+  public void soapRecordToMap(Blackhole blackhole) {
+    for (SObject sObject : sObjects) {
+      blackhole.consume(soapRecordToMapTransformer.transformToMap(sObject, sObjectDescriptor));
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchInfoList;
+import com.sforce.async.ContentType;
+import com.sforce.async.JobInfo;
+import com.sforce.async.JobStateEnum;
+import com.sforce.async.OperationEnum;
+import com.sforce.async.QueryResultList;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.bind.TypeMapper;
+import com.sforce.ws.bind.XMLizable;
+import com.sforce.ws.parser.PullParserException;
+import com.sforce.ws.parser.XmlInputStream;
+import com.sforce.ws.parser.XmlOutputStream;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.namespace.QName;
+
+/**
+ * Bulk API 1.0 endpoints of the local Salesforce server: jobs, batches, batch results and query results.
+ * Only CSV jobs are supported. PK chunking is applied to query jobs created with PK chunking header,
+ * the original batch is marked as not processed and a batch is created for every chunk of records.
+ */
+class BulkServlet extends LocalApiServlet {
+
+  private static final String NAMESPACE = "http://www.force.com/2009/06/asyncapi/dataload";
+  private static final String SCHEMA_INSTANCE_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+  private static final String SESSION_HEADER = "X-SFDC-Session";
+  private static final TypeMapper TYPE_MAPPER = new TypeMapper();
+  private static final Pattern CHUNK_SIZE_PATTERN = Pattern.compile("chunkSize=(\\d+)", Pattern.CASE_INSENSITIVE);
+  private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+
+  BulkServlet(LocalSalesforceServer server) {
+    super(server);
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    server.checkSession(request.getHeader(SESSION_HEADER));
+    String[] path = getPath(request);
+    if (path.length == 1) {
+      createJob(request, response);
+    } else if (path.length == 2) {
+      updateJob(request, response, server.getBulkJob(path[1]));
+    } else if (path.length == 3 && "batch".equals(path[2])) {
+      createBatch(request, response, server.getBulkJob(path[1]));
+    } else {
+      throw invalidUrl(request);
+    }
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    server.checkSession(request.getHeader(SESSION_HEADER));
+    String[] path = getPath(request);
+    if (path.length < 2) {
+      throw invalidUrl(request);
+    }
+    LocalBulkJob job = server.getBulkJob(path[1]);
+    long now = System.currentTimeMillis();
+    if (path.length == 2) {
+      server.count("bulk.getJob");
+      writeXml(response, HttpServletResponse.SC_OK, "jobInfo", job.toJobInfo(now));
+    } else if (path.length == 3 && "batch".equals(path[2])) {
+      server.count("bulk.getBatchList");
+      BatchInfoList batchInfoList = new BatchInfoList();
+      List<BatchInfo> batchInfos = new ArrayList<>();
+      for (LocalBulkJob.Batch batch : job.getBatches()) {
+        batchInfos.add(batch.toBatchInfo(now));
+      }
+      batchInfoList.setBatchInfo(batchInfos.toArray(new BatchInfo[0]));
+      writeXml(response, HttpServletResponse.SC_OK, "batchInfoList", batchInfoList);
+    } else if (path.length == 4 && "batch".equals(path[2])) {
+      server.count("bulk.getBatch");
+      writeXml(response, HttpServletResponse.SC_OK, "batchInfo", job.getBatch(path[3]).toBatchInfo(now));
+    } else if (path.length == 5 && "request".equals(path[4])) {
+      server.count("bulk.getBatchRequest");
+      getBatchRequest(response, getIngestBatch(job, path[3]));
+    } else if (path.length == 5 && "result".equals(path[4])) {
+      LocalBulkJob.Batch batch = getCompletedBatch(job, path[3], now);
+      if (batch instanceof LocalBulkJob.QueryBatch) {
+        server.count("bulk.getResultList");
+        QueryResultList resultList = new QueryResultList();
+        resultList.setResult(((LocalBulkJob.QueryBatch) batch).getResultIds().toArray(new String[0]));
+        writeXml(response, HttpServletResponse.SC_OK, "result-list", resultList);
+      } else {
+        server.count("bulk.getBatchResult");
+        response.setContentType("text/csv;charset=UTF-8");
+        try (Writer writer = createWriter(response)) {
+          ((LocalBulkJob.IngestBatch) batch).writeResult(writer);
+        }
+      }
+    } else if (path.length == 6 && "result".equals(path[4])) {
+      server.count("bulk.getResult");
+      LocalBulkJob.Batch batch = getCompletedBatch(job, path[3], now);
+      if (!(batch instanceof LocalBulkJob.QueryBatch)) {
+        throw invalidUrl(request);
+      }
+      response.setContentType("text/csv;charset=UTF-8");
+      try (Writer writer = createWriter(response)) {
+        server.addRecordsQueried(((LocalBulkJob.QueryBatch) batch).writeResult(path[5], writer));
+      }
+    } else {
+      throw invalidUrl(request);
+    }
+  }
+
+  private void createJob(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    server.count("bulk.createJob");
+    JobInfo jobInfo = readXml(request, new JobInfo());
+    if (jobInfo.getContentType() != null && jobInfo.getContentType() != ContentType.CSV) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_JOB, "Only CSV jobs are supported by the local server");
+    }
+
+    int pkChunkSize = 0;
+    String pkChunkHeader = request.getHeader(SalesforceSourceConstants.HEADER_ENABLE_PK_CHUNK);
+    if (jobInfo.getOperation() == OperationEnum.query && pkChunkHeader != null
+      && !"false".equalsIgnoreCase(pkChunkHeader)) {
+      Matcher matcher = CHUNK_SIZE_PATTERN.matcher(pkChunkHeader);
+      pkChunkSize = matcher.find()
+        ? Integer.parseInt(matcher.group(1))
+        : SalesforceSourceConstants.DEFAULT_PK_CHUNK_SIZE;
+      if (pkChunkSize > SalesforceSourceConstants.MAX_PK_CHUNK_SIZE) {
+        throw new LocalApiError(LocalApiError.Type.INVALID_JOB, String.format(
+          "Chunk size %d exceeds the limit of %d", pkChunkSize, SalesforceSourceConstants.MAX_PK_CHUNK_SIZE));
+      }
+    }
+
+    LocalBulkJob job = server.createBulkJob(server.getExistingSObject(jobInfo.getObject()), jobInfo.getOperation(),
+                                            jobInfo.getExternalIdFieldName(), pkChunkSize);
+    writeXml(response, HttpServletResponse.SC_CREATED, "jobInfo", job.toJobInfo(System.currentTimeMillis()));
+  }
+
+  private void updateJob(HttpServletRequest request, HttpServletResponse response, LocalBulkJob job)
+    throws IOException {
+    server.count("bulk.updateJob");
+    JobInfo jobInfo = readXml(request, new JobInfo());
+    if (jobInfo.getState() == JobStateEnum.Closed || jobInfo.getState() == JobStateEnum.Aborted) {
+      job.setState(jobInfo.getState());
+    }
+    writeXml(response, HttpServletResponse.SC_OK, "jobInfo", job.toJobInfo(System.currentTimeMillis()));
+  }
+
+  private void createBatch(HttpServletRequest request, HttpServletResponse response, LocalBulkJob job)
+    throws IOException {
+    server.count("bulk.createBatch");
+    byte[] body = ByteStreams.toByteArray(getBody(request));
+    LocalBulkJob.Batch batch = job.getOperation() == OperationEnum.query
+      ? server.createQueryBatch(job, new String(body, StandardCharsets.UTF_8))
+      : server.createIngestBatch(job, body);
+    writeXml(response, HttpServletResponse.SC_CREATED, "batchInfo", batch.toBatchInfo(System.currentTimeMillis()));
+  }
+
+  private void getBatchRequest(HttpServletResponse response, LocalBulkJob.IngestBatch batch) throws IOException {
+    byte[] request = batch.getRequest();
+    if (request == null) {
+      throw new LocalApiError(LocalApiError.Type.UNSUPPORTED,
+                              "Requests of batches without failed records are not retained by the local server");
+    }
+    response.setContentType("text/csv;charset=UTF-8");
+    response.getOutputStream().write(request);
+  }
+
+  private static LocalBulkJob.Batch getCompletedBatch(LocalBulkJob job, String batchId, long now) {
+    LocalBulkJob.Batch batch = job.getBatch(batchId);
+    if (!batch.isCompleted(now)) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_BATCH,
+                              String.format("Batch '%s' is not completed", batchId));
+    }
+    return batch;
+  }
+
+  private static LocalBulkJob.IngestBatch getIngestBatch(LocalBulkJob job, String batchId) {
+    LocalBulkJob.Batch batch = job.getBatch(batchId);
+    if (!(batch instanceof LocalBulkJob.IngestBatch)) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_BATCH,
+                              String.format("Batch '%s' is not an ingest batch", batchId));
+    }
+    return (LocalBulkJob.IngestBatch) batch;
+  }
+
+  /**
+   * @return path segments after the API path, starting with 'job'
+   */
+  private static String[] getPath(HttpServletRequest request) {
+    String pathInfo = Strings.nullToEmpty(request.getPathInfo());
+    String[] path = pathInfo.startsWith("/") ? pathInfo.substring(1).split("/") : pathInfo.split("/");
+    if (path.length == 0 || !"job".equals(path[0])) {
+      throw invalidUrl(request);
+    }
+    return path;
+  }
+
+  private static LocalApiError invalidUrl(HttpServletRequest request) {
+    return new LocalApiError(LocalApiError.Type.UNSUPPORTED,
+                             String.format("Unsupported request: %s %s", request.getMethod(), request.getRequestURI()));
+  }
+
+  private static Writer createWriter(HttpServletResponse response) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8),
+                              WRITER_BUFFER_SIZE);
+  }
+
+  private static <T extends XMLizable> T readXml(HttpServletRequest request, T value) throws IOException {
+    XmlInputStream xmlInputStream = new XmlInputStream();
+    try {
+      xmlInputStream.setInput(getBody(request), StandardCharsets.UTF_8.name());
+      value.load(xmlInputStream, TYPE_MAPPER);
+    } catch (PullParserException | ConnectionException e) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_JOB, "Failed to parse request: " + e.getMessage());
+    }
+    return value;
+  }
+
+  private static void writeXml(HttpServletResponse response, int status, String element, XMLizable value)
+    throws IOException {
+    response.setStatus(status);
+    response.setContentType("application/xml;charset=UTF-8");
+    XmlOutputStream xmlOutputStream = new XmlOutputStream(response.getOutputStream(), false);
+    xmlOutputStream.setPrefix("", NAMESPACE);
+    xmlOutputStream.setPrefix("xsi", SCHEMA_INSTANCE_NAMESPACE);
+    xmlOutputStream.startDocument();
+    value.write(new QName(NAMESPACE, element), xmlOutputStream, TYPE_MAPPER);
+    xmlOutputStream.endDocument();
+    xmlOutputStream.close();
+  }
+
+  @Override
+  protected void writeError(HttpServletResponse response, LocalApiError error) throws IOException {
+    response.setStatus(error.getType().getStatus());
+    response.setContentType("application/xml;charset=UTF-8");
+    String xml = String.format("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                                 + "<error xmlns=\"%s\"><exceptionCode>%s</exceptionCode>"
+                                 + "<exceptionMessage>%s</exceptionMessage></error>",
+                               NAMESPACE, error.getType().getBulkCode(), SoapServlet.escape(error.getMessage()));
+    response.getOutputStream().write(xml.getBytes(StandardCharsets.UTF_8));
+  }
+}
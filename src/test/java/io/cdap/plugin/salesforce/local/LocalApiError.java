@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+/**
+ * Error returned by the local Salesforce server. Each API reports the error in its own format,
+ * using the codes of the error {@link Type}.
+ */
+public class LocalApiError extends RuntimeException {
+
+  private final Type type;
+
+  public LocalApiError(Type type, String message) {
+    super(message);
+    this.type = type;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Error types with their http status, Bulk API exception code and SOAP API exception code.
+   */
+  public enum Type {
+    INVALID_SESSION(401, "InvalidSessionId", "INVALID_SESSION_ID"),
+    REQUEST_LIMIT_EXCEEDED(403, "ExceededQuota", "REQUEST_LIMIT_EXCEEDED"),
+    UNKNOWN(500, "Unknown", "UNKNOWN_EXCEPTION"),
+    INVALID_JOB(400, "InvalidJob", "INVALID_ID_FIELD"),
+    INVALID_JOB_STATE(400, "InvalidJobState", "INVALID_OPERATION"),
+    INVALID_BATCH(400, "InvalidBatch", "INVALID_ID_FIELD"),
+    INVALID_TYPE(400, "InvalidEntity", "INVALID_TYPE"),
+    INVALID_FIELD(400, "InvalidBatch", "INVALID_FIELD"),
+    MALFORMED_QUERY(400, "InvalidBatch", "MALFORMED_QUERY"),
+    INVALID_QUERY_LOCATOR(400, "InvalidBatch", "INVALID_QUERY_LOCATOR"),
+    UNSUPPORTED(400, "InvalidOperation", "INVALID_OPERATION");
+
+    private final int status;
+    private final String bulkCode;
+    private final String soapCode;
+
+    Type(int status, String bulkCode, String soapCode) {
+      this.status = status;
+      this.bulkCode = bulkCode;
+      this.soapCode = soapCode;
+    }
+
+    public int getStatus() {
+      return status;
+    }
+
+    public String getBulkCode() {
+      return bulkCode;
+    }
+
+    public String getSoapCode() {
+      return soapCode;
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Base servlet of the local Salesforce server APIs. Applies configured latency, throttling, request limit
+ * and failure injection to every request, and reports errors in the format of the API.
+ */
+abstract class LocalApiServlet extends HttpServlet {
+
+  protected final LocalSalesforceServer server;
+
+  LocalApiServlet(LocalSalesforceServer server) {
+    this.server = server;
+  }
+
+  @Override
+  protected void service(HttpServletRequest request, HttpServletResponse response)
+    throws ServletException, IOException {
+    try {
+      server.beforeRequest(isApiRequest());
+      super.service(request, response);
+    } catch (LocalApiError e) {
+      if (response.isCommitted()) {
+        throw new IOException("Failed to complete the response", e);
+      }
+      response.reset();
+      writeError(response, e);
+    }
+  }
+
+  /**
+   * @return true if requests of the servlet count towards the API request limit and may fail on injected failures
+   */
+  protected boolean isApiRequest() {
+    return true;
+  }
+
+  protected abstract void writeError(HttpServletResponse response, LocalApiError error) throws IOException;
+
+  /**
+   * Returns request body, clients send compressed bodies when compression is enabled in connector config.
+   */
+  protected static InputStream getBody(HttpServletRequest request) throws IOException {
+    InputStream body = request.getInputStream();
+    return "gzip".equalsIgnoreCase(request.getHeader("Content-Encoding")) ? new GZIPInputStream(body) : body;
+  }
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import com.google.common.base.Strings;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.ConcurrencyMode;
+import com.sforce.async.ContentType;
+import com.sforce.async.JobInfo;
+import com.sforce.async.JobStateEnum;
+import com.sforce.async.OperationEnum;
+import com.sforce.soap.partner.Field;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.csv.QuoteMode;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import javax.annotation.Nullable;
+
+/**
+ * Bulk API 1.0 job of the local Salesforce server with its batches.
+ */
+class LocalBulkJob {
+
+  private static final String CREATED_BY_ID = "005000000000001AAA";
+
+  private final String id;
+  private final LocalSObject sObject;
+  private final OperationEnum operation;
+  @Nullable
+  private final String externalIdField;
+  private final int pkChunkSize;
+  private final long createdTime;
+  private final Map<String, Batch> batches = new LinkedHashMap<>();
+  private JobStateEnum state = JobStateEnum.Open;
+
+  LocalBulkJob(String id, LocalSObject sObject, OperationEnum operation, @Nullable String externalIdField,
+               int pkChunkSize, long createdTime) {
+    this.id = id;
+    this.sObject = sObject;
+    this.operation = operation;
+    this.externalIdField = externalIdField;
+    this.pkChunkSize = pkChunkSize;
+    this.createdTime = createdTime;
+  }
+
+  String getId() {
+    return id;
+  }
+
+  LocalSObject getSObject() {
+    return sObject;
+  }
+
+  OperationEnum getOperation() {
+    return operation;
+  }
+
+  @Nullable
+  String getExternalIdField() {
+    return externalIdField;
+  }
+
+  /**
+   * @return number of records per PK chunk or 0 if PK chunking was not requested for the job
+   */
+  int getPkChunkSize() {
+    return pkChunkSize;
+  }
+
+  synchronized void setState(JobStateEnum state) {
+    if (this.state != JobStateEnum.Open) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_JOB_STATE,
+                              String.format("Job '%s' is not open: %s", id, this.state));
+    }
+    this.state = state;
+  }
+
+  synchronized void addBatch(Batch batch) {
+    if (state != JobStateEnum.Open) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_JOB_STATE,
+                              String.format("Job '%s' is not open: %s", id, state));
+    }
+    batches.put(batch.id, batch);
+  }
+
+  synchronized Batch getBatch(String batchId) {
+    Batch batch = batches.get(batchId);
+    if (batch == null) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_BATCH,
+                              String.format("Unable to find batch '%s' for job '%s'", batchId, id));
+    }
+    return batch;
+  }
+
+  synchronized List<Batch> getBatches() {
+    return new ArrayList<>(batches.values());
+  }
+
+  JobInfo toJobInfo(long now) {
+    JobInfo jobInfo = new JobInfo();
+    jobInfo.setId(id);
+    jobInfo.setOperation(operation);
+    jobInfo.setObject(sObject.getName());
+    jobInfo.setCreatedById(CREATED_BY_ID);
+    jobInfo.setCreatedDate(toCalendar(createdTime));
+    jobInfo.setSystemModstamp(toCalendar(now));
+    synchronized (this) {
+      jobInfo.setState(state);
+    }
+    if (externalIdField != null) {
+      jobInfo.setExternalIdFieldName(externalIdField);
+    }
+    jobInfo.setConcurrencyMode(ConcurrencyMode.Parallel);
+    jobInfo.setContentType(ContentType.CSV);
+    jobInfo.setApiVersion(Double.parseDouble(SalesforceConstants.API_VERSION));
+
+    int queued = 0;
+    int inProgress = 0;
+    int completed = 0;
+    int failed = 0;
+    long processed = 0;
+    long failedRecords = 0;
+    List<Batch> jobBatches = getBatches();
+    for (Batch batch : jobBatches) {
+      BatchInfo batchInfo = batch.toBatchInfo(now);
+      switch (batchInfo.getState()) {
+        case Queued:
+          queued++;
+          break;
+        case InProgress:
+          inProgress++;
+          break;
+        case Failed:
+          failed++;
+          break;
+        default:
+          completed++;
+      }
+      processed += batchInfo.getNumberRecordsProcessed();
+      failedRecords += batchInfo.getNumberRecordsFailed();
+    }
+    jobInfo.setNumberBatchesQueued(queued);
+    jobInfo.setNumberBatchesInProgress(inProgress);
+    jobInfo.setNumberBatchesCompleted(completed);
+    jobInfo.setNumberBatchesFailed(failed);
+    jobInfo.setNumberBatchesTotal(jobBatches.size());
+    jobInfo.setNumberRecordsProcessed((int) processed);
+    jobInfo.setNumberRecordsFailed((int) failedRecords);
+    return jobInfo;
+  }
+
+  private static Calendar toCalendar(long time) {
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    calendar.setTimeInMillis(time);
+    return calendar;
+  }
+
+  /**
+   * Batch of the job. Batch becomes completed once the processing delay since its creation has passed,
+   * query batches are executed at that moment, while ingest batches are applied when they are uploaded.
+   */
+  abstract static class Batch {
+
+    final String id;
+    final String jobId;
+    final long createdTime;
+    final long readyTime;
+    @Nullable
+    private final String failure;
+
+    Batch(String id, String jobId, long createdTime, long processingDelay, @Nullable String failure) {
+      this.id = id;
+      this.jobId = jobId;
+      this.createdTime = createdTime;
+      this.readyTime = createdTime + processingDelay;
+      this.failure = failure;
+    }
+
+    synchronized BatchInfo toBatchInfo(long now) {
+      BatchInfo batchInfo = new BatchInfo();
+      batchInfo.setId(id);
+      batchInfo.setJobId(jobId);
+      batchInfo.setCreatedDate(toCalendar(createdTime));
+      batchInfo.setSystemModstamp(toCalendar(Math.min(now, readyTime)));
+      if (now < readyTime) {
+        batchInfo.setState(now < createdTime + (readyTime - createdTime) / 2
+                             ? BatchStateEnum.Queued : BatchStateEnum.InProgress);
+        return batchInfo;
+      }
+      if (failure != null) {
+        batchInfo.setState(BatchStateEnum.Failed);
+        batchInfo.setStateMessage(failure);
+        return batchInfo;
+      }
+      complete(batchInfo);
+      batchInfo.setTotalProcessingTime(readyTime - createdTime);
+      batchInfo.setApiActiveProcessingTime(readyTime - createdTime);
+      return batchInfo;
+    }
+
+    boolean isCompleted(long now) {
+      return toBatchInfo(now).getState() == BatchStateEnum.Completed;
+    }
+
+    /**
+     * Sets state and record counts of the batch which was processed without failures.
+     */
+    abstract void complete(BatchInfo batchInfo);
+  }
+
+  /**
+   * Query batch, results are split into several result files if the query matches more records
+   * than fit into a single result.
+   */
+  static class QueryBatch extends Batch {
+
+    private final LocalQuery query;
+    private final int recordsPerResult;
+    private final boolean chunked;
+    private long count = -1;
+    private final List<Long> resultStarts = new ArrayList<>();
+
+    /**
+     * @param query parsed query, null only if batch failed since the query is invalid
+     * @param chunked true if batch was split into PK chunk batches, such batch is never processed itself
+     */
+    QueryBatch(String id, String jobId, long createdTime, long processingDelay, @Nullable String failure,
+               @Nullable LocalQuery query, int recordsPerResult, boolean chunked) {
+      super(id, jobId, createdTime, processingDelay, failure);
+      this.query = query;
+      this.recordsPerResult = recordsPerResult;
+      this.chunked = chunked;
+    }
+
+    @Override
+    void complete(BatchInfo batchInfo) {
+      if (chunked) {
+        batchInfo.setState(BatchStateEnum.NotProcessed);
+        return;
+      }
+      execute();
+      batchInfo.setState(BatchStateEnum.Completed);
+      batchInfo.setNumberRecordsProcessed((int) count);
+    }
+
+    /**
+     * Counts matching records and remembers the index each result starts with.
+     */
+    private void execute() {
+      if (count != -1) {
+        return;
+      }
+      long[] matches = new long[1];
+      query.count((index, stored) -> {
+        if (matches[0]++ % recordsPerResult == 0) {
+          resultStarts.add(index);
+        }
+      });
+      if (resultStarts.isEmpty()) {
+        // Salesforce returns a result with the header only if no records match the query
+        resultStarts.add(query.getFromIndex());
+      }
+      count = matches[0];
+    }
+
+    synchronized List<String> getResultIds() {
+      List<String> resultIds = new ArrayList<>();
+      for (int i = 0; i < resultStarts.size(); i++) {
+        resultIds.add(getResultId(i));
+      }
+      return resultIds;
+    }
+
+    /**
+     * Writes result in csv format, all values are quoted the same way Salesforce does.
+     *
+     * @return number of written records
+     */
+    long writeResult(String resultId, Writer writer) throws IOException {
+      int resultIndex;
+      long start;
+      long max;
+      synchronized (this) {
+        resultIndex = getResultIds().indexOf(resultId);
+        if (resultIndex == -1) {
+          throw new LocalApiError(LocalApiError.Type.INVALID_BATCH,
+                                  String.format("Unable to find result '%s' of batch '%s'", resultId, id));
+        }
+        start = resultStarts.get(resultIndex);
+        max = Math.min(recordsPerResult, count - (long) resultIndex * recordsPerResult);
+      }
+
+      CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withQuoteMode(QuoteMode.ALL));
+      for (Field field : query.getFields()) {
+        printer.print(field.getName());
+      }
+      printer.println();
+      long[] written = new long[1];
+      query.scan(start, max, (index, stored) -> {
+        for (Field field : query.getFields()) {
+          printer.print(query.getValue(index, stored, field));
+        }
+        printer.println();
+        written[0]++;
+      });
+      printer.flush();
+      return written[0];
+    }
+
+    private String getResultId(int resultIndex) {
+      return String.format("752%s%03d", id.substring(3, 15), resultIndex);
+    }
+  }
+
+  /**
+   * Ingest batch, records are applied to the sObject when the batch is uploaded.
+   * Result of every record is kept in a compact form, request is kept only if it is needed to report failures
+   * or records are retained.
+   */
+  static class IngestBatch extends Batch {
+
+    private final LocalSObject sObject;
+    private final int recordsCount;
+    @Nullable
+    private final String[] ids;
+    private final long firstIndex;
+    private final Map<Integer, String> errors;
+    private final boolean created;
+    @Nullable
+    private final byte[] request;
+
+    private IngestBatch(String id, String jobId, long createdTime, long processingDelay, @Nullable String failure,
+                        LocalSObject sObject, int recordsCount, @Nullable String[] ids, long firstIndex,
+                        Map<Integer, String> errors, boolean created, @Nullable byte[] request) {
+      super(id, jobId, createdTime, processingDelay, failure);
+      this.sObject = sObject;
+      this.recordsCount = recordsCount;
+      this.ids = ids;
+      this.firstIndex = firstIndex;
+      this.errors = errors;
+      this.created = created;
+      this.request = request;
+    }
+
+    /**
+     * Applies records of the uploaded csv to the sObject of the job.
+     *
+     * @param job job the batch belongs to
+     * @param csv uploaded csv with header
+     * @param retain true if records must be stored, otherwise they are only validated and counted
+     * @param failureInterval every record with this interval fails, 0 means that records do not fail
+     */
+    static IngestBatch apply(String id, LocalBulkJob job, long createdTime, long processingDelay,
+                             @Nullable String failure, byte[] csv, boolean retain, int failureInterval)
+      throws IOException {
+      List<CSVRecord> records;
+      List<String> header;
+      try (CSVParser parser = new CSVParser(new InputStreamReader(new ByteArrayInputStream(csv),
+                                                                  StandardCharsets.UTF_8),
+                                            CSVFormat.RFC4180.withFirstRecordAsHeader())) {
+        header = new ArrayList<>(parser.getHeaderMap().keySet());
+        records = parser.getRecords();
+      }
+
+      LocalSObject sObject = job.getSObject();
+      if (failure == null) {
+        for (String column : header) {
+          if (!column.contains(".") && sObject.getField(column) == null) {
+            failure = String.format("InvalidBatch : Field name not found : %s", column);
+          }
+        }
+      }
+
+      boolean insert = job.getOperation() == OperationEnum.insert;
+      long firstIndex = insert && failure == null ? sObject.reserve(records.size()) : -1;
+      String[] ids = insert ? null : new String[records.size()];
+      Map<Integer, String> errors = new HashMap<>();
+      for (int i = 0; failure == null && i < records.size(); i++) {
+        if (failureInterval > 0 && i % failureInterval == failureInterval - 1) {
+          errors.put(i, "UNKNOWN_EXCEPTION:Injected record failure:--");
+          continue;
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int column = 0; column < header.size(); column++) {
+          if (!header.get(column).contains(".")) {
+            values.put(header.get(column), records.get(i).get(column));
+          }
+        }
+        String error = insert
+          ? insert(sObject, firstIndex + i, values, retain)
+          : modify(job, sObject, values, retain, ids, i);
+        if (error != null) {
+          errors.put(i, error);
+        }
+      }
+
+      boolean keepRequest = retain || !errors.isEmpty();
+      return new IngestBatch(id, job.getId(), createdTime, processingDelay, failure, sObject, records.size(), ids,
+                             firstIndex, errors, insert || job.getOperation() == OperationEnum.upsert,
+                             keepRequest ? csv : null);
+    }
+
+    @Nullable
+    private static String insert(LocalSObject sObject, long index, Map<String, String> values, boolean retain) {
+      if (!Strings.isNullOrEmpty(values.get("Id"))) {
+        return "INVALID_FIELD_FOR_INSERT_UPDATE:Unable to create/update fields: Id:Id --";
+      }
+      if (retain) {
+        sObject.store(index, values);
+      }
+      return null;
+    }
+
+    @Nullable
+    private static String modify(LocalBulkJob job, LocalSObject sObject, Map<String, String> values, boolean retain,
+                                 String[] ids, int row) {
+      String id = values.remove("Id");
+      long index = id == null ? -1 : sObject.getIndex(id);
+      if (index == -1 && job.getOperation() == OperationEnum.upsert && job.getExternalIdField() != null
+        && !"Id".equalsIgnoreCase(job.getExternalIdField())) {
+        String externalId = values.get(job.getExternalIdField());
+        index = externalId == null ? -1 : sObject.findStored(job.getExternalIdField(), externalId);
+        if (index == -1) {
+          index = sObject.reserve(1);
+          if (retain) {
+            sObject.store(index, values);
+          }
+          ids[row] = sObject.getId(index);
+          return null;
+        }
+      }
+      if (index == -1 || !sObject.exists(index)) {
+        return "INVALID_CROSS_REFERENCE_KEY:invalid cross reference id:--";
+      }
+
+      ids[row] = sObject.getId(index);
+      if (!retain) {
+        return null;
+      }
+      if (job.getOperation() == OperationEnum.delete || job.getOperation() == OperationEnum.hardDelete) {
+        sObject.delete(index);
+      } else {
+        sObject.update(index, values);
+      }
+      return null;
+    }
+
+    @Override
+    void complete(BatchInfo batchInfo) {
+      batchInfo.setState(BatchStateEnum.Completed);
+      batchInfo.setNumberRecordsProcessed(recordsCount);
+      batchInfo.setNumberRecordsFailed(errors.size());
+    }
+
+    /**
+     * Writes result of every record in the order of the request, in the format of the Salesforce batch result.
+     */
+    void writeResult(Writer writer) throws IOException {
+      CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withQuoteMode(QuoteMode.ALL));
+      printer.printRecord("Id", "Success", "Created", "Error");
+      for (int i = 0; i < recordsCount; i++) {
+        String error = errors.get(i);
+        String recordId = error != null ? "" : ids == null ? getId(i) : ids[i];
+        printer.printRecord(recordId, error == null, error == null && created, error == null ? "" : error);
+      }
+      printer.flush();
+    }
+
+    int getRecordsCount() {
+      return recordsCount;
+    }
+
+    @Nullable
+    byte[] getRequest() {
+      return request;
+    }
+
+    private String getId(int row) {
+      return sObject.getId(firstIndex + row);
+    }
+  }
+}
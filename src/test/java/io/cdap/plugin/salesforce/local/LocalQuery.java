@@ -0,0 +1,377 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import com.sforce.soap.partner.Field;
+import com.sforce.soap.partner.FieldType;
+import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.parser.QueryPlan;
+import io.cdap.plugin.salesforce.parser.SOQLParsingException;
+import io.cdap.plugin.salesforce.parser.SalesforceQueryParser;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * SOQL query executed by the local Salesforce server.
+ * <p/>
+ * Only plain fields of the queried sObject are supported. WHERE clause may contain comparisons of fields
+ * with literals joined by AND and grouped by parentheses, comparisons of Id narrow the range of scanned records.
+ * LIMIT is applied, ORDER BY is ignored, since records are always returned in Id order. Other queries are rejected
+ * rather than answered incorrectly.
+ */
+public class LocalQuery {
+
+  private static final Pattern WHERE_PATTERN = Pattern.compile(
+    "\\bWHERE\\b(.*?)(?=\\bGROUP\\s+BY\\b|\\bORDER\\s+BY\\b|\\bLIMIT\\b|$)",
+    Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  private static final Pattern LIMIT_PATTERN = Pattern.compile("\\bLIMIT\\s+(\\d+)", Pattern.CASE_INSENSITIVE);
+  private static final Pattern CONDITION_PATTERN = Pattern.compile(
+    "\\s*(\\w+)\\s*(<=|>=|!=|<>|=|<|>)\\s*('(?:[^'\\\\]|\\\\.)*'|[^\\s'()]+)\\s*");
+  private static final Pattern AND_PATTERN = Pattern.compile("AND\\s+", Pattern.CASE_INSENSITIVE);
+  // grouping does not affect comparisons joined by AND only
+  private static final Pattern PARENTHESES_PATTERN = Pattern.compile("[\\s()]*");
+  private static final DateTimeFormatter DATETIME_FORMATTER = new DateTimeFormatterBuilder()
+    .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+    .appendPattern("[XXX][XX][X]")
+    .toFormatter();
+
+  private final String query;
+  private final LocalSObject sObject;
+  private final List<Field> fields;
+  private final List<Condition> conditions;
+  private final long fromIndex;
+  private final long toIndex;
+  private final long limit;
+
+  private LocalQuery(String query, LocalSObject sObject, List<Field> fields, List<Condition> conditions,
+                     long fromIndex, long toIndex, long limit) {
+    this.query = query;
+    this.sObject = sObject;
+    this.fields = fields;
+    this.conditions = conditions;
+    this.fromIndex = fromIndex;
+    this.toIndex = toIndex;
+    this.limit = limit;
+  }
+
+  /**
+   * Parses the given query.
+   *
+   * @param query SOQL query
+   * @param sObjects function returning sObject by name or null if there is no such sObject
+   * @return parsed query
+   * @throws LocalApiError if query is invalid or not supported
+   */
+  public static LocalQuery parse(String query, Function<String, LocalSObject> sObjects) {
+    QueryPlan queryPlan;
+    SObjectDescriptor descriptor;
+    try {
+      queryPlan = SalesforceQueryParser.getQueryPlan(query);
+      descriptor = queryPlan.getDescriptor();
+    } catch (SOQLParsingException e) {
+      throw new LocalApiError(LocalApiError.Type.MALFORMED_QUERY, e.getMessage());
+    }
+    if (queryPlan.isRestricted() || !descriptor.getChildSObjects().isEmpty()) {
+      throw new LocalApiError(LocalApiError.Type.UNSUPPORTED,
+                              "Aggregates, sub-queries and OFFSET are not supported by the local server");
+    }
+
+    LocalSObject sObject = sObjects.apply(descriptor.getName());
+    if (sObject == null) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_TYPE,
+                              String.format("sObject type '%s' is not supported.", descriptor.getName()));
+    }
+
+    List<Field> fields = new ArrayList<>();
+    for (SObjectDescriptor.FieldDescriptor fieldDescriptor : descriptor.getFields()) {
+      if (fieldDescriptor.hasParents()) {
+        throw new LocalApiError(LocalApiError.Type.UNSUPPORTED, String.format(
+          "Relationship field '%s' is not supported by the local server", fieldDescriptor.getFullName()));
+      }
+      fields.add(sObject.getExistingField(fieldDescriptor.getName()));
+    }
+
+    String fromStatement = queryPlan.getFromStatement();
+    Matcher limitMatcher = LIMIT_PATTERN.matcher(fromStatement);
+    long limit = limitMatcher.find() ? Long.parseLong(limitMatcher.group(1)) : Long.MAX_VALUE;
+
+    LocalQuery localQuery = new LocalQuery(query, sObject, fields, new ArrayList<>(), 0, Long.MAX_VALUE, limit);
+    Matcher whereMatcher = WHERE_PATTERN.matcher(fromStatement);
+    return whereMatcher.find() ? localQuery.withConditions(whereMatcher.group(1).trim()) : localQuery;
+  }
+
+  public String getQuery() {
+    return query;
+  }
+
+  public LocalSObject getSObject() {
+    return sObject;
+  }
+
+  /**
+   * @return selected fields in the order of the query
+   */
+  public List<Field> getFields() {
+    return Collections.unmodifiableList(fields);
+  }
+
+  public long getLimit() {
+    return limit;
+  }
+
+  public long getFromIndex() {
+    return fromIndex;
+  }
+
+  /**
+   * @return exclusive upper bound of scanned records, bounded by the records existing at the time of the call
+   */
+  public long getToIndex() {
+    return Math.min(toIndex, sObject.getIndexLimit());
+  }
+
+  /**
+   * Returns the same query restricted to the given range of records, as done by PK chunking.
+   */
+  public LocalQuery withRange(long from, long to) {
+    return new LocalQuery(query, sObject, fields, conditions, Math.max(fromIndex, from), Math.min(toIndex, to),
+                          limit);
+  }
+
+  /**
+   * Passes records matching the query to the consumer, starting with the given record index.
+   *
+   * @param startIndex index of the record to start with
+   * @param maxMatches max number of records to pass to the consumer
+   * @param consumer consumer of matching records
+   * @return index of the record to continue with or -1 if all records were scanned
+   */
+  public long scan(long startIndex, long maxMatches, RecordConsumer consumer) throws IOException {
+    long end = getToIndex();
+    long index = Math.max(startIndex, fromIndex);
+    long matches = 0;
+    for (; index < end && matches < maxMatches; index++) {
+      Map<String, String> stored = sObject.getStored(index);
+      if (sObject.exists(index, stored) && matches(index, stored)) {
+        consumer.accept(index, stored);
+        matches++;
+      }
+    }
+    return index < end ? index : -1;
+  }
+
+  /**
+   * @return number of records matching the query
+   */
+  public long count() {
+    return count((index, stored) -> { });
+  }
+
+  /**
+   * Counts records matching the query, passing every match to the given consumer which must not perform any IO.
+   *
+   * @return number of records matching the query
+   */
+  long count(RecordConsumer consumer) {
+    long[] matches = new long[1];
+    try {
+      scan(0, limit, (index, stored) -> {
+        consumer.accept(index, stored);
+        matches[0]++;
+      });
+    } catch (IOException e) {
+      // counting does not perform any IO
+      throw new IllegalStateException(e);
+    }
+    return matches[0];
+  }
+
+  @Nullable
+  public String getValue(long index, @Nullable Map<String, String> stored, Field field) {
+    return sObject.getValue(index, stored, field);
+  }
+
+  private boolean matches(long index, @Nullable Map<String, String> stored) {
+    for (Condition condition : conditions) {
+      if (!condition.matches(sObject.getValue(index, stored, condition.field))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses comparisons joined by AND. Comparisons of Id with Ids of the sObject are turned into the index range.
+   */
+  private LocalQuery withConditions(String where) {
+    List<Condition> conditions = new ArrayList<>();
+    long from = fromIndex;
+    long to = toIndex;
+
+    Matcher conditionMatcher = CONDITION_PATTERN.matcher(where);
+    Matcher andMatcher = AND_PATTERN.matcher(where);
+    Matcher parenthesesMatcher = PARENTHESES_PATTERN.matcher(where);
+    int position = 0;
+    while (position < where.length()) {
+      if (position > 0) {
+        if (!andMatcher.region(position, where.length()).lookingAt()) {
+          throw unsupportedCondition(where);
+        }
+        position = andMatcher.end();
+      }
+      parenthesesMatcher.region(position, where.length()).lookingAt();
+      position = parenthesesMatcher.end();
+      if (!conditionMatcher.region(position, where.length()).lookingAt()) {
+        throw unsupportedCondition(where);
+      }
+      position = conditionMatcher.end();
+      parenthesesMatcher.region(position, where.length()).lookingAt();
+      position = parenthesesMatcher.end();
+
+      Field field = sObject.getExistingField(conditionMatcher.group(1));
+      String operator = conditionMatcher.group(2);
+      String literal = parseLiteral(conditionMatcher.group(3));
+      long index = FieldType.id == field.getType() ? sObject.getIndex(literal) : -1;
+      switch (index == -1 ? "" : operator) {
+        case "=":
+          from = Math.max(from, index);
+          to = Math.min(to, index + 1);
+          break;
+        case ">=":
+          from = Math.max(from, index);
+          break;
+        case ">":
+          from = Math.max(from, index + 1);
+          break;
+        case "<=":
+          to = Math.min(to, index + 1);
+          break;
+        case "<":
+          to = Math.min(to, index);
+          break;
+        default:
+          conditions.add(new Condition(field, operator, literal));
+      }
+    }
+    return new LocalQuery(query, sObject, fields, conditions, from, to, limit);
+  }
+
+  private static LocalApiError unsupportedCondition(String where) {
+    return new LocalApiError(LocalApiError.Type.UNSUPPORTED, String.format(
+      "Only comparisons of fields with literals joined by AND are supported by the local server: '%s'", where));
+  }
+
+  @Nullable
+  private static String parseLiteral(String literal) {
+    if (literal.startsWith("'")) {
+      return literal.substring(1, literal.length() - 1).replaceAll("\\\\(.)", "$1");
+    }
+    return "null".equalsIgnoreCase(literal) ? null : literal;
+  }
+
+  /**
+   * Consumer of records matching the query.
+   */
+  public interface RecordConsumer {
+
+    void accept(long index, @Nullable Map<String, String> stored) throws IOException;
+  }
+
+  /**
+   * Comparison of the field value with a literal, values are compared according to the field type.
+   */
+  private static class Condition {
+
+    private final Field field;
+    private final String operator;
+    @Nullable
+    private final String literal;
+
+    Condition(Field field, String operator, @Nullable String literal) {
+      this.field = field;
+      this.operator = operator;
+      this.literal = literal;
+    }
+
+    boolean matches(@Nullable String value) {
+      if (value == null || literal == null) {
+        // null is only equal to null and cannot be ordered
+        boolean bothNull = value == null && literal == null;
+        if ("=".equals(operator)) {
+          return bothNull;
+        }
+        return isNegated() && !bothNull;
+      }
+      int comparison = compare(value, literal);
+      switch (operator) {
+        case "=":
+          return comparison == 0;
+        case "!=":
+        case "<>":
+          return comparison != 0;
+        case "<":
+          return comparison < 0;
+        case "<=":
+          return comparison <= 0;
+        case ">":
+          return comparison > 0;
+        default:
+          return comparison >= 0;
+      }
+    }
+
+    private boolean isNegated() {
+      return "!=".equals(operator) || "<>".equals(operator);
+    }
+
+    private int compare(String value, String literal) {
+      try {
+        switch (field.getType()) {
+          case _int:
+          case _double:
+          case currency:
+          case percent:
+            return Double.compare(Double.parseDouble(value), Double.parseDouble(literal));
+          case date:
+            return LocalDate.parse(value).compareTo(LocalDate.parse(literal));
+          case datetime:
+            return OffsetDateTime.parse(value, DATETIME_FORMATTER).toInstant()
+              .compareTo(OffsetDateTime.parse(literal, DATETIME_FORMATTER).toInstant());
+          case _boolean:
+            return Boolean.compare(Boolean.parseBoolean(value), Boolean.parseBoolean(literal));
+          default:
+            return value.compareTo(literal);
+        }
+      } catch (NumberFormatException | DateTimeParseException e) {
+        throw new LocalApiError(LocalApiError.Type.MALFORMED_QUERY, String.format(
+          "Value '%s' cannot be compared with field '%s' of type '%s'", literal, field.getName(), field.getType()));
+      }
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import com.google.common.base.Strings;
+import com.sforce.soap.partner.DescribeGlobalSObjectResult;
+import com.sforce.soap.partner.DescribeSObjectResult;
+import com.sforce.soap.partner.Field;
+import com.sforce.soap.partner.FieldType;
+import com.sforce.soap.partner.SoapType;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * sObject of the local Salesforce server.
+ * <p/>
+ * Records are addressed by index. The first {@code generatedCount} records are generated on the fly
+ * from field metadata, so that millions of records are served without being kept in memory.
+ * Records created through the SOAP or Bulk API, as well as updated generated records, are stored in memory.
+ * Record Id is the key prefix followed by the zero padded index, so Id ranges map to index ranges.
+ */
+public class LocalSObject {
+
+  private static final Map<String, String> DELETED = Collections.unmodifiableMap(new HashMap<>());
+  private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss.SSS'Z'");
+  private static final long BASE_EPOCH_MILLI = 1_550_000_000_000L;
+
+  private final String name;
+  private final String keyPrefix;
+  private final Map<String, Field> fields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+  private final List<Field> fieldList;
+  private final long generatedCount;
+  private final ValueGenerator generator;
+  private final long lastModified;
+  private final ConcurrentNavigableMap<Long, Map<String, String>> stored = new ConcurrentSkipListMap<>();
+  private final AtomicLong nextIndex;
+
+  LocalSObject(String name, String keyPrefix, List<Field> fields, long generatedCount, ValueGenerator generator) {
+    this.name = name;
+    this.keyPrefix = keyPrefix;
+    this.fieldList = new ArrayList<>();
+    if (fields.stream().noneMatch(field -> "Id".equalsIgnoreCase(field.getName()))) {
+      fieldList.add(createField("Id", FieldType.id));
+    }
+    fieldList.addAll(fields);
+    fieldList.forEach(this::completeField);
+    fieldList.forEach(field -> this.fields.put(field.getName(), field));
+    this.generatedCount = generatedCount;
+    this.generator = generator;
+    this.lastModified = System.currentTimeMillis();
+    this.nextIndex = new AtomicLong(generatedCount);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public List<Field> getFields() {
+    return Collections.unmodifiableList(fieldList);
+  }
+
+  /**
+   * @param name case-insensitive field name
+   * @return field or null if sObject does not have such field
+   */
+  @Nullable
+  public Field getField(String name) {
+    return fields.get(name);
+  }
+
+  /**
+   * @return time the sObject metadata was last modified at
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return index of the record which will be created next, all records have lower indexes
+   */
+  public long getIndexLimit() {
+    return nextIndex.get();
+  }
+
+  public String getId(long index) {
+    return keyPrefix + Strings.padStart(Long.toString(index), 15, '0');
+  }
+
+  /**
+   * @return index of the record with the given Id or -1 if Id does not belong to the sObject
+   */
+  public long getIndex(String id) {
+    if (id == null || id.length() != 18 || !id.startsWith(keyPrefix)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(id.substring(keyPrefix.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns stored values of the record, generated records which were not modified have no stored values.
+   * Result must be passed to {@link #exists} and {@link #getValue} along with the index.
+   */
+  @Nullable
+  Map<String, String> getStored(long index) {
+    return stored.isEmpty() ? null : stored.get(index);
+  }
+
+  boolean exists(long index, @Nullable Map<String, String> storedValues) {
+    if (storedValues == DELETED) {
+      return false;
+    }
+    return storedValues != null || index < generatedCount;
+  }
+
+  boolean exists(long index) {
+    return index >= 0 && exists(index, getStored(index));
+  }
+
+  @Nullable
+  String getValue(long index, @Nullable Map<String, String> storedValues, Field field) {
+    if (FieldType.id == field.getType()) {
+      return getId(index);
+    }
+    if (storedValues != null) {
+      return storedValues.get(field.getName());
+    }
+    return generator.getValue(field, index);
+  }
+
+  /**
+   * @return all values of the existing record, keyed by field name
+   */
+  public Map<String, String> getValues(long index) {
+    Map<String, String> storedValues = getStored(index);
+    Map<String, String> values = new LinkedHashMap<>();
+    for (Field field : fieldList) {
+      values.put(field.getName(), getValue(index, storedValues, field));
+    }
+    return values;
+  }
+
+  /**
+   * Reserves indexes for the given number of records. Records are not created until they are stored.
+   *
+   * @return index of the first reserved record
+   */
+  long reserve(int count) {
+    return nextIndex.getAndAdd(count);
+  }
+
+  /**
+   * Stores values of the record with the given index.
+   *
+   * @param index record index obtained by {@link #reserve} or index of the existing record
+   * @param values values keyed by case-insensitive field names, which are replaced by field names
+   */
+  void store(long index, Map<String, String> values) {
+    Map<String, String> record = new HashMap<>();
+    values.forEach((fieldName, value) -> {
+      Field field = getExistingField(fieldName);
+      if (FieldType.id != field.getType()) {
+        record.put(field.getName(), Strings.emptyToNull(value));
+      }
+    });
+    stored.put(index, record);
+  }
+
+  /**
+   * Creates a record with the given values.
+   *
+   * @return Id of the created record
+   */
+  public String create(Map<String, String> values) {
+    long index = reserve(1);
+    store(index, values);
+    return getId(index);
+  }
+
+  /**
+   * Updates given values of the existing record, other values are kept.
+   *
+   * @return false if there is no record with the given index
+   */
+  boolean update(long index, Map<String, String> values) {
+    if (!exists(index)) {
+      return false;
+    }
+    Map<String, String> record = getValues(index);
+    record.putAll(values);
+    store(index, record);
+    return true;
+  }
+
+  boolean delete(long index) {
+    if (!exists(index)) {
+      return false;
+    }
+    stored.put(index, DELETED);
+    return true;
+  }
+
+  /**
+   * Finds stored record by the value of the external id field. Generated records are not searched.
+   *
+   * @return index of the record or -1 if there is no such record
+   */
+  long findStored(String externalIdField, String value) {
+    String fieldName = getExistingField(externalIdField).getName();
+    for (Map.Entry<Long, Map<String, String>> entry : stored.entrySet()) {
+      if (entry.getValue() != DELETED && value.equals(entry.getValue().get(fieldName))) {
+        return entry.getKey();
+      }
+    }
+    return -1;
+  }
+
+  Field getExistingField(String fieldName) {
+    Field field = fields.get(fieldName);
+    if (field == null) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_FIELD,
+                              String.format("No such column '%s' on entity '%s'", fieldName, name));
+    }
+    return field;
+  }
+
+  DescribeSObjectResult describe() {
+    DescribeSObjectResult result = new DescribeSObjectResult();
+    result.setName(name);
+    result.setLabel(name);
+    result.setLabelPlural(name);
+    result.setKeyPrefix(keyPrefix);
+    result.setCustom(name.endsWith("__c"));
+    result.setQueryable(true);
+    result.setRetrieveable(true);
+    result.setCreateable(true);
+    result.setUpdateable(true);
+    result.setDeletable(true);
+    result.setFields(fieldList.toArray(new Field[0]));
+    return result;
+  }
+
+  DescribeGlobalSObjectResult describeGlobal() {
+    DescribeGlobalSObjectResult result = new DescribeGlobalSObjectResult();
+    result.setName(name);
+    result.setLabel(name);
+    result.setLabelPlural(name);
+    result.setKeyPrefix(keyPrefix);
+    result.setCustom(name.endsWith("__c"));
+    result.setQueryable(true);
+    result.setRetrieveable(true);
+    result.setCreateable(true);
+    result.setUpdateable(true);
+    result.setDeletable(true);
+    return result;
+  }
+
+  public static Field createField(String name, FieldType type) {
+    Field field = new Field();
+    field.setName(name);
+    field.setType(type);
+    return field;
+  }
+
+  /**
+   * Fills in metadata which is always present in describe results.
+   */
+  private void completeField(Field field) {
+    if (field.getLabel() == null) {
+      field.setLabel(field.getName());
+    }
+    if (field.getSoapType() == null) {
+      field.setSoapType(getSoapType(field.getType()));
+    }
+    field.setCustom(field.getName().endsWith("__c"));
+    field.setNillable(field.isNillable() && FieldType.id != field.getType());
+    field.setCreateable(FieldType.id != field.getType());
+    field.setUpdateable(FieldType.id != field.getType());
+    field.setFilterable(true);
+  }
+
+  private static SoapType getSoapType(FieldType type) {
+    switch (type) {
+      case _boolean:
+        return SoapType.xsd_boolean;
+      case _int:
+        return SoapType.xsd_int;
+      case _double:
+      case currency:
+      case percent:
+        return SoapType.xsd_double;
+      case date:
+        return SoapType.xsd_date;
+      case datetime:
+        return SoapType.xsd_dateTime;
+      case time:
+        return SoapType.xsd_time;
+      default:
+        return SoapType.xsd_string;
+    }
+  }
+
+  /**
+   * Generates the value of the field for the record with the given index.
+   */
+  public interface ValueGenerator {
+
+    @Nullable
+    String getValue(Field field, long index);
+  }
+
+  /**
+   * Generates values in the format Salesforce returns them in, based on the field type.
+   * Values are deterministic, so the same record is returned by every request.
+   */
+  public static String generateValue(Field field, long index) {
+    switch (field.getType()) {
+      case _boolean:
+        return String.valueOf(index % 2 == 0);
+      case _int:
+        return String.valueOf(index % Integer.MAX_VALUE);
+      case _double:
+      case currency:
+      case percent:
+        return String.valueOf(index * 1.25);
+      case date:
+        return LocalDate.ofEpochDay(17_000 + index % 1_000).toString();
+      case datetime:
+        return Instant.ofEpochMilli(BASE_EPOCH_MILLI + index * 1_000L).toString();
+      case time:
+        return LocalTime.ofSecondOfDay(index % 86_400).format(TIME_FORMATTER);
+      case textarea:
+        int length = field.getLength() == 0 ? 255 : field.getLength();
+        return Strings.padEnd(field.getName() + " value " + index, length, 'x');
+      default:
+        return field.getName() + " value " + index;
+    }
+  }
+}
@@ -0,0 +1,678 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sforce.async.OperationEnum;
+import com.sforce.soap.partner.Field;
+import com.sforce.soap.partner.FieldType;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.CometDServlet;
+import org.cometd.server.DefaultSecurityPolicy;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Embedded stand-in of Salesforce APIs used by the plugin, for end-to-end tests without network access.
+ * <p/>
+ * The server implements OAuth username-password login, Bulk API 1.0 jobs with PK chunking and multiple
+ * query results, Bulk API 2.0 query jobs, SOAP query, queryMore, retrieve, describe and create calls,
+ * sObject describe REST endpoint and CometD endpoint of the Streaming API. Records of sObjects are generated
+ * on the fly from the record index, so that millions of records can be queried without keeping them in memory.
+ * Records created or modified by clients are kept in memory.
+ * <p/>
+ * Latency, throttling, API request limit, batch processing delay and failure injection are configurable,
+ * counts of requests and records are collected per operation to detect regressions in API usage.
+ */
+public class LocalSalesforceServer implements AutoCloseable {
+
+  public static final String PUSH_TOPIC = "PushTopic";
+
+  private static final String API_VERSION = SalesforceConstants.API_VERSION;
+  private static final String OAUTH_PATH = "/services/oauth2/token";
+  private static final String BULK_PATH = "/services/async/" + API_VERSION;
+  private static final String SOAP_PATH = "/services/Soap/u/" + API_VERSION;
+  private static final String REST_PATH = "/services/data/v" + API_VERSION;
+  private static final String COMETD_PATH = "/cometd/" + API_VERSION;
+
+  private final Server server;
+  private final Map<String, LocalSObject> sObjects = new ConcurrentHashMap<>();
+  private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+  private final Map<String, LocalBulkJob> jobs = new ConcurrentHashMap<>();
+  private final Map<String, LocalQuery> queryJobs = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+  private final AtomicLong apiRequestCount = new AtomicLong();
+  private final AtomicLong recordsQueried = new AtomicLong();
+  private final AtomicLong recordsIngested = new AtomicLong();
+  private final AtomicLong idSequence = new AtomicLong();
+  private final AtomicInteger keyPrefixSequence = new AtomicInteger();
+  private final AtomicInteger failingBatches = new AtomicInteger();
+  private final AtomicInteger failingBatchUploads = new AtomicInteger();
+  private final AtomicInteger activeBatchUploads = new AtomicInteger();
+  private final AtomicInteger maxActiveBatchUploads = new AtomicInteger();
+  private final Random random = new Random(0);
+
+  private volatile String username;
+  private volatile String password;
+  private volatile long latencyMillis;
+  @Nullable
+  private volatile RateLimiter rateLimiter;
+  private volatile long apiRequestLimit;
+  private volatile long batchProcessingDelayMillis;
+  private volatile long batchUploadDelayMillis;
+  private volatile int recordsPerResult = Integer.MAX_VALUE;
+  private volatile double requestFailureRate;
+  private volatile int recordFailureInterval;
+  private volatile boolean retainIngestedRecords = true;
+
+  private BayeuxServer bayeuxServer;
+  private LocalSession publisher;
+
+  public LocalSalesforceServer() {
+    server = new Server(new InetSocketAddress("localhost", 0));
+    ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+    context.setContextPath("/");
+    context.addServlet(new ServletHolder(new OAuthServlet(this)), OAUTH_PATH);
+    context.addServlet(new ServletHolder(new BulkServlet(this)), BULK_PATH + "/*");
+    context.addServlet(new ServletHolder(new SoapServlet(this)), SOAP_PATH + "/*");
+    context.addServlet(new ServletHolder(new RestServlet(this)), REST_PATH + "/*");
+    ServletHolder cometdHolder = new ServletHolder(new CometDServlet());
+    cometdHolder.setAsyncSupported(true);
+    cometdHolder.setInitOrder(1);
+    context.addServlet(cometdHolder, COMETD_PATH + "/*");
+    server.setHandler(context);
+    addSObject(PUSH_TOPIC, "0IF", Arrays.asList(LocalSObject.createField("Name", FieldType.string),
+                                                LocalSObject.createField("Query", FieldType.string),
+                                                LocalSObject.createField("ApiVersion", FieldType._double),
+                                                LocalSObject.createField("NotifyForOperationCreate",
+                                                                         FieldType._boolean),
+                                                LocalSObject.createField("NotifyForOperationUpdate",
+                                                                         FieldType._boolean),
+                                                LocalSObject.createField("NotifyForOperationDelete",
+                                                                         FieldType._boolean),
+                                                LocalSObject.createField("NotifyForFields", FieldType.picklist)),
+               0, LocalSObject::generateValue);
+  }
+
+  /**
+   * Starts the server on a random local port.
+   */
+  public LocalSalesforceServer start() throws Exception {
+    server.start();
+    ServletContextHandler context = (ServletContextHandler) server.getHandler();
+    bayeuxServer = (BayeuxServer) context.getServletContext().getAttribute(BayeuxServer.ATTRIBUTE);
+    bayeuxServer.setSecurityPolicy(new SessionSecurityPolicy());
+    publisher = bayeuxServer.newLocalSession("publisher");
+    publisher.handshake();
+    return this;
+  }
+
+  @Override
+  public void close() throws Exception {
+    server.stop();
+  }
+
+  /**
+   * @return url of the instance, returned to clients on login
+   */
+  public String getInstanceUrl() {
+    return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+  }
+
+  /**
+   * @return url of the OAuth token endpoint, to be used as login url in plugin configs
+   */
+  public String getLoginUrl() {
+    return getInstanceUrl() + OAUTH_PATH;
+  }
+
+  /**
+   * @return credentials accepted by the server
+   */
+  public AuthenticatorCredentials getCredentials() {
+    return new AuthenticatorCredentials(Strings.nullToEmpty(username), Strings.nullToEmpty(password),
+                                        "localConsumerKey", "localConsumerSecret", getLoginUrl());
+  }
+
+  /**
+   * Adds sObject with the given number of generated records, values are generated by
+   * {@link LocalSObject#generateValue}.
+   */
+  public LocalSObject addSObject(String name, List<Field> fields, long generatedCount) {
+    return addSObject(name, fields, generatedCount, LocalSObject::generateValue);
+  }
+
+  /**
+   * Adds sObject with the given number of generated records. Id field is added if it is not in the given fields.
+   *
+   * @param name sObject name
+   * @param fields sObject fields, metadata which is not set is filled in according to the field type
+   * @param generatedCount number of records which exist from the start, their values are generated
+   * @param generator generator of record values by field and record index
+   * @return added sObject
+   */
+  public LocalSObject addSObject(String name, List<Field> fields, long generatedCount,
+                                 LocalSObject.ValueGenerator generator) {
+    return addSObject(name, String.format("a%02d", keyPrefixSequence.incrementAndGet()), fields, generatedCount,
+                      generator);
+  }
+
+  private LocalSObject addSObject(String name, String keyPrefix, List<Field> fields, long generatedCount,
+                                  LocalSObject.ValueGenerator generator) {
+    LocalSObject sObject = new LocalSObject(name, keyPrefix, fields, generatedCount, generator);
+    sObjects.put(name.toLowerCase(), sObject);
+    return sObject;
+  }
+
+  /**
+   * @return sObject with the given case-insensitive name or null if there is no such sObject
+   */
+  @Nullable
+  public LocalSObject getSObject(String name) {
+    return name == null ? null : sObjects.get(name.toLowerCase());
+  }
+
+  LocalSObject getExistingSObject(String name) {
+    LocalSObject sObject = getSObject(name);
+    if (sObject == null) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_TYPE,
+                              String.format("sObject type '%s' is not supported.", name));
+    }
+    return sObject;
+  }
+
+  /**
+   * @return all sObjects sorted by name
+   */
+  List<LocalSObject> getSObjects() {
+    Map<String, LocalSObject> sorted = new TreeMap<>(sObjects);
+    return new ArrayList<>(sorted.values());
+  }
+
+  /**
+   * Creates a record and notifies subscribers of push topics on the sObject.
+   *
+   * @return Id of the created record
+   */
+  String createRecord(LocalSObject sObject, Map<String, String> values) {
+    String id = sObject.create(values);
+    recordsIngested.incrementAndGet();
+    publishCreated(sObject, id);
+    return id;
+  }
+
+  /**
+   * Publishes the given data to subscribers of the push topic.
+   */
+  public void publish(String topic, Map<String, Object> data) {
+    bayeuxServer.createChannelIfAbsent("/topic/" + topic).getReference().publish(publisher, data);
+  }
+
+  /**
+   * @return number of clients subscribed to the push topic
+   */
+  public int getSubscriberCount(String topic) {
+    ServerChannel channel = bayeuxServer.getChannel("/topic/" + topic);
+    return channel == null ? 0 : channel.getSubscribers().size();
+  }
+
+  /**
+   * Publishes an event in the format of the Streaming API to push topics which query the sObject
+   * and notify about created records.
+   */
+  private void publishCreated(LocalSObject sObject, String id) {
+    LocalSObject pushTopics = getSObject(PUSH_TOPIC);
+    if (pushTopics == null || sObject == pushTopics || bayeuxServer == null) {
+      return;
+    }
+    for (long index = 0; index < pushTopics.getIndexLimit(); index++) {
+      if (!pushTopics.exists(index)) {
+        continue;
+      }
+      Map<String, String> pushTopic = pushTopics.getValues(index);
+      if ("false".equalsIgnoreCase(pushTopic.get("NotifyForOperationCreate"))) {
+        continue;
+      }
+      LocalQuery query;
+      try {
+        query = LocalQuery.parse(pushTopic.get("Query"), this::getSObject);
+      } catch (LocalApiError e) {
+        continue;
+      }
+      long recordIndex = sObject.getIndex(id);
+      if (query.getSObject() != sObject || query.withRange(recordIndex, recordIndex + 1).count() == 0) {
+        continue;
+      }
+
+      Map<String, String> values = sObject.getValues(recordIndex);
+      Map<String, Object> record = new LinkedHashMap<>();
+      for (Field field : query.getFields()) {
+        record.put(field.getName(), values.get(field.getName()));
+      }
+      Map<String, Object> event = ImmutableMap.of("type", "created", "createdDate", Instant.now().toString());
+      Map<String, Object> data = new HashMap<>();
+      data.put("event", event);
+      data.put("sobject", record);
+      publish(pushTopic.get("Name"), data);
+    }
+  }
+
+  /**
+   * Restricts logins to the given credentials, by default any credentials are accepted.
+   */
+  public LocalSalesforceServer setCredentials(String username, String password) {
+    this.username = username;
+    this.password = password;
+    return this;
+  }
+
+  boolean isValidLogin(@Nullable String username, @Nullable String password) {
+    return this.username == null
+      || (this.username.equals(username) && Strings.nullToEmpty(this.password).equals(password));
+  }
+
+  String createSession() {
+    String session = "00Dlocal!" + UUID.randomUUID().toString().replace("-", "");
+    sessions.add(session);
+    return session;
+  }
+
+  void checkSession(@Nullable String session) {
+    if (session == null || !sessions.contains(session)) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_SESSION,
+                              "Invalid Session ID found in SessionHeader: Illegal Session");
+    }
+  }
+
+  void invalidateSession(String session) {
+    sessions.remove(session);
+  }
+
+  /**
+   * Invalidates all issued sessions, as happens when sessions time out.
+   */
+  public void expireSessions() {
+    sessions.clear();
+  }
+
+  /**
+   * Applies latency, throttling, request limit and request failure injection.
+   *
+   * @param apiRequest true if request counts towards the API request limit
+   */
+  void beforeRequest(boolean apiRequest) {
+    if (latencyMillis > 0) {
+      Uninterruptibles.sleepUninterruptibly(latencyMillis, TimeUnit.MILLISECONDS);
+    }
+    RateLimiter limiter = rateLimiter;
+    if (limiter != null) {
+      limiter.acquire();
+    }
+    if (!apiRequest) {
+      return;
+    }
+    long count = apiRequestCount.incrementAndGet();
+    if (apiRequestLimit > 0 && count > apiRequestLimit) {
+      throw new LocalApiError(LocalApiError.Type.REQUEST_LIMIT_EXCEEDED, "TotalRequests Limit exceeded.");
+    }
+    if (requestFailureRate > 0) {
+      boolean fail;
+      synchronized (random) {
+        fail = random.nextDouble() < requestFailureRate;
+      }
+      if (fail) {
+        throw new LocalApiError(LocalApiError.Type.UNKNOWN, "Injected request failure");
+      }
+    }
+  }
+
+  LocalBulkJob createBulkJob(LocalSObject sObject, OperationEnum operation, @Nullable String externalIdField,
+                             int pkChunkSize) {
+    LocalBulkJob job = new LocalBulkJob(nextId("750"), sObject, operation, externalIdField, pkChunkSize,
+                                        System.currentTimeMillis());
+    jobs.put(job.getId(), job);
+    return job;
+  }
+
+  LocalBulkJob getBulkJob(String jobId) {
+    LocalBulkJob job = jobs.get(jobId);
+    if (job == null) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_JOB, String.format("Unable to find job '%s'", jobId));
+    }
+    return job;
+  }
+
+  /**
+   * Creates Bulk API 2.0 query job, the job is completed right away.
+   *
+   * @return id of the created job
+   */
+  String createQueryJob(String soql) {
+    String jobId = nextId("750");
+    queryJobs.put(jobId, LocalQuery.parse(soql, this::getSObject));
+    return jobId;
+  }
+
+  LocalQuery getQueryJob(String jobId) {
+    LocalQuery query = queryJobs.get(jobId);
+    if (query == null) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_JOB, String.format("Unable to find job '%s'", jobId));
+    }
+    return query;
+  }
+
+  /**
+   * Creates query batch. If PK chunking is enabled for the job, the batch is not processed and
+   * a batch is created for every chunk of record Ids instead.
+   *
+   * @return created batch
+   */
+  LocalBulkJob.Batch createQueryBatch(LocalBulkJob job, String soql) {
+    long now = System.currentTimeMillis();
+    String failure = nextBatchFailure();
+    LocalQuery query = null;
+    try {
+      query = LocalQuery.parse(soql, this::getSObject);
+    } catch (LocalApiError e) {
+      failure = "InvalidBatch : Failed to process query: " + e.getType().getSoapCode() + ": " + e.getMessage();
+    }
+
+    boolean chunked = failure == null && job.getPkChunkSize() > 0;
+    LocalBulkJob.QueryBatch batch = new LocalBulkJob.QueryBatch(nextId("751"), job.getId(), now,
+                                                                batchProcessingDelayMillis, failure, query,
+                                                                recordsPerResult, chunked);
+    job.addBatch(batch);
+    if (chunked) {
+      for (long from = query.getFromIndex(); from < query.getToIndex(); from += job.getPkChunkSize()) {
+        job.addBatch(new LocalBulkJob.QueryBatch(nextId("751"), job.getId(), now, batchProcessingDelayMillis,
+                                                 nextBatchFailure(), query.withRange(from, from + job.getPkChunkSize()),
+                                                 recordsPerResult, false));
+      }
+    }
+    return batch;
+  }
+
+  /**
+   * Creates ingest batch. Request is held for the configured upload delay, unless its upload is made to fail.
+   *
+   * @return created batch
+   */
+  LocalBulkJob.Batch createIngestBatch(LocalBulkJob job, byte[] csv) throws IOException {
+    maxActiveBatchUploads.accumulateAndGet(activeBatchUploads.incrementAndGet(), Math::max);
+    try {
+      if (failingBatchUploads.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+        throw new LocalApiError(LocalApiError.Type.INVALID_BATCH, "Injected batch upload failure");
+      }
+      if (batchUploadDelayMillis > 0) {
+        Uninterruptibles.sleepUninterruptibly(batchUploadDelayMillis, TimeUnit.MILLISECONDS);
+      }
+      LocalBulkJob.IngestBatch batch = LocalBulkJob.IngestBatch.apply(nextId("751"), job, System.currentTimeMillis(),
+                                                                      batchProcessingDelayMillis, nextBatchFailure(),
+                                                                      csv, retainIngestedRecords,
+                                                                      recordFailureInterval);
+      job.addBatch(batch);
+      recordsIngested.addAndGet(batch.getRecordsCount());
+      return batch;
+    } finally {
+      activeBatchUploads.decrementAndGet();
+    }
+  }
+
+  @Nullable
+  private String nextBatchFailure() {
+    return failingBatches.getAndUpdate(count -> Math.max(0, count - 1)) > 0
+      ? "InvalidBatch : Injected batch failure" : null;
+  }
+
+  private String nextId(String keyPrefix) {
+    return keyPrefix + Strings.padStart(Long.toString(idSequence.incrementAndGet()), 15, '0');
+  }
+
+  void count(String operation) {
+    requestCounts.computeIfAbsent(operation, key -> new AtomicLong()).incrementAndGet();
+  }
+
+  void addRecordsQueried(long count) {
+    recordsQueried.addAndGet(count);
+  }
+
+  /**
+   * @return number of requests of the given operation, for example 'bulk.createBatch' or 'soap.queryMore'
+   */
+  public long getRequestCount(String operation) {
+    AtomicLong count = requestCounts.get(operation);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * @return number of requests of every operation which was called, sorted by operation
+   */
+  public Map<String, Long> getRequestCounts() {
+    Map<String, Long> counts = new TreeMap<>();
+    requestCounts.forEach((operation, count) -> counts.put(operation, count.get()));
+    return counts;
+  }
+
+  /**
+   * @return number of API requests after which requests fail, 0 means no limit
+   */
+  long getApiRequestLimit() {
+    return apiRequestLimit;
+  }
+
+  /**
+   * @return number of requests counted towards the API request limit
+   */
+  public long getApiRequestCount() {
+    return apiRequestCount.get();
+  }
+
+  /**
+   * @return number of records returned by query results, queryMore and retrieve calls
+   */
+  public long getRecordsQueried() {
+    return recordsQueried.get();
+  }
+
+  /**
+   * @return number of records uploaded in ingest batches or created by SOAP calls
+   */
+  public long getRecordsIngested() {
+    return recordsIngested.get();
+  }
+
+  /**
+   * @return number of ingest batch uploads which are being handled by the server
+   */
+  public int getActiveBatchUploads() {
+    return activeBatchUploads.get();
+  }
+
+  /**
+   * @return max number of ingest batch uploads which were handled by the server at the same time
+   */
+  public int getMaxActiveBatchUploads() {
+    return maxActiveBatchUploads.get();
+  }
+
+  public void resetCounters() {
+    requestCounts.clear();
+    maxActiveBatchUploads.set(0);
+    apiRequestCount.set(0);
+    recordsQueried.set(0);
+    recordsIngested.set(0);
+  }
+
+  /**
+   * Resets counters and settings to defaults. sObjects, records and sessions are kept.
+   */
+  public void reset() {
+    resetCounters();
+    latencyMillis = 0;
+    rateLimiter = null;
+    apiRequestLimit = 0;
+    batchProcessingDelayMillis = 0;
+    batchUploadDelayMillis = 0;
+    recordsPerResult = Integer.MAX_VALUE;
+    requestFailureRate = 0;
+    failingBatches.set(0);
+    failingBatchUploads.set(0);
+    recordFailureInterval = 0;
+    retainIngestedRecords = true;
+    synchronized (random) {
+      random.setSeed(0);
+    }
+  }
+
+  /**
+   * Sets latency added to every request.
+   */
+  public LocalSalesforceServer setLatency(long latency, TimeUnit unit) {
+    this.latencyMillis = unit.toMillis(latency);
+    return this;
+  }
+
+  /**
+   * Throttles requests to the given rate, 0 disables throttling.
+   */
+  public LocalSalesforceServer setRequestsPerSecond(double requestsPerSecond) {
+    this.rateLimiter = requestsPerSecond > 0 ? RateLimiter.create(requestsPerSecond) : null;
+    return this;
+  }
+
+  /**
+   * Sets the number of API requests after which requests fail with REQUEST_LIMIT_EXCEEDED, 0 means no limit.
+   */
+  public LocalSalesforceServer setApiRequestLimit(long apiRequestLimit) {
+    this.apiRequestLimit = apiRequestLimit;
+    return this;
+  }
+
+  /**
+   * Sets time from creation of a batch till its completion. Batch is reported as queued in the first half
+   * of this time and as in progress in the second half.
+   */
+  public LocalSalesforceServer setBatchProcessingDelay(long delay, TimeUnit unit) {
+    this.batchProcessingDelayMillis = unit.toMillis(delay);
+    return this;
+  }
+
+  /**
+   * Sets time the server takes to accept an uploaded ingest batch, as happens with large batches or slow networks.
+   */
+  public LocalSalesforceServer setBatchUploadDelay(long delay, TimeUnit unit) {
+    this.batchUploadDelayMillis = unit.toMillis(delay);
+    return this;
+  }
+
+  /**
+   * Sets max number of records in a query result, batches with more records have multiple results.
+   */
+  public LocalSalesforceServer setRecordsPerResult(int recordsPerResult) {
+    this.recordsPerResult = recordsPerResult;
+    return this;
+  }
+
+  /**
+   * Sets the probability of an API request failing with UNKNOWN_EXCEPTION. Failures are random
+   * but reproducible, since random generator is seeded.
+   */
+  public LocalSalesforceServer setRequestFailureRate(double requestFailureRate) {
+    this.requestFailureRate = requestFailureRate;
+    return this;
+  }
+
+  /**
+   * Makes the given number of batches created next fail.
+   */
+  public LocalSalesforceServer failNextBatches(int count) {
+    failingBatches.set(count);
+    return this;
+  }
+
+  /**
+   * Makes the given number of ingest batch uploads received next fail immediately, so batches are not created.
+   */
+  public LocalSalesforceServer failNextBatchUploads(int count) {
+    failingBatchUploads.set(count);
+    return this;
+  }
+
+  /**
+   * Makes every record with the given interval in ingest batches fail, 0 means that records do not fail.
+   */
+  public LocalSalesforceServer setRecordFailureInterval(int recordFailureInterval) {
+    this.recordFailureInterval = recordFailureInterval;
+    return this;
+  }
+
+  /**
+   * Sets whether ingested records are stored. Throughput tests of sinks disable it to keep memory bounded,
+   * records are validated and counted in that case.
+   */
+  public LocalSalesforceServer setRetainIngestedRecords(boolean retainIngestedRecords) {
+    this.retainIngestedRecords = retainIngestedRecords;
+    return this;
+  }
+
+  /**
+   * Accepts handshakes only from clients which send a valid session in the OAuth header.
+   */
+  private class SessionSecurityPolicy extends DefaultSecurityPolicy {
+
+    @Override
+    public boolean canHandshake(BayeuxServer server, ServerSession session, ServerMessage message) {
+      if (session.isLocalSession()) {
+        return true;
+      }
+      count("cometd.handshake");
+      String authorization = message.getBayeuxContext() == null
+        ? null : message.getBayeuxContext().getHeader("Authorization");
+      return authorization != null && authorization.startsWith("OAuth ")
+        && sessions.contains(authorization.substring("OAuth ".length()));
+    }
+  }
+}
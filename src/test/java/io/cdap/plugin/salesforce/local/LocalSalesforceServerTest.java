@@ -0,0 +1,335 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+import com.sforce.async.OperationEnum;
+import com.sforce.soap.partner.DescribeSObjectResult;
+import com.sforce.soap.partner.FieldType;
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.fault.ApiFault;
+import com.sforce.soap.partner.fault.ExceptionCode;
+import com.sforce.soap.partner.sobject.SObject;
+import io.cdap.plugin.salesforce.BulkResultInputStream;
+import io.cdap.plugin.salesforce.SalesforceBulkUtil;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import io.cdap.plugin.salesforce.authenticator.AuthResponse;
+import io.cdap.plugin.salesforce.authenticator.Authenticator;
+import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import io.cdap.plugin.salesforce.plugin.source.streaming.SalesforcePushTopicListener;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.awaitility.Awaitility;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link LocalSalesforceServer}, the server is called through the same clients the plugin uses.
+ */
+public class LocalSalesforceServerTest {
+
+  private static final String SOBJECT = "Local_Account__c";
+  // records are created in a separate sObject, so that the number of queried records does not depend on test order
+  private static final String CREATED_SOBJECT = "Local_Contact__c";
+  private static final int RECORDS = 2500;
+
+  private static LocalSalesforceServer server;
+  private static LocalSObject sObject;
+  private static AuthenticatorCredentials credentials;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    server = new LocalSalesforceServer().start();
+    sObject = server.addSObject(SOBJECT, Arrays.asList(LocalSObject.createField("Name", FieldType.string),
+                                                       LocalSObject.createField("Amount__c", FieldType.currency),
+                                                       LocalSObject.createField("CloseDate__c", FieldType.date)),
+                                RECORDS);
+    server.addSObject(CREATED_SOBJECT, Arrays.asList(LocalSObject.createField("Name", FieldType.string),
+                                                     LocalSObject.createField("Amount__c", FieldType.currency)),
+                      0);
+    credentials = server.getCredentials();
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    server.close();
+  }
+
+  @After
+  public void reset() {
+    server.reset();
+  }
+
+  @Test
+  public void testSoapQueryIsPaged() throws Exception {
+    PartnerConnection connection = SalesforceConnectionUtil.getPartnerConnection(credentials);
+    connection.setQueryOptions(200);
+
+    QueryResult queryResult = connection.query(String.format("SELECT Id, Name FROM %s", SOBJECT));
+    Assert.assertEquals(RECORDS, queryResult.getSize());
+    Assert.assertEquals(sObject.getId(0), queryResult.getRecords()[0].getField("Id"));
+    Assert.assertEquals("Name value 0", queryResult.getRecords()[0].getField("Name"));
+
+    int records = queryResult.getRecords().length;
+    while (!queryResult.isDone()) {
+      queryResult = connection.queryMore(queryResult.getQueryLocator());
+      records += queryResult.getRecords().length;
+    }
+    Assert.assertEquals(RECORDS, records);
+    Assert.assertEquals(1, server.getRequestCount("soap.query"));
+    Assert.assertEquals(12, server.getRequestCount("soap.queryMore"));
+    Assert.assertEquals(RECORDS, server.getRecordsQueried());
+  }
+
+  @Test
+  public void testSoapQueryWithConditions() throws Exception {
+    PartnerConnection connection = SalesforceConnectionUtil.getPartnerConnection(credentials);
+    String query = String.format("SELECT Id FROM %s WHERE Id >= '%s' AND Id < '%s' AND Amount__c > 250 LIMIT 50",
+                                 SOBJECT, sObject.getId(100), sObject.getId(400));
+
+    QueryResult queryResult = connection.query(query);
+    Assert.assertEquals(50, queryResult.getSize());
+    Assert.assertTrue(queryResult.isDone());
+    // amount is 1.25 times record index, so first 100 records of the range are filtered out
+    Assert.assertEquals(sObject.getId(201), queryResult.getRecords()[0].getField("Id"));
+  }
+
+  @Test
+  public void testDescribeAndRetrieve() throws Exception {
+    PartnerConnection connection = SalesforceConnectionUtil.getPartnerConnection(credentials);
+    DescribeSObjectResult[] describeResults = connection.describeSObjects(new String[]{SOBJECT});
+    Assert.assertEquals(1, describeResults.length);
+    Assert.assertEquals(SOBJECT, describeResults[0].getName());
+    Assert.assertEquals(4, describeResults[0].getFields().length);
+    Assert.assertEquals(FieldType.date, describeResults[0].getFields()[3].getType());
+
+    String missingId = sObject.getId(RECORDS + 1);
+    SObject[] records = connection.retrieve("Id, Name", SOBJECT, new String[]{sObject.getId(5), missingId});
+    Assert.assertEquals(2, records.length);
+    Assert.assertEquals("Name value 5", records[0].getField("Name"));
+    Assert.assertNull(records[1]);
+  }
+
+  @Test
+  public void testBulkQueryWithPKChunking() throws Exception {
+    BulkConnection bulkConnection = new BulkConnection(Authenticator.createConnectorConfig(credentials));
+    bulkConnection.addHeader(SalesforceSourceConstants.HEADER_ENABLE_PK_CHUNK, "chunkSize=1000");
+    server.setBatchProcessingDelay(100, TimeUnit.MILLISECONDS);
+
+    BatchInfo[] batches = SalesforceBulkUtil.runBulkQuery(bulkConnection,
+                                                          String.format("SELECT Id, Name FROM %s", SOBJECT), true,
+                                                          SalesforceMetrics.NONE);
+    Assert.assertEquals(3, batches.length);
+
+    int records = 0;
+    for (BatchInfo batch : batches) {
+      try (InputStream results = SalesforceBulkUtil.waitForBatchResults(bulkConnection, batch.getJobId(),
+                                                                         batch.getId(), SalesforceMetrics.NONE)) {
+        records += readCsv(results).size();
+      }
+    }
+    Assert.assertEquals(RECORDS, records);
+    Assert.assertEquals(1, server.getRequestCount("bulk.createBatch"));
+    Assert.assertEquals(3, server.getRequestCount("bulk.getResult"));
+  }
+
+  @Test
+  public void testBulkQueryWithMultipleResults() throws Exception {
+    BulkConnection bulkConnection = new BulkConnection(Authenticator.createConnectorConfig(credentials));
+    server.setRecordsPerResult(1000);
+
+    BatchInfo batch = SalesforceBulkUtil.runBulkQuery(bulkConnection,
+                                                      String.format("SELECT Id, Name FROM %s", SOBJECT))[0];
+    awaitBatch(bulkConnection, batch);
+
+    String[] resultIds = bulkConnection.getQueryResultList(batch.getJobId(), batch.getId()).getResult();
+    Assert.assertEquals(3, resultIds.length);
+    int records = 0;
+    for (String resultId : resultIds) {
+      // every result has its own header
+      try (InputStream result = bulkConnection.getQueryResultStream(batch.getJobId(), batch.getId(), resultId)) {
+        records += readCsv(result).size();
+      }
+    }
+    Assert.assertEquals(RECORDS, records);
+  }
+
+  @Test
+  public void testBulkInsertWithFailedRecords() throws Exception {
+    BulkConnection bulkConnection = new BulkConnection(Authenticator.createConnectorConfig(credentials));
+    server.setRecordFailureInterval(10);
+
+    JobInfo job = SalesforceBulkUtil.createJob(bulkConnection, CREATED_SOBJECT, OperationEnum.insert, null,
+                                                 SalesforceMetrics.NONE);
+    StringBuilder csv = new StringBuilder("Name,Amount__c\n");
+    for (int i = 0; i < 100; i++) {
+      csv.append("Inserted ").append(i).append(',').append(i).append('\n');
+    }
+    BatchInfo batch = bulkConnection.createBatchFromStream(
+      job, new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)));
+    awaitBatch(bulkConnection, batch);
+    SalesforceBulkUtil.closeJob(bulkConnection, job.getId(), SalesforceMetrics.NONE);
+
+    List<CSVRecord> results;
+    try (InputStream result = bulkConnection.getBatchResultStream(job.getId(), batch.getId())) {
+      results = readCsv(result);
+    }
+    Assert.assertEquals(100, results.size());
+    Assert.assertEquals(10, results.stream().filter(result -> "false".equals(result.get("Success"))).count());
+    Assert.assertEquals(100, server.getRecordsIngested());
+
+    SObject[] records = SalesforceConnectionUtil.getPartnerConnection(credentials)
+      .retrieve("Name", CREATED_SOBJECT, new String[]{results.get(0).get("Id")});
+    Assert.assertEquals("Inserted 0", records[0].getField("Name"));
+  }
+
+  @Test
+  public void testExpiredSessionIsRenewed() throws Exception {
+    PartnerConnection connection = SalesforceConnectionUtil.getPartnerConnection(credentials);
+    String query = String.format("SELECT Id FROM %s LIMIT 1", SOBJECT);
+    connection.query(query);
+    long logins = server.getRequestCount("oauth.token");
+
+    server.expireSessions();
+    Assert.assertEquals(1, connection.query(query).getSize());
+    Assert.assertEquals(logins + 1, server.getRequestCount("oauth.token"));
+  }
+
+  @Test
+  public void testRunSessionIsReusedByTasksAndLoggedOut() throws Exception {
+    // separate server, so that no session is cached for its credentials yet
+    try (LocalSalesforceServer runServer = new LocalSalesforceServer().start()) {
+      runServer.addSObject(SOBJECT, Collections.singletonList(LocalSObject.createField("Name", FieldType.string)),
+                           10);
+      AuthenticatorCredentials runCredentials = runServer.getCredentials();
+      AuthResponse session = SalesforceConnectionUtil.createRunSession(runCredentials);
+
+      // task configuration is rebuilt from the properties of the job, as done by Spark executors
+      Configuration conf = new Configuration(false);
+      conf.set(SalesforceConstants.CONFIG_USERNAME, runCredentials.getUsername());
+      conf.set(SalesforceConstants.CONFIG_PASSWORD, runCredentials.getPassword());
+      conf.set(SalesforceConstants.CONFIG_CONSUMER_KEY, runCredentials.getConsumerKey());
+      conf.set(SalesforceConstants.CONFIG_CONSUMER_SECRET, runCredentials.getConsumerSecret());
+      conf.set(SalesforceConstants.CONFIG_LOGIN_URL, runCredentials.getLoginUrl());
+      SalesforceConnectionUtil.getSessionConfig(session).forEach(conf::set);
+
+      String query = String.format("SELECT Id FROM %s", SOBJECT);
+      Assert.assertEquals(10, SalesforceConnectionUtil.getPartnerConnection(conf).query(query).getSize());
+      Assert.assertEquals(1, runServer.getRequestCount("oauth.token"));
+
+      SalesforceConnectionUtil.logout(session);
+      Assert.assertEquals(1, runServer.getRequestCount("soap.logout"));
+      // session left in the configuration is no longer valid, so it is renewed
+      Assert.assertEquals(10, SalesforceConnectionUtil.getPartnerConnection(conf).query(query).getSize());
+      Assert.assertEquals(2, runServer.getRequestCount("oauth.token"));
+    }
+  }
+
+  @Test
+  public void testBulkResultIsReadWithRenewedSession() throws Exception {
+    BulkConnection bulkConnection = new BulkConnection(Authenticator.createConnectorConfig(credentials));
+    BatchInfo batch = SalesforceBulkUtil.runBulkQuery(bulkConnection,
+                                                      String.format("SELECT Id, Name FROM %s", SOBJECT))[0];
+    awaitBatch(bulkConnection, batch);
+    String[] resultIds = bulkConnection.getQueryResultList(batch.getJobId(), batch.getId()).getResult();
+    long logins = server.getRequestCount("oauth.token");
+
+    // session expires after the batch is processed, but before its result is opened
+    server.expireSessions();
+    try (InputStream result = new BulkResultInputStream(bulkConnection, batch.getJobId(), batch.getId(),
+                                                        resultIds, SalesforceMetrics.NONE)) {
+      Assert.assertEquals(RECORDS, readCsv(result).size());
+    }
+    Assert.assertEquals(logins + 1, server.getRequestCount("oauth.token"));
+  }
+
+  @Test
+  public void testApiRequestLimitIsEnforced() throws Exception {
+    PartnerConnection connection = SalesforceConnectionUtil.getPartnerConnection(credentials);
+    String query = String.format("SELECT Id FROM %s LIMIT 1", SOBJECT);
+    server.setApiRequestLimit(1);
+
+    connection.query(query);
+    try {
+      connection.query(query);
+      Assert.fail("Request limit was not enforced");
+    } catch (ApiFault e) {
+      Assert.assertEquals(ExceptionCode.REQUEST_LIMIT_EXCEEDED, e.getExceptionCode());
+    }
+  }
+
+  @Test
+  public void testPushTopicEventIsReceived() throws Exception {
+    PartnerConnection connection = SalesforceConnectionUtil.getPartnerConnection(credentials);
+    SObject pushTopic = new SObject();
+    pushTopic.setType(LocalSalesforceServer.PUSH_TOPIC);
+    pushTopic.setField("Name", "LocalTopic");
+    pushTopic.setField("Query", String.format("SELECT Id, Name FROM %s", CREATED_SOBJECT));
+    pushTopic.setField("ApiVersion", "45.0");
+    pushTopic.setField("NotifyForOperationCreate", "true");
+    Assert.assertTrue(connection.create(new SObject[]{pushTopic})[0].isSuccess());
+
+    SalesforcePushTopicListener listener = new SalesforcePushTopicListener(credentials, "LocalTopic");
+    listener.start();
+    Awaitility.await().atMost(10, TimeUnit.SECONDS).until(() -> server.getSubscriberCount("LocalTopic") == 1);
+
+    SObject record = new SObject();
+    record.setType(CREATED_SOBJECT);
+    record.setField("Name", "Streamed record");
+    connection.create(new SObject[]{record});
+
+    String message = listener.getMessage(10, TimeUnit.SECONDS);
+    Assert.assertNotNull(message);
+    Assert.assertTrue(message, message.contains("Streamed record"));
+  }
+
+  private static void awaitBatch(BulkConnection bulkConnection, BatchInfo batch) {
+    Awaitility.await()
+      .atMost(10, TimeUnit.SECONDS)
+      .pollInterval(50, TimeUnit.MILLISECONDS)
+      .until(() -> bulkConnection.getBatchInfo(batch.getJobId(), batch.getId()).getState(),
+             state -> state == BatchStateEnum.Completed);
+  }
+
+  private static List<CSVRecord> readCsv(InputStream inputStream) throws IOException {
+    try (CSVParser parser = CSVFormat.RFC4180.withFirstRecordAsHeader()
+      .parse(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+      return parser.getRecords();
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import com.google.gson.Gson;
+import com.sforce.soap.partner.Field;
+import com.sforce.soap.partner.FieldType;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.etl.api.StageMetrics;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.benchmark.BenchmarkData;
+import io.cdap.plugin.salesforce.plugin.sink.batch.CSVRecord;
+import io.cdap.plugin.salesforce.plugin.sink.batch.ErrorHandling;
+import io.cdap.plugin.salesforce.plugin.sink.batch.SalesforceOutputFormat;
+import io.cdap.plugin.salesforce.plugin.sink.batch.SalesforceSinkConstants;
+import io.cdap.plugin.salesforce.plugin.source.batch.MapToRecordTransformer;
+import io.cdap.plugin.salesforce.plugin.source.batch.SalesforceInputFormat;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * End-to-end throughput tests of the batch source and sink against {@link LocalSalesforceServer}.
+ * Records flow through the same input and output formats as in a pipeline, throughput is logged
+ * and API call counts are asserted, so that regressions in either are noticed.
+ * <p/>
+ * Defaults keep the test fast enough for every build, large runs are configured with system properties:
+ * <pre>
+ * mvn test -Dtest=LocalThroughputTest -Dsalesforce.throughput.rows=10000000 \
+ *   -Dsalesforce.throughput.profile=NARROW -Dsalesforce.throughput.latency.ms=50
+ * </pre>
+ */
+public class LocalThroughputTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LocalThroughputTest.class);
+  private static final Gson GSON = new Gson();
+  // sink writes to a separate sObject, so that inserted records do not add PK chunks to the source query
+  private static final String SINK_SOBJECT_NAME = "Benchmark_Target__c";
+
+  private static final int ROWS = Integer.getInteger("salesforce.throughput.rows", 20_000);
+  private static final BenchmarkData.Profile PROFILE =
+    BenchmarkData.Profile.valueOf(System.getProperty("salesforce.throughput.profile", "NARROW"));
+  private static final long LATENCY_MS = Long.getLong("salesforce.throughput.latency.ms", 0L);
+  private static final int PK_CHUNK_SIZE = Integer.getInteger("salesforce.throughput.pk.chunk.size", 5_000);
+  private static final int MAX_RECORDS_PER_BATCH = 10_000;
+  private static final int MAX_BYTES_PER_BATCH = 10_000_000;
+
+  private static LocalSalesforceServer server;
+  private static BenchmarkData data;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    data = new BenchmarkData(PROFILE);
+    server = new LocalSalesforceServer().start();
+    server.addSObject(BenchmarkData.SOBJECT_NAME, data.getFields(), ROWS);
+    server.addSObject(SINK_SOBJECT_NAME, data.getFields(), 0);
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Before
+  public void reset() {
+    server.reset();
+    server.setLatency(LATENCY_MS, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSourceThroughput() throws Exception {
+    Configuration conf = createConfiguration();
+    conf.set(SalesforceConstants.CONFIG_METRICS_KEY, "source");
+    conf.set(SalesforceSourceConstants.CONFIG_QUERIES, GSON.toJson(Collections.singletonList(data.getQuery())));
+    conf.set(SalesforceSourceConstants.CONFIG_SCHEMAS,
+             GSON.toJson(Collections.singletonMap(BenchmarkData.SOBJECT_NAME, data.getSchema().toString())));
+    conf.setBoolean(SalesforceSourceConstants.CONFIG_PK_CHUNK_ENABLE, true);
+    conf.setInt(SalesforceSourceConstants.CONFIG_PK_CHUNK_SIZE, PK_CHUNK_SIZE);
+    TaskAttemptContext context = mockContext(conf);
+
+    long start = System.nanoTime();
+    SalesforceInputFormat inputFormat = new SalesforceInputFormat();
+    List<InputSplit> splits = inputFormat.getSplits(context);
+    MapToRecordTransformer transformer = new MapToRecordTransformer();
+    Schema schema = data.getSchema();
+    long records = 0;
+    for (InputSplit split : splits) {
+      RecordReader<Schema, Map<String, ?>> reader = inputFormat.createRecordReader(split, context);
+      try {
+        reader.initialize(split, context);
+        while (reader.nextKeyValue()) {
+          StructuredRecord record = transformer.transform(schema, reader.getCurrentValue());
+          Assert.assertNotNull(record);
+          records++;
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    logThroughput("Source", records, start);
+
+    int chunks = (ROWS + PK_CHUNK_SIZE - 1) / PK_CHUNK_SIZE;
+    Assert.assertEquals(ROWS, records);
+    Assert.assertEquals(chunks, splits.size());
+    Assert.assertEquals(1, server.getRequestCount("bulk.createJob"));
+    Assert.assertEquals(1, server.getRequestCount("bulk.createBatch"));
+    Assert.assertEquals(chunks, server.getRequestCount("bulk.getResultList"));
+    Assert.assertEquals(chunks, server.getRequestCount("bulk.getResult"));
+
+    Map<String, Long> metrics = emitMetrics("source");
+    Assert.assertEquals(ROWS, (long) metrics.get(SalesforceMetrics.RECORDS + "." + BenchmarkData.SOBJECT_NAME));
+    Assert.assertEquals(chunks, (long) metrics.get(SalesforceMetrics.BATCHES_CREATED));
+    Assert.assertEquals(chunks, (long) metrics.get(SalesforceMetrics.API_CALLS + ".bulk.getQueryResultStream"));
+    Assert.assertTrue(metrics.get(SalesforceMetrics.BYTES_DOWNLOADED) > 0);
+  }
+
+  @Test
+  public void testSinkThroughput() throws Exception {
+    Configuration conf = createConfiguration();
+    conf.set(SalesforceConstants.CONFIG_METRICS_KEY, "sink");
+    conf.set(SalesforceSinkConstants.CONFIG_SOBJECT, SINK_SOBJECT_NAME);
+    conf.set(SalesforceSinkConstants.CONFIG_OPERATION, "insert");
+    conf.set(SalesforceSinkConstants.CONFIG_ERROR_HANDLING, ErrorHandling.STOP.getValue());
+    conf.set(SalesforceSinkConstants.CONFIG_MAX_BYTES_PER_BATCH, String.valueOf(MAX_BYTES_PER_BATCH));
+    conf.set(SalesforceSinkConstants.CONFIG_MAX_RECORDS_PER_BATCH, String.valueOf(MAX_RECORDS_PER_BATCH));
+    conf.setInt(SalesforceSinkConstants.CONFIG_MAX_IN_FLIGHT_BATCHES, 4);
+    TaskAttemptContext context = mockContext(conf);
+    // inserted records are counted rather than kept, so that memory does not grow with the number of rows
+    server.setRetainIngestedRecords(false);
+
+    // Id is generated by Salesforce on insert
+    List<Field> fields = data.getFields().stream()
+      .filter(field -> FieldType.id != field.getType())
+      .collect(Collectors.toList());
+    List<String> columns = fields.stream().map(Field::getName).collect(Collectors.toList());
+
+    long start = System.nanoTime();
+    SalesforceOutputFormat outputFormat = new SalesforceOutputFormat();
+    OutputCommitter committer = outputFormat.getOutputCommitter(context);
+    committer.setupJob(context);
+    RecordWriter<NullWritable, CSVRecord> writer = outputFormat.getRecordWriter(context);
+    for (int row = 0; row < ROWS; row++) {
+      Map<String, String> values = data.getValues(row);
+      List<String> rowValues = new ArrayList<>(columns.size());
+      for (String column : columns) {
+        rowValues.add(values.get(column));
+      }
+      writer.write(NullWritable.get(), new CSVRecord(columns, rowValues));
+    }
+    writer.close(context);
+    committer.commitJob(context);
+    logThroughput("Sink", ROWS, start);
+
+    long batches = server.getRequestCount("bulk.createBatch");
+    Assert.assertEquals(ROWS, server.getRecordsIngested());
+    Assert.assertTrue(batches >= (ROWS + MAX_RECORDS_PER_BATCH - 1) / MAX_RECORDS_PER_BATCH);
+    Assert.assertEquals(1, server.getRequestCount("bulk.createJob"));
+    // job status is requested once when the job is created and once by the record writer
+    Assert.assertEquals(2, server.getRequestCount("bulk.getJob"));
+    Assert.assertEquals(1, server.getRequestCount("bulk.updateJob"));
+    Assert.assertEquals(batches, server.getRequestCount("bulk.getBatchResult"));
+    Assert.assertEquals(0, server.getRequestCount("bulk.getBatchRequest"));
+
+    Map<String, Long> metrics = emitMetrics("sink");
+    Assert.assertEquals(ROWS, (long) metrics.get(SalesforceMetrics.RECORDS));
+    Assert.assertEquals(batches, (long) metrics.get(SalesforceMetrics.BATCHES_CREATED));
+    Assert.assertEquals(batches, (long) metrics.get(SalesforceMetrics.API_CALLS + ".bulk.createBatch"));
+    Assert.assertTrue(metrics.get(SalesforceMetrics.BYTES_UPLOADED) > 0);
+  }
+
+  private static Configuration createConfiguration() {
+    AuthenticatorCredentials credentials = server.getCredentials();
+    Configuration conf = new Configuration();
+    conf.set(SalesforceConstants.CONFIG_USERNAME, credentials.getUsername());
+    conf.set(SalesforceConstants.CONFIG_PASSWORD, credentials.getPassword());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_KEY, credentials.getConsumerKey());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_SECRET, credentials.getConsumerSecret());
+    conf.set(SalesforceConstants.CONFIG_LOGIN_URL, credentials.getLoginUrl());
+    return conf;
+  }
+
+  /**
+   * Task attempt context is used as job context as well, since the formats only read the configuration.
+   */
+  private static TaskAttemptContext mockContext(Configuration conf) {
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(conf);
+    return context;
+  }
+
+  /**
+   * Emits metrics recorded for the stage and returns emitted counts by metric name.
+   */
+  private static Map<String, Long> emitMetrics(String stageName) {
+    Map<String, Long> counts = new HashMap<>();
+    StageMetrics stageMetrics = Mockito.mock(StageMetrics.class);
+    Mockito.doAnswer(invocation -> {
+      Object[] arguments = invocation.getArguments();
+      counts.merge((String) arguments[0], ((Integer) arguments[1]).longValue(), Long::sum);
+      return null;
+    }).when(stageMetrics).count(Mockito.anyString(), Mockito.anyInt());
+    SalesforceMetrics.forKey(stageName).emit(stageMetrics);
+    LOG.info("Metrics of the {} stage: {}", stageName, counts);
+    return counts;
+  }
+
+  private static void logThroughput(String stage, long records, long startNanos) {
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    LOG.info("{} throughput for {} profile: {} records in {} s, {} records/s, API requests: {}",
+             stage, PROFILE, records, String.format("%.2f", seconds), String.format("%.0f", records / seconds),
+             server.getRequestCounts());
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * OAuth token endpoint of the local Salesforce server, supports username-password flow.
+ * Every login issues a new session.
+ */
+class OAuthServlet extends LocalApiServlet {
+
+  OAuthServlet(LocalSalesforceServer server) {
+    super(server);
+  }
+
+  @Override
+  protected boolean isApiRequest() {
+    return false;
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    server.count("oauth.token");
+    if (!"password".equals(request.getParameter("grant_type"))) {
+      writeJson(response, HttpServletResponse.SC_BAD_REQUEST,
+                error("unsupported_grant_type", "grant type not supported"));
+      return;
+    }
+    if (!server.isValidLogin(request.getParameter("username"), request.getParameter("password"))) {
+      writeJson(response, HttpServletResponse.SC_BAD_REQUEST, error("invalid_grant", "authentication failure"));
+      return;
+    }
+
+    String instanceUrl = server.getInstanceUrl();
+    JsonObject token = new JsonObject();
+    token.addProperty("access_token", server.createSession());
+    token.addProperty("instance_url", instanceUrl);
+    token.addProperty("id", instanceUrl + "/id/00D000000000001AAA/005000000000001AAA");
+    token.addProperty("token_type", "Bearer");
+    token.addProperty("issued_at", String.valueOf(System.currentTimeMillis()));
+    token.addProperty("signature", "local");
+    writeJson(response, HttpServletResponse.SC_OK, token);
+  }
+
+  @Override
+  protected void writeError(HttpServletResponse response, LocalApiError error) throws IOException {
+    writeJson(response, error.getType().getStatus(), error(error.getType().getSoapCode(), error.getMessage()));
+  }
+
+  private static JsonObject error(String error, String description) {
+    JsonObject json = new JsonObject();
+    json.addProperty("error", error);
+    json.addProperty("error_description", description);
+    return json;
+  }
+
+  private static void writeJson(HttpServletResponse response, int status, JsonObject json) throws IOException {
+    response.setStatus(status);
+    response.setContentType("application/json;charset=UTF-8");
+    response.getOutputStream().write(json.toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sforce.soap.partner.Field;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * REST endpoints of the local Salesforce server.
+ * <p/>
+ * sObject describe is used to revalidate cached describe results. It responds with 304 status if sObject metadata
+ * was not modified since the time in `If-Modified-Since` header, otherwise returns a minimal describe result
+ * with sObject and field names.
+ * <p/>
+ * Limits resource reports daily API requests, which are the configured API request limit and the number
+ * of API requests made so far.
+ * <p/>
+ * Bulk API 2.0 query jobs are completed as soon as they are created. Results are paged by the record index,
+ * which is used as the locator. A locator is returned for every full page, so the last page is empty
+ * if the number of results is a multiple of the page size. LIMIT of the query is not applied to the results.
+ */
+class RestServlet extends LocalApiServlet {
+
+  private static final Pattern DESCRIBE_PATTERN = Pattern.compile("/sobjects/([^/]+)/describe/?");
+  private static final Pattern LIMITS_PATTERN = Pattern.compile("/limits/?");
+  private static final Pattern QUERY_JOBS_PATTERN = Pattern.compile("/jobs/query/?");
+  private static final Pattern QUERY_JOB_PATTERN = Pattern.compile("/jobs/query/([^/]+)/?");
+  private static final Pattern QUERY_RESULTS_PATTERN = Pattern.compile("/jobs/query/([^/]+)/results/?");
+  private static final Gson GSON = new Gson();
+  private static final String BEARER = "Bearer ";
+
+  RestServlet(LocalSalesforceServer server) {
+    super(server);
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String path = String.valueOf(request.getPathInfo());
+    if (LIMITS_PATTERN.matcher(path).matches()) {
+      server.count("rest.limits");
+      checkSession(request);
+      limits(response);
+      return;
+    }
+
+    Matcher queryJobMatcher = QUERY_JOB_PATTERN.matcher(path);
+    if (queryJobMatcher.matches()) {
+      server.count("rest.getQueryJobInfo");
+      checkSession(request);
+      String jobId = queryJobMatcher.group(1);
+      writeJson(response, HttpServletResponse.SC_OK, queryJobInfo(jobId, server.getQueryJob(jobId)).toString());
+      return;
+    }
+
+    Matcher queryResultsMatcher = QUERY_RESULTS_PATTERN.matcher(path);
+    if (queryResultsMatcher.matches()) {
+      server.count("rest.getQueryResults");
+      checkSession(request);
+      queryResults(request, response, server.getQueryJob(queryResultsMatcher.group(1)));
+      return;
+    }
+
+    Matcher matcher = DESCRIBE_PATTERN.matcher(path);
+    if (!matcher.matches()) {
+      throw new LocalApiError(LocalApiError.Type.UNSUPPORTED,
+                              String.format("Unsupported request: GET %s", request.getRequestURI()));
+    }
+
+    server.count("rest.describe");
+    checkSession(request);
+    LocalSObject sObject = server.getExistingSObject(matcher.group(1));
+    long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+    // http dates have seconds precision
+    if (ifModifiedSince != -1 && sObject.getLastModified() / 1000 <= ifModifiedSince / 1000) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    JsonObject describe = new JsonObject();
+    describe.addProperty("name", sObject.getName());
+    JsonArray fields = new JsonArray();
+    for (Field field : sObject.getFields()) {
+      JsonObject fieldJson = new JsonObject();
+      fieldJson.addProperty("name", field.getName());
+      fieldJson.addProperty("type", field.getType().name().replace("_", ""));
+      fields.add(fieldJson);
+    }
+    describe.add("fields", fields);
+    response.setDateHeader("Last-Modified", sObject.getLastModified());
+    writeJson(response, HttpServletResponse.SC_OK, describe.toString());
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String path = String.valueOf(request.getPathInfo());
+    if (!QUERY_JOBS_PATTERN.matcher(path).matches()) {
+      throw new LocalApiError(LocalApiError.Type.UNSUPPORTED,
+                              String.format("Unsupported request: POST %s", request.getRequestURI()));
+    }
+
+    server.count("rest.createQueryJob");
+    checkSession(request);
+    JsonObject job;
+    try (Reader reader = new InputStreamReader(getBody(request), StandardCharsets.UTF_8)) {
+      job = GSON.fromJson(reader, JsonObject.class);
+    }
+    String jobId = server.createQueryJob(job.get("query").getAsString());
+    writeJson(response, HttpServletResponse.SC_OK, queryJobInfo(jobId, server.getQueryJob(jobId)).toString());
+  }
+
+  private static JsonObject queryJobInfo(String jobId, LocalQuery query) {
+    JsonObject job = new JsonObject();
+    job.addProperty("id", jobId);
+    job.addProperty("operation", "query");
+    job.addProperty("object", query.getSObject().getName());
+    job.addProperty("state", "JobComplete");
+    job.addProperty("numberRecordsProcessed", query.count());
+    return job;
+  }
+
+  private void queryResults(HttpServletRequest request, HttpServletResponse response,
+                            LocalQuery query) throws IOException {
+    String locator = request.getParameter("locator");
+    String maxRecords = request.getParameter("maxRecords");
+    long start = locator == null ? query.getFromIndex() : Long.parseLong(locator);
+    long max = maxRecords == null ? Long.MAX_VALUE : Long.parseLong(maxRecords);
+
+    // page is buffered, since the locator is sent in a header
+    StringWriter writer = new StringWriter();
+    CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withQuoteMode(QuoteMode.ALL)
+      .withRecordSeparator('\n'));
+    for (Field field : query.getFields()) {
+      printer.print(field.getName());
+    }
+    printer.println();
+    long[] written = new long[1];
+    long next = query.scan(start, max, (index, stored) -> {
+      for (Field field : query.getFields()) {
+        printer.print(query.getValue(index, stored, field));
+      }
+      printer.println();
+      written[0]++;
+    });
+    printer.flush();
+    server.addRecordsQueried(written[0]);
+
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setContentType("text/csv;charset=UTF-8");
+    response.setHeader("Sforce-NumberOfRecords", String.valueOf(written[0]));
+    response.setHeader("Sforce-Locator", written[0] < max ? "null"
+      : String.valueOf(next == -1 ? query.getToIndex() : next));
+    response.getOutputStream().write(writer.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void limits(HttpServletResponse response) throws IOException {
+    long max = server.getApiRequestLimit() > 0 ? server.getApiRequestLimit() : Integer.MAX_VALUE;
+    long used = server.getApiRequestCount();
+    JsonObject dailyApiRequests = new JsonObject();
+    dailyApiRequests.addProperty("Max", max);
+    dailyApiRequests.addProperty("Remaining", Math.max(0, max - used));
+    JsonObject limits = new JsonObject();
+    limits.add("DailyApiRequests", dailyApiRequests);
+    response.setHeader("Sforce-Limit-Info", String.format("api-usage=%d/%d", used, max));
+    writeJson(response, HttpServletResponse.SC_OK, limits.toString());
+  }
+
+  private void checkSession(HttpServletRequest request) {
+    String authorization = request.getHeader("Authorization");
+    server.checkSession(authorization != null && authorization.startsWith(BEARER)
+                          ? authorization.substring(BEARER.length()) : null);
+  }
+
+  @Override
+  protected void writeError(HttpServletResponse response, LocalApiError error) throws IOException {
+    JsonObject json = new JsonObject();
+    json.addProperty("message", error.getMessage());
+    json.addProperty("errorCode", error.getType().getSoapCode());
+    JsonArray errors = new JsonArray();
+    errors.add(json);
+    writeJson(response, error.getType().getStatus(), errors.toString());
+  }
+
+  private static void writeJson(HttpServletResponse response, int status, String json) throws IOException {
+    response.setStatus(status);
+    response.setContentType("application/json;charset=UTF-8");
+    response.getOutputStream().write(json.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.local;
+
+import com.sforce.soap.partner.CreateResponse_element;
+import com.sforce.soap.partner.DescribeGlobalResponse_element;
+import com.sforce.soap.partner.DescribeGlobalResult;
+import com.sforce.soap.partner.DescribeGlobalSObjectResult;
+import com.sforce.soap.partner.DescribeSObjectResponse_element;
+import com.sforce.soap.partner.DescribeSObjectResult;
+import com.sforce.soap.partner.DescribeSObjectsResponse_element;
+import com.sforce.soap.partner.Field;
+import com.sforce.soap.partner.LogoutResponse_element;
+import com.sforce.soap.partner.QueryAllResponse_element;
+import com.sforce.soap.partner.QueryMoreResponse_element;
+import com.sforce.soap.partner.QueryResponse_element;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.RetrieveResponse_element;
+import com.sforce.soap.partner.SaveResult;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.bind.TypeMapper;
+import com.sforce.ws.bind.XMLizable;
+import com.sforce.ws.parser.XmlOutputStream;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * SOAP endpoint of the Partner API of the local Salesforce server. Supports query, queryAll, queryMore,
+ * retrieve, describeSObject, describeSObjects, describeGlobal, create and logout calls. Aggregate queries are not
+ * supported, except for SELECT COUNT() queries.
+ * <p/>
+ * Responses are written by the classes of the Partner API client, which are the same classes
+ * the client reads them with, so only the envelope and faults are written by hand.
+ */
+class SoapServlet extends LocalApiServlet {
+
+  private static final String SOAP_ENVELOPE_NAMESPACE = "http://schemas.xmlsoap.org/soap/envelope/";
+  private static final String SCHEMA_INSTANCE_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+  private static final String PARTNER_NAMESPACE = "urn:partner.soap.sforce.com";
+  private static final String SOBJECT_NAMESPACE = "urn:sobject.partner.soap.sforce.com";
+  private static final String FAULT_NAMESPACE = "urn:fault.partner.soap.sforce.com";
+  private static final TypeMapper TYPE_MAPPER = new TypeMapper();
+  private static final int DEFAULT_BATCH_SIZE = 500;
+  private static final int MIN_BATCH_SIZE = 200;
+  private static final int MAX_BATCH_SIZE = 2000;
+  private static final int MAX_RETRIEVE_IDS = 2000;
+  private static final Pattern COUNT_QUERY_PATTERN = Pattern.compile(
+    "(?is)\\s*SELECT\\s+COUNT\\(\\s*\\)\\s+(FROM\\s.*)");
+
+  private final Map<String, QueryCursor> cursors = new ConcurrentHashMap<>();
+  private final AtomicLong cursorSequence = new AtomicLong();
+
+  SoapServlet(LocalSalesforceServer server) {
+    super(server);
+  }
+
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    Document document = parse(request);
+    Element header = getChild(document.getDocumentElement(), "Header");
+    Element body = getChild(document.getDocumentElement(), "Body");
+    Element operation = body == null ? null : getFirstChild(body);
+    if (operation == null) {
+      throw new LocalApiError(LocalApiError.Type.UNSUPPORTED, "SOAP request has no body");
+    }
+
+    server.count("soap." + operation.getLocalName());
+    String session = getText(getChild(header, "SessionHeader"), "sessionId");
+    server.checkSession(session);
+    XMLizable result;
+    switch (operation.getLocalName()) {
+      case "query":
+      case "queryAll":
+        result = query(operation, header);
+        break;
+      case "queryMore":
+        result = queryMore(operation);
+        break;
+      case "retrieve":
+        result = retrieve(operation);
+        break;
+      case "describeSObject":
+        DescribeSObjectResponse_element describeSObjectResponse = new DescribeSObjectResponse_element();
+        describeSObjectResponse.setResult(server.getExistingSObject(getText(operation, "sObjectType")).describe());
+        result = describeSObjectResponse;
+        break;
+      case "describeSObjects":
+        result = describeSObjects(operation);
+        break;
+      case "describeGlobal":
+        result = describeGlobal();
+        break;
+      case "create":
+        result = create(operation);
+        break;
+      case "logout":
+        server.invalidateSession(session);
+        result = new LogoutResponse_element();
+        break;
+      default:
+        throw new LocalApiError(LocalApiError.Type.UNSUPPORTED, String.format(
+          "Operation '%s' is not supported by the local server", operation.getLocalName()));
+    }
+    writeResponse(response, operation.getLocalName() + "Response", result);
+  }
+
+  private XMLizable query(Element operation, @Nullable Element header) throws IOException {
+    String queryString = getText(operation, "queryString");
+    Matcher countMatcher = queryString == null ? null : COUNT_QUERY_PATTERN.matcher(queryString);
+    if (countMatcher != null && countMatcher.matches()) {
+      return count(LocalQuery.parse("SELECT Id " + countMatcher.group(1), server::getSObject));
+    }
+    LocalQuery query = LocalQuery.parse(queryString, server::getSObject);
+    String batchSize = getText(getChild(header, "QueryOptions"), "batchSize");
+    int size = batchSize == null
+      ? DEFAULT_BATCH_SIZE : Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, Integer.parseInt(batchSize)));
+    // total is counted upfront, since Salesforce reports the number of all matching records in every result
+    QueryCursor cursor = new QueryCursor("01g" + cursorSequence.incrementAndGet(), query, size,
+                                         query.getFromIndex(), 0, query.count());
+    // cursor is registered under its id, so that pages at arbitrary offsets can be requested
+    cursors.put(cursor.id, cursor);
+    QueryResult queryResult = fetch(cursor);
+    if ("queryAll".equals(operation.getLocalName())) {
+      QueryAllResponse_element queryAllResponse = new QueryAllResponse_element();
+      queryAllResponse.setResult(queryResult);
+      return queryAllResponse;
+    }
+    QueryResponse_element queryResponse = new QueryResponse_element();
+    queryResponse.setResult(queryResult);
+    return queryResponse;
+  }
+
+  /**
+   * Number of records matching a COUNT() query is returned as the size of an empty result.
+   */
+  private XMLizable count(LocalQuery query) {
+    QueryResult queryResult = new QueryResult();
+    queryResult.setRecords(new SObject[0]);
+    queryResult.setSize((int) query.count());
+    queryResult.setDone(true);
+    QueryResponse_element queryResponse = new QueryResponse_element();
+    queryResponse.setResult(queryResult);
+    return queryResponse;
+  }
+
+  private XMLizable queryMore(Element operation) throws IOException {
+    String queryLocator = getText(operation, "queryLocator");
+    QueryCursor cursor = queryLocator == null ? null : cursors.get(queryLocator);
+    if (cursor == null && queryLocator != null) {
+      cursor = seek(queryLocator);
+    }
+    if (cursor == null) {
+      throw new LocalApiError(LocalApiError.Type.INVALID_QUERY_LOCATOR, "invalid query locator");
+    }
+    QueryMoreResponse_element queryMoreResponse = new QueryMoreResponse_element();
+    queryMoreResponse.setResult(fetch(cursor));
+    return queryMoreResponse;
+  }
+
+  /**
+   * Positions the query of the locator at the offset of the locator, the same way Salesforce accepts
+   * locators in the format of '<cursor id>-<offset>' which were not returned by a query.
+   */
+  @Nullable
+  private QueryCursor seek(String queryLocator) throws IOException {
+    int separator = queryLocator.lastIndexOf('-');
+    QueryCursor start = separator < 0 ? null : cursors.get(queryLocator.substring(0, separator));
+    if (start == null) {
+      return null;
+    }
+    long offset;
+    try {
+      offset = Long.parseLong(queryLocator.substring(separator + 1));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    if (offset < 0 || offset >= start.total) {
+      return null;
+    }
+    long nextIndex = start.query.scan(start.nextIndex, offset, (index, stored) -> { });
+    return nextIndex == -1
+      ? null
+      : new QueryCursor(start.id, start.query, start.batchSize, nextIndex, offset, start.total);
+  }
+
+  /**
+   * Fetches the next batch of records of the cursor. Cursor of the next batch is registered under its locator
+   * rather than advanced, so that a retried queryMore call returns the same records.
+   */
+  private QueryResult fetch(QueryCursor cursor) throws IOException {
+    LocalQuery query = cursor.query;
+    long maxRecords = Math.min(cursor.batchSize, cursor.total - cursor.returned);
+    List<SObject> records = new ArrayList<>();
+    long nextIndex = query.scan(cursor.nextIndex, maxRecords,
+                                (index, stored) -> records.add(toSObject(query.getSObject(), query.getFields(),
+                                                                         index, stored, query)));
+    server.addRecordsQueried(records.size());
+
+    QueryResult queryResult = new QueryResult();
+    queryResult.setRecords(records.toArray(new SObject[0]));
+    queryResult.setSize((int) cursor.total);
+    long returned = cursor.returned + records.size();
+    boolean done = nextIndex == -1 || returned >= cursor.total;
+    queryResult.setDone(done);
+    if (!done) {
+      QueryCursor next = new QueryCursor(cursor.id, query, cursor.batchSize, nextIndex, returned, cursor.total);
+      cursors.put(next.getLocator(), next);
+      queryResult.setQueryLocator(next.getLocator());
+    }
+    return queryResult;
+  }
+
+  private XMLizable retrieve(Element operation) {
+    LocalSObject sObject = server.getExistingSObject(getText(operation, "sObjectType"));
+    List<Field> fields = new ArrayList<>();
+    for (String fieldName : getText(operation, "fieldList").split(",")) {
+      fields.add(sObject.getExistingField(fieldName.trim()));
+    }
+    List<String> ids = getTexts(operation, "ids");
+    if (ids.size() > MAX_RETRIEVE_IDS) {
+      throw new LocalApiError(LocalApiError.Type.UNSUPPORTED,
+                              String.format("Retrieve is limited to %d ids", MAX_RETRIEVE_IDS));
+    }
+
+    SObject[] records = new SObject[ids.size()];
+    int retrieved = 0;
+    for (int i = 0; i < ids.size(); i++) {
+      long index = sObject.getIndex(ids.get(i));
+      Map<String, String> stored = index == -1 ? null : sObject.getStored(index);
+      if (index != -1 && sObject.exists(index, stored)) {
+        records[i] = toSObject(sObject, fields, index, stored, null);
+        retrieved++;
+      }
+    }
+    server.addRecordsQueried(retrieved);
+    RetrieveResponse_element retrieveResponse = new RetrieveResponse_element();
+    retrieveResponse.setResult(records);
+    return retrieveResponse;
+  }
+
+  private XMLizable describeSObjects(Element operation) {
+    List<DescribeSObjectResult> results = new ArrayList<>();
+    for (String sObjectName : getTexts(operation, "sObjectType")) {
+      results.add(server.getExistingSObject(sObjectName).describe());
+    }
+    DescribeSObjectsResponse_element describeSObjectsResponse = new DescribeSObjectsResponse_element();
+    describeSObjectsResponse.setResult(results.toArray(new DescribeSObjectResult[0]));
+    return describeSObjectsResponse;
+  }
+
+  private XMLizable describeGlobal() {
+    List<DescribeGlobalSObjectResult> sObjectResults = new ArrayList<>();
+    for (LocalSObject sObject : server.getSObjects()) {
+      sObjectResults.add(sObject.describeGlobal());
+    }
+    DescribeGlobalResult describeGlobalResult = new DescribeGlobalResult();
+    describeGlobalResult.setEncoding("UTF-8");
+    describeGlobalResult.setMaxBatchSize(MAX_RETRIEVE_IDS);
+    describeGlobalResult.setSobjects(sObjectResults.toArray(new DescribeGlobalSObjectResult[0]));
+    DescribeGlobalResponse_element describeGlobalResponse = new DescribeGlobalResponse_element();
+    describeGlobalResponse.setResult(describeGlobalResult);
+    return describeGlobalResponse;
+  }
+
+  private XMLizable create(Element operation) {
+    List<SaveResult> results = new ArrayList<>();
+    for (Element record : getChildren(operation, "sObjects")) {
+      LocalSObject sObject = server.getExistingSObject(getText(record, "type"));
+      Map<String, String> values = new LinkedHashMap<>();
+      for (Element value : getChildren(record, null)) {
+        String name = value.getLocalName();
+        if (!"type".equals(name) && !"fieldsToNull".equals(name)) {
+          values.put(name, value.getTextContent());
+        }
+      }
+      SaveResult saveResult = new SaveResult();
+      saveResult.setId(server.createRecord(sObject, values));
+      saveResult.setSuccess(true);
+      results.add(saveResult);
+    }
+    CreateResponse_element createResponse = new CreateResponse_element();
+    createResponse.setResult(results.toArray(new SaveResult[0]));
+    return createResponse;
+  }
+
+  private static SObject toSObject(LocalSObject sObject, List<Field> fields, long index,
+                                   @Nullable Map<String, String> stored, @Nullable LocalQuery query) {
+    SObject record = new SObject();
+    record.setType(sObject.getName());
+    for (Field field : fields) {
+      record.setField(field.getName(), query == null
+        ? sObject.getValue(index, stored, field) : query.getValue(index, stored, field));
+    }
+    return record;
+  }
+
+  private static Document parse(HttpServletRequest request) throws IOException {
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware(true);
+      return factory.newDocumentBuilder().parse(getBody(request));
+    } catch (ParserConfigurationException | SAXException e) {
+      throw new LocalApiError(LocalApiError.Type.UNSUPPORTED, "Failed to parse SOAP request: " + e.getMessage());
+    }
+  }
+
+  private static List<Element> getChildren(@Nullable Element parent, @Nullable String localName) {
+    List<Element> children = new ArrayList<>();
+    if (parent == null) {
+      return children;
+    }
+    for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+      if (node instanceof Element && (localName == null || localName.equals(node.getLocalName()))) {
+        children.add((Element) node);
+      }
+    }
+    return children;
+  }
+
+  @Nullable
+  private static Element getChild(@Nullable Element parent, String localName) {
+    List<Element> children = getChildren(parent, localName);
+    return children.isEmpty() ? null : children.get(0);
+  }
+
+  @Nullable
+  private static Element getFirstChild(Element parent) {
+    List<Element> children = getChildren(parent, null);
+    return children.isEmpty() ? null : children.get(0);
+  }
+
+  @Nullable
+  private static String getText(@Nullable Element parent, String localName) {
+    Element child = getChild(parent, localName);
+    return child == null ? null : child.getTextContent().trim();
+  }
+
+  private static List<String> getTexts(Element parent, String localName) {
+    List<String> texts = new ArrayList<>();
+    for (Element child : getChildren(parent, localName)) {
+      texts.add(child.getTextContent().trim());
+    }
+    return texts;
+  }
+
+  private static void writeResponse(HttpServletResponse response, String element, XMLizable result)
+    throws IOException {
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setContentType("text/xml;charset=UTF-8");
+    XmlOutputStream xmlOutputStream = new XmlOutputStream(response.getOutputStream(), false);
+    xmlOutputStream.setPrefix("soapenv", SOAP_ENVELOPE_NAMESPACE);
+    xmlOutputStream.setPrefix("xsi", SCHEMA_INSTANCE_NAMESPACE);
+    xmlOutputStream.setPrefix("", PARTNER_NAMESPACE);
+    xmlOutputStream.setPrefix("sf", SOBJECT_NAMESPACE);
+    xmlOutputStream.startDocument();
+    xmlOutputStream.writeStartTag(SOAP_ENVELOPE_NAMESPACE, "Envelope");
+    xmlOutputStream.writeStartTag(SOAP_ENVELOPE_NAMESPACE, "Body");
+    result.write(new QName(PARTNER_NAMESPACE, element), xmlOutputStream, TYPE_MAPPER);
+    xmlOutputStream.writeEndTag(SOAP_ENVELOPE_NAMESPACE, "Body");
+    xmlOutputStream.writeEndTag(SOAP_ENVELOPE_NAMESPACE, "Envelope");
+    xmlOutputStream.endDocument();
+    xmlOutputStream.close();
+  }
+
+  @Override
+  protected void writeError(HttpServletResponse response, LocalApiError error) throws IOException {
+    String code = error.getType().getSoapCode();
+    String message = escape(error.getMessage());
+    String fault = String.format(
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<soapenv:Envelope xmlns:soapenv=\"%s\" xmlns:sf=\"%s\" xmlns:xsi=\"%s\"><soapenv:Body><soapenv:Fault>"
+        + "<faultcode>sf:%s</faultcode><faultstring>%s: %s</faultstring><detail>"
+        + "<sf:UnexpectedErrorFault xsi:type=\"sf:UnexpectedErrorFault\">"
+        + "<sf:exceptionCode>%s</sf:exceptionCode><sf:exceptionMessage>%s</sf:exceptionMessage>"
+        + "</sf:UnexpectedErrorFault></detail></soapenv:Fault></soapenv:Body></soapenv:Envelope>",
+      SOAP_ENVELOPE_NAMESPACE, FAULT_NAMESPACE, SCHEMA_INSTANCE_NAMESPACE, code, code, message, code, message);
+    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+    response.setContentType("text/xml;charset=UTF-8");
+    response.getOutputStream().write(fault.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static String escape(@Nullable String text) {
+    if (text == null) {
+      return "";
+    }
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+  }
+
+  /**
+   * Position of a query in its results, identified by a query locator.
+   */
+  private static class QueryCursor {
+
+    private final String id;
+    private final LocalQuery query;
+    private final int batchSize;
+    private final long nextIndex;
+    private final long returned;
+    private final long total;
+
+    QueryCursor(String id, LocalQuery query, int batchSize, long nextIndex, long returned, long total) {
+      this.id = id;
+      this.query = query;
+      this.batchSize = batchSize;
+      this.nextIndex = nextIndex;
+      this.returned = returned;
+      this.total = total;
+    }
+
+    String getLocator() {
+      return id + "-" + returned;
+    }
+  }
+}
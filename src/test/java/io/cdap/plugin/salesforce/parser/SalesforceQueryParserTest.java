@@ -16,10 +16,12 @@
 package io.cdap.plugin.salesforce.parser;
 
 import io.cdap.plugin.salesforce.SObjectDescriptor;
+import io.cdap.plugin.salesforce.SalesforceConstants;
 import io.cdap.plugin.salesforce.SalesforceFunctionType;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -245,4 +247,87 @@ public class SalesforceQueryParserTest {
       Collections.singletonList(new SObjectDescriptor("Contacts", fields)),
       result.getChildSObjects());
   }
+
+  @Test
+  public void testQueryPlanIsCached() {
+    String query = "SELECT Id, Name FROM Opportunity WHERE Name LIKE 'A%'";
+    QueryPlan queryPlan = SalesforceQueryParser.getQueryPlan(query);
+
+    Assert.assertSame(queryPlan, SalesforceQueryParser.getQueryPlan(new String(query)));
+    Assert.assertEquals("Opportunity", queryPlan.getDescriptor().getName());
+    Assert.assertEquals("FROM Opportunity WHERE Name LIKE 'A%'", queryPlan.getFromStatement());
+    Assert.assertFalse(queryPlan.isRestricted());
+    Assert.assertFalse(queryPlan.isOrdered());
+    Assert.assertTrue(queryPlan.isUnderLengthLimit());
+  }
+
+  @Test
+  public void testQueryPlanOfOrderedQuery() {
+    Assert.assertTrue(SalesforceQueryParser.parse("SELECT Id, Name FROM Opportunity ORDER BY Name").isOrdered());
+    Assert.assertTrue(SalesforceQueryParser.parse("SELECT Id, Name FROM Opportunity LIMIT 10").isOrdered());
+    // sub-query clauses do not affect rows of the top sObject
+    Assert.assertFalse(SalesforceQueryParser.parse(
+      "SELECT Id, (SELECT Name FROM Contacts ORDER BY Name LIMIT 5) FROM Account").isOrdered());
+  }
+
+  @Test
+  public void testQueryPlanOfPartitionableQuery() {
+    Stream.of(
+      "SELECT Id, Name FROM Opportunity",
+      "SELECT Id, toLabel(StageName) FROM Opportunity WHERE Amount > 100",
+      "SELECT Id, (SELECT Name FROM Contacts ORDER BY Name LIMIT 5) FROM Account")
+      .forEach(query -> Assert.assertTrue(String.format("Query '%s' should have been partitionable", query),
+        SalesforceQueryParser.parse(query).isPartitionable()));
+    Stream.of(
+      "SELECT Name, Id FROM Merchandise__c ORDER BY Name",
+      "SELECT Name FROM Opportunity LIMIT 10 OFFSET 2",
+      "SELECT LeadSource FROM Lead GROUP BY LeadSource",
+      "SELECT COUNT() FROM Lead",
+      "SELECT MAX(CloseDate) Amt FROM Opportunity")
+      .forEach(query -> Assert.assertFalse(String.format("Query '%s' should have not been partitionable", query),
+        SalesforceQueryParser.parse(query).isPartitionable()));
+  }
+
+  @Test
+  public void testQueryPlanOfUnsupportedFields() {
+    // query is syntactically valid, so only its descriptor is not available
+    QueryPlan queryPlan =
+      SalesforceQueryParser.getQueryPlan("SELECT Account.Name FROM Opportunity GROUP BY Account.Name");
+
+    Assert.assertTrue(queryPlan.isRestricted());
+    Assert.assertEquals("FROM Opportunity GROUP BY Account.Name", queryPlan.getFromStatement());
+    try {
+      queryPlan.getDescriptor();
+      Assert.fail("Descriptor must not be available for the query with unsupported fields");
+    } catch (SOQLParsingException e) {
+      // expected failure, do nothing
+    }
+  }
+
+  @Test
+  public void testInvalidQueryPlan() {
+    String query = "SELECT Id FROM Opportunity WHERE";
+    for (int i = 0; i < 2; i++) {
+      try {
+        SalesforceQueryParser.getQueryPlan(query);
+        Assert.fail(String.format("Error must be thrown during query '%s' parsing", query));
+      } catch (SOQLParsingException e) {
+        Assert.assertTrue(e.getMessage().startsWith("Line [1]"));
+      }
+    }
+  }
+
+  @Test
+  public void testWideQueryPlan() {
+    List<String> fields = new ArrayList<>();
+    for (int i = 0; fields.stream().mapToInt(String::length).sum() < SalesforceConstants.SOQL_MAX_LENGTH; i++) {
+      fields.add("Field_" + i + "__c");
+    }
+    String query = String.format("SELECT %s FROM Account", String.join(", ", fields));
+    QueryPlan queryPlan = SalesforceQueryParser.parse(query);
+
+    Assert.assertFalse(queryPlan.isUnderLengthLimit());
+    Assert.assertFalse(queryPlan.isRestricted());
+    Assert.assertEquals(fields, queryPlan.getDescriptor().getFieldsNames());
+  }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.salesforce.plugin.sink.batch;
+
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BulkConnection;
+import com.sforce.async.JobInfo;
+import com.sforce.ws.ConnectorConfig;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link BatchResultVerifier}.
+ */
+public class BatchResultVerifierTest {
+
+  private static final String JOB_ID = "job";
+  private static final String BATCH_ID = "batch";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private InputStream resultStream;
+  private InputStream requestStream;
+
+  @Test
+  public void testResultsAreNotDownloadedWithoutFailures() throws Exception {
+    BulkConnection bulkConnection = Mockito.mock(BulkConnection.class);
+    try (BatchResultVerifier verifier = new BatchResultVerifier(bulkConnection, job(), ErrorHandling.STOP, null,
+                                                                SalesforceMetrics.NONE)) {
+      verifier.verify(batch(0));
+    }
+    Mockito.verify(bulkConnection, Mockito.never()).getBatchResultStream(Mockito.anyString(), Mockito.anyString());
+  }
+
+  @Test
+  public void testStopOnError() throws Exception {
+    BulkConnection bulkConnection = mockConnection();
+    try (BatchResultVerifier verifier = new BatchResultVerifier(bulkConnection, job(), ErrorHandling.STOP, null,
+                                                                SalesforceMetrics.NONE)) {
+      verifier.verify(batch(1));
+      Assert.fail("Verification is expected to fail on the failed record");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("REQUIRED_FIELD_MISSING"));
+    }
+    // result connection is released even though the verification has failed
+    Mockito.verify(resultStream).close();
+  }
+
+  @Test
+  public void testFailedRecordsAreWrittenToErrorOutput() throws Exception {
+    BulkConnection bulkConnection = mockConnection();
+    File errorFile = new File(temporaryFolder.newFolder(), "errors.csv");
+    ErrorRecordWriter errorRecordWriter = new ErrorRecordWriter(new Configuration(), new Path(errorFile.toURI()));
+    try (BatchResultVerifier verifier = new BatchResultVerifier(bulkConnection, job(), ErrorHandling.SKIP,
+                                                                errorRecordWriter, SalesforceMetrics.NONE)) {
+      verifier.verify(batch(1));
+    }
+
+    List<String> lines = Files.readAllLines(errorFile.toPath(), StandardCharsets.UTF_8);
+    Assert.assertEquals(Arrays.asList("Name,error", "second,REQUIRED_FIELD_MISSING:Required fields are missing"),
+                        lines);
+    Mockito.verify(resultStream).close();
+    Mockito.verify(requestStream).close();
+  }
+
+  private BulkConnection mockConnection() throws Exception {
+    ConnectorConfig connectorConfig = new ConnectorConfig();
+    connectorConfig.setServiceEndpoint("https://localhost/services/Soap/u/45.0");
+    BulkConnection bulkConnection = Mockito.mock(BulkConnection.class);
+    Mockito.when(bulkConnection.getConfig()).thenReturn(connectorConfig);
+    String result = "\"Id\",\"Success\",\"Created\",\"Error\"\n" +
+      "\"001\",\"true\",\"true\",\"\"\n" +
+      "\"\",\"false\",\"false\",\"REQUIRED_FIELD_MISSING:Required fields are missing\"\n";
+    String request = "\"Name\"\n\"first\"\n\"second\"\n";
+    resultStream = Mockito.spy(new ByteArrayInputStream(result.getBytes(StandardCharsets.UTF_8)));
+    requestStream = Mockito.spy(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)));
+    Mockito.when(bulkConnection.getBatchResultStream(JOB_ID, BATCH_ID)).thenReturn(resultStream);
+    Mockito.when(bulkConnection.getBatchRequestInputStream(JOB_ID, BATCH_ID)).thenReturn(requestStream);
+    return bulkConnection;
+  }
+
+  private static JobInfo job() {
+    JobInfo jobInfo = new JobInfo();
+    jobInfo.setId(JOB_ID);
+    return jobInfo;
+  }
+
+  private static BatchInfo batch(int failedRecords) {
+    BatchInfo batchInfo = new BatchInfo();
+    batchInfo.setId(BATCH_ID);
+    batchInfo.setJobId(JOB_ID);
+    batchInfo.setNumberRecordsFailed(failedRecords);
+    return batchInfo;
+  }
+}
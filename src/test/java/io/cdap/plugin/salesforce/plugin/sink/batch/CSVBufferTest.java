@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.salesforce.plugin.sink.batch;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link CSVBuffer}.
+ */
+public class CSVBufferTest {
+
+  private static final List<String> COLUMNS = Arrays.asList("Id", "Name");
+
+  @Test
+  public void testMinimalQuoting() throws Exception {
+    CSVBuffer buffer = new CSVBuffer(true);
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("1", "plain")));
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("2", "a,b")));
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("3", "say \"hi\"")));
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("4", "multi\nline")));
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("5", " padded")));
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("6", null)));
+
+    String expected = "Id,Name\r\n" +
+      "1,plain\r\n" +
+      "2,\"a,b\"\r\n" +
+      "3,\"say \"\"hi\"\"\"\r\n" +
+      "4,\"multi\nline\"\r\n" +
+      "5,\" padded\"\r\n" +
+      "6,\r\n";
+    Assert.assertEquals(expected, read(buffer));
+    Assert.assertEquals(6, buffer.getRecordsCount());
+  }
+
+  @Test
+  public void testSizeIsExactUtf8Length() throws Exception {
+    CSVBuffer buffer = new CSVBuffer(false);
+    String value = "é中😀";
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("1", value)));
+
+    byte[] expected = ("1," + value + "\r\n").getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals(expected.length, buffer.size());
+    Assert.assertArrayEquals(expected, read(buffer).getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testMoveLastRecord() throws Exception {
+    CSVBuffer buffer = new CSVBuffer(true);
+    CSVBuffer next = new CSVBuffer(true);
+    // value spans several chunks
+    String longValue = Strings.repeat("x", CSVBuffer.CHUNK_SIZE * 2);
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("1", "first")));
+    CSVRecord last = new CSVRecord(COLUMNS, Arrays.asList("2", longValue));
+    buffer.write(last);
+
+    buffer.moveLastRecord(last, next);
+
+    Assert.assertEquals("Id,Name\r\n1,first\r\n", read(buffer));
+    Assert.assertEquals(1, buffer.getRecordsCount());
+    Assert.assertEquals("Id,Name\r\n2," + longValue + "\r\n", read(next));
+    Assert.assertEquals(1, next.getRecordsCount());
+  }
+
+  @Test
+  public void testReset() throws Exception {
+    CSVBuffer buffer = new CSVBuffer(true);
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("1", "first")));
+    buffer.reset();
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("2", "second")));
+
+    Assert.assertEquals("Id,Name\r\n2,second\r\n", read(buffer));
+  }
+
+  @Test
+  public void testChunksAreNotPooledWhileStreamIsOpen() throws Exception {
+    CSVBuffer buffer = new CSVBuffer(true);
+    buffer.write(new CSVRecord(COLUMNS, Arrays.asList("1", "uploaded")));
+    try (InputStream inputStream = buffer.getInputStream()) {
+      // buffer is closed while its content is still being uploaded
+      buffer.close();
+      CSVBuffer other = new CSVBuffer(true);
+      other.write(new CSVRecord(COLUMNS, Arrays.asList("2", "overwritten")));
+
+      Assert.assertEquals("Id,Name\r\n1,uploaded\r\n",
+                          new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8));
+      other.close();
+    }
+  }
+
+  private static String read(CSVBuffer buffer) throws Exception {
+    try (InputStream inputStream = buffer.getInputStream()) {
+      return new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.sink.batch;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link ErrorRecordWriter}.
+ */
+public class ErrorRecordWriterTest {
+
+  private static final List<String> HEADER = Arrays.asList("Name", "Email");
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File errorOutputDir;
+
+  @Before
+  public void setUp() throws Exception {
+    errorOutputDir = temporaryFolder.newFolder("errors");
+  }
+
+  @Test
+  public void testErrorFileIsMovedOnCommit() throws Exception {
+    TaskAttemptContext context = mockContext(0);
+    try (ErrorRecordWriter writer = ErrorRecordWriter.forTaskAttempt(context)) {
+      writer.write(HEADER, Arrays.asList("name", "invalid"), "INVALID_EMAIL_ADDRESS");
+    }
+    // uncommitted attempt file is not visible in the error output path
+    Assert.assertEquals(Collections.singletonList("_temporary"), listErrorOutput());
+
+    ErrorRecordWriter.commitTask(context);
+    ErrorRecordWriter.cleanupJob(context);
+    String taskFile = String.format("errors-%s.csv", context.getTaskAttemptID().getTaskID());
+    Assert.assertEquals(Collections.singletonList(taskFile), listErrorOutput());
+    Assert.assertEquals(Arrays.asList("Name,Email,error", "name,invalid,INVALID_EMAIL_ADDRESS"),
+                        Files.readAllLines(new File(errorOutputDir, taskFile).toPath(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testErrorFileIsDeletedOnAbort() throws Exception {
+    TaskAttemptContext failedAttempt = mockContext(0);
+    try (ErrorRecordWriter writer = ErrorRecordWriter.forTaskAttempt(failedAttempt)) {
+      writer.write(HEADER, Arrays.asList("name", "invalid"), "INVALID_EMAIL_ADDRESS");
+    }
+    ErrorRecordWriter.abortTask(failedAttempt);
+
+    // retried attempt has no failed records
+    TaskAttemptContext retriedAttempt = mockContext(1);
+    ErrorRecordWriter.forTaskAttempt(retriedAttempt).close();
+    ErrorRecordWriter.commitTask(retriedAttempt);
+    ErrorRecordWriter.cleanupJob(retriedAttempt);
+    Assert.assertEquals(Collections.emptyList(), listErrorOutput());
+  }
+
+  @Test
+  public void testNoWriterWithoutErrorOutputPath() {
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(new Configuration());
+    Assert.assertNull(ErrorRecordWriter.forTaskAttempt(context));
+  }
+
+  private TaskAttemptContext mockContext(int attempt) {
+    Configuration conf = new Configuration();
+    conf.set(SalesforceSinkConstants.CONFIG_ERROR_OUTPUT_PATH, errorOutputDir.toURI().toString());
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(conf);
+    Mockito.when(context.getTaskAttemptID()).thenReturn(new TaskAttemptID("job", 1, TaskType.REDUCE, 0, attempt));
+    return context;
+  }
+
+  private List<String> listErrorOutput() {
+    String[] names = errorOutputDir.list((dir, name) -> !name.startsWith("."));
+    Arrays.sort(names);
+    return Arrays.asList(names);
+  }
+}
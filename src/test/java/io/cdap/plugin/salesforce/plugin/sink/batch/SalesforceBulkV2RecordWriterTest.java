@@ -0,0 +1,202 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.sink.batch;
+
+import com.google.common.io.CharStreams;
+import com.google.gson.Gson;
+import io.cdap.plugin.salesforce.BulkV2Connection;
+import io.cdap.plugin.salesforce.BulkV2JobInfo;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link SalesforceBulkV2RecordWriter}.
+ */
+public class SalesforceBulkV2RecordWriterTest {
+
+  private static final Gson GSON = new Gson();
+  private static final List<String> COLUMNS = Collections.singletonList("Name");
+  // header and three records of 'Name <i>' fit into a job
+  private static final int MAX_BYTES_PER_JOB = 30;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private BulkV2Connection connection;
+  // uploaded csv content of each job, in the order of uploads
+  private List<String> uploads;
+
+  @Before
+  public void setUp() throws Exception {
+    connection = Mockito.mock(BulkV2Connection.class);
+    uploads = new ArrayList<>();
+    AtomicInteger jobs = new AtomicInteger();
+    Mockito.when(connection.createIngestJob(Mockito.anyString(), Mockito.anyString(), Mockito.anyString()))
+      .thenAnswer(invocation -> job("job-" + jobs.incrementAndGet(), BulkV2JobInfo.STATE_UPLOAD_COMPLETE, 0));
+    Mockito.doAnswer(invocation -> {
+      InputStream jobData = (InputStream) invocation.getArguments()[1];
+      uploads.add(CharStreams.toString(new InputStreamReader(jobData, StandardCharsets.UTF_8)));
+      return null;
+    }).when(connection).uploadIngestJobData(Mockito.anyString(), Mockito.any(InputStream.class));
+    Mockito.when(connection.awaitIngestJob(Mockito.anyString())).thenAnswer(
+      invocation -> job((String) invocation.getArguments()[0], BulkV2JobInfo.STATE_JOB_COMPLETE, 0));
+  }
+
+  @Test
+  public void testRecordsAreRolledOverToNextJob() throws Exception {
+    TaskAttemptContext context = mockContext(ErrorHandling.STOP, 0);
+    SalesforceBulkV2RecordWriter writer = new SalesforceBulkV2RecordWriter(context, connection, MAX_BYTES_PER_JOB);
+    for (int i = 0; i < 7; i++) {
+      writer.write(NullWritable.get(), record(i));
+    }
+    writer.close(context);
+    SalesforceBulkV2RecordWriter.commitTask(context);
+
+    // record which does not fit into a job is moved to the next job together with the header
+    Assert.assertEquals(Arrays.asList("Name\r\nName 0\r\nName 1\r\nName 2\r\n",
+                                      "Name\r\nName 3\r\nName 4\r\nName 5\r\n",
+                                      "Name\r\nName 6\r\n"), uploads);
+    for (String upload : uploads) {
+      Assert.assertTrue(upload.length() <= MAX_BYTES_PER_JOB);
+    }
+    Mockito.verify(connection, Mockito.times(3)).closeIngestJob(Mockito.anyString());
+    Mockito.verify(connection, Mockito.times(3)).awaitIngestJob(Mockito.anyString());
+    Mockito.verify(connection, Mockito.never()).getIngestFailedResults(Mockito.anyString());
+  }
+
+  @Test
+  public void testFailedResultsAreWrittenToErrorFile() throws Exception {
+    File errorOutputDir = temporaryFolder.newFolder("errors");
+    TaskAttemptContext context = mockContext(ErrorHandling.SKIP, 0);
+    context.getConfiguration().set(SalesforceSinkConstants.CONFIG_ERROR_OUTPUT_PATH,
+                                   errorOutputDir.toURI().toString());
+    Mockito.when(connection.awaitIngestJob("job-1"))
+      .thenReturn(job("job-1", BulkV2JobInfo.STATE_JOB_COMPLETE, 1));
+    Mockito.when(connection.getIngestFailedResults("job-1")).thenReturn(csv(
+      "\"sf__Id\",\"sf__Error\",Name\r\n\"\",\"REQUIRED_FIELD_MISSING:Required fields are missing\",\"\"\r\n"));
+
+    SalesforceBulkV2RecordWriter writer = new SalesforceBulkV2RecordWriter(context, connection, MAX_BYTES_PER_JOB);
+    writer.write(NullWritable.get(), record(0));
+    writer.close(context);
+    ErrorRecordWriter.commitTask(context);
+    SalesforceBulkV2RecordWriter.commitTask(context);
+
+    File errorFile = new File(errorOutputDir, String.format("errors-%s.csv",
+                                                            context.getTaskAttemptID().getTaskID()));
+    Assert.assertEquals(Arrays.asList("Name,error", "\"\",REQUIRED_FIELD_MISSING:Required fields are missing"),
+                        Files.readAllLines(errorFile.toPath(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testFailedResultsFailTask() throws Exception {
+    TaskAttemptContext context = mockContext(ErrorHandling.STOP, 0);
+    Mockito.when(connection.awaitIngestJob("job-1"))
+      .thenReturn(job("job-1", BulkV2JobInfo.STATE_JOB_COMPLETE, 1));
+    Mockito.when(connection.getIngestFailedResults("job-1")).thenReturn(csv(
+      "\"sf__Id\",\"sf__Error\",Name\r\n\"\",\"DUPLICATE_VALUE:duplicate value found\",\"Name 0\"\r\n"));
+
+    SalesforceBulkV2RecordWriter writer = new SalesforceBulkV2RecordWriter(context, connection, MAX_BYTES_PER_JOB);
+    writer.write(NullWritable.get(), record(0));
+    try {
+      writer.close(context);
+      Assert.fail("Close is expected to report the failed record");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("DUPLICATE_VALUE:duplicate value found"));
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("job-1"));
+    }
+    Mockito.verify(connection).close();
+  }
+
+  @Test
+  public void testUnprocessedJobsOfFailedAttemptAreAborted() throws Exception {
+    TaskAttemptContext context = mockContext(ErrorHandling.STOP, 0);
+    SalesforceBulkV2RecordWriter writer = new SalesforceBulkV2RecordWriter(context, connection, MAX_BYTES_PER_JOB);
+    // two jobs are uploaded before the task fails
+    for (int i = 0; i < 7; i++) {
+      writer.write(NullWritable.get(), record(i));
+    }
+    Mockito.when(connection.getIngestJobInfo("job-1"))
+      .thenReturn(job("job-1", BulkV2JobInfo.STATE_JOB_COMPLETE, 0));
+    Mockito.when(connection.getIngestJobInfo("job-2"))
+      .thenReturn(job("job-2", BulkV2JobInfo.STATE_UPLOAD_COMPLETE, 0));
+
+    SalesforceBulkV2RecordWriter.abortTask(context, connection);
+    Mockito.verify(connection, Mockito.never()).abortIngestJob("job-1");
+    Mockito.verify(connection).abortIngestJob("job-2");
+
+    // jobs are aborted only once
+    SalesforceBulkV2RecordWriter.abortTask(context, connection);
+    Mockito.verify(connection, Mockito.times(1)).abortIngestJob(Mockito.anyString());
+  }
+
+  @Test
+  public void testJobsOfCommittedAttemptAreNotAborted() throws Exception {
+    TaskAttemptContext context = mockContext(ErrorHandling.STOP, 1);
+    SalesforceBulkV2RecordWriter writer = new SalesforceBulkV2RecordWriter(context, connection, MAX_BYTES_PER_JOB);
+    writer.write(NullWritable.get(), record(0));
+    writer.close(context);
+    SalesforceBulkV2RecordWriter.commitTask(context);
+
+    SalesforceBulkV2RecordWriter.abortTask(context, connection);
+    Mockito.verify(connection, Mockito.never()).getIngestJobInfo(Mockito.anyString());
+    Mockito.verify(connection, Mockito.never()).abortIngestJob(Mockito.anyString());
+  }
+
+  private static TaskAttemptContext mockContext(ErrorHandling errorHandling, int attempt) {
+    Configuration conf = new Configuration();
+    conf.set(SalesforceSinkConstants.CONFIG_SOBJECT, "Account");
+    conf.set(SalesforceSinkConstants.CONFIG_OPERATION, "insert");
+    conf.set(SalesforceSinkConstants.CONFIG_ERROR_HANDLING, errorHandling.getValue());
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(conf);
+    Mockito.when(context.getTaskAttemptID()).thenReturn(new TaskAttemptID("job", 1, TaskType.REDUCE, 0, attempt));
+    return context;
+  }
+
+  private static BulkV2JobInfo job(String id, String state, long failedRecords) {
+    return GSON.fromJson(String.format("{\"id\": \"%s\", \"state\": \"%s\", \"numberRecordsFailed\": %d}",
+                                       id, state, failedRecords), BulkV2JobInfo.class);
+  }
+
+  private static InputStream csv(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static CSVRecord record(int index) {
+    return new CSVRecord(COLUMNS, Collections.singletonList("Name " + index));
+  }
+}
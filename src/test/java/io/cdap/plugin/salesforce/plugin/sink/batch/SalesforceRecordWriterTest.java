@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.sink.batch;
+
+import com.google.common.base.Throwables;
+import com.sforce.soap.partner.FieldType;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.local.LocalSObject;
+import io.cdap.plugin.salesforce.local.LocalSalesforceServer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.awaitility.Awaitility;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link SalesforceRecordWriter}.
+ */
+public class SalesforceRecordWriterTest {
+
+  private static final String SOBJECT_NAME = "Writer_Account__c";
+  private static final List<String> COLUMNS = Collections.singletonList("Name");
+  private static final int RECORDS_PER_BATCH = 10;
+  private static final String UPLOAD_FAILURE = "Injected batch upload failure";
+
+  private static LocalSalesforceServer server;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    server = new LocalSalesforceServer().start();
+    server.addSObject(SOBJECT_NAME, Collections.singletonList(LocalSObject.createField("Name", FieldType.string)), 0);
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Before
+  public void reset() {
+    server.reset();
+  }
+
+  @Test
+  public void testInFlightBatchesAreBounded() throws Exception {
+    server.setBatchUploadDelay(200, TimeUnit.MILLISECONDS);
+    SalesforceRecordWriter writer = createWriter(2);
+    for (int i = 0; i < RECORDS_PER_BATCH * 6; i++) {
+      writer.write(NullWritable.get(), record(i));
+    }
+    writer.close(null);
+
+    Assert.assertEquals(6, server.getRequestCount("bulk.createBatch"));
+    Assert.assertEquals(2, server.getMaxActiveBatchUploads());
+    Assert.assertEquals(RECORDS_PER_BATCH * 6, server.getRecordsIngested());
+  }
+
+  @Test
+  public void testFirstUploadFailureIsReported() throws Exception {
+    server.failNextBatchUploads(1);
+    SalesforceRecordWriter writer = createWriter(2);
+    for (int i = 0; i <= RECORDS_PER_BATCH; i++) {
+      writer.write(NullWritable.get(), record(i));
+    }
+    // failure is reported by one of the next writes, once the upload has failed
+    Awaitility.await()
+      .atMost(10, TimeUnit.SECONDS)
+      .untilAsserted(() -> {
+        try {
+          writer.write(NullWritable.get(), record(0));
+          Assert.fail("Write is expected to report the failed upload");
+        } catch (RuntimeException e) {
+          assertUploadFailure(e);
+        }
+      });
+
+    try {
+      writer.close(null);
+      Assert.fail("Close is expected to report the failed upload");
+    } catch (RuntimeException e) {
+      // uploads stopped by close do not replace the original failure
+      assertUploadFailure(e);
+    }
+  }
+
+  @Test
+  public void testCloseWaitsForUploadsAfterFailure() throws Exception {
+    server.failNextBatchUploads(1);
+    server.setBatchUploadDelay(500, TimeUnit.MILLISECONDS);
+    SalesforceRecordWriter writer = createWriter(2);
+    // first batch is uploaded once the record which does not fit into it is written
+    for (int i = 0; i <= RECORDS_PER_BATCH; i++) {
+      writer.write(NullWritable.get(), record(i));
+    }
+    Awaitility.await()
+      .atMost(10, TimeUnit.SECONDS)
+      .untilAsserted(() -> Assert.assertEquals(1, server.getRequestCount("bulk.createBatch")));
+
+    try {
+      // last batch is still being uploaded when the failure of the first one is reported
+      writer.close(null);
+      Assert.fail("Close is expected to report the failed upload");
+    } catch (RuntimeException e) {
+      assertUploadFailure(e);
+    }
+
+    // buffers are released only after all uploads have finished
+    Assert.assertEquals(0, server.getActiveBatchUploads());
+    Assert.assertEquals(1, server.getRecordsIngested());
+  }
+
+  @Test
+  public void testNoBatchIsSubmittedAfterFailure() throws Exception {
+    server.failNextBatchUploads(1);
+    SalesforceRecordWriter writer = createWriter(2);
+    for (int i = 0; i <= RECORDS_PER_BATCH; i++) {
+      writer.write(NullWritable.get(), record(i));
+    }
+    Awaitility.await()
+      .atMost(10, TimeUnit.SECONDS)
+      .untilAsserted(() -> {
+        try {
+          writer.write(NullWritable.get(), record(0));
+          Assert.fail("Write is expected to report the failed upload");
+        } catch (RuntimeException e) {
+          assertUploadFailure(e);
+        }
+      });
+
+    try {
+      // records left in the last buffer are not written to the job
+      writer.close(null);
+      Assert.fail("Close is expected to report the failed upload");
+    } catch (RuntimeException e) {
+      assertUploadFailure(e);
+    }
+    Assert.assertEquals(1, server.getRequestCount("bulk.createBatch"));
+    Assert.assertEquals(0, server.getRecordsIngested());
+  }
+
+  private static SalesforceRecordWriter createWriter(int maxInFlightBatches) throws Exception {
+    AuthenticatorCredentials credentials = server.getCredentials();
+    Configuration conf = new Configuration();
+    conf.set(SalesforceConstants.CONFIG_USERNAME, credentials.getUsername());
+    conf.set(SalesforceConstants.CONFIG_PASSWORD, credentials.getPassword());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_KEY, credentials.getConsumerKey());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_SECRET, credentials.getConsumerSecret());
+    conf.set(SalesforceConstants.CONFIG_LOGIN_URL, credentials.getLoginUrl());
+    conf.set(SalesforceSinkConstants.CONFIG_SOBJECT, SOBJECT_NAME);
+    conf.set(SalesforceSinkConstants.CONFIG_OPERATION, "insert");
+    conf.set(SalesforceSinkConstants.CONFIG_ERROR_HANDLING, ErrorHandling.STOP.getValue());
+    conf.set(SalesforceSinkConstants.CONFIG_MAX_BYTES_PER_BATCH, String.valueOf(10_000_000));
+    conf.set(SalesforceSinkConstants.CONFIG_MAX_RECORDS_PER_BATCH, String.valueOf(RECORDS_PER_BATCH));
+    conf.setInt(SalesforceSinkConstants.CONFIG_MAX_IN_FLIGHT_BATCHES, maxInFlightBatches);
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(conf);
+
+    // job is created by the committer, which sets its id in the configuration
+    new SalesforceOutputFormat().getOutputCommitter(context).setupJob(context);
+    return new SalesforceRecordWriter(context);
+  }
+
+  private static CSVRecord record(int index) {
+    return new CSVRecord(COLUMNS, Collections.singletonList("Name " + index));
+  }
+
+  private static void assertUploadFailure(Throwable failure) {
+    Assert.assertTrue(Throwables.getStackTraceAsString(failure), Throwables.getCausalChain(failure).stream()
+      .anyMatch(cause -> String.valueOf(cause.getMessage()).contains(UPLOAD_FAILURE)
+        || cause.toString().contains(UPLOAD_FAILURE)));
+  }
+}
@@ -19,6 +19,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -90,4 +92,37 @@ public class MapToRecordTransformerTest {
     Assert.assertEquals(ZonedDateTime.parse(arrayField.get(0).get("nested_timestamp"), DateTimeFormatter.ISO_DATE_TIME),
                         arrayRecord.get(0).getTimestamp("nested_timestamp", ZoneOffset.UTC));
   }
+
+  @Test
+  public void testTransformCSVRecord() throws Exception {
+    Schema schema = Schema.recordOf("output",
+      Schema.Field.of("Id", Schema.of(Schema.Type.STRING)),
+      Schema.Field.of("Amount", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
+      Schema.Field.of("CloseDate", Schema.nullableOf(Schema.of(Schema.LogicalType.DATE))),
+      Schema.Field.of("tablename", Schema.of(Schema.Type.STRING)));
+
+    String csv = "\"CloseDate\",\"Id\",\"Amount\"\n"
+      + "\"2019-01-01\",\"0061i000003XNcBAAW\",\"1500.0\"\n"
+      + "\"\",\"0061i000003XNcCAAW\",\"\"";
+
+    CSVParser csvParser = CSVParser.parse(csv, CSVFormat.DEFAULT.withHeader());
+    Map<String, Integer> header = csvParser.getHeaderMap();
+    List<org.apache.commons.csv.CSVRecord> csvRecords = csvParser.getRecords();
+
+    MapToRecordTransformer recordTransformer = new MapToRecordTransformer();
+    StructuredRecord first = recordTransformer.transform(
+      schema, new CSVRecordMap(header, csvRecords.get(0)).withEntry("tablename", "Opportunity"));
+    StructuredRecord second = recordTransformer.transform(
+      schema, new CSVRecordMap(header, csvRecords.get(1)).withEntry("tablename", "Opportunity"));
+
+    Assert.assertEquals("0061i000003XNcBAAW", first.get("Id"));
+    Assert.assertEquals(1500.0, (double) first.get("Amount"), 0.0);
+    Assert.assertEquals(LocalDate.of(2019, 1, 1), first.getDate("CloseDate"));
+    Assert.assertEquals("Opportunity", first.get("tablename"));
+
+    Assert.assertEquals("0061i000003XNcCAAW", second.get("Id"));
+    Assert.assertNull(second.get("Amount"));
+    Assert.assertNull(second.get("CloseDate"));
+    Assert.assertEquals("Opportunity", second.get("tablename"));
+  }
 }
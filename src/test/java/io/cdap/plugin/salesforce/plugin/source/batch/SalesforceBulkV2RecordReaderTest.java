@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import com.sforce.soap.partner.FieldType;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.BulkV2Connection;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.SalesforceMetrics;
+import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.local.LocalSObject;
+import io.cdap.plugin.salesforce.local.LocalSalesforceServer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests for {@link SalesforceBulkV2RecordReader}.
+ */
+public class SalesforceBulkV2RecordReaderTest {
+
+  private static final String SOBJECT_NAME = "V2_Opportunity__c";
+  private static final String QUERY = String.format("SELECT Id, Name FROM %s", SOBJECT_NAME);
+  private static final Schema SCHEMA = Schema.recordOf("output",
+                                                       Schema.Field.of("Id", Schema.of(Schema.Type.STRING)),
+                                                       Schema.Field.of("Name", Schema.nullableOf(
+                                                         Schema.of(Schema.Type.STRING))));
+
+  private static LocalSalesforceServer server;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    server = new LocalSalesforceServer().start();
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Before
+  public void reset() {
+    server.reset();
+  }
+
+  @Test
+  public void testAllPagesAreRead() throws Exception {
+    addSObject(10);
+    Set<Object> ids = readAll(4);
+    Assert.assertEquals(10, ids.size());
+    Assert.assertEquals(3, server.getRequestCount("rest.getQueryResults"));
+  }
+
+  @Test
+  public void testEmptyLastPageIsSkipped() throws Exception {
+    addSObject(8);
+    Set<Object> ids = readAll(4);
+    Assert.assertEquals(8, ids.size());
+    // the last page has the header only
+    Assert.assertEquals(3, server.getRequestCount("rest.getQueryResults"));
+  }
+
+  @Test
+  public void testProgressIsReportedAgainstAllPages() throws Exception {
+    addSObject(10);
+    TaskAttemptContext context = createContext();
+    SalesforceBulkV2RecordReader reader = new SalesforceBulkV2RecordReader(SCHEMA, 4);
+    try {
+      reader.initialize(new SalesforceSplit(createJob(), null, QUERY), context);
+      Assert.assertEquals(0.0f, reader.getProgress(), 0.0f);
+      for (int i = 1; i <= 10; i++) {
+        Assert.assertTrue(reader.nextKeyValue());
+        Assert.assertEquals(i / 10.0f, reader.getProgress(), 0.001f);
+      }
+      Assert.assertFalse(reader.nextKeyValue());
+      Assert.assertEquals(1.0f, reader.getProgress(), 0.0f);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static Set<Object> readAll(int maxRecordsPerPage) throws Exception {
+    TaskAttemptContext context = createContext();
+    SalesforceBulkV2RecordReader reader = new SalesforceBulkV2RecordReader(SCHEMA, maxRecordsPerPage);
+    Set<Object> ids = new HashSet<>();
+    try {
+      reader.initialize(new SalesforceSplit(createJob(), null, QUERY), context);
+      while (reader.nextKeyValue()) {
+        Assert.assertNotNull(reader.getCurrentValue().get("Name"));
+        ids.add(reader.getCurrentValue().get("Id"));
+      }
+    } finally {
+      reader.close();
+    }
+    return ids;
+  }
+
+  private static void addSObject(int records) {
+    server.addSObject(SOBJECT_NAME, Collections.singletonList(LocalSObject.createField("Name", FieldType.string)),
+                      records);
+  }
+
+  private static String createJob() throws Exception {
+    try (BulkV2Connection connection = new BulkV2Connection(
+      SalesforceConnectionUtil.getPartnerConnection(server.getCredentials()).getConfig(), SalesforceMetrics.NONE)) {
+      return connection.createQueryJob(QUERY).getId();
+    }
+  }
+
+  private static TaskAttemptContext createContext() {
+    AuthenticatorCredentials credentials = server.getCredentials();
+    Configuration conf = new Configuration();
+    conf.set(SalesforceConstants.CONFIG_USERNAME, credentials.getUsername());
+    conf.set(SalesforceConstants.CONFIG_PASSWORD, credentials.getPassword());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_KEY, credentials.getConsumerKey());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_SECRET, credentials.getConsumerSecret());
+    conf.set(SalesforceConstants.CONFIG_LOGIN_URL, credentials.getLoginUrl());
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(conf);
+    return context;
+  }
+}
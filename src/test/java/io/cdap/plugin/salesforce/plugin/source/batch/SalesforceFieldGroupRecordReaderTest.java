@@ -0,0 +1,232 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import com.google.gson.Gson;
+import com.sforce.soap.partner.Field;
+import com.sforce.soap.partner.FieldType;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.SalesforceQueryUtil;
+import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.local.LocalSObject;
+import io.cdap.plugin.salesforce.local.LocalSalesforceServer;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for {@link SalesforceFieldGroupRecordReader}.
+ */
+public class SalesforceFieldGroupRecordReaderTest {
+
+  private static final Gson GSON = new Gson();
+  private static final String SOBJECT_NAME = "Wide_Contact__c";
+  // long field names make the query exceed SOQL length limit
+  private static final int FIELD_COUNT = 1500;
+  private static final int ROWS = 4500;
+  private static final String LAST_FIELD = String.format("Wide_Contact_Field_%04d__c", FIELD_COUNT - 1);
+
+  private static LocalSalesforceServer server;
+  private static List<Field> fields;
+  private static LocalSObject sObject;
+  private static Schema schema;
+  private static String query;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    fields = new ArrayList<>();
+    List<Schema.Field> schemaFields = new ArrayList<>();
+    schemaFields.add(Schema.Field.of("Id", Schema.of(Schema.Type.STRING)));
+    for (int i = 0; i < FIELD_COUNT; i++) {
+      String name = String.format("Wide_Contact_Field_%04d__c", i);
+      boolean isInt = i % 10 == 9;
+      fields.add(LocalSObject.createField(name, isInt ? FieldType._int : FieldType.string));
+      Schema fieldSchema = Schema.of(isInt ? Schema.Type.INT : Schema.Type.STRING);
+      schemaFields.add(Schema.Field.of(name, Schema.nullableOf(fieldSchema)));
+    }
+    server = new LocalSalesforceServer().start();
+    sObject = server.addSObject(SOBJECT_NAME, fields, ROWS);
+    schema = Schema.recordOf("output", schemaFields);
+    query = SalesforceQueryUtil.createSObjectQuery(
+      schemaFields.stream().map(Schema.Field::getName).collect(Collectors.toList()), SOBJECT_NAME,
+      SObjectFilterDescriptor.noOp());
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Before
+  public void reset() {
+    server.reset();
+  }
+
+  @Test
+  public void testFieldGroupsAreJoined() throws Exception {
+    List<InputSplit> splits = readAndVerify(createConfiguration());
+
+    Assert.assertEquals(1, splits.size());
+    int groups = ((SalesforceFieldGroupSplit) splits.get(0)).getGroupSplits().size();
+    Assert.assertTrue(groups > 1);
+    Assert.assertEquals(groups, server.getRequestCount("bulk.createJob"));
+    Assert.assertEquals(0, server.getRequestCount("soap.retrieve"));
+  }
+
+  @Test
+  public void testPKChunkingIsNotUsedForFieldGroups() throws Exception {
+    Configuration conf = createConfiguration();
+    conf.setBoolean(SalesforceSourceConstants.CONFIG_PK_CHUNK_ENABLE, true);
+    conf.setInt(SalesforceSourceConstants.CONFIG_PK_CHUNK_SIZE, 2000);
+    List<InputSplit> splits = readAndVerify(conf);
+
+    Assert.assertEquals(1, splits.size());
+    int groups = ((SalesforceFieldGroupSplit) splits.get(0)).getGroupSplits().size();
+    Assert.assertEquals(groups, server.getRequestCount("bulk.createBatch"));
+    Assert.assertEquals(0, server.getRequestCount("soap.retrieve"));
+  }
+
+  @Test
+  public void testUnmatchedRowsFail() throws Exception {
+    SalesforceFieldGroupSplit split = createUnmatchedSplit("Wide_Lead__c");
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(createConfiguration());
+
+    SalesforceFieldGroupRecordReader reader = new SalesforceFieldGroupRecordReader(schema);
+    try {
+      reader.initialize(split, context);
+      for (int i = 0; i < 10; i++) {
+        Assert.assertTrue(reader.nextKeyValue());
+      }
+      reader.nextKeyValue();
+      Assert.fail("Reading is expected to fail on the unmatched row");
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("has no matching rows"));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testUnmatchedRowsAreSkipped() throws Exception {
+    SalesforceFieldGroupSplit split = createUnmatchedSplit("Wide_Account__c");
+    Configuration conf = createConfiguration();
+    conf.setBoolean(SalesforceSourceConstants.CONFIG_FIELD_GROUP_SKIP_UNMATCHED, true);
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(conf);
+
+    SalesforceFieldGroupRecordReader reader = new SalesforceFieldGroupRecordReader(schema);
+    int records = 0;
+    try {
+      reader.initialize(split, context);
+      while (reader.nextKeyValue()) {
+        records++;
+      }
+    } finally {
+      reader.close();
+    }
+    Assert.assertEquals(10, records);
+  }
+
+  /**
+   * Creates a split of 10 records, where the last field group has one more row than the others,
+   * as if the record was created while the field group jobs were running.
+   */
+  private static SalesforceFieldGroupSplit createUnmatchedSplit(String sObjectName) throws Exception {
+    server.addSObject(sObjectName, fields, 10);
+    String sObjectQuery = query.replace(SOBJECT_NAME, sObjectName);
+    Configuration conf = createConfiguration();
+    conf.set(SalesforceSourceConstants.CONFIG_QUERIES, GSON.toJson(Collections.singletonList(sObjectQuery)));
+    conf.set(SalesforceSourceConstants.CONFIG_SCHEMAS,
+             GSON.toJson(Collections.singletonMap(sObjectName, schema.toString())));
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(conf);
+
+    SalesforceInputFormat inputFormat = new SalesforceInputFormat();
+    SalesforceFieldGroupSplit before = (SalesforceFieldGroupSplit) inputFormat.getSplits(context).get(0);
+    server.getSObject(sObjectName).create(Collections.singletonMap("Wide_Contact_Field_0000__c", "created"));
+    SalesforceFieldGroupSplit after = (SalesforceFieldGroupSplit) inputFormat.getSplits(context).get(0);
+
+    List<SalesforceSplit> groupSplits = new ArrayList<>(before.getGroupSplits());
+    int last = groupSplits.size() - 1;
+    groupSplits.set(last, after.getGroupSplits().get(last));
+    return new SalesforceFieldGroupSplit(sObjectQuery, groupSplits, before.getLength());
+  }
+
+  private static List<InputSplit> readAndVerify(Configuration conf) throws Exception {
+    Assert.assertFalse(SalesforceQueryUtil.isQueryUnderLengthLimit(query));
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(conf);
+
+    SalesforceInputFormat inputFormat = new SalesforceInputFormat();
+    List<InputSplit> splits = inputFormat.getSplits(context);
+    MapToRecordTransformer transformer = new MapToRecordTransformer();
+    Set<String> ids = new HashSet<>();
+    for (InputSplit split : splits) {
+      RecordReader<Schema, Map<String, ?>> reader = inputFormat.createRecordReader(split, context);
+      try {
+        reader.initialize(split, context);
+        while (reader.nextKeyValue()) {
+          StructuredRecord record = transformer.transform(schema, reader.getCurrentValue());
+          String id = record.get("Id");
+          long index = sObject.getIndex(id);
+          Map<String, String> values = sObject.getValues(index);
+          Assert.assertEquals(values.get("Wide_Contact_Field_0000__c"), record.get("Wide_Contact_Field_0000__c"));
+          Assert.assertEquals(Integer.valueOf(values.get(LAST_FIELD)), record.get(LAST_FIELD));
+          Assert.assertTrue(ids.add(id));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    Assert.assertEquals(ROWS, ids.size());
+    return splits;
+  }
+
+  private static Configuration createConfiguration() {
+    AuthenticatorCredentials credentials = server.getCredentials();
+    Configuration conf = new Configuration();
+    conf.set(SalesforceConstants.CONFIG_USERNAME, credentials.getUsername());
+    conf.set(SalesforceConstants.CONFIG_PASSWORD, credentials.getPassword());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_KEY, credentials.getConsumerKey());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_SECRET, credentials.getConsumerSecret());
+    conf.set(SalesforceConstants.CONFIG_LOGIN_URL, credentials.getLoginUrl());
+    conf.set(SalesforceSourceConstants.CONFIG_QUERIES, GSON.toJson(Collections.singletonList(query)));
+    conf.set(SalesforceSourceConstants.CONFIG_SCHEMAS,
+             GSON.toJson(Collections.singletonMap(SOBJECT_NAME, schema.toString())));
+    conf.set(SalesforceSourceConstants.CONFIG_WIDE_QUERY_STRATEGY, WideQueryStrategy.FIELD_GROUPS.name());
+    return conf;
+  }
+}
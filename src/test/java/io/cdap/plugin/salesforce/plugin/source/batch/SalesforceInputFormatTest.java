@@ -0,0 +1,327 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.sforce.async.BatchInfo;
+import com.sforce.async.BatchStateEnum;
+import com.sforce.async.BulkConnection;
+import com.sforce.soap.partner.FieldType;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SalesforceConnectionUtil;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.SalesforceQueryUtil;
+import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.local.LocalSObject;
+import io.cdap.plugin.salesforce.local.LocalSalesforceServer;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link SalesforceInputFormat}.
+ */
+public class SalesforceInputFormatTest {
+
+  private static final Gson GSON = new Gson();
+  private static final String SMALL_SOBJECT = "Small_Lead__c";
+  private static final String LARGE_SOBJECT = "Large_Lead__c";
+  private static final int SMALL_ROWS = 300;
+  private static final int LARGE_ROWS = 4500;
+  private static final String MODIFIED_SOBJECT = "Modified_Lead__c";
+  private static final int MODIFIED_ROWS = 6000;
+  private static final Schema SCHEMA = Schema.recordOf("output",
+                                                       Schema.Field.of("Id", Schema.of(Schema.Type.STRING)),
+                                                       Schema.Field.of("Name", Schema.of(Schema.Type.STRING)));
+
+  private static LocalSalesforceServer server;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    server = new LocalSalesforceServer().start();
+    server.addSObject(SMALL_SOBJECT, Collections.singletonList(LocalSObject.createField("Name", FieldType.string)),
+                      SMALL_ROWS);
+    server.addSObject(LARGE_SOBJECT, Collections.singletonList(LocalSObject.createField("Name", FieldType.string)),
+                      LARGE_ROWS);
+    // records are modified one per second starting with the first one
+    server.addSObject(MODIFIED_SOBJECT, Arrays.asList(LocalSObject.createField("Name", FieldType.string),
+                                                      LocalSObject.createField("LastModifiedDate", FieldType.datetime)),
+                      MODIFIED_ROWS);
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Before
+  public void reset() {
+    server.reset();
+  }
+
+  @Test
+  public void testLargerSplitsComeFirst() throws Exception {
+    TaskAttemptContext context = createContext(createConfiguration());
+    List<InputSplit> splits = new SalesforceInputFormat().getSplits(context);
+
+    Assert.assertEquals(2, splits.size());
+    Assert.assertTrue(((SalesforceSplit) splits.get(0)).getQuery().contains(LARGE_SOBJECT));
+    Assert.assertEquals(LARGE_ROWS, splits.get(0).getLength());
+    Assert.assertEquals(SMALL_ROWS, splits.get(1).getLength());
+  }
+
+  @Test
+  public void testPKChunkSplitLengths() throws Exception {
+    Configuration conf = createConfiguration();
+    conf.setBoolean(SalesforceSourceConstants.CONFIG_PK_CHUNK_ENABLE, true);
+    conf.setInt(SalesforceSourceConstants.CONFIG_PK_CHUNK_SIZE, 2000);
+    List<InputSplit> splits = new SalesforceInputFormat().getSplits(createContext(conf));
+
+    // 3 chunks of the large sObject and 1 chunk of the small one
+    Assert.assertEquals(4, splits.size());
+    for (int i = 1; i < splits.size(); i++) {
+      Assert.assertTrue(splits.get(i - 1).getLength() >= splits.get(i).getLength());
+    }
+    Assert.assertEquals(SMALL_ROWS, splits.get(3).getLength());
+  }
+
+  @Test
+  public void testPKChunkOriginalBatchIsSkipped() throws Exception {
+    Configuration conf = createConfiguration();
+    conf.set(SalesforceSourceConstants.CONFIG_QUERIES, GSON.toJson(Collections.singletonList(
+      String.format("SELECT Id,Name FROM %s", LARGE_SOBJECT))));
+    conf.setBoolean(SalesforceSourceConstants.CONFIG_PK_CHUNK_ENABLE, true);
+    conf.setInt(SalesforceSourceConstants.CONFIG_PK_CHUNK_SIZE, 2000);
+    List<InputSplit> splits = new SalesforceInputFormat().getSplits(createContext(conf));
+
+    // original batch is not processed by Salesforce, so only 3 chunk batches are read
+    Assert.assertEquals(1, server.getRequestCount("bulk.createBatch"));
+    Assert.assertEquals(3, splits.size());
+    BulkConnection bulkConnection = new BulkConnection(SalesforceConnectionUtil.getConnectorConfig(conf));
+    Set<String> batchIds = new HashSet<>();
+    for (InputSplit split : splits) {
+      SalesforceSplit salesforceSplit = (SalesforceSplit) split;
+      BatchInfo batch = bulkConnection.getBatchInfo(salesforceSplit.getJobId(), salesforceSplit.getBatchId());
+      Assert.assertNotEquals(BatchStateEnum.NotProcessed, batch.getState());
+      batchIds.add(batch.getId());
+    }
+    Assert.assertEquals(3, batchIds.size());
+  }
+
+  @Test
+  public void testRestrictedQueryIsNotPKChunked() throws Exception {
+    Configuration conf = createConfiguration();
+    conf.set(SalesforceSourceConstants.CONFIG_QUERIES, GSON.toJson(Collections.singletonList(
+      String.format("SELECT Id,Name FROM %s LIMIT 3000 OFFSET 10", LARGE_SOBJECT))));
+    conf.setBoolean(SalesforceSourceConstants.CONFIG_PK_CHUNK_ENABLE, true);
+    conf.setInt(SalesforceSourceConstants.CONFIG_PK_CHUNK_SIZE, 2000);
+    List<InputSplit> splits = new SalesforceInputFormat().getSplits(createContext(conf));
+
+    // restricted query is read using SOAP API by a single split, so the job is created without PK chunking
+    Assert.assertEquals(1, splits.size());
+    Assert.assertEquals(1, server.getRequestCount("bulk.createBatch"));
+  }
+
+  @Test
+  public void testPKChunkHeaderValue() {
+    Configuration conf = new Configuration();
+    Assert.assertEquals("chunkSize=" + SalesforceSourceConstants.DEFAULT_PK_CHUNK_SIZE,
+                        SalesforceInputFormat.getPKChunkHeaderValue(conf));
+
+    conf.setInt(SalesforceSourceConstants.CONFIG_PK_CHUNK_SIZE, 2000);
+    conf.set(SalesforceSourceConstants.CONFIG_PK_CHUNK_PARENT, "");
+    Assert.assertEquals("chunkSize=2000", SalesforceInputFormat.getPKChunkHeaderValue(conf));
+
+    conf.set(SalesforceSourceConstants.CONFIG_PK_CHUNK_PARENT, "Account");
+    Assert.assertEquals("chunkSize=2000; parent=Account", SalesforceInputFormat.getPKChunkHeaderValue(conf));
+  }
+
+  @Test
+  public void testProgressIsReported() throws Exception {
+    TaskAttemptContext context = createContext(createConfiguration());
+    SalesforceInputFormat inputFormat = new SalesforceInputFormat();
+    InputSplit split = inputFormat.getSplits(context).get(0);
+
+    RecordReader<Schema, Map<String, ?>> reader = inputFormat.createRecordReader(split, context);
+    try {
+      reader.initialize(split, context);
+      Assert.assertEquals(0.0f, reader.getProgress(), 0.0f);
+      for (int i = 0; i < LARGE_ROWS / 3; i++) {
+        Assert.assertTrue(reader.nextKeyValue());
+      }
+      Assert.assertEquals(1.0f / 3, reader.getProgress(), 0.01f);
+      while (reader.nextKeyValue()) {
+        Assert.assertTrue(reader.getProgress() <= 1.0f);
+      }
+      Assert.assertEquals(1.0f, reader.getProgress(), 0.0f);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void testIdRangeSplits() throws Exception {
+    Configuration conf = createConfiguration();
+    conf.setInt(SalesforceSourceConstants.CONFIG_ID_RANGE_PARTITIONS, 3);
+    TaskAttemptContext context = createContext(conf);
+    SalesforceInputFormat inputFormat = new SalesforceInputFormat();
+    List<InputSplit> splits = inputFormat.getSplits(context);
+
+    // large sObject has enough records for 2 ranges only, small one is not split
+    Assert.assertEquals(3, splits.size());
+    Assert.assertEquals(LARGE_ROWS / 2, splits.get(0).getLength());
+    Assert.assertEquals(LARGE_ROWS / 2, splits.get(1).getLength());
+    Assert.assertEquals(SMALL_ROWS, splits.get(2).getLength());
+    Assert.assertEquals(1, server.getRequestCount("soap.queryMore"));
+
+    Set<Object> ids = new HashSet<>();
+    for (InputSplit split : splits) {
+      RecordReader<Schema, Map<String, ?>> reader = inputFormat.createRecordReader(split, context);
+      try {
+        reader.initialize(split, context);
+        while (reader.nextKeyValue()) {
+          Assert.assertTrue(ids.add(reader.getCurrentValue().get("Id")));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    Assert.assertEquals(LARGE_ROWS + SMALL_ROWS, ids.size());
+  }
+
+  @Test
+  public void testEvenTimeWindowShards() throws Exception {
+    Configuration conf = createTimeWindowConfiguration(TimeWindowShardStrategy.EVEN);
+    TaskAttemptContext context = createContext(conf);
+    SalesforceInputFormat inputFormat = new SalesforceInputFormat();
+    List<InputSplit> splits = inputFormat.getSplits(context);
+
+    Assert.assertEquals(3, splits.size());
+    Assert.assertEquals(1, server.getRequestCount("bulk.createJob"));
+    Set<Object> ids = new HashSet<>();
+    List<Integer> counts = new ArrayList<>();
+    for (InputSplit split : splits) {
+      // records are assumed to be evenly distributed within the window
+      Assert.assertEquals(MODIFIED_ROWS / 3, split.getLength());
+      counts.add(readIds(inputFormat, split, context, ids));
+    }
+    Assert.assertEquals(MODIFIED_ROWS, ids.size());
+    // records are modified within the second half of the window, so the first sub-interval is empty
+    Collections.sort(counts);
+    Assert.assertEquals(Arrays.asList(0, MODIFIED_ROWS / 3, MODIFIED_ROWS * 2 / 3), counts);
+  }
+
+  @Test
+  public void testAdaptiveTimeWindowShards() throws Exception {
+    Configuration conf = createTimeWindowConfiguration(TimeWindowShardStrategy.ADAPTIVE);
+    TaskAttemptContext context = createContext(conf);
+    SalesforceInputFormat inputFormat = new SalesforceInputFormat();
+    List<InputSplit> splits = inputFormat.getSplits(context);
+
+    Assert.assertEquals(3, splits.size());
+    Assert.assertEquals(1, server.getRequestCount("bulk.createJob"));
+    Set<Object> ids = new HashSet<>();
+    for (InputSplit split : splits) {
+      // number of records is counted rather than estimated
+      Assert.assertTrue(split.getLength() > MODIFIED_ROWS / 4 && split.getLength() < MODIFIED_ROWS / 2);
+      Assert.assertEquals(split.getLength(), readIds(inputFormat, split, context, ids));
+    }
+    Assert.assertEquals(MODIFIED_ROWS, ids.size());
+  }
+
+  private static int readIds(SalesforceInputFormat inputFormat, InputSplit split, TaskAttemptContext context,
+                             Set<Object> ids) throws Exception {
+    int records = 0;
+    RecordReader<Schema, Map<String, ?>> reader = inputFormat.createRecordReader(split, context);
+    try {
+      reader.initialize(split, context);
+      while (reader.nextKeyValue()) {
+        Assert.assertTrue(ids.add(reader.getCurrentValue().get("Id")));
+        records++;
+      }
+    } finally {
+      reader.close();
+    }
+    return records;
+  }
+
+  /**
+   * Window spans twice as many seconds as there are records, records are modified within its second half.
+   */
+  private static Configuration createTimeWindowConfiguration(TimeWindowShardStrategy strategy) {
+    Instant firstModified = Instant.parse(server.getSObject(MODIFIED_SOBJECT).getValues(0).get("LastModifiedDate"));
+    ZonedDateTime start = ZonedDateTime.ofInstant(firstModified.minusSeconds(MODIFIED_ROWS), ZoneOffset.UTC);
+    ZonedDateTime end = ZonedDateTime.ofInstant(firstModified.plusSeconds(MODIFIED_ROWS), ZoneOffset.UTC);
+    String query = SalesforceQueryUtil.createSObjectQuery(Arrays.asList("Id", "Name"), MODIFIED_SOBJECT,
+                                                          SObjectFilterDescriptor.interval(start, end));
+
+    Configuration conf = createConfiguration();
+    conf.set(SalesforceSourceConstants.CONFIG_QUERIES, GSON.toJson(Collections.singletonList(query)));
+    conf.set(SalesforceSourceConstants.CONFIG_SCHEMAS,
+             GSON.toJson(Collections.singletonMap(MODIFIED_SOBJECT, SCHEMA.toString())));
+    conf.setInt(SalesforceSourceConstants.CONFIG_TIME_WINDOW_SHARDS, 3);
+    conf.set(SalesforceSourceConstants.CONFIG_TIME_WINDOW_SHARD_STRATEGY, strategy.name());
+    conf.set(SalesforceSourceConstants.CONFIG_TIME_WINDOWS, GSON.toJson(Collections.singletonMap(
+      MODIFIED_SOBJECT, ImmutableMap.of(
+        SalesforceSourceConstants.TIME_WINDOW_FIELD, SObjectFilterDescriptor.FIELD_LAST_MODIFIED_DATE,
+        SalesforceSourceConstants.TIME_WINDOW_START, start.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME),
+        SalesforceSourceConstants.TIME_WINDOW_END, end.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME)))));
+    return conf;
+  }
+
+  private static TaskAttemptContext createContext(Configuration conf) {
+    TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+    Mockito.when(context.getConfiguration()).thenReturn(conf);
+    return context;
+  }
+
+  private static Configuration createConfiguration() {
+    AuthenticatorCredentials credentials = server.getCredentials();
+    Configuration conf = new Configuration();
+    conf.set(SalesforceConstants.CONFIG_USERNAME, credentials.getUsername());
+    conf.set(SalesforceConstants.CONFIG_PASSWORD, credentials.getPassword());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_KEY, credentials.getConsumerKey());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_SECRET, credentials.getConsumerSecret());
+    conf.set(SalesforceConstants.CONFIG_LOGIN_URL, credentials.getLoginUrl());
+    conf.set(SalesforceSourceConstants.CONFIG_QUERIES, GSON.toJson(Arrays.asList(
+      String.format("SELECT Id,Name FROM %s", SMALL_SOBJECT), String.format("SELECT Id,Name FROM %s", LARGE_SOBJECT))));
+    conf.set(SalesforceSourceConstants.CONFIG_SCHEMAS, GSON.toJson(
+      ImmutableMap.of(SMALL_SOBJECT, SCHEMA.toString(), LARGE_SOBJECT, SCHEMA.toString())));
+    return conf;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import com.sforce.soap.partner.FieldType;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.local.LocalSObject;
+import io.cdap.plugin.salesforce.local.LocalSalesforceServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * Tests for {@link SalesforceMultiSourceConfig}.
+ */
+public class SalesforceMultiSourceConfigTest {
+
+  private static final String SOBJECT_NAME = "Multi_Account__c";
+
+  private static LocalSalesforceServer server;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    server = new LocalSalesforceServer().start();
+    server.addSObject(SOBJECT_NAME, Collections.singletonList(LocalSObject.createField("Name", FieldType.string)), 1);
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Test
+  public void testSObjectsPlan() throws Exception {
+    SalesforceMultiSourceConfig.SObjectsPlan plan = createConfig(SOBJECT_NAME, null)
+      .getSObjectsPlan(sObject -> SObjectFilterDescriptor.noOp());
+
+    Assert.assertEquals(Collections.singletonList("SELECT Id,Name FROM " + SOBJECT_NAME), plan.getQueries());
+    Assert.assertEquals(Collections.singleton(SOBJECT_NAME), plan.getSchemas().keySet());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoSObjectsLeftAfterWhiteList() throws Exception {
+    createConfig("Missing_Object__c", null).getSObjectsPlan(sObject -> SObjectFilterDescriptor.noOp());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoSObjectsLeftAfterBlackList() throws Exception {
+    String allSObjects = SOBJECT_NAME + "," + LocalSalesforceServer.PUSH_TOPIC;
+    createConfig(allSObjects, allSObjects).getSObjectsPlan(sObject -> SObjectFilterDescriptor.noOp());
+  }
+
+  private static SalesforceMultiSourceConfig createConfig(String whiteList, String blackList) {
+    AuthenticatorCredentials credentials = server.getCredentials();
+    return new SalesforceMultiSourceConfig("multiSource", credentials.getConsumerKey(),
+                                           credentials.getConsumerSecret(), credentials.getUsername(),
+                                           credentials.getPassword(), credentials.getLoginUrl(),
+                                           null, null, null, null, whiteList, blackList, null);
+  }
+}
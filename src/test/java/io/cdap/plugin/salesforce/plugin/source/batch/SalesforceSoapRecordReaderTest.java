@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import com.sforce.soap.partner.FieldType;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.local.LocalSObject;
+import io.cdap.plugin.salesforce.local.LocalSalesforceServer;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.awaitility.Awaitility;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link SalesforceSoapRecordReader}.
+ */
+public class SalesforceSoapRecordReaderTest {
+
+  private static final String SOBJECT_NAME = "Soap_Opportunity__c";
+  private static final int ROWS = 1000;
+  private static final int BATCH_SIZE = 200;
+
+  @Test
+  public void testNextPageIsPrefetched() throws Exception {
+    try (LocalSalesforceServer server = new LocalSalesforceServer().start()) {
+      server.addSObject(SOBJECT_NAME, Collections.singletonList(LocalSObject.createField("Name", FieldType.string)),
+                        ROWS);
+      Schema schema = Schema.recordOf("output",
+                                      Schema.Field.of("Id", Schema.of(Schema.Type.STRING)),
+                                      Schema.Field.of("Name", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+      Configuration conf = createConfiguration(server.getCredentials());
+      conf.setInt(SalesforceSourceConstants.CONFIG_SOAP_QUERY_BATCH_SIZE, BATCH_SIZE);
+      TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+      Mockito.when(context.getConfiguration()).thenReturn(conf);
+
+      SalesforceSoapRecordReader reader = new SalesforceSoapRecordReader(
+        schema, String.format("SELECT Id, Name FROM %s", SOBJECT_NAME), new SoapRecordToMapTransformer());
+      Set<Object> ids = new HashSet<>();
+      try {
+        reader.initialize(new SalesforceSplit(), context);
+        Assert.assertTrue(reader.nextKeyValue());
+        ids.add(reader.getCurrentValue().get("Id"));
+        // second page is requested while the first one is read, the third one is not requested yet
+        Awaitility.await()
+          .atMost(10, TimeUnit.SECONDS)
+          .untilAsserted(() -> Assert.assertEquals(1, server.getRequestCount("soap.queryMore")));
+
+        while (reader.nextKeyValue()) {
+          Assert.assertNotNull(reader.getCurrentValue().get("Name"));
+          ids.add(reader.getCurrentValue().get("Id"));
+        }
+        Assert.assertEquals(1.0f, reader.getProgress(), 0.0f);
+      } finally {
+        reader.close();
+      }
+
+      Assert.assertEquals(ROWS, ids.size());
+      Assert.assertEquals(1, server.getRequestCount("soap.query"));
+      Assert.assertEquals(ROWS / BATCH_SIZE - 1, server.getRequestCount("soap.queryMore"));
+    }
+  }
+
+  private static Configuration createConfiguration(AuthenticatorCredentials credentials) {
+    Configuration conf = new Configuration();
+    conf.set(SalesforceConstants.CONFIG_USERNAME, credentials.getUsername());
+    conf.set(SalesforceConstants.CONFIG_PASSWORD, credentials.getPassword());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_KEY, credentials.getConsumerKey());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_SECRET, credentials.getConsumerSecret());
+    conf.set(SalesforceConstants.CONFIG_LOGIN_URL, credentials.getLoginUrl());
+    return conf;
+  }
+}
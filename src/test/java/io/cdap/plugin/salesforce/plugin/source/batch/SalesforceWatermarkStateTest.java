@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+
+/**
+ * Tests for {@link SalesforceWatermarkState}.
+ */
+public class SalesforceWatermarkStateTest {
+
+  private static final ZonedDateTime WATERMARK = ZonedDateTime.parse("2019-04-12T23:23:23Z");
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testMissingStateIsEmpty() throws Exception {
+    SalesforceWatermarkState state = SalesforceWatermarkState.load(new Configuration(), getPath("state.json"));
+
+    Assert.assertNull(state.get("Opportunity"));
+  }
+
+  @Test
+  public void testSavedWatermarksAreLoaded() throws Exception {
+    Path path = getPath("state.json");
+    SalesforceWatermarkState state = SalesforceWatermarkState.load(new Configuration(), path);
+    state.put("Opportunity", WATERMARK);
+    state.save();
+
+    SalesforceWatermarkState loaded = SalesforceWatermarkState.load(new Configuration(), path);
+    Assert.assertEquals(WATERMARK, loaded.get("Opportunity"));
+    Assert.assertNull(loaded.get("Account"));
+
+    // watermarks of sObjects which are not read by the next run are kept
+    loaded.put("Account", WATERMARK.plusDays(1));
+    loaded.save();
+
+    SalesforceWatermarkState updated = SalesforceWatermarkState.load(new Configuration(), path);
+    Assert.assertEquals(WATERMARK, updated.get("Opportunity"));
+    Assert.assertEquals(WATERMARK.plusDays(1), updated.get("Account"));
+    Assert.assertFalse(new File(path.toUri().getPath() + ".tmp").exists());
+  }
+
+  @Test
+  public void testTemporaryStateIsLoadedIfNotRenamed() throws Exception {
+    Path path = getPath("state.json");
+    Files.write(new File(path.toUri().getPath() + ".tmp").toPath(),
+                "{\"Opportunity\":\"2019-04-12T23:23:23Z\"}".getBytes(StandardCharsets.UTF_8));
+
+    SalesforceWatermarkState state = SalesforceWatermarkState.load(new Configuration(), path);
+    Assert.assertEquals(WATERMARK, state.get("Opportunity"));
+  }
+
+  private Path getPath(String name) {
+    return new Path(new File(temporaryFolder.getRoot(), name).toURI());
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.cdap.plugin.salesforce.plugin.source.batch;
+
+import com.google.gson.Gson;
+import com.sforce.soap.partner.Field;
+import com.sforce.soap.partner.FieldType;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.plugin.salesforce.SObjectFilterDescriptor;
+import io.cdap.plugin.salesforce.SalesforceConstants;
+import io.cdap.plugin.salesforce.SalesforceQueryUtil;
+import io.cdap.plugin.salesforce.authenticator.AuthenticatorCredentials;
+import io.cdap.plugin.salesforce.local.LocalSObject;
+import io.cdap.plugin.salesforce.local.LocalSalesforceServer;
+import io.cdap.plugin.salesforce.plugin.source.batch.util.SalesforceSourceConstants;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for {@link SalesforceWideRecordReader}.
+ */
+public class SalesforceWideRecordReaderTest {
+
+  private static final Gson GSON = new Gson();
+  private static final String SOBJECT_NAME = "Wide_Account__c";
+  // long field names make the query exceed SOQL length limit
+  private static final int FIELD_COUNT = 800;
+  private static final int ROWS = 4500;
+
+  @Test
+  public void testRecordsAreStreamed() throws Exception {
+    try (LocalSalesforceServer server = new LocalSalesforceServer().start()) {
+      List<Field> fields = new ArrayList<>();
+      List<Schema.Field> schemaFields = new ArrayList<>();
+      fields.add(LocalSObject.createField("Id", FieldType.id));
+      schemaFields.add(Schema.Field.of("Id", Schema.of(Schema.Type.STRING)));
+      for (int i = 0; i < FIELD_COUNT; i++) {
+        String name = String.format("Wide_Account_Field_%03d__c", i);
+        fields.add(LocalSObject.createField(name, FieldType.string));
+        schemaFields.add(Schema.Field.of(name, Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+      }
+      server.addSObject(SOBJECT_NAME, fields, ROWS);
+
+      String query = SalesforceQueryUtil.createSObjectQuery(
+        schemaFields.stream().map(Schema.Field::getName).collect(Collectors.toList()),
+        SOBJECT_NAME, SObjectFilterDescriptor.noOp());
+      Assert.assertFalse(SalesforceQueryUtil.isQueryUnderLengthLimit(query));
+      Schema schema = Schema.recordOf("output", schemaFields);
+
+      Configuration conf = createConfiguration(server.getCredentials());
+      conf.set(SalesforceSourceConstants.CONFIG_QUERIES, GSON.toJson(Collections.singletonList(query)));
+      conf.set(SalesforceSourceConstants.CONFIG_SCHEMAS,
+               GSON.toJson(Collections.singletonMap(SOBJECT_NAME, schema.toString())));
+      conf.setInt(SalesforceSourceConstants.CONFIG_WIDE_RETRIEVE_THREADS, 1);
+      TaskAttemptContext context = Mockito.mock(TaskAttemptContext.class);
+      Mockito.when(context.getConfiguration()).thenReturn(conf);
+
+      SalesforceInputFormat inputFormat = new SalesforceInputFormat();
+      List<InputSplit> splits = inputFormat.getSplits(context);
+      Assert.assertEquals(1, splits.size());
+
+      Set<Object> ids = new HashSet<>();
+      RecordReader<Schema, Map<String, ?>> reader = inputFormat.createRecordReader(splits.get(0), context);
+      try {
+        reader.initialize(splits.get(0), context);
+        Assert.assertEquals(0, server.getRequestCount("soap.retrieve"));
+
+        Assert.assertTrue(reader.nextKeyValue());
+        // first records are read while the second partition is retrieved, the third one is not submitted yet
+        Assert.assertTrue(server.getRequestCount("soap.retrieve") <= 2);
+        // progress counts emitted records, not Ids read ahead for the in-flight partitions
+        Assert.assertEquals(1.0f / ROWS, reader.getProgress(), 0.0001f);
+        ids.add(reader.getCurrentValue().get("Id"));
+        while (reader.nextKeyValue()) {
+          Map<String, ?> record = reader.getCurrentValue();
+          Assert.assertTrue(record.containsKey("Wide_Account_Field_000__c"));
+          ids.add(record.get("Id"));
+        }
+        Assert.assertEquals(1.0f, reader.getProgress(), 0.0f);
+      } finally {
+        reader.close();
+      }
+
+      Assert.assertEquals(ROWS, ids.size());
+      int partitions = (ROWS + SalesforceSourceConstants.WIDE_QUERY_MAX_BATCH_COUNT - 1)
+        / SalesforceSourceConstants.WIDE_QUERY_MAX_BATCH_COUNT;
+      Assert.assertEquals(partitions, server.getRequestCount("soap.retrieve"));
+    }
+  }
+
+  private static Configuration createConfiguration(AuthenticatorCredentials credentials) {
+    Configuration conf = new Configuration();
+    conf.set(SalesforceConstants.CONFIG_USERNAME, credentials.getUsername());
+    conf.set(SalesforceConstants.CONFIG_PASSWORD, credentials.getPassword());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_KEY, credentials.getConsumerKey());
+    conf.set(SalesforceConstants.CONFIG_CONSUMER_SECRET, credentials.getConsumerSecret());
+    conf.set(SalesforceConstants.CONFIG_LOGIN_URL, credentials.getLoginUrl());
+    conf.set(SalesforceConstants.CONFIG_METRICS_KEY, "source");
+    return conf;
+  }
+}